@@ -0,0 +1,33 @@
+package mjiricek.spring;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * The class with main method of the reactive variant of the application (Spring WebFlux on Netty)
+ * - the same database, configuration and replication as ApplicationMain, but the pages and the API
+ * are served by the controllers of the package mjiricek.spring.reactive instead of mjiricek.spring.controllers
+ * - runs with the profile "reactive" (application-reactive.properties), the reactive beans exist only in it
+ * (so the servlet variant ignores them)
+ */
+@SpringBootApplication(scanBasePackages = {
+        "mjiricek.spring.config",
+        "mjiricek.spring.models",
+        "mjiricek.spring.replication",
+        "mjiricek.spring.reactive"})
+@Profile("reactive")
+public class ReactiveApplicationMain {
+    /**
+     * main method
+     * @param args arguments passed by the caller
+     */
+    public static void main(String[] args) {
+        // start the spring boot application as a reactive web application
+        SpringApplication application = new SpringApplication(ReactiveApplicationMain.class);
+        application.setWebApplicationType(WebApplicationType.REACTIVE);
+        application.setAdditionalProfiles("reactive");
+        application.run(args);
+    }
+}
@@ -0,0 +1,105 @@
+package mjiricek.spring.admission;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Admission control of the requests of the pages and the API (overload protection)
+ * - reads (GET, HEAD) and writes (the other methods) have separate adaptive limits (ConcurrencyLimit):
+ * the page locks are fair, so every write waiting for the write lock makes all the reads that come after it
+ * wait too - a burst of writes would otherwise queue all the readers behind it; a small write limit bounds
+ * how many writes can stand in front of the readers, and a flood of reads can't starve the writes of their places
+ * - a request waits at most queueTimeoutMillis for its place, then it's rejected with
+ * 503 Service Unavailable and Retry-After (AdmissionInterceptor, ReactiveAdmissionFilter)
+ */
+public class AdmissionControl {
+    /**
+     * limit of the reads
+     */
+    private final ConcurrencyLimit readLimit;
+
+    /**
+     * limit of the writes
+     */
+    private final ConcurrencyLimit writeLimit;
+
+    /**
+     * maximal waiting time of a request in milliseconds
+     */
+    private final long queueTimeoutMillis;
+
+    /**
+     * value of the header Retry-After of a rejected request (in seconds)
+     */
+    private final long retryAfterSeconds;
+
+    /**
+     * Constructor
+     * @param readLimit limit of the reads
+     * @param writeLimit limit of the writes
+     * @param queueTimeoutMillis maximal waiting time of a request in milliseconds
+     * @param retryAfterSeconds value of the header Retry-After of a rejected request
+     */
+    public AdmissionControl(ConcurrencyLimit readLimit, ConcurrencyLimit writeLimit,
+                            long queueTimeoutMillis, long retryAfterSeconds) {
+        this.readLimit = readLimit;
+        this.writeLimit = writeLimit;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * returns limit of the requests with the http method
+     * @param httpMethod method of the request (GET, POST, PUT, ...)
+     * @return limit of the reads for GET and HEAD, limit of the writes otherwise
+     */
+    public ConcurrencyLimit limitFor(String httpMethod) {
+        return "GET".equals(httpMethod) || "HEAD".equals(httpMethod) ? readLimit : writeLimit;
+    }
+
+    /**
+     * returns maximal waiting time of a request
+     * @return waiting time in milliseconds
+     */
+    public long getQueueTimeoutMillis() {
+        return queueTimeoutMillis;
+    }
+
+    /**
+     * returns value of the header Retry-After of a rejected request
+     * @return number of seconds
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * returns both limits to their initial state and clears their statistics
+     */
+    public void reset() {
+        readLimit.reset();
+        writeLimit.reset();
+    }
+
+    /**
+     * returns state of both limits
+     * @return map with the statistics of the reads and the writes
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("queueTimeoutMillis", queueTimeoutMillis);
+        statistics.put("reads", readLimit.getStatistics());
+        statistics.put("writes", writeLimit.getStatistics());
+        return statistics;
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * @return String with the statistics
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of AdmissionControl " + super.toString() + ":%n" +
+                "statistics: " + getStatistics() + "%n");
+    }
+}
@@ -0,0 +1,139 @@
+package mjiricek.spring.admission;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Admits the requests of the controllers through AdmissionControl
+ * - the request thread waits for the place of its request at most the queue timeout,
+ * a request which doesn't get it is rejected with 503 Service Unavailable and Retry-After
+ * - the wait blocks a servlet thread, so only maxWaitingThreads requests may wait at once (well below the size
+ * of the Tomcat pool), the others are rejected right away - the rest of the pool stays free for the admitted
+ * requests and for the endpoints which aren't limited (monitoring, readiness)
+ * - the place is freed when the response is complete (rendering included, the pages are read while rendered)
+ * - static resources aren't limited (they don't touch the database)
+ */
+public class AdmissionInterceptor implements AsyncHandlerInterceptor {
+    /**
+     * URL patterns which aren't limited: the change stream (its requests last as long as the client listens)
+     * and the monitoring and readiness endpoints (they have to answer just when the server is overloaded)
+     */
+    public static final String[] EXCLUDED_PATH_PATTERNS = {
+            "/api/changes", "/api/latency", "/api/admission", "/api/ready", "/error"};
+
+    /**
+     * request attribute with the ticket of the admitted request
+     */
+    private static final String TICKET_ATTRIBUTE = AdmissionInterceptor.class.getName() + ".ticket";
+
+    /**
+     * admission control of the requests
+     */
+    private final AdmissionControl admissionControl;
+
+    /**
+     * places of the request threads waiting for admission (the threads of the admitted requests don't hold one)
+     */
+    private final Semaphore waitingThreads;
+
+    /**
+     * Constructor
+     * @param admissionControl admission control of the requests
+     * @param maxWaitingThreads maximal number of request threads blocked waiting for admission at once
+     * @throws IllegalArgumentException if the number of waiting threads isn't positive
+     */
+    public AdmissionInterceptor(AdmissionControl admissionControl, int maxWaitingThreads) throws IllegalArgumentException {
+        if (maxWaitingThreads <= 0)
+            throw new IllegalArgumentException("Invalid number of threads waiting for admission " + maxWaitingThreads);
+        this.admissionControl = admissionControl;
+        this.waitingThreads = new Semaphore(maxWaitingThreads);
+    }
+
+    /**
+     * waits for the admission of the request
+     * @return true if the request was admitted
+     * @throws ResponseStatusException (503) if the request wasn't admitted in time, the queue is full
+     * or too many request threads are waiting already
+     */
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws ResponseStatusException {
+        if (!(handler instanceof HandlerMethod))
+            return true;
+
+        ConcurrencyLimit.Ticket ticket = admissionControl.limitFor(request.getMethod()).acquire();
+        if (ticket == null)
+            throw reject(response);
+
+        if (!ticket.getAdmission().isDone()) { // queued - the thread would block
+            if (!waitingThreads.tryAcquire()) {
+                ticket.release();
+                throw reject(response);
+            }
+            try {
+                ticket.getAdmission().get(admissionControl.getQueueTimeoutMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                ticket.release();
+                throw reject(response);
+            } catch (InterruptedException e) {
+                ticket.release();
+                Thread.currentThread().interrupt();
+                throw reject(response);
+            } finally {
+                waitingThreads.release();
+            }
+        }
+        request.setAttribute(TICKET_ATTRIBUTE, ticket);
+        return true;
+    }
+
+    /**
+     * frees the place of the finished request
+     */
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        release(request);
+    }
+
+    /**
+     * frees the place of an asynchronous request (its handler returned, the response continues on another thread)
+     */
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                               Object handler) {
+        release(request);
+    }
+
+    /**
+     * releases the ticket of the request, if it has one
+     * @param request http request
+     */
+    private static void release(HttpServletRequest request) {
+        Object ticket = request.getAttribute(TICKET_ATTRIBUTE);
+        if (ticket != null) {
+            request.removeAttribute(TICKET_ATTRIBUTE);
+            ((ConcurrencyLimit.Ticket) ticket).release();
+        }
+    }
+
+    /**
+     * sets Retry-After of the rejected request
+     * @param response http response
+     * @return exception answering the request with 503
+     */
+    private ResponseStatusException reject(HttpServletResponse response) {
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(admissionControl.getRetryAfterSeconds()));
+        return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Server overloaded, retry later");
+    }
+}
@@ -0,0 +1,350 @@
+package mjiricek.spring.admission;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive limit of the number of requests of one kind (reads or writes) processed at once
+ * - a request above the limit waits in a bounded FIFO queue for a finished one, a full queue rejects it right away
+ * (the caller gives up waiting after its queue timeout and rejects it too)
+ * - the limit adapts to the observed latency (AIMD, like the congestion window of TCP):
+ * while the smoothed latency stays under the target and the limit is fully used, it grows by one per "limit"
+ * finished requests; once the latency (both the smoothed one and the one of the finished request) exceeds the target,
+ * it's cut by DECREASE_FACTOR (at most once per target latency, so one slow burst doesn't cut it to the minimum)
+ * - so under overload the requests queue in front of the application, where they can be rejected quickly,
+ * instead of on the page locks, where every waiting request makes the latency of the others worse
+ * - the waiting is non-blocking (CompletableFuture), so the reactive variant can wait without blocking its event loop
+ */
+public class ConcurrencyLimit {
+    /**
+     * the limit is multiplied by this factor when the latency exceeds the target
+     */
+    private static final double DECREASE_FACTOR = 0.9;
+
+    /**
+     * weight of a new sample in the smoothed latency (exponentially weighted moving average)
+     */
+    private static final double SMOOTHING = 0.1;
+
+    /**
+     * request admitted by the limit (or waiting for it)
+     * - has to be released exactly when the request is finished or given up, whatever its state
+     */
+    public class Ticket {
+        /**
+         * completed when the request is admitted, completed exceptionally when it's given up while waiting
+         */
+        private final CompletableFuture<Void> admission = new CompletableFuture<>();
+
+        /**
+         * time of admission (System.nanoTime())
+         */
+        private volatile long admittedNanos;
+
+        /**
+         * guard of the (only one) release
+         */
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /**
+         * returns future completed when the request is admitted
+         * @return future of the admission
+         */
+        public CompletableFuture<Void> getAdmission() {
+            return admission;
+        }
+
+        /**
+         * releases the ticket - a waiting request leaves the queue, an admitted one frees its place
+         * and its latency (from the admission) adapts the limit
+         * - repeated calls are ignored
+         */
+        public void release() {
+            if (!released.compareAndSet(false, true))
+                return;
+            // a waiting request is removed from the queue by the handler of the admission
+            if (admission.completeExceptionally(new CancellationException("Request given up while waiting")))
+                return;
+            finished(System.nanoTime() - admittedNanos);
+        }
+
+        /**
+         * admits the waiting request
+         * @return false if the request was already given up
+         */
+        private boolean admit() {
+            admittedNanos = System.nanoTime();
+            return admission.complete(null);
+        }
+    }
+
+    /**
+     * name of the limited requests (for the statistics)
+     */
+    private final String name;
+
+    /**
+     * limit at the start
+     */
+    private final int initialLimit;
+
+    /**
+     * the limit never goes below this
+     */
+    private final int minLimit;
+
+    /**
+     * the limit never goes above this
+     */
+    private final int maxLimit;
+
+    /**
+     * maximal number of waiting requests
+     */
+    private final int maxQueueLength;
+
+    /**
+     * latency the limit is kept under, in nanoseconds
+     */
+    private final long targetLatencyNanos;
+
+    /**
+     * lock of the state below
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * current limit (fractional, it grows by 1/limit)
+     */
+    private double limit;
+
+    /**
+     * number of admitted requests which haven't finished yet
+     */
+    private int inFlight = 0;
+
+    /**
+     * waiting requests in the order of arrival
+     */
+    private final ArrayDeque<Ticket> queue = new ArrayDeque<>();
+
+    /**
+     * smoothed latency of the finished requests in nanoseconds (0 = no request finished yet)
+     */
+    private double smoothedLatencyNanos = 0;
+
+    /**
+     * time of the last decrease of the limit (System.nanoTime())
+     */
+    private long lastDecreaseNanos = System.nanoTime();
+
+    /**
+     * number of admitted requests
+     */
+    private long admitted = 0;
+
+    /**
+     * number of requests rejected because of a full queue
+     */
+    private long rejected = 0;
+
+    /**
+     * number of requests given up while waiting (queue timeout, closed connection)
+     */
+    private long abandoned = 0;
+
+    /**
+     * Constructor
+     * @param name name of the limited requests (for the statistics)
+     * @param initialLimit limit at the start
+     * @param minLimit the limit never goes below this
+     * @param maxLimit the limit never goes above this
+     * @param maxQueueLength maximal number of waiting requests
+     * @param targetLatencyMillis latency the limit is kept under, in milliseconds
+     * @throws IllegalArgumentException if the limits aren't 1 <= minLimit <= initialLimit <= maxLimit
+     * or the queue length is negative or the target latency isn't positive
+     */
+    public ConcurrencyLimit(String name, int initialLimit, int minLimit, int maxLimit, int maxQueueLength,
+                            long targetLatencyMillis) throws IllegalArgumentException {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit)
+            throw new IllegalArgumentException("Invalid limits of " + name + ": min " + minLimit
+                    + ", initial " + initialLimit + ", max " + maxLimit);
+        if (maxQueueLength < 0 || targetLatencyMillis <= 0)
+            throw new IllegalArgumentException("Invalid queue length or target latency of " + name);
+
+        this.name = name;
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueueLength = maxQueueLength;
+        this.targetLatencyNanos = targetLatencyMillis * 1_000_000;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * asks for admission of a request
+     * - the returned ticket is either admitted already or waits in the queue
+     * @return ticket of the request, null if the queue is full (the request is rejected)
+     */
+    public Ticket acquire() {
+        Ticket ticket = new Ticket();
+        boolean admittedNow;
+        lock.lock(); // start of synchronized code block
+        try {
+            admittedNow = queue.isEmpty() && inFlight < (int) limit;
+            if (admittedNow) {
+                inFlight++;
+                admitted++;
+            } else if (queue.size() >= maxQueueLength) {
+                rejected++;
+                return null;
+            } else {
+                queue.addLast(ticket);
+            }
+        } finally {
+            lock.unlock(); // end of synchronized code block
+        }
+
+        if (admittedNow)
+            ticket.admit();
+        else // given up while waiting - leaves the queue
+            ticket.admission.whenComplete((result, failure) -> {
+                if (failure != null)
+                    removeFromQueue(ticket);
+            });
+        return ticket;
+    }
+
+    /**
+     * removes a given up request from the queue
+     * @param ticket ticket of the request
+     */
+    private void removeFromQueue(Ticket ticket) {
+        lock.lock(); // start of synchronized code block
+        try {
+            if (queue.remove(ticket))
+                abandoned++;
+        } finally {
+            lock.unlock(); // end of synchronized code block
+        }
+    }
+
+    /**
+     * frees the place of a finished request, adapts the limit and admits the waiting requests
+     * @param latencyNanos time from the admission to the end of the request
+     */
+    private void finished(long latencyNanos) {
+        lock.lock(); // start of synchronized code block
+        try {
+            boolean saturated = inFlight >= (int) limit;
+            inFlight--;
+            smoothedLatencyNanos = smoothedLatencyNanos == 0 ? latencyNanos
+                    : smoothedLatencyNanos + SMOOTHING * (latencyNanos - smoothedLatencyNanos);
+
+            long now = System.nanoTime();
+            // the request itself has to be slow too - the average lags behind after a slow burst
+            if (smoothedLatencyNanos > targetLatencyNanos && latencyNanos > targetLatencyNanos) {
+                if (now - lastDecreaseNanos >= targetLatencyNanos) {
+                    limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+                    lastDecreaseNanos = now;
+                }
+            } else if (saturated) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        } finally {
+            lock.unlock(); // end of synchronized code block
+        }
+        admitWaiting();
+    }
+
+    /**
+     * admits the waiting requests while there is a free place
+     * - the admissions are completed outside the lock, the waiting request may continue on this thread
+     */
+    private void admitWaiting() {
+        while (true) {
+            Ticket next;
+            lock.lock(); // start of synchronized code block
+            try {
+                if (queue.isEmpty() || inFlight >= (int) limit)
+                    return;
+                next = queue.pollFirst();
+                inFlight++;
+                admitted++;
+            } finally {
+                lock.unlock(); // end of synchronized code block
+            }
+
+            if (!next.admit()) { // given up meanwhile - its place goes to the next one
+                lock.lock(); // start of synchronized code block
+                try {
+                    inFlight--;
+                    admitted--;
+                } finally {
+                    lock.unlock(); // end of synchronized code block
+                }
+            }
+        }
+    }
+
+    /**
+     * returns the limit to its initial state and clears the statistics
+     * (after unrepresentative traffic, e.g. the warm-up of the JIT compiler)
+     * - the requests in progress and in the queue aren't affected
+     */
+    public void reset() {
+        lock.lock(); // start of synchronized code block
+        try {
+            limit = initialLimit;
+            smoothedLatencyNanos = 0;
+            lastDecreaseNanos = System.nanoTime();
+            admitted = 0;
+            rejected = 0;
+            abandoned = 0;
+        } finally {
+            lock.unlock(); // end of synchronized code block
+        }
+    }
+
+    /**
+     * returns current state of the limit
+     * @return map with the limit, the numbers of processed and waiting requests, the smoothed latency
+     * and the numbers of admitted and rejected requests
+     */
+    public Map<String, Object> getStatistics() {
+        lock.lock(); // start of synchronized code block
+        try {
+            Map<String, Object> statistics = new LinkedHashMap<>();
+            statistics.put("limit", (int) limit);
+            statistics.put("minLimit", minLimit);
+            statistics.put("maxLimit", maxLimit);
+            statistics.put("inFlight", inFlight);
+            statistics.put("queued", queue.size());
+            statistics.put("maxQueueLength", maxQueueLength);
+            statistics.put("smoothedLatencyMillis", Math.round(smoothedLatencyNanos / 1_000) / 1_000.0);
+            statistics.put("targetLatencyMillis", targetLatencyNanos / 1_000_000);
+            statistics.put("admitted", admitted);
+            statistics.put("rejectedQueueFull", rejected);
+            statistics.put("abandonedInQueue", abandoned);
+            return statistics;
+        } finally {
+            lock.unlock(); // end of synchronized code block
+        }
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * @return String with the name and the statistics
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of ConcurrencyLimit " + super.toString() + ":%n" +
+                "name: " + name + "%n" +
+                "statistics: " + getStatistics() + "%n");
+    }
+}
@@ -0,0 +1,398 @@
+package mjiricek.spring.benchmark;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP load test of the pages of the application (not a part of the web application)
+ * - sends a mix of browse, search, create, update and delete requests (the html forms of DBController)
+ * to a running application and prints throughput and latency percentiles of every kind of request
+ * - open-loop arrivals: requests are started at the planned rate (constant or Poisson), no matter how fast
+ * the application answers, and the latency is measured from the planned start - a slow application
+ * shows up as growing latency, not as a lower request rate (no coordinated omission)
+ * - every request in flight has its own client thread (at most "clients" of them), requests over that wait
+ * in the queue and the wait counts into their latency
+ * - usage: java -cp target/classes:(dependencies) mjiricek.spring.benchmark.LoadTest [--option=value ...]
+ *   --url=http://localhost:8080  application under test
+ *   --rate=200                   planned requests per second
+ *   --duration=30                measured seconds
+ *   --warmup=5                   seconds of requests before the measurement (not recorded)
+ *   --clients=256                maximal number of requests in flight
+ *   --mix=browse:50,search:30,create:10,update:5,delete:5   relative weights of the requests
+ *   --arrivals=poisson           poisson or constant
+ *   --max-p99=0                  fail (exit code 1) if p99 of all requests exceeds this many ms (0 = no limit)
+ *   --max-error-rate=0.01        fail (exit code 1) if a larger fraction of the requests fails
+ * - runs offline, the application just has to be started before (e.g. with --nutrdb.seed.rows=1000000);
+ * on one machine give the application and the load test separate cores (taskset), otherwise they measure each other
+ */
+public class LoadTest {
+    /**
+     * Kinds of the requests
+     */
+    private enum RequestKind {
+        BROWSE, SEARCH, CREATE, UPDATE, DELETE
+    }
+
+    /**
+     * names searched by the search requests (common names of the initial and the generated data, and a miss)
+     */
+    private static final String[] SEARCHED_NAMES = {
+            "bread", "salmon", "apple", "cheese", "rice", "chicken breast", "cokolada", "smoked salmon 3",
+            "fresh apple 1", "no such food"
+    };
+
+    /**
+     * number of entries of one page of the application
+     */
+    private static final int PAGE_LENGTH = 10;
+
+    /**
+     * histogram range - latencies up to one minute are recorded with 3 significant digits
+     */
+    private static final long MAX_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * reported percentiles
+     */
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private final URI baseUri;
+    private final double rate;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final boolean poisson;
+    private final RequestKind[] mixTable;
+    private final HttpClient httpClient;
+    private final ExecutorService clients;
+
+    /**
+     * latencies of the successful measured requests of every kind
+     */
+    private final Map<RequestKind, Histogram> latencies = new EnumMap<>(RequestKind.class);
+
+    /**
+     * numbers of the failed measured requests of every kind (error status or no response)
+     */
+    private final Map<RequestKind, AtomicLong> errors = new EnumMap<>(RequestKind.class);
+
+    /**
+     * upper bound of the ids of the entries (ids of updates and deletes are drawn below it)
+     */
+    private final AtomicInteger idBound = new AtomicInteger();
+
+    /**
+     * number of created entries (names of the new entries)
+     */
+    private final AtomicLong created = new AtomicLong();
+
+    /**
+     * runs the load test
+     * @param args options --name=value (see the class comment)
+     * @throws Exception if the application can't be reached
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("="))
+                throw new IllegalArgumentException("Options have the form --name=value: " + arg);
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        LoadTest loadTest = new LoadTest(options);
+        boolean passed = loadTest.run(Double.parseDouble(options.getOrDefault("max-p99", "0")),
+                Double.parseDouble(options.getOrDefault("max-error-rate", "0.01")));
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Constructor
+     * @param options options of the test
+     */
+    private LoadTest(Map<String, String> options) {
+        this.baseUri = URI.create(options.getOrDefault("url", "http://localhost:8080"));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "200"));
+        this.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "30")));
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "5")));
+        this.poisson = !"constant".equals(options.getOrDefault("arrivals", "poisson"));
+        this.mixTable = parseMix(options.getOrDefault("mix", "browse:50,search:30,create:10,update:5,delete:5"));
+        int clientCount = Integer.parseInt(options.getOrDefault("clients", "256"));
+        if (rate <= 0 || clientCount < 1)
+            throw new IllegalArgumentException("Rate and number of clients must be positive.");
+
+        this.clients = Executors.newFixedThreadPool(clientCount, runnable -> {
+            Thread thread = new Thread(runnable, "load-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        for (RequestKind kind : RequestKind.values()) {
+            latencies.put(kind, new ConcurrentHistogram(MAX_LATENCY_NANOS, 3));
+            errors.put(kind, new AtomicLong());
+        }
+    }
+
+    /**
+     * builds table of 100 request kinds, each kind as many times as its share of the mix
+     * @param mix weights, e.g. browse:50,search:30
+     * @return kinds to draw from uniformly
+     */
+    private static RequestKind[] parseMix(String mix) {
+        Map<RequestKind, Double> weights = new EnumMap<>(RequestKind.class);
+        double total = 0;
+        for (String part : mix.split(",")) {
+            String[] kindAndWeight = part.trim().split(":");
+            double weight = Double.parseDouble(kindAndWeight[1]);
+            weights.put(RequestKind.valueOf(kindAndWeight[0].trim().toUpperCase()), weight);
+            total += weight;
+        }
+        if (total <= 0)
+            throw new IllegalArgumentException("Weights of the mix must not all be zero.");
+
+        RequestKind[] table = new RequestKind[100];
+        int filled = 0;
+        double cumulative = 0;
+        for (Map.Entry<RequestKind, Double> weight : weights.entrySet()) {
+            cumulative += weight.getValue();
+            int end = (int) Math.round(cumulative / total * table.length);
+            while (filled < end)
+                table[filled++] = weight.getKey();
+        }
+        return table;
+    }
+
+    /**
+     * Sends the planned requests, waits for them and prints the report
+     * @param maxP99Millis limit of p99 of all requests (0 = no limit)
+     * @param maxErrorRate limit of the fraction of failed requests
+     * @return true if the limits were kept
+     * @throws IOException if the application can't be reached
+     * @throws InterruptedException if interrupted while waiting for the requests
+     */
+    private boolean run(double maxP99Millis, double maxErrorRate) throws IOException, InterruptedException {
+        idBound.set(Math.max(1, readTableSize()));
+        System.out.printf("%s: %.0f requests/s (%s arrivals), %d s warm-up + %d s, %d entries%n", baseUri, rate,
+                poisson ? "poisson" : "constant", TimeUnit.NANOSECONDS.toSeconds(warmupNanos),
+                TimeUnit.NANOSECONDS.toSeconds(durationNanos), idBound.get());
+
+        SplittableRandom random = new SplittableRandom(42);
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        long planned = start;
+        long sent = 0;
+        while (planned < end) {
+            long now = System.nanoTime();
+            if (planned > now)
+                LockSupport.parkNanos(planned - now);
+
+            RequestKind kind = mixTable[random.nextInt(mixTable.length)];
+            long plannedStart = planned;
+            boolean measured = plannedStart >= measureFrom;
+            long requestSeed = random.nextLong();
+            clients.execute(() -> send(kind, plannedStart, measured, new SplittableRandom(requestSeed)));
+            if (measured)
+                sent++;
+
+            double interval = poisson ? -Math.log(1 - random.nextDouble()) / rate : 1 / rate;
+            planned += (long) (interval * 1_000_000_000L);
+        }
+        clients.shutdown();
+        boolean finished = clients.awaitTermination(1, TimeUnit.MINUTES);
+        long measuredNanos = Math.max(1, System.nanoTime() - measureFrom);
+
+        return report(sent, measuredNanos, finished, maxP99Millis, maxErrorRate);
+    }
+
+    /**
+     * Sends one request and records its latency from the planned start
+     * @param kind kind of the request
+     * @param plannedStart planned start of the request (System.nanoTime())
+     * @param measured false for the warm-up requests
+     * @param random random generator of the request
+     */
+    private void send(RequestKind kind, long plannedStart, boolean measured, SplittableRandom random) {
+        boolean success;
+        try {
+            HttpResponse<Void> response = httpClient.send(buildRequest(kind, random), HttpResponse.BodyHandlers.discarding());
+            success = response.statusCode() < 400;
+            if (success && kind == RequestKind.CREATE)
+                idBound.incrementAndGet();
+        } catch (IOException e) {
+            success = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        if (!measured)
+            return;
+        if (success)
+            latencies.get(kind).recordValue(Math.min(System.nanoTime() - plannedStart, MAX_LATENCY_NANOS));
+        else
+            errors.get(kind).incrementAndGet();
+    }
+
+    /**
+     * builds the http request of the kind (the same requests as the html forms of the pages send)
+     * @param kind kind of the request
+     * @param random random generator of the request
+     * @return http request
+     */
+    private HttpRequest buildRequest(RequestKind kind, SplittableRandom random) {
+        int ids = idBound.get();
+        return switch (kind) {
+            case BROWSE -> get("/?view=" + random.nextInt(Math.max(1, ids / PAGE_LENGTH)));
+            case SEARCH -> get("/search?searchedName=" + encode(SEARCHED_NAMES[random.nextInt(SEARCHED_NAMES.length)]));
+            case CREATE -> postForm("/create", foodForm("load test food " + created.incrementAndGet(), random));
+            case UPDATE -> postForm("/?id=" + random.nextInt(ids),
+                    "_method=put&" + foodForm("load test update " + random.nextInt(1000), random));
+            case DELETE -> postForm("/?id=" + random.nextInt(ids), "_method=delete");
+        };
+    }
+
+    /**
+     * reads the number of entries of the application (from the JSON export)
+     * @return number of entries
+     * @throws IOException if the application can't be reached
+     * @throws InterruptedException if interrupted while waiting for the response
+     */
+    private int readTableSize() throws IOException, InterruptedException {
+        HttpResponse<String> response = httpClient.send(get("/api/foods?limit=0"), HttpResponse.BodyHandlers.ofString());
+        Matcher matcher = Pattern.compile("\"matchingCount\":(\\d+)").matcher(response.body());
+        if (response.statusCode() != 200 || !matcher.find())
+            throw new IOException("Unexpected response of " + baseUri + "/api/foods: " + response.statusCode());
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    /**
+     * prints throughput and latency percentiles of every kind of request and of all of them
+     * @param sent number of the measured requests
+     * @param measuredNanos duration of the measurement (until the last response)
+     * @param finished false if some requests didn't finish in time
+     * @param maxP99Millis limit of p99 of all requests (0 = no limit)
+     * @param maxErrorRate limit of the fraction of failed requests
+     * @return true if the limits were kept
+     */
+    private boolean report(long sent, long measuredNanos, boolean finished, double maxP99Millis, double maxErrorRate) {
+        double seconds = measuredNanos / 1e9;
+        System.out.printf("%-8s %9s %7s %9s", "request", "count", "errors", "req/s");
+        for (double percentile : PERCENTILES)
+            System.out.printf(" %9s", "p" + formatPercentile(percentile));
+        System.out.printf(" %9s   (latency in ms)%n", "max");
+
+        Histogram all = new Histogram(MAX_LATENCY_NANOS, 3);
+        long allErrors = 0;
+        for (RequestKind kind : RequestKind.values()) {
+            Histogram histogram = latencies.get(kind);
+            long kindErrors = errors.get(kind).get();
+            if (histogram.getTotalCount() + kindErrors == 0)
+                continue;
+            printRow(kind.name().toLowerCase(), histogram, kindErrors, seconds);
+            all.add(histogram);
+            allErrors += kindErrors;
+        }
+        printRow("all", all, allErrors, seconds);
+
+        double errorRate = sent == 0 ? 0 : (double) allErrors / sent;
+        double p99Millis = all.getValueAtPercentile(99) / 1e6;
+        boolean passed = finished && errorRate <= maxErrorRate && (maxP99Millis <= 0 || p99Millis <= maxP99Millis);
+        System.out.printf("planned %.0f req/s, achieved %.1f req/s, error rate %.4f%s -> %s%n", rate,
+                all.getTotalCount() / seconds, errorRate, finished ? "" : ", unfinished requests",
+                passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+
+    /**
+     * prints one row of the report
+     * @param name name of the row
+     * @param histogram latencies of the successful requests
+     * @param errorCount number of the failed requests
+     * @param seconds duration of the measurement
+     */
+    private static void printRow(String name, Histogram histogram, long errorCount, double seconds) {
+        System.out.printf("%-8s %9d %7d %9.1f", name, histogram.getTotalCount(), errorCount,
+                histogram.getTotalCount() / seconds);
+        for (double percentile : PERCENTILES)
+            System.out.printf(" %9.2f", histogram.getValueAtPercentile(percentile) / 1e6);
+        System.out.printf(" %9.2f%n", histogram.getMaxValue() / 1e6);
+    }
+
+    /**
+     * formats percentile without a needless decimal part (50, 99.9)
+     * @param percentile percentile
+     * @return formatted percentile
+     */
+    private static String formatPercentile(double percentile) {
+        return percentile == (long) percentile ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+
+    /**
+     * builds GET request
+     * @param pathAndQuery path with the query string
+     * @return http request
+     */
+    private HttpRequest get(String pathAndQuery) {
+        return HttpRequest.newBuilder(baseUri.resolve(pathAndQuery)).timeout(Duration.ofSeconds(30)).GET().build();
+    }
+
+    /**
+     * builds POST request of an html form
+     * @param pathAndQuery path with the query string
+     * @param form url-encoded form fields
+     * @return http request
+     */
+    private HttpRequest postForm(String pathAndQuery, String form) {
+        return HttpRequest.newBuilder(baseUri.resolve(pathAndQuery))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+    }
+
+    /**
+     * builds form fields of a food with random nutrients
+     * @param name name of the food
+     * @param random random generator of the request
+     * @return url-encoded form fields
+     */
+    private static String foodForm(String name, SplittableRandom random) {
+        return "foodName=" + encode(name)
+                + "&kcalContent=" + random.nextInt(900)
+                + "&proteinContent=" + random.nextInt(40)
+                + "&carbContent=" + random.nextInt(80)
+                + "&fatContent=" + random.nextInt(50);
+    }
+
+    /**
+     * url-encodes a value
+     * @param value value
+     * @return encoded value
+     */
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
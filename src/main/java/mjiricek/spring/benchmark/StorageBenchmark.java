@@ -0,0 +1,148 @@
+package mjiricek.spring.benchmark;
+
+import mjiricek.spring.models.ChangeLog;
+import mjiricek.spring.models.DBSimulator;
+import mjiricek.spring.models.H2StorageEngine;
+import mjiricek.spring.models.ScanExecutor;
+import mjiricek.spring.models.StorageEngine;
+import mjiricek.spring.models.VersionStore;
+import mjiricek.spring.models.entities.FoodData;
+import mjiricek.spring.models.query.FilterParser;
+import mjiricek.spring.models.query.FilterQuery;
+import mjiricek.spring.models.query.FoodField;
+import mjiricek.spring.models.query.RankingMetric;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+/**
+ * Simple comparison of the storage engines (not a part of the web application)
+ * - runs the same workload against the in-memory engine and the H2 engine (in a temporary file)
+ * and prints average time of each operation
+ * - usage: java -cp target/classes:(dependencies) mjiricek.spring.benchmark.StorageBenchmark [rows] [operations]
+ * - the numbers are only indicative (no forking, simple warm-up), use them to compare the engines,
+ * not as absolute values
+ */
+public class StorageBenchmark {
+    /**
+     * number of distinct names of the generated foods
+     */
+    private static final int NAME_COUNT = 5000;
+
+    /**
+     * runs the benchmark
+     * @param args number of rows (default 100000), number of operations of each kind (default 2000)
+     * @throws IOException if the temporary directory can't be created
+     */
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        List<FoodData> data = generate(rows, new Random(42));
+        ScanExecutor scanExecutor = new ScanExecutor(Runtime.getRuntime().availableProcessors(), 50_000, 8192);
+        Path directory = Files.createTempDirectory("nutrdb-benchmark");
+        try {
+            System.out.printf("%d rows, %d operations of each kind%n", rows, operations);
+            System.out.printf("%-22s %14s %14s%n", "operation", "memory", "h2");
+
+            StorageEngine memory = new DBSimulator(scanExecutor, new ChangeLog(10_000), new VersionStore(1000));
+            try (H2StorageEngine h2 = new H2StorageEngine("jdbc:h2:file:" + directory.resolve("nutrdb"), 4, new ChangeLog(10_000))) {
+                bulkLoad(memory, h2, data);
+                run(memory, h2, "get by id", operations, (engine, random) -> engine.getEntityCopyById(random.nextInt(rows)));
+                run(memory, h2, "search by name", operations,
+                        (engine, random) -> engine.getTableSubcopy("food" + random.nextInt(NAME_COUNT), 0, 10));
+                FilterQuery filter = FilterParser.parse("protein>20 AND fat<5");
+                run(memory, h2, "filter count", Math.max(1, operations / 100), (engine, random) -> engine.getQueryCount(filter));
+                RankingMetric metric = new RankingMetric(FoodField.PROTEIN, FoodField.KCAL, true);
+                run(memory, h2, "top 10", Math.max(1, operations / 100), (engine, random) -> engine.getTopK(metric, 10));
+                run(memory, h2, "autocomplete", operations,
+                        (engine, random) -> engine.getNameSuggestions("food" + random.nextInt(100), 10));
+                run(memory, h2, "update", operations, (engine, random) -> engine.updateEntityById(random.nextInt(rows),
+                        new FoodData("food" + random.nextInt(NAME_COUNT), 100, 10, 10, 10)));
+                run(memory, h2, "insert (single)", operations, (engine, random) -> engine.addEntity(
+                        new FoodData("food" + random.nextInt(NAME_COUNT), 100, 10, 10, 10)));
+            }
+        } finally {
+            scanExecutor.shutdown();
+            try (var files = Files.walk(directory)) {
+                files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * measures the bulk load of the generated rows (addEntities - one lock / one JDBC batch transaction)
+     * @param memory in-memory engine
+     * @param h2 H2 engine
+     * @param data loaded rows
+     */
+    private static void bulkLoad(StorageEngine memory, StorageEngine h2, List<FoodData> data) {
+        long memoryNanos = time(() -> memory.addEntities(data));
+        long h2Nanos = time(() -> h2.addEntities(data));
+        print("bulk load (per row)", memoryNanos / (double) data.size(), h2Nanos / (double) data.size());
+    }
+
+    /**
+     * measures one kind of operation on both engines (after a warm-up of the same length)
+     * @param memory in-memory engine
+     * @param h2 H2 engine
+     * @param name name of the operation
+     * @param operations number of measured operations
+     * @param operation the operation
+     */
+    private static void run(StorageEngine memory, StorageEngine h2, String name, int operations, Operation operation) {
+        double[] averages = new double[2];
+        StorageEngine[] engines = {memory, h2};
+        for (int e = 0; e < engines.length; e++) {
+            StorageEngine engine = engines[e];
+            Random random = new Random(7);
+            repeat(operations, i -> operation.run(engine, random)); // warm-up
+            averages[e] = time(() -> repeat(operations, i -> operation.run(engine, random))) / (double) operations;
+        }
+        print(name, averages[0], averages[1]);
+    }
+
+    /**
+     * generates foods with Zipf-like distributed names (some names are much more frequent)
+     * @param rows number of foods
+     * @param random random generator
+     * @return generated foods
+     */
+    private static List<FoodData> generate(int rows, Random random) {
+        List<FoodData> data = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            int name = (int) (NAME_COUNT * Math.pow(random.nextDouble(), 3));
+            data.add(new FoodData("food" + name, random.nextInt(900), random.nextInt(40),
+                    random.nextInt(90), random.nextInt(60)));
+        }
+        return data;
+    }
+
+    private static void repeat(int count, IntConsumer body) {
+        for (int i = 0; i < count; i++)
+            body.accept(i);
+    }
+
+    private static long time(Runnable body) {
+        long start = System.nanoTime();
+        body.run();
+        return System.nanoTime() - start;
+    }
+
+    private static void print(String name, double memoryNanos, double h2Nanos) {
+        System.out.printf("%-22s %11.1f us %11.1f us%n", name, memoryNanos / 1000, h2Nanos / 1000);
+    }
+
+    /**
+     * One measured operation
+     */
+    @FunctionalInterface
+    private interface Operation {
+        void run(StorageEngine engine, Random random);
+    }
+}
@@ -0,0 +1,68 @@
+package mjiricek.spring.build;
+
+import mjiricek.spring.ApplicationMain;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+
+/**
+ * Training run of the class-data sharing archive (build profile "startup" in pom.xml)
+ * - starts the application on a free port, sends one request of every page and of the main API endpoints
+ * (so the classes of the request handling and of the rendering are loaded too, not only those of the startup)
+ * and stops it
+ * - the JVM runs with -XX:ArchiveClassesAtExit, it writes all the loaded classes into the archive at exit;
+ * the next starts with -XX:SharedArchiveFile map them instead of loading, verifying and parsing them again
+ * - usage: java -XX:ArchiveClassesAtExit=nutrdb.jsa -cp nutrDBSpringBoot.jar mjiricek.spring.build.CdsTrainingRun [application arguments]
+ */
+public class CdsTrainingRun {
+    /**
+     * logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CdsTrainingRun.class);
+
+    /**
+     * requested paths (all have to answer 200)
+     */
+    private static final String[] PATHS = {
+            "/", "/?view=1&size=100", "/search?searchedName=apple", "/search?filter=kcal%3E100", "/top", "/create",
+            "/api/foods?limit=10", "/api/autocomplete?prefix=b", "/api/search-cache", "/api/latency"};
+
+    /**
+     * main method
+     * - exits with 1 if a request fails or isn't answered with 200
+     * @param args arguments of the application
+     * @throws InterruptedException if interrupted while waiting for a response
+     */
+    public static void main(String[] args) throws InterruptedException {
+        String[] trainingArgs = Arrays.copyOf(args, args.length + 1);
+        trainingArgs[args.length] = "--server.port=0"; // doesn't collide with a running instance
+
+        SpringApplication application = new SpringApplication(ApplicationMain.class);
+        application.setMainApplicationClass(ApplicationMain.class); // AOT looks its initializer up by the main class
+        ConfigurableApplicationContext context = application.run(trainingArgs);
+        int exitCode = 0;
+        try {
+            String base = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+            HttpClient client = HttpClient.newHttpClient();
+            for (String path : PATHS) {
+                HttpResponse<Void> response = client.send(HttpRequest.newBuilder(URI.create(base + path)).build(),
+                        HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() != 200)
+                    throw new IllegalStateException("Training request " + path + " answered " + response.statusCode());
+            }
+        } catch (IOException | IllegalStateException e) {
+            LOGGER.error("Training run failed", e);
+            exitCode = 1; // fails the build
+        }
+        SpringApplication.exit(context);
+        System.exit(exitCode);
+    }
+}
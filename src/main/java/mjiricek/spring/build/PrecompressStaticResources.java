@@ -0,0 +1,102 @@
+package mjiricek.spring.build;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Build step writing gzip variants of the static resources (styles.css -> styles.css.gz)
+ * - run by Maven after the resources are copied (exec-maven-plugin in pom.xml, phase process-classes),
+ * so the variants are made from the same bytes the application serves and never go stale
+ * - the resource chain of Spring (spring.web.resources.chain.compressed) sends the variant to the clients
+ * accepting gzip, the server doesn't compress the file on every request
+ * - compressed with the best (slowest) level, it's done once per build
+ * - usage: java mjiricek.spring.build.PrecompressStaticResources target/classes/static
+ */
+public class PrecompressStaticResources {
+    /**
+     * extensions of the compressed files (text formats, images are already compressed)
+     */
+    private static final Set<String> EXTENSIONS = Set.of("css", "js", "html", "svg", "json", "txt");
+
+    /**
+     * files smaller than this aren't worth it (gzip header and a second request-less lookup)
+     */
+    private static final long MIN_SIZE = 256;
+
+    /**
+     * main method
+     * @param args directory with the static resources
+     * @throws IOException if a file can't be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1)
+            throw new IllegalArgumentException("Usage: PrecompressStaticResources <directory of static resources>");
+
+        Path directory = Path.of(args[0]);
+        if (!Files.isDirectory(directory))
+            return; // nothing to compress
+
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile).filter(PrecompressStaticResources::isCompressible).toList();
+        }
+        int written = 0;
+        for (Path file : files)
+            if (compress(file))
+                written++;
+        System.out.println("Precompressed " + written + " of " + files.size() + " static resources in " + directory);
+    }
+
+    /**
+     * decides whether the file gets a gzip variant
+     * @param file static resource
+     * @return true for text formats of sufficient size
+     */
+    private static boolean isCompressible(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        try {
+            return dot > 0 && EXTENSIONS.contains(name.substring(dot + 1)) && Files.size(file) >= MIN_SIZE;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * writes the gzip variant of the file, unless an up-to-date one exists
+     * - a variant that isn't smaller than the file is deleted (the file itself is served then)
+     * @param file static resource
+     * @return true if the variant was written
+     * @throws IOException if the file can't be read or the variant written
+     */
+    private static boolean compress(Path file) throws IOException {
+        Path variant = file.resolveSibling(file.getFileName() + ".gz");
+        if (Files.exists(variant) && Files.getLastModifiedTime(variant).compareTo(Files.getLastModifiedTime(file)) >= 0)
+            return false;
+
+        byte[] content = Files.readAllBytes(file);
+        Path temporary = file.resolveSibling(file.getFileName() + ".gz.tmp");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporary)) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            out.write(content);
+        }
+        if (Files.size(temporary) >= content.length) {
+            Files.delete(temporary);
+            Files.deleteIfExists(variant);
+            return false;
+        }
+        Files.move(temporary, variant, StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+}
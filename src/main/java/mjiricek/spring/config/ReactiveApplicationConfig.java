@@ -0,0 +1,48 @@
+package mjiricek.spring.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Objects of the reactive variant of the application (ReactiveApplicationMain, profile "reactive")
+ * - the database objects themselves are shared with the servlet variant (SpringApplicationConfig)
+ */
+@Configuration
+@Profile("reactive")
+public class ReactiveApplicationConfig {
+    /**
+     * Creates the factory of the Netty web server
+     * - Tomcat is on the classpath too (servlet variant) and would be chosen otherwise,
+     * the port and other server.* properties are applied to the factory by Spring Boot
+     * @return factory of the reactive web server
+     */
+    @Bean
+    public NettyReactiveWebServerFactory createNettyServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    /**
+     * Creates the scheduler the storage engine is accessed on
+     * - the storage engines are blocking (table and page locks, H2 over JDBC), so the event loop threads
+     * only hand the database work over to this scheduler and continue with other connections
+     * - a bounded number of threads with a bounded queue: more waiting requests are rejected instead of
+     * starting more threads
+     * @param threads maximal number of threads, 0 means 10 per core (default of Reactor)
+     * @param queueCapacity maximal number of tasks waiting for a thread
+     * @return instance of Scheduler to be injected in ReactiveDBService
+     * (disposed at shutdown)
+     */
+    @Bean(destroyMethod = "dispose")
+    public Scheduler createStorageScheduler(@Value("${nutrdb.reactive.storage-threads:0}") int threads,
+                                            @Value("${nutrdb.reactive.storage-queue:100000}") int queueCapacity) {
+        if (threads <= 0)
+            threads = Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE;
+
+        return Schedulers.newBoundedElastic(threads, queueCapacity, "nutrdb-storage");
+    }
+}
@@ -1,9 +1,46 @@
 package mjiricek.spring.config;
 
+import mjiricek.spring.admission.AdmissionControl;
+import mjiricek.spring.admission.AdmissionInterceptor;
+import mjiricek.spring.admission.ConcurrencyLimit;
+import mjiricek.spring.controllers.StaticResourceCacheInterceptor;
+import mjiricek.spring.models.ChangeLog;
 import mjiricek.spring.models.entities.FoodData;
 import mjiricek.spring.models.DBSimulator;
+import mjiricek.spring.models.FoodGenerator;
+import mjiricek.spring.models.H2StorageEngine;
+import mjiricek.spring.models.ScanExecutor;
+import mjiricek.spring.models.SearchResultCache;
+import mjiricek.spring.models.StorageEngine;
+import mjiricek.spring.models.TenantDatabase;
+import mjiricek.spring.models.TenantRegistry;
+import mjiricek.spring.models.VersionStore;
+import mjiricek.spring.models.WriteBehindQueue;
+import mjiricek.spring.monitoring.LatencyInterceptor;
+import mjiricek.spring.monitoring.LatencyMonitor;
+import mjiricek.spring.replication.ReplicationProtocol;
+import mjiricek.spring.warmup.WarmUp;
+import org.apache.coyote.ProtocolHandler;
+import org.apache.tomcat.util.compat.JreCompat;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.handler.MappedInterceptor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class defines instantiation and initialization of those objects in applications which
@@ -12,53 +49,356 @@ import org.springframework.context.annotation.Configuration;
  * instead of hard-coding those states into the classes of those objects themselves
  * - Each method returns an instance of an object or a primitive constant
  * to be injected
+ * - as WebMvcConfigurer it also registers the interceptors of the controllers
  */
 @Configuration
-public class SpringApplicationConfig {
+public class SpringApplicationConfig implements WebMvcConfigurer {
+    /**
+     * Creates the executor of filtering scans (shared by all DBSimulator instances)
+     * - for the DBSimulator constructor
+     * @param parallelism number of worker threads, 0 means all available cores
+     * @param parallelThreshold minimal table size for which the scans are done in parallel
+     * @param chunkSize number of table rows scanned by one parallel task
+     * @return instance of ScanExecutor to be injected in DBSimulator
+     */
+    @Bean
+    public ScanExecutor createScanExecutor(@Value("${nutrdb.scan.parallelism:0}") int parallelism,
+                                           @Value("${nutrdb.scan.parallel-threshold:50000}") int parallelThreshold,
+                                           @Value("${nutrdb.scan.chunk-size:8192}") int chunkSize) {
+        if (parallelism <= 0)
+            parallelism = Runtime.getRuntime().availableProcessors();
+
+        return new ScanExecutor(parallelism, parallelThreshold, chunkSize);
+    }
+
+    /**
+     * Creates the log of recent database changes (change data capture)
+     * - for the DBSimulator constructor
+     * @param capacity number of recent changes kept for the subscribers of the change stream
+     * @return instance of ChangeLog to be injected in DBSimulator
+     */
+    @Bean
+    public ChangeLog createChangeLog(@Value("${nutrdb.changes.capacity:10000}") int capacity) {
+        return new ChangeLog(capacity);
+    }
+
+    /**
+     * Creates the store of the row versions (multi-version concurrency control)
+     * - for the DBSimulator constructor
+     * @param history number of the latest changes whose versions are kept for "as of sequence" reads
+     * @return instance of VersionStore to be injected in DBSimulator
+     */
+    @Bean
+    public VersionStore createVersionStore(@Value("${nutrdb.mvcc.history:1000}") long history) {
+        return new VersionStore(history);
+    }
+
+    /**
+     * Creates the generator of synthetic foods (scale testing)
+     * - for the createStorageEngine method and the DBService constructor
+     * @param distinctNames number of distinct names of the generated foods
+     * @param zipfExponent exponent of the Zipf distribution of the names
+     * @return instance of FoodGenerator to be injected
+     */
+    @Bean
+    public FoodGenerator createFoodGenerator(@Value("${nutrdb.seed.distinct-names:50000}") int distinctNames,
+                                             @Value("${nutrdb.seed.zipf-exponent:1.0}") double zipfExponent) {
+        return new FoodGenerator(distinctNames, zipfExponent);
+    }
+
     /**
-     * Creates and initializes instance of DBSimulator.
+     * Creates and initializes the storage engine chosen by nutrdb.storage.engine
+     * - "memory": DBSimulator, the table exists only while the application runs
+     * - "h2": H2StorageEngine, the table is stored in a file of an embedded SQL database
      * Since we are only simulating CRUD access to database,
-     * there is some initialization with initial data entries.
+     * an empty table is initialized with initial data entries.
      * - for the DBService constructor
-     * @return instance of DBService to be injected in controller
+     * @param engine name of the storage engine
+     * @param h2Url JDBC URL of the H2 database file
+     * @param h2ReadConnections number of H2 connections used by reads
+     * @param scanExecutor executor of the filtering scans
+     * @param changeLog log the changes of the database will be recorded in
+     * @param versionStore store the versions of the rows will be kept in
+     * @param replicationRole role of this process in the replication - a follower starts empty
+     * and gets all the data (including the initial ones) from its leader
+     * @param foodGenerator generator of synthetic foods
+     * @param seedRows number of synthetic foods added to the initial data (0 = none)
+     * @param seed seed of the generator
+     * @param seedSnapshot file with the initial (and synthetic) data, empty = none: if it exists, the table is
+     * loaded from it in bulk instead of generating and inserting the rows, otherwise it's written after
+     * the table is filled (so only the first start, or the build, pays for it)
+     * @return instance of StorageEngine to be injected in DBService
+     * (Spring calls its close() method at shutdown, if it has one)
+     * @throws UncheckedIOException if the seed snapshot can't be read or written
      */
     @Bean
-    public DBSimulator createDBSimulator() {
-        DBSimulator dbSimulator = new DBSimulator();
+    public StorageEngine createStorageEngine(@Value("${nutrdb.storage.engine:memory}") String engine,
+                                             @Value("${nutrdb.storage.h2.url:jdbc:h2:file:./data/nutrdb}") String h2Url,
+                                             @Value("${nutrdb.storage.h2.read-connections:4}") int h2ReadConnections,
+                                             @Qualifier("createScanExecutor") ScanExecutor scanExecutor,
+                                             @Qualifier("createChangeLog") ChangeLog changeLog,
+                                             @Qualifier("createVersionStore") VersionStore versionStore,
+                                             @Value("${nutrdb.replication.role:standalone}") String replicationRole,
+                                             @Qualifier("createFoodGenerator") FoodGenerator foodGenerator,
+                                             @Value("${nutrdb.seed.rows:0}") int seedRows,
+                                             @Value("${nutrdb.seed.random-seed:42}") long seed,
+                                             @Value("${nutrdb.seed.snapshot:}") String seedSnapshot)
+            throws UncheckedIOException {
+        StorageEngine storageEngine = switch (engine) {
+            case "memory" -> new DBSimulator(scanExecutor, changeLog, versionStore);
+            case "h2" -> new H2StorageEngine(h2Url, h2ReadConnections, changeLog);
+            default -> throw new IllegalArgumentException("Unknown nutrdb.storage.engine '" + engine + "' (use memory or h2)");
+        };
+        if ("follower".equals(replicationRole) || storageEngine.getTableSize() > 0)
+            return storageEngine; // nothing to initialize (data come from the leader / from the file)
+
+        Path seedSnapshotFile = seedSnapshot.isBlank() ? null : Path.of(seedSnapshot);
+        if (seedSnapshotFile != null && Files.exists(seedSnapshotFile)) {
+            try {
+                storageEngine.loadSnapshot(ReplicationProtocol.readSnapshotFile(seedSnapshotFile));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Seed snapshot " + seedSnapshotFile + " can't be read", e);
+            }
+            return storageEngine;
+        }
 
         // innitial data
-        dbSimulator.addEntity(new FoodData("white roll", 310, 9.78, 57.47, 3.68));
-        dbSimulator.addEntity(new FoodData("bread", 244, 8, 45, 1.1));
-        dbSimulator.addEntity(new FoodData("chicken egg", 151, 12.38, 0.94, 10.87));
-        dbSimulator.addEntity(new FoodData("salmon", 196, 22, 0, 12));
-        dbSimulator.addEntity(new FoodData("broccoli", 43, 3.3, 7.7, 0.2));
-        dbSimulator.addEntity(new FoodData("apple", 63, 0.37, 12.95, 0.4));
-        dbSimulator.addEntity(new FoodData("rice", 346, 8, 78, 0.3));
-        dbSimulator.addEntity(new FoodData("cucumber", 16, 0.82, 2.28, 0.18));
-        dbSimulator.addEntity(new FoodData("lemon", 36, 0.66, 6, 0.53));
-        dbSimulator.addEntity(new FoodData("beer", 42, 0.3, 2, 0)); // note 1g of alcohol = 7 kcal
-        dbSimulator.addEntity(new FoodData("cola", 45, 0, 11.2, 0));
-        dbSimulator.addEntity(new FoodData("tuna", 101, 23, 0.1, 1));
-        dbSimulator.addEntity(new FoodData("sardines", 176, 29, 0, 8.8));
-        dbSimulator.addEntity(new FoodData("pizza", 275, 8.97, 37.7, 9.55));
-        dbSimulator.addEntity(new FoodData("cheese 30%", 263, 30.3, 1.4, 15.2));
+        List<FoodData> initialData = new ArrayList<>();
+        initialData.add(new FoodData("white roll", 310, 9.78, 57.47, 3.68));
+        initialData.add(new FoodData("bread", 244, 8, 45, 1.1));
+        initialData.add(new FoodData("chicken egg", 151, 12.38, 0.94, 10.87));
+        initialData.add(new FoodData("salmon", 196, 22, 0, 12));
+        initialData.add(new FoodData("broccoli", 43, 3.3, 7.7, 0.2));
+        initialData.add(new FoodData("apple", 63, 0.37, 12.95, 0.4));
+        initialData.add(new FoodData("rice", 346, 8, 78, 0.3));
+        initialData.add(new FoodData("cucumber", 16, 0.82, 2.28, 0.18));
+        initialData.add(new FoodData("lemon", 36, 0.66, 6, 0.53));
+        initialData.add(new FoodData("beer", 42, 0.3, 2, 0)); // note 1g of alcohol = 7 kcal
+        initialData.add(new FoodData("cola", 45, 0, 11.2, 0));
+        initialData.add(new FoodData("tuna", 101, 23, 0.1, 1));
+        initialData.add(new FoodData("sardines", 176, 29, 0, 8.8));
+        initialData.add(new FoodData("pizza", 275, 8.97, 37.7, 9.55));
+        initialData.add(new FoodData("cheese 30%", 263, 30.3, 1.4, 15.2));
 
         // extra garbage data
         for (char i = 'A'; i <= 'z'; i++) {
-            dbSimulator.addEntity(new FoodData((String.valueOf(i) + i + i + i + i + i), i, i, i, i));
+            initialData.add(new FoodData((String.valueOf(i) + i + i + i + i + i), i, i, i, i));
         }
 
-        return dbSimulator;
+        storageEngine.addEntities(initialData);
+
+        // synthetic data for scale testing
+        if (seedRows > 0)
+            foodGenerator.loadInto(storageEngine, seedRows, seed);
+
+        if (seedSnapshotFile != null) {
+            try {
+                ReplicationProtocol.writeSnapshotFile(seedSnapshotFile, storageEngine.takeSnapshot());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Seed snapshot " + seedSnapshotFile + " can't be written", e);
+            }
+        }
+        return storageEngine;
+    }
+
+    /**
+     * Creates the write-behind queue - only in the asynchronous write mode (nutrdb.write-mode=async)
+     * - for the DBService constructor
+     * @param storageEngine storage engine the queued writes are applied to
+     * @param maxBatchSize maximal number of writes applied under one lock acquisition
+     * @return instance of WriteBehindQueue to be injected in DBService
+     * (closed at shutdown - the already accepted writes are applied first)
+     */
+    @Bean
+    @ConditionalOnProperty(name = "nutrdb.write-mode", havingValue = "async")
+    public WriteBehindQueue createWriteBehindQueue(@Qualifier("createStorageEngine") StorageEngine storageEngine,
+                                                   @Value("${nutrdb.write-behind.batch-size:256}") int maxBatchSize) {
+        return new WriteBehindQueue(storageEngine, maxBatchSize);
+    }
+
+    /**
+     * Creates the cache of the name search results
+     * - for the DBService constructor
+     * - registered as a listener of the change log of the storage engine, so every change
+     * (also a replicated or a queued one) invalidates the cached results of the names it touches
+     * @param storageEngine storage engine whose changes invalidate the cache
+     * @param capacity maximal number of cached results (name + page)
+     * @return instance of SearchResultCache to be injected in DBService
+     */
+    @Bean
+    public SearchResultCache createSearchResultCache(@Qualifier("createStorageEngine") StorageEngine storageEngine,
+                                                     @Value("${nutrdb.search-cache.capacity:1024}") int capacity) {
+        SearchResultCache searchResultCache = new SearchResultCache(capacity);
+        storageEngine.getChangeLog().addListener(searchResultCache);
+        return searchResultCache;
+    }
+
+    /**
+     * Creates the registry of the tenant databases
+     * - for the DBService constructor
+     * - the default tenant is the database created above (storage engine, search cache and write-behind queue),
+     * the other tenants get their own in-memory databases sized like the default one
+     * @param storageEngine storage engine of the default tenant
+     * @param searchResultCache search cache of the default tenant
+     * @param writeBehindQueue write-behind queue of the default tenant, exists only if nutrdb.write-mode=async
+     * @param scanExecutor executor of the filtering scans (shared by all tenants)
+     * @param directory directory the evicted tenants are written to
+     * @param idleTimeoutSeconds time after which an unused tenant is evicted
+     * @param maxResident maximal number of tenants in the memory (besides the default one)
+     * @param changeLogCapacity capacity of the change log of a tenant
+     * @param versionHistory number of the latest changes whose versions are kept by a tenant
+     * @param searchCacheCapacity capacity of the search cache of a tenant
+     * @return instance of TenantRegistry to be injected in DBService
+     * (closed at shutdown - the tenants in the memory are written to their files)
+     */
+    @Bean
+    public TenantRegistry createTenantRegistry(@Qualifier("createStorageEngine") StorageEngine storageEngine,
+                                               @Qualifier("createSearchResultCache") SearchResultCache searchResultCache,
+                                               ObjectProvider<WriteBehindQueue> writeBehindQueue,
+                                               @Qualifier("createScanExecutor") ScanExecutor scanExecutor,
+                                               @Value("${nutrdb.tenants.directory:./data/tenants}") String directory,
+                                               @Value("${nutrdb.tenants.idle-timeout-seconds:600}") long idleTimeoutSeconds,
+                                               @Value("${nutrdb.tenants.max-resident:100}") int maxResident,
+                                               @Value("${nutrdb.changes.capacity:10000}") int changeLogCapacity,
+                                               @Value("${nutrdb.mvcc.history:1000}") long versionHistory,
+                                               @Value("${nutrdb.search-cache.capacity:1024}") int searchCacheCapacity) {
+        TenantDatabase defaultTenant = new TenantDatabase(TenantRegistry.DEFAULT_TENANT,
+                storageEngine, searchResultCache, writeBehindQueue.getIfAvailable());
+        return new TenantRegistry(defaultTenant, scanExecutor, Path.of(directory), idleTimeoutSeconds * 1000,
+                maxResident, changeLogCapacity, versionHistory, searchCacheCapacity);
+    }
+
+    /**
+     * Creates the monitor of the request latencies (histograms per endpoint and phase)
+     * - for the DBApiController constructor and the latency interceptor
+     * @return instance of LatencyMonitor to be injected in DBApiController
+     */
+    @Bean
+    public LatencyMonitor createLatencyMonitor() {
+        return new LatencyMonitor();
+    }
+
+    /**
+     * Creates the admission control of the requests (overload protection)
+     * - for the admission interceptor (ReactiveAdmissionFilter in the reactive variant) and the API controllers
+     * - reads and writes get separate adaptive limits with the same target latency
+     * @param readInitialLimit limit of the reads at the start
+     * @param readMinLimit minimal limit of the reads
+     * @param readMaxLimit maximal limit of the reads
+     * @param writeInitialLimit limit of the writes at the start
+     * @param writeMinLimit minimal limit of the writes
+     * @param writeMaxLimit maximal limit of the writes
+     * @param maxQueueLength maximal number of waiting requests of each kind
+     * @param queueTimeoutMillis maximal waiting time of a request
+     * @param targetLatencyMillis latency the limits are kept under
+     * @param retryAfterSeconds value of the header Retry-After of a rejected request
+     * @return instance of AdmissionControl to be injected
+     * @throws IllegalArgumentException if the limits are invalid
+     */
+    @Bean
+    public AdmissionControl createAdmissionControl(@Value("${nutrdb.admission.reads.initial-limit:32}") int readInitialLimit,
+                                                   @Value("${nutrdb.admission.reads.min-limit:4}") int readMinLimit,
+                                                   @Value("${nutrdb.admission.reads.max-limit:200}") int readMaxLimit,
+                                                   @Value("${nutrdb.admission.writes.initial-limit:4}") int writeInitialLimit,
+                                                   @Value("${nutrdb.admission.writes.min-limit:1}") int writeMinLimit,
+                                                   @Value("${nutrdb.admission.writes.max-limit:16}") int writeMaxLimit,
+                                                   @Value("${nutrdb.admission.max-queue-length:1000}") int maxQueueLength,
+                                                   @Value("${nutrdb.admission.queue-timeout-ms:500}") long queueTimeoutMillis,
+                                                   @Value("${nutrdb.admission.target-latency-ms:100}") long targetLatencyMillis,
+                                                   @Value("${nutrdb.admission.retry-after-seconds:1}") long retryAfterSeconds)
+            throws IllegalArgumentException {
+        ConcurrencyLimit readLimit = new ConcurrencyLimit("reads", readInitialLimit, readMinLimit, readMaxLimit,
+                maxQueueLength, targetLatencyMillis);
+        ConcurrencyLimit writeLimit = new ConcurrencyLimit("writes", writeInitialLimit, writeMinLimit, writeMaxLimit,
+                maxQueueLength, targetLatencyMillis);
+        return new AdmissionControl(readLimit, writeLimit, queueTimeoutMillis, retryAfterSeconds);
+    }
+
+    /**
+     * Creates the warm-up of the JIT compiler (run by Spring Boot before the application reports readiness)
+     * - for the API controllers (GET /api/ready)
+     * @param tenantRegistry registry the scratch tenant of the warm-up is created in
+     * @param latencyMonitor histograms of the request latencies (reset after the warm-up)
+     * @param admissionControl admission control of the requests (reset after the warm-up)
+     * @param environment environment of the application
+     * @param iterations number of iterations (one request of every kind each), 0 = no warm-up
+     * @param maxDurationMillis the warm-up stops after this time even if it hasn't done all iterations
+     * @return instance of WarmUp to be injected
+     */
+    @Bean
+    public WarmUp createWarmUp(@Qualifier("createTenantRegistry") TenantRegistry tenantRegistry,
+                               @Qualifier("createLatencyMonitor") LatencyMonitor latencyMonitor,
+                               @Qualifier("createAdmissionControl") AdmissionControl admissionControl,
+                               Environment environment,
+                               @Value("${nutrdb.warmup.iterations:300}") int iterations,
+                               @Value("${nutrdb.warmup.max-duration-ms:20000}") long maxDurationMillis) {
+        return new WarmUp(tenantRegistry, latencyMonitor, admissionControl, environment, iterations, maxDurationMillis);
+    }
+
+    /**
+     * Creates the interceptor admitting the requests of the controllers - only if nutrdb.admission.enabled=true
+     * - as a mapped interceptor bean Spring MVC puts it in front of the interceptors registered below,
+     * so the measured latencies don't include the waiting for admission and the rejected requests aren't measured
+     * - the waiting for admission blocks a Tomcat thread, so the number of waiting threads is bounded,
+     * by default by a quarter of the Tomcat pool
+     * @param admissionControl admission control of the requests
+     * @param maxWaitingThreads maximal number of threads waiting for admission, 0 = a quarter of tomcatThreads
+     * @param tomcatThreads size of the request thread pool of Tomcat
+     * @return interceptor with the URL patterns it doesn't apply to
+     */
+    @Bean
+    @ConditionalOnProperty(name = "nutrdb.admission.enabled", havingValue = "true", matchIfMissing = true)
+    public MappedInterceptor createAdmissionInterceptor(@Qualifier("createAdmissionControl") AdmissionControl admissionControl,
+                                                        @Value("${nutrdb.admission.max-waiting-threads:0}") int maxWaitingThreads,
+                                                        @Value("${server.tomcat.threads.max:200}") int tomcatThreads) {
+        if (maxWaitingThreads <= 0)
+            maxWaitingThreads = Math.max(1, tomcatThreads / 4);
+        return new MappedInterceptor(null, AdmissionInterceptor.EXCLUDED_PATH_PATTERNS,
+                new AdmissionInterceptor(admissionControl, maxWaitingThreads));
+    }
+
+    /**
+     * Registers the interceptor measuring the latencies of the requests
+     * and the interceptor setting Cache-Control of the static resources
+     * @param registry registry of the interceptors of Spring MVC
+     */
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new LatencyInterceptor(createLatencyMonitor())); // the bean (configuration is proxied)
+        registry.addInterceptor(new StaticResourceCacheInterceptor())
+                .addPathPatterns(StaticResourceCacheInterceptor.PATH_PATTERNS);
+    }
+
+    /**
+     * Switches Tomcat to virtual threads - only if nutrdb.threads.virtual=true
+     * - every request gets its own virtual thread instead of a thread of the pool (server.tomcat.threads.max),
+     * so the number of requests waiting for the page locks is limited only by server.tomcat.max-connections
+     * - the locks of the controllers and the storage engines are ReentrantReadWriteLocks, which unmount
+     * a waiting virtual thread instead of pinning it to its carrier
+     * - the remaining monitors (synchronized blocks and the bin locks of ConcurrentHashMap.compute*) guard only
+     * in-memory bookkeeping - no disk I/O or table scan runs inside them (see TenantRegistry)
+     * @return customizer of the protocol handler of the embedded Tomcat
+     * @throws IllegalStateException if the application doesn't run on Java 21 or newer
+     */
+    @Bean
+    @ConditionalOnProperty(name = "nutrdb.threads.virtual", havingValue = "true")
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> createVirtualThreadCustomizer() throws IllegalStateException {
+        if (!JreCompat.isJre21Available())
+            throw new IllegalStateException("nutrdb.threads.virtual=true requires Java 21 or newer (running on "
+                    + System.getProperty("java.version") + ")");
+
+        return protocolHandler -> protocolHandler.setExecutor(new VirtualThreadExecutor("tomcat-virtual-"));
     }
 
     /**
      * Bean for the DBController constructor
+     * @param defaultLength number of entries of one page if the client doesn't ask for another one (url parameter "size")
      * @return integer constant to be injected in controller
      * as pageLength
      */
     @Bean
-    public int getPageLength() {
-        return 10;
+    public int getPageLength(@Value("${nutrdb.page.default-length:10}") int defaultLength) {
+        return Math.max(1, defaultLength);
     }
 
 }
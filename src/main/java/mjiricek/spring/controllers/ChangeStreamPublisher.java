@@ -0,0 +1,172 @@
+package mjiricek.spring.controllers;
+
+import jakarta.annotation.PreDestroy;
+import mjiricek.spring.models.ChangeEvent;
+import mjiricek.spring.models.DBService;
+import mjiricek.spring.models.TenantContext;
+import mjiricek.spring.models.TenantDatabase;
+import mjiricek.spring.models.TenantRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams the changes of the database to the subscribers as Server-Sent Events
+ * - every subscriber has its own pump (a thread of a bounded pool) which reads the change log
+ * from the subscriber's position and sends the events - each event has the sequence number as its id,
+ * so a reconnecting client resumes with the Last-Event-ID header
+ * - backpressure: a slow subscriber only slows down its own pump, the writers of the database
+ * never wait for subscribers (they just append to the ring buffer of the change log).
+ * A subscriber that falls behind by more than the capacity of the change log receives a "reset" event
+ * and is disconnected - it has to resynchronize (re-read the data) and subscribe again.
+ * The same happens to a subscriber whose position is ahead of the change log (a sequence from another
+ * history - a restarted server, a replaced table), it would otherwise wait silently for changes it already has.
+ * - a subscription streams the changes of the tenant of its request, the tenant isn't evicted while subscribed
+ */
+@Component
+public class ChangeStreamPublisher {
+    /**
+     * maximal number of events read from the change log at once
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * how often an idle stream sends a heartbeat comment (also detects disconnected clients)
+     */
+    private static final long HEARTBEAT_MILLIS = 15_000;
+
+    /**
+     * database service providing the changes
+     */
+    private final DBService dbService;
+
+    /**
+     * registry of the tenant databases (keeps the subscribed tenants in the memory)
+     */
+    private final TenantRegistry tenantRegistry;
+
+    /**
+     * pumps of the subscribers - one thread per subscriber, bounded number of subscribers
+     */
+    private final ThreadPoolExecutor pumps;
+
+    /**
+     * constructor (Spring uses it in dependency injection)
+     * @param dbService database service providing the changes
+     * @param tenantRegistry registry of the tenant databases
+     * @param maxSubscribers maximal number of concurrent subscribers
+     */
+    public ChangeStreamPublisher(@Autowired DBService dbService,
+                                 @Qualifier("createTenantRegistry") TenantRegistry tenantRegistry,
+                                 @Value("${nutrdb.changes.max-subscribers:64}") int maxSubscribers) {
+        this.dbService = dbService;
+        this.tenantRegistry = tenantRegistry;
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.pumps = new ThreadPoolExecutor(0, maxSubscribers, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "change-stream-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Creates new subscription
+     * @param afterSequence sequence number of the last change the subscriber already has
+     * @return emitter of the events (returned by the controller to keep the response open)
+     * @throws RejectedExecutionException if the maximal number of subscribers has been reached
+     */
+    public SseEmitter subscribe(long afterSequence) throws RejectedExecutionException {
+        SseEmitter emitter = new SseEmitter(0L); // no timeout - the stream ends when the client disconnects
+        AtomicBoolean closed = new AtomicBoolean(false);
+        emitter.onCompletion(() -> closed.set(true));
+        emitter.onError(e -> closed.set(true));
+
+        TenantDatabase database = TenantContext.get() != null ? TenantContext.get() : tenantRegistry.getDefaultTenant();
+        tenantRegistry.retain(database); // the pump outlives the request, which releases the tenant
+        try {
+            pumps.execute(() -> {
+                TenantContext.set(database);
+                try {
+                    pump(emitter, closed, afterSequence);
+                } finally {
+                    TenantContext.clear();
+                    tenantRegistry.release(database);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            tenantRegistry.release(database);
+            throw e;
+        }
+        return emitter;
+    }
+
+    /**
+     * Pump of one subscriber - sends events until the subscriber disconnects
+     * @param emitter emitter of the subscriber
+     * @param closed set when the response is completed (client disconnected)
+     * @param afterSequence sequence number of the last change the subscriber already has
+     */
+    private void pump(SseEmitter emitter, AtomicBoolean closed, long afterSequence) {
+        long cursor = afterSequence;
+        try {
+            while (!closed.get()) {
+                long latestSequence = dbService.getLatestChangeSequence();
+                List<ChangeEvent> events = cursor > latestSequence ? null : dbService.showChangesAfter(cursor, BATCH_SIZE);
+                if (events == null) { // subscriber fell behind (its events were overwritten) or is ahead of the log
+                    emitter.send(SseEmitter.event()
+                            .name("reset")
+                            .data(Map.of("lastSentSequence", cursor,
+                                    "latestSequence", latestSequence), MediaType.APPLICATION_JSON));
+                    emitter.complete();
+                    return;
+                }
+
+                for (ChangeEvent event : events) {
+                    emitter.send(SseEmitter.event()
+                            .id(String.valueOf(event.getSequence()))
+                            .name(event.getType().name())
+                            .data(event, MediaType.APPLICATION_JSON));
+                    cursor = event.getSequence();
+                }
+
+                if (events.isEmpty() && !dbService.awaitChangesAfter(cursor, HEARTBEAT_MILLIS))
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+            }
+        } catch (IOException | IllegalStateException e) {
+            // client disconnected (or the response was already completed) - nothing else to do
+        } catch (InterruptedException e) { // application is shutting down
+            Thread.currentThread().interrupt();
+            emitter.complete();
+        }
+    }
+
+    /**
+     * returns number of currently connected subscribers
+     * @return number of active pumps
+     */
+    public int getSubscriberCount() {
+        return pumps.getActiveCount();
+    }
+
+    /**
+     * stops all pumps on application shutdown
+     */
+    @PreDestroy
+    public void shutdown() {
+        pumps.shutdownNow();
+    }
+}
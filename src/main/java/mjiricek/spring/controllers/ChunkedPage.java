@@ -0,0 +1,122 @@
+package mjiricek.spring.controllers;
+
+import mjiricek.spring.models.entities.Food;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Entries of a large page which are read from the database in chunks while the template is rendered
+ * - the controller reads only the first chunk (together with the page count, under its read lock)
+ * and records the sequence number of the database state it was read at, the following chunks are read
+ * when the rendering reaches them
+ * - Thymeleaf writes the rendered rows into the response as it goes, so the first bytes of a page
+ * of thousands of rows are sent before the rest of it is read and the page is never held in memory as a whole
+ * - the following chunks continue by id behind the last delivered entry in the snapshot of the recorded
+ * sequence (DBService.showEntriesAfter, without the read lock), so a write between two chunks can't shift
+ * the rows - the page shows one state of the database, as if it was read at once
+ * - the time of the chunk reads is part of the RENDER phase of the latency histograms
+ */
+class ChunkedPage implements Iterable<Food> {
+    /**
+     * reads up to maxLength entries of the page's query from the given index (the first chunk)
+     */
+    @FunctionalInterface
+    interface ChunkReader {
+        /**
+         * reads one chunk
+         * @param startIndex index (among the entries of the query) of the first entry
+         * @param maxLength maximal number of read entries
+         * @return copies of the entries, fewer than maxLength at the end of the query
+         */
+        ArrayList<Food> read(int startIndex, int maxLength);
+    }
+
+    /**
+     * reads up to maxLength entries of the page's query following the given entry,
+     * in the state of the database the first chunk was read at (the following chunks)
+     */
+    @FunctionalInterface
+    interface CursorReader {
+        /**
+         * reads one chunk
+         * @param afterId id of the last delivered entry
+         * @param maxLength maximal number of read entries
+         * @return copies of the entries, fewer than maxLength at the end of the query
+         */
+        List<Food> read(int afterId, int maxLength);
+    }
+
+    /**
+     * entries read by the controller
+     */
+    private final List<Food> firstChunk;
+
+    /**
+     * number of entries of the page
+     */
+    private final int pageLength;
+
+    /**
+     * number of entries read at once
+     */
+    private final int chunkSize;
+
+    /**
+     * query of the page in the recorded state of the database
+     */
+    private final CursorReader reader;
+
+    /**
+     * Constructor
+     * @param firstChunk entries read by the controller (at most chunkSize of them)
+     * @param pageLength number of entries of the page
+     * @param chunkSize number of entries read at once
+     * @param reader query of the page in the state the first chunk was read at
+     */
+    ChunkedPage(List<Food> firstChunk, int pageLength, int chunkSize, CursorReader reader) {
+        this.firstChunk = firstChunk;
+        this.pageLength = pageLength;
+        this.chunkSize = chunkSize;
+        this.reader = reader;
+    }
+
+    /**
+     * returns iterator reading the following chunks as it reaches them
+     * @return iterator over the entries of the page
+     */
+    @Override
+    public Iterator<Food> iterator() {
+        return new Iterator<>() {
+            private List<Food> chunk = firstChunk;
+            private int positionInChunk = 0;
+            private int delivered = 0;
+            private int lastId;
+
+            @Override
+            public boolean hasNext() {
+                if (positionInChunk < chunk.size())
+                    return true;
+                // the last chunk was short - the query has no more entries
+                if (delivered >= pageLength || chunk.size() < chunkSize)
+                    return false;
+
+                chunk = reader.read(lastId, Math.min(chunkSize, pageLength - delivered));
+                positionInChunk = 0;
+                return !chunk.isEmpty();
+            }
+
+            @Override
+            public Food next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                delivered++;
+                Food food = chunk.get(positionInChunk++);
+                lastId = food.getFoodID();
+                return food;
+            }
+        };
+    }
+}
@@ -0,0 +1,298 @@
+package mjiricek.spring.controllers;
+
+import mjiricek.spring.admission.AdmissionControl;
+import mjiricek.spring.models.DBService;
+import mjiricek.spring.models.SnapshotPage;
+import mjiricek.spring.models.query.FilterQuery;
+import mjiricek.spring.monitoring.LatencyMonitor;
+import mjiricek.spring.replication.ReplicationStatusProvider;
+import mjiricek.spring.warmup.WarmUp;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controller for the JSON API of the nutritional database (URLs starting with "/api")
+ * - returns data instead of html templates, used by the scripts of the pages
+ */
+@RestController
+@RequestMapping("/api")
+public class DBApiController {
+    /**
+     * for how long the browser may reuse autocomplete response for the same prefix
+     * (typing back and forth over the same prefix doesn't reach the server at all)
+     */
+    private static final long AUTOCOMPLETE_MAX_AGE_SECONDS = 5;
+
+    /**
+     * maximal number of entries returned by one request of the export
+     */
+    private static final int MAX_EXPORT_LIMIT = 10000;
+
+    /**
+     * database service used by the controller
+     */
+    private final DBService dbService;
+
+    /**
+     * publisher of the change stream (Server-Sent Events)
+     */
+    private final ChangeStreamPublisher changeStreamPublisher;
+
+    /**
+     * leader or follower of the replication (none if the database isn't replicated)
+     */
+    private final ObjectProvider<ReplicationStatusProvider> replicationStatusProvider;
+
+    /**
+     * histograms of the request latencies
+     */
+    private final LatencyMonitor latencyMonitor;
+
+    /**
+     * admission control of the requests
+     */
+    private final AdmissionControl admissionControl;
+
+    /**
+     * readiness of the application (switched by Spring Boot after the warm-up)
+     */
+    private final ApplicationAvailability applicationAvailability;
+
+    /**
+     * warm-up of the JIT compiler (its report)
+     */
+    private final WarmUp warmUp;
+
+    /**
+     * constructor (Spring uses it in dependency injection)
+     * @param dbService reference to dbService that will be used by the controller
+     * @param changeStreamPublisher publisher of the change stream
+     * @param replicationStatusProvider leader or follower of the replication, if there is one
+     * @param latencyMonitor histograms of the request latencies
+     * @param admissionControl admission control of the requests
+     * @param applicationAvailability readiness of the application
+     * @param warmUp warm-up of the JIT compiler
+     */
+    public DBApiController(@Autowired DBService dbService,
+                           @Autowired ChangeStreamPublisher changeStreamPublisher,
+                           @Autowired ObjectProvider<ReplicationStatusProvider> replicationStatusProvider,
+                           @Qualifier("createLatencyMonitor") LatencyMonitor latencyMonitor,
+                           @Qualifier("createAdmissionControl") AdmissionControl admissionControl,
+                           @Autowired ApplicationAvailability applicationAvailability,
+                           @Qualifier("createWarmUp") WarmUp warmUp) {
+        this.dbService = dbService;
+        this.changeStreamPublisher = changeStreamPublisher;
+        this.replicationStatusProvider = replicationStatusProvider;
+        this.latencyMonitor = latencyMonitor;
+        this.admissionControl = admissionControl;
+        this.applicationAvailability = applicationAvailability;
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * Handler of the GET request on the URL "/api/replication"
+     * - returns role of this server in the replication and its state (lag of the followers)
+     * @return JSON object with the replication state
+     */
+    @GetMapping("/replication")
+    public Map<String, Object> replicationStatus() {
+        ReplicationStatusProvider provider = replicationStatusProvider.getIfAvailable();
+        if (provider == null)
+            return Map.of("role", "standalone", "latestSequence", dbService.getLatestChangeSequence());
+
+        return provider.getReplicationStatus();
+    }
+
+    /**
+     * Handler of the GET request on the URL "/api/search-cache"
+     * - returns statistics of the cache of the name searches (hits, misses, evictions, invalidations)
+     * @return JSON object with the statistics
+     */
+    @GetMapping("/search-cache")
+    public Map<String, Object> searchCacheStatistics() {
+        return dbService.getSearchCacheStatistics();
+    }
+
+    /**
+     * Handler of the GET request on the URL "/api/latency"
+     * - returns latency percentiles (p50 ... p99.99) of every endpoint, split into the phases
+     * lock wait, engine, rendering and total
+     * - reset-on-read: the values cover the window since the previous request of this URL
+     * @return JSON object with the window bounds and the percentiles in microseconds
+     */
+    @GetMapping("/latency")
+    public Map<String, Object> latency() {
+        return latencyMonitor.readAndReset();
+    }
+
+    /**
+     * Handler of the GET request on the URL "/api/admission"
+     * - returns current limits of the reads and the writes, the numbers of processed and waiting requests
+     * and the numbers of admitted and rejected ones (never limited itself)
+     * @return JSON object with the statistics
+     */
+    @GetMapping("/admission")
+    public Map<String, Object> admissionStatistics() {
+        return admissionControl.getStatistics();
+    }
+
+    /**
+     * Handler of the GET request on the URL "/api/ready" (readiness probe)
+     * - 200 once the application accepts traffic (after the warm-up), 503 before
+     * - never limited by the admission control
+     * @return JSON object with the readiness state and the report of the warm-up
+     */
+    @GetMapping("/ready")
+    public ResponseEntity<Map<String, Object>> readiness() {
+        ReadinessState state = applicationAvailability.getReadinessState();
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("readiness", state);
+        body.put("warmUp", warmUp.getReport());
+        HttpStatus status = state == ReadinessState.ACCEPTING_TRAFFIC ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE;
+        return ResponseEntity.status(status).body(body);
+    }
+
+    /**
+     * Handler of the GET request on the URL "/api/autocomplete"
+     * - returns the most frequent food names starting with the prefix (ignoring case and diacritics)
+     * - cheap enough to be called on every keystroke (answered from the caches of the name trie)
+     * @param prefix typed beginning of the name
+     * @param limit maximal number of suggestions
+     * @return JSON array of suggested names
+     */
+    @GetMapping("/autocomplete")
+    public ResponseEntity<List<String>> autocomplete(@RequestParam(value = "prefix", defaultValue = "") String prefix,
+                                                     @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(AUTOCOMPLETE_MAX_AGE_SECONDS, TimeUnit.SECONDS).cachePrivate())
+                .body(dbService.suggestNames(prefix, limit));
+    }
+
+    /**
+     * Handler of the GET request on the URL "/api/foods" - export of the entries from a snapshot of the database
+     * - reads the database as it was right after the change with sequence "asOf" (by default the latest change)
+     * without locking it, so the export doesn't block writers
+     * - to export everything consistently in several requests, pass the sequence of the first response
+     * as "asOf" of the following ones (the versions are kept for nutrdb.mvcc.history changes)
+     * and "nextAfter" of the previous response as "after" (continues behind it, the count is only on the first page)
+     * @param asOf sequence number of the change the database is read after
+     * @param filter filter query (the same language as on the search page), empty for all entries
+     * @param after id of the last entry of the previous page, none for the first page
+     * @param offset index (among the matching entries behind "after") of the first returned entry
+     * @param limit maximal number of returned entries
+     * @return JSON object with the sequence, number of all matching entries and the entries
+     */
+    @GetMapping("/foods")
+    public SnapshotPage exportFoods(@RequestParam(value = "asOf", required = false) Long asOf,
+                                    @RequestParam(value = "filter", defaultValue = "") String filter,
+                                    @RequestParam(value = "after", required = false) Integer after,
+                                    @RequestParam(value = "offset", defaultValue = "0") int offset,
+                                    @RequestParam(value = "limit", defaultValue = "1000") int limit) {
+        try {
+            FilterQuery filterQuery = filter.isBlank() ? null : dbService.parseFilter(filter);
+            return dbService.showEntriesAsOf(asOf, filterQuery, after, offset, Math.min(limit, MAX_EXPORT_LIMIT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * Handler of the GET request on the URL "/api/statistics" - summary of the nutrients for dashboards
+     * - count and, for every nutrient, mean, min, max and histogram of the entries matching the filter
+     * - the whole table is answered from the incrementally maintained summary (no scan with the in-memory engine)
+     * @param filter filter query (the same language as on the search page), empty for all entries
+     * @return JSON object with the count and the summaries of the nutrients
+     */
+    @GetMapping("/statistics")
+    public Map<String, Object> statistics(@RequestParam(value = "filter", defaultValue = "") String filter) {
+        try {
+            FilterQuery filterQuery = filter.isBlank() ? null : dbService.parseFilter(filter);
+            return dbService.showStatistics(filterQuery).getSummary();
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * Handler of the POST request on the URL "/api/seed" - adds synthetic foods for scale testing
+     * (Zipf-distributed names with many duplicates, nutrients typical for the category of the food)
+     * - the same seed generates the same foods, by default the seed is random
+     * @param rows number of generated foods
+     * @param seed seed of the generator
+     * @return JSON object with the number of added rows, the new size of the table and the duration
+     */
+    @PostMapping("/seed")
+    public Map<String, Object> seedFoods(@RequestParam(value = "rows", defaultValue = "100000") int rows,
+                                         @RequestParam(value = "seed", required = false) Long seed) {
+        long start = System.nanoTime();
+        long usedSeed = seed != null ? seed : System.nanoTime();
+        int tableSize;
+        try {
+            tableSize = dbService.seedEntries(rows, usedSeed);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("rows", rows);
+        result.put("seed", usedSeed);
+        result.put("tableSize", tableSize);
+        result.put("millis", (System.nanoTime() - start) / 1_000_000);
+        return result;
+    }
+
+    /**
+     * Handler of the GET request on the URL "/api/changes" - stream of the database changes (Server-Sent Events)
+     * - every event has the change type as its name (CREATE, UPDATE, DELETE), the sequence number as its id
+     * and the change with the food as JSON data
+     * - the stream starts after the sequence given by the Last-Event-ID header (automatic reconnect of EventSource),
+     * or by the "since" parameter, or by default after the latest change (only new changes are streamed)
+     * - a subscriber whose position is no longer in the change log (or is ahead of the latest change)
+     * receives a "reset" event and is disconnected
+     * @param since sequence number of the last change the client already has
+     * @param lastEventId id of the last event received before reconnecting
+     * @return emitter of the events
+     */
+    @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(@RequestParam(value = "since", required = false) Long since,
+                                    @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        long afterSequence;
+        try {
+            if (lastEventId != null && !lastEventId.isBlank())
+                afterSequence = Long.parseLong(lastEventId.trim());
+            else
+                afterSequence = since != null ? since : dbService.getLatestChangeSequence();
+        } catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Last-Event-ID must be a sequence number");
+        }
+
+        try {
+            return changeStreamPublisher.subscribe(afterSequence);
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many change stream subscribers");
+        }
+    }
+}
@@ -3,12 +3,17 @@ package mjiricek.spring.controllers;
 import mjiricek.spring.models.entities.Food;
 import mjiricek.spring.models.DBService;
 import mjiricek.spring.models.entities.FoodDTO;
+import mjiricek.spring.models.query.FilterQuery;
+import mjiricek.spring.models.query.RankingMetric;
+import mjiricek.spring.monitoring.LatencyPhase;
+import mjiricek.spring.monitoring.RequestTimings;
 
 import java.util.ArrayList;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
@@ -29,33 +34,99 @@ public class DBController {
     private final DBService dbService;
 
     /**
-     * constant for number of entries displayed in one page in browse card (one page in paging)
+     * default number of entries displayed in one page in browse card (one page in paging)
      */
     private final int pageLength; // can't be less than 1
 
     /**
-     * read/write lock
+     * maximal number of entries of one page the client may ask for (url parameter "size")
+     */
+    private final int maxPageLength;
+
+    /**
+     * number of entries read from the database at once - larger pages are read in chunks while they are rendered
+     */
+    private final int chunkSize;
+
+    /**
+     * read/write lock of the current tenant's pages
      * There is need for synchronization (despite DBSimulator having synchronization already)
      * because get mappings perform multiple reading operations in sequence
      * and if the data changes during that, we may get race condition.
      * - we want to block access to data only when some thread is writing (deleting, updating, adding)
      * - to prevent reading when writting is going on in other thread
      * - to allow as many threads reading as possible when no writting happens
+     * - every tenant has its own lock, so the pages of one tenant never wait for the writes of another
+     * @return read/write lock
      */
-    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock(true);
+    private ReentrantReadWriteLock rwLock() {
+        return dbService.getPageLock();
+    }
 
 
     /**
      * constructor (Spring uses it in dependency injection)
      * @param pageLength initialization value for controllers pageLength
+     * @param maxPageLength maximal number of entries of one page
+     * @param chunkSize number of entries read from the database at once
      * @param dbService reference to dbService that will be used by the controller
      */
     public DBController(@Qualifier("getPageLength") int pageLength,
+                        @Value("${nutrdb.page.max-length:5000}") int maxPageLength,
+                        @Value("${nutrdb.page.chunk-size:500}") int chunkSize,
                         @Autowired DBService dbService) {
         this.pageLength = pageLength;
+        this.maxPageLength = Math.max(pageLength, maxPageLength);
+        this.chunkSize = Math.max(1, chunkSize);
         this.dbService = dbService;
     }
 
+    /**
+     * takes the read lock of the controller before the page reads the database
+     * - the time waited for the lock is recorded as the LOCK_WAIT phase of the request
+     * @return time the lock was taken (System.nanoTime()), start of the ENGINE phase
+     */
+    private long lockForRead() {
+        long start = System.nanoTime();
+        rwLock().readLock().lock();
+        return RequestTimings.record(LatencyPhase.LOCK_WAIT, start);
+    }
+
+    /**
+     * releases the read lock taken by lockForRead()
+     * - the time the lock was held is recorded as the ENGINE phase of the request
+     * @param lockedAt value returned by lockForRead()
+     */
+    private void unlockForRead(long lockedAt) {
+        RequestTimings.record(LatencyPhase.ENGINE, lockedAt);
+        rwLock().readLock().unlock();
+    }
+
+    /**
+     * takes the write lock of the controller before a write
+     * - not in the asynchronous write mode: the writes are applied by the applier thread
+     * (outside of this lock anyway), the request thread only waits for its own write
+     * - the time waited for the lock is recorded as the LOCK_WAIT phase of the request
+     * @return time the lock was taken (System.nanoTime()), start of the ENGINE phase
+     */
+    private long lockForWrite() {
+        long start = System.nanoTime();
+        if (!dbService.isWriteBehind())
+            rwLock().writeLock().lock();
+        return RequestTimings.record(LatencyPhase.LOCK_WAIT, start);
+    }
+
+    /**
+     * releases the write lock taken by lockForWrite()
+     * - the time of the write is recorded as the ENGINE phase of the request
+     * @param lockedAt value returned by lockForWrite()
+     */
+    private void unlockForWrite(long lockedAt) {
+        RequestTimings.record(LatencyPhase.ENGINE, lockedAt);
+        if (!dbService.isWriteBehind())
+            rwLock().writeLock().unlock();
+    }
+
     /**
      * Helper method to address index out of bounds in paging
      * @param index paging index
@@ -76,13 +147,61 @@ public class DBController {
      * Helper method to compute how many views will be in browsing card
      * (for pagination)
      * @param numberOfEntitiesToBrowse number of entities that can be browsed through
+     * @param length number of entries of one page
      * @return number of views
      */
-    private int computeNumberOfPages(int numberOfEntitiesToBrowse) {
+    private int computeNumberOfPages(int numberOfEntitiesToBrowse, int length) {
         // intentionally truncating with integer division
         return numberOfEntitiesToBrowse == 0
                 ? 1
-                : (int) Math.ceil((double) numberOfEntitiesToBrowse / pageLength);
+                : (int) Math.ceil((double) numberOfEntitiesToBrowse / length);
+    }
+
+    /**
+     * Validation of the page length requested by the client (url parameter "size")
+     * - values over maxPageLength are capped, invalid values result in display of error in view
+     * - a requested length is kept in the model attribute "pageSize" (the links of the page keep it)
+     * @param pageSize requested number of entries of one page, null for the default
+     * @param model contains variables displayed by the templates
+     * @return number of entries of one page
+     */
+    private int validatePageLength(String pageSize, Model model) {
+        if (pageSize == null || pageSize.isBlank())
+            return pageLength;
+
+        int length;
+        try {
+            length = Integer.parseInt(pageSize.trim());
+            if (length < 1)
+                throw new IllegalArgumentException();
+        } catch (IllegalArgumentException e) {
+            model.addAttribute("uRLParameterError", "Illegal URL argument value");
+            return pageLength;
+        }
+        length = Math.min(length, maxPageLength);
+        model.addAttribute("pageSize", length);
+        return length;
+    }
+
+    /**
+     * Reads the entries of a page - has to be called under the read lock
+     * - a page longer than chunkSize is read in chunks while it is rendered (only the first chunk is read here),
+     * the following chunks are read in the state of the database the first one was read at (see ChunkedPage)
+     * @param startIndex index of the first entry of the page
+     * @param length number of entries of the page
+     * @param reader query of the page (reads the first chunk)
+     * @param query the same query as a filter query (reads the following chunks), null for all entries
+     * @return entries of the page
+     */
+    private Iterable<Food> readPageEntries(int startIndex, int length, ChunkedPage.ChunkReader reader,
+                                           FilterQuery query) {
+        if (length <= chunkSize)
+            return reader.read(startIndex, length);
+
+        ArrayList<Food> firstChunk = reader.read(startIndex, chunkSize);
+        long sequence = dbService.getLatestChangeSequence(); // the state of the first chunk (no write under the read lock)
+        return new ChunkedPage(firstChunk, length, chunkSize,
+                (afterId, maxLength) -> dbService.showEntriesAfter(sequence, query, afterId, maxLength));
     }
 
     /**
@@ -96,7 +215,7 @@ public class DBController {
      * @param foodDTO food/entity data - both as intput/output
      * @param selectedID id of entity/food currently selected by the clieny
      */
-    private void setTemplateAttributes(ArrayList<Food> pageContent,
+    private void setTemplateAttributes(Iterable<Food> pageContent,
                                        int pageIndex,
                                        int totalPages,
                                        Model model,
@@ -167,6 +286,7 @@ public class DBController {
      * (index page is browse page)
      * @param pageIndex value of url parameter indicating which page in browsing card is displayed (paging)
      * @param selectedID food/entity id selected by the user
+     * @param pageSize number of entries of one page requested by the user (default if not given)
      * @param foodDTO DTO used for transfring entity/food data between client-application (input/output)
      * @param model Model parameter for data to be presented to the client in the template
      * @return name of the html template being presented to the client
@@ -174,22 +294,25 @@ public class DBController {
     @GetMapping("/")
     public String renderIndexPage(@RequestParam(value = "view", defaultValue = "0") String pageIndex,
                                   @RequestParam(value = "id", required = false) String selectedID,
+                                  @RequestParam(value = "size", required = false) String pageSize,
                                   @ModelAttribute("foodDTO") FoodDTO foodDTO,
                                   Model model) {
         // validate that parameters are valid numbers
         // first element is pageIndex, second is selectedID
         Integer[] validatedURLParameters = validateURLParameters(pageIndex, selectedID, model);
+        int length = validatePageLength(pageSize, model);
 
-        rwLock.readLock().lock(); // start of synchronized code block (read)
+        long lockedAt = lockForRead(); // start of synchronized code block (read)
         try {
             // handle paging
-            int numberOfPages = computeNumberOfPages(dbService.getDBSize()); // find how many view cards we have depending on the VIEW_LENGTH and dBSize
+            int numberOfPages = computeNumberOfPages(dbService.getDBSize(), length); // find how many view cards we have depending on the page length and dBSize
             validatedURLParameters[0] = adjustIndexOutOfBounds(validatedURLParameters[0], numberOfPages); // handle index out of bounds
-            ArrayList<Food> shownEntries = dbService.showEntriesByIndexRange(validatedURLParameters[0] * pageLength, pageLength);
+            Iterable<Food> shownEntries = readPageEntries(validatedURLParameters[0] * length, length,
+                    dbService::showEntriesByIndexRange, null);
             // set variables accessed by the template
             setTemplateAttributes(shownEntries, validatedURLParameters[0], numberOfPages, model, foodDTO, validatedURLParameters[1]);
         } finally {
-            rwLock.readLock().unlock(); // end of synchronized code block (read)
+            unlockForRead(lockedAt); // end of synchronized code block (read)
         }
 
         return "views/index";
@@ -197,10 +320,13 @@ public class DBController {
 
     /**
      * Handler of the GET request on the URL "/search" (with url arguments)
-     * - search page - for searching foods/entities by name and editing/deleting them
+     * - search page - for searching foods/entities by name or by filter query and editing/deleting them
+     * (filter query has priority if both are given)
      * @param pageIndex value of url parameter indicating which page in browsing card is displayed (paging)
      * @param selectedID food/entity id selected by the user
      * @param searchedName food/entity name searched by the user
+     * @param filter filter query written by the user, for example: name~"cheese" AND protein>20
+     * @param pageSize number of entries of one page requested by the user (default if not given)
      * @param foodDTO DTO used for transfring entity/food data between client-application (input/output)
      * @param model Model parameter for data to be presented to the client in the template
      * @return name of the html template being presented to the client
@@ -209,63 +335,135 @@ public class DBController {
     public String renderSearchPage(@RequestParam(value = "view", defaultValue = "0") String pageIndex,
                                    @RequestParam(value = "id", required = false) String selectedID,
                                    @RequestParam(value = "searchedName", required = false) String searchedName,
+                                   @RequestParam(value = "filter", required = false) String filter,
+                                   @RequestParam(value = "size", required = false) String pageSize,
                                    @ModelAttribute("foodDTO") FoodDTO foodDTO,
                                    Model model) {
         // validate that parameters are valid numbers
         // first element is pageIndex, second is selectedID
         Integer[] validatedURLParameters = validateURLParameters(pageIndex, selectedID, model);
+        int length = validatePageLength(pageSize, model);
         int numberOfPages;
-        ArrayList<Food> shownEntries;
+        Iterable<Food> shownEntries;
 
-        rwLock.readLock().lock(); // start of synchronized code block (read)
+        // parse the filter query (if given) before locking
+        boolean filterGiven = filter != null && !filter.isBlank();
+        FilterQuery filterQuery = null;
+        if (filterGiven) {
+            model.addAttribute("filter", filter); // extra template attribute
+            try {
+                filterQuery = dbService.parseFilter(filter);
+            } catch (IllegalArgumentException e) {
+                model.addAttribute("inputError", e.getMessage()); // add client message about invalid query
+            }
+        }
+
+        long lockedAt = lockForRead(); // start of synchronized code block (read)
         try {
-            // paging depending on whether searchedName was given
-            if (searchedName == null) { // no name to search was given
+            // paging depending on whether filter query or searchedName was given
+            if (filterQuery != null) { // valid filter query was given
+                // find how many view cards we have depending on the VIEW_LENGTH and how many entries match the query
+                numberOfPages = computeNumberOfPages(dbService.howManyEntriesOfFilter(filterQuery), length);
+                validatedURLParameters[0] = adjustIndexOutOfBounds(validatedURLParameters[0], numberOfPages); // handle index out of bounds
+                FilterQuery query = filterQuery;
+                shownEntries = readPageEntries(validatedURLParameters[0] * length, length,
+                        (startIndex, maxLength) -> dbService.showEntriesByFilter(query, startIndex, maxLength), query);
+                model.addAttribute("queryPlan", dbService.explainFilter(filterQuery).explain()); // plan for debugging
+            } else if (searchedName == null || filterGiven) { // no name to search was given (or the query was invalid)
                 numberOfPages = 1;
                 validatedURLParameters[0] = 0; // will result 1/1 in pagination
                 shownEntries = null;
             } else { // name to search by was given
                 // find how many view cards we have depending on the VIEW_LENGTH and how many ocurrences of searched name there are
-                numberOfPages = computeNumberOfPages(dbService.howManyEntriesOfName(searchedName));
+                numberOfPages = computeNumberOfPages(dbService.howManyEntriesOfName(searchedName), length);
                 validatedURLParameters[0] = adjustIndexOutOfBounds(validatedURLParameters[0], numberOfPages); // handle index out of bounds
-                shownEntries = dbService.showEntriesByName(searchedName, validatedURLParameters[0] * pageLength, pageLength);
+                shownEntries = readPageEntries(validatedURLParameters[0] * length, length,
+                        (startIndex, maxLength) -> dbService.showEntriesByName(searchedName, startIndex, maxLength),
+                        DBService.similarNameQuery(searchedName));
                 model.addAttribute("searchedName", searchedName); // extra template attribute
             }
             // set variables accessed by the template
             setTemplateAttributes(shownEntries, validatedURLParameters[0], numberOfPages, model, foodDTO, validatedURLParameters[1]);
         } finally {
-            rwLock.readLock().unlock(); // end of synchronized code block (read)
+            unlockForRead(lockedAt); // end of synchronized code block (read)
         }
         return "views/search";
     }
 
+    /**
+     * Handler of the GET request on the URL "/top" (with url arguments)
+     * - ranking page - shows k foods with the highest (or lowest) value of a nutrient,
+     * optionally related to another nutrient, for example 20 foods with the highest protein per kcal
+     * - no paging and no controller lock, the ranking is computed by a single database operation
+     * @param nutrient keyword of the ranked nutrient
+     * @param perNutrient keyword of the nutrient the ranked one is related to (may be empty)
+     * @param order "desc" for the highest values first, "asc" for the lowest
+     * @param k number of foods in the ranking
+     * @param model Model parameter for data to be presented to the client in the template
+     * @return name of the html template being presented to the client
+     */
+    @GetMapping("/top")
+    public String renderTopPage(@RequestParam(value = "nutrient", defaultValue = "protein") String nutrient,
+                                @RequestParam(value = "per", defaultValue = "") String perNutrient,
+                                @RequestParam(value = "order", defaultValue = "desc") String order,
+                                @RequestParam(value = "k", defaultValue = "20") String k,
+                                Model model) {
+        // keep the form filled with the request values
+        model.addAttribute("nutrient", nutrient);
+        model.addAttribute("per", perNutrient);
+        model.addAttribute("order", order);
+        model.addAttribute("k", k);
+
+        try {
+            int validatedK;
+            try {
+                validatedK = Integer.parseInt(k);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Number of foods must be a whole number.");
+            }
+            RankingMetric metric = dbService.createRankingMetric(nutrient, perNutrient, order);
+            model.addAttribute("metric", metric);
+            long engineStart = System.nanoTime();
+            model.addAttribute("entries", dbService.showTopEntries(metric, validatedK));
+            RequestTimings.record(LatencyPhase.ENGINE, engineStart);
+        } catch (IllegalArgumentException e) {
+            model.addAttribute("inputError", e.getMessage()); // add client message about invalid input
+        }
+
+        return "views/top";
+    }
+
     /**
      * Handler of the GET request on the URL "/create" (with url arguments)
      * - create page - for creatinng new foods/entities (adding them to database)
      * @param selectedID food/entity id selected by the user
+     * @param pageSize number of entries of one page requested by the user (default if not given)
      * @param foodDTO DTO used for transfring entity/food data between client-application (input/output)
      * @param model Model parameter for data to be presented to the client in the template
      * @return name of the html template being presented to the client
      */
     @GetMapping("/create")
     public String renderCreatePage(@RequestParam(value = "id", required = false) String selectedID,
+                                   @RequestParam(value = "size", required = false) String pageSize,
                                    @ModelAttribute("foodDTO") FoodDTO foodDTO,
                                    Model model) {
         // validate that parameters are valid numbers
         // first element is pageIndex, second is selectedID
         Integer[] validatedURLParameters = validateURLParameters("0", selectedID, model);
+        int length = validatePageLength(pageSize, model);
 
-        rwLock.readLock().lock(); // start of synchronized code block (read)
+        long lockedAt = lockForRead(); // start of synchronized code block (read)
         try {
             // handling paging
-            int numberOfPages = computeNumberOfPages(dbService.getDBSize()); // find how many view cards we have depending on the VIEW_LENGTH and dBSize
+            int numberOfPages = computeNumberOfPages(dbService.getDBSize(), length); // find how many view cards we have depending on the page length and dBSize
             int pageIndex = numberOfPages - 1; // in create page, jump to the last entries in view
-            ArrayList<Food> shownEntries = dbService.showEntriesByIndexRange(pageIndex * pageLength, pageLength);
+            Iterable<Food> shownEntries = readPageEntries(pageIndex * length, length,
+                    dbService::showEntriesByIndexRange, null);
             // filling in variables for the template
             model.addAttribute("displayDetail", true); // always display detail card for creating a new entry
             setTemplateAttributes(shownEntries, pageIndex, numberOfPages, model, foodDTO, validatedURLParameters[1]);
         } finally {
-            rwLock.readLock().unlock(); // end of synchronized code block (read)
+            unlockForRead(lockedAt); // end of synchronized code block (read)
         }
 
         return "views/create";
@@ -282,7 +480,7 @@ public class DBController {
         // first element is pageIndex, second is selectedID
         Integer[] validatedURLParameters = validateURLParameters("0", selectedID, model);
 
-        rwLock.writeLock().lock(); // start of synchronized code block (write)
+        long lockedAt = lockForWrite(); // start of synchronized code block (write)
         try {
             if (dbService.deleteEntry(validatedURLParameters[1]))
                 model.addAttribute("operationStatus", "Entity with id "
@@ -290,8 +488,10 @@ public class DBController {
             else
                 model.addAttribute("operationStatus",
                         "Attempt to delete entity with non-existent id " + selectedID);
+        } catch (IllegalStateException e) {
+            model.addAttribute("inputError", e.getMessage()); // add client message about read-only replica
         } finally {
-            rwLock.writeLock().unlock(); // end of synchronized code block (write)
+            unlockForWrite(lockedAt); // end of synchronized code block (write)
         }
     }
 
@@ -299,6 +499,7 @@ public class DBController {
      * Handler of the DELETE request on the index page "/"
      * @param pageIndex value of url parameter indicating which page in browsing card is displayed (paging)
      * @param selectedID food/entity id selected by the user
+     * @param pageSize number of entries of one page requested by the user
      * @param foodDTO DTO used for transfring entity/food data between client-application (input/output)
      * @param model Model parameter for data to be presented to the client in the template
      * @return name of html template
@@ -306,11 +507,12 @@ public class DBController {
     @DeleteMapping("/")
     public String deleteAtIndexPage(@RequestParam(value = "view", defaultValue = "0") String pageIndex,
                                     @RequestParam(value = "id", required = false) String selectedID,
+                                    @RequestParam(value = "size", required = false) String pageSize,
                                     @ModelAttribute("foodDTO") FoodDTO foodDTO,
                                     Model model) {
         delete(selectedID, model); // attempts to perform the db deletion and may mutate model
         // selectedID changes to null because it has been deleted (if it even existed before)
-        return renderIndexPage(pageIndex, null, foodDTO, model);
+        return renderIndexPage(pageIndex, null, pageSize, foodDTO, model);
     }
 
     /**
@@ -318,6 +520,8 @@ public class DBController {
      * @param pageIndex value of url parameter indicating which page in browsing card is displayed (paging)
      * @param selectedID food/entity id selected by the user
      * @param searchedName food/entity name searched by the user
+     * @param filter filter query written by the user
+     * @param pageSize number of entries of one page requested by the user
      * @param foodDTO DTO used for transfring entity/food data between client-application (input/output)
      * @param model Model parameter for data to be presented to the client in the template
      * @return name of html template
@@ -326,11 +530,13 @@ public class DBController {
     public String deleteAtSearchPage(@RequestParam(value = "view", defaultValue = "0") String pageIndex,
                                      @RequestParam(value = "id", required = false) String selectedID,
                                      @RequestParam(value = "searchedName", required = false) String searchedName,
+                                     @RequestParam(value = "filter", required = false) String filter,
+                                     @RequestParam(value = "size", required = false) String pageSize,
                                      @ModelAttribute("foodDTO") FoodDTO foodDTO,
                                      Model model) {
         delete(selectedID, model); // attempts to perform the db deletion and may mutate model
         // selectedID changes to null because it has been deleted (if it even existed)
-        return renderSearchPage(pageIndex, null, searchedName, foodDTO, model);
+        return renderSearchPage(pageIndex, null, searchedName, filter, pageSize, foodDTO, model);
     }
 
     /**
@@ -345,7 +551,7 @@ public class DBController {
         // first element is pageIndex, second is selectedID
         Integer[] validatedURLParameters = validateURLParameters("0", selectedID, model);
 
-        rwLock.writeLock().lock(); // start of synchronized code block (write)
+        long lockedAt = lockForWrite(); // start of synchronized code block (write)
         try {
             if (dbService.updateEntry(validatedURLParameters[1], foodDTO))
                 model.addAttribute("operationStatus", "Entity with id "
@@ -353,11 +559,11 @@ public class DBController {
             else
                 model.addAttribute("operationStatus",
                         "Attempt to update entity with non-existent id " + selectedID);
-        } catch (IllegalArgumentException e) {
+        } catch (IllegalArgumentException | IllegalStateException e) {
             model.addAttribute("inputError", e.getMessage()); // add client message about failed input validation
         }
         finally {
-            rwLock.writeLock().unlock(); // end of synchronized code block (write)
+            unlockForWrite(lockedAt); // end of synchronized code block (write)
         }
     }
 
@@ -365,6 +571,7 @@ public class DBController {
      * Handler of the PUT request (update) on the index page "/"
      * @param pageIndex value of url parameter indicating which page in browsing card is displayed (paging)
      * @param selectedID food/entity id selected by the user
+     * @param pageSize number of entries of one page requested by the user
      * @param foodDTO DTO used for transfring entity/food data between client-application (input/output)
      * @param model Model parameter for data to be presented to the client in the template
      * @return name of html template
@@ -372,11 +579,12 @@ public class DBController {
     @PutMapping("/")
     public String updateAtIndexPage(@RequestParam(value = "view", defaultValue = "0") String pageIndex,
                                     @RequestParam(value = "id", required = false) String selectedID,
+                                    @RequestParam(value = "size", required = false) String pageSize,
                                     @ModelAttribute("foodDTO") FoodDTO foodDTO,
                                     Model model) {
         update(selectedID, foodDTO, model); // attempts to perform the db update and may mutate model
 
-        return renderIndexPage(pageIndex, selectedID, foodDTO, model);
+        return renderIndexPage(pageIndex, selectedID, pageSize, foodDTO, model);
     }
 
     /**
@@ -384,6 +592,8 @@ public class DBController {
      * @param pageIndex value of url parameter indicating which page in browsing card is displayed (paging)
      * @param selectedID food/entity id selected by the user
      * @param searchedName food/entity name searched by the user
+     * @param filter filter query written by the user
+     * @param pageSize number of entries of one page requested by the user
      * @param foodDTO DTO used for transfring entity/food data between client-application (input/output)
      * @param model Model parameter for data to be presented to the client in the template
      * @return name of html template
@@ -392,37 +602,39 @@ public class DBController {
     public String updateAtSearchPage(@RequestParam(value = "view", defaultValue = "0") String pageIndex,
                                      @RequestParam(value = "id", required = false) String selectedID,
                                      @RequestParam(value = "searchedName", required = false) String searchedName,
+                                     @RequestParam(value = "filter", required = false) String filter,
+                                     @RequestParam(value = "size", required = false) String pageSize,
                                      @ModelAttribute("foodDTO") FoodDTO foodDTO,
                                      Model model) {
         update(selectedID, foodDTO, model); // attempts to perform the db update and may mutate model
 
-        return renderSearchPage(pageIndex, selectedID, searchedName, foodDTO, model);
+        return renderSearchPage(pageIndex, selectedID, searchedName, filter, pageSize, foodDTO, model);
     }
 
     /**
      * Handler of the POST reuquest - creates new entity in the "database"
+     * @param pageSize number of entries of one page requested by the user
      * @param foodDTO DTO used for transfring entity/food data between client-application (input/output)
      * @param model Model parameter for data to be presented to the client in the template
      * @return name of html template
      */
     @PostMapping("/create")
-    public String createEntry(@ModelAttribute("foodDTO") FoodDTO foodDTO,
+    public String createEntry(@RequestParam(value = "size", required = false) String pageSize,
+                              @ModelAttribute("foodDTO") FoodDTO foodDTO,
                               Model model) {
-        rwLock.writeLock().lock(); // start of synchronized code block (write)
+        long lockedAt = lockForWrite(); // start of synchronized code block (write)
         try {
-            dbService.addEntry(foodDTO);
-            model.addAttribute("operationStatus", "New entry created with the id "
-                    + dbService.showEntriesByIndexRange(dbService.getDBSize() - 1, 1).get(0).getFoodID());
-        } catch (IllegalArgumentException e) {
+            model.addAttribute("operationStatus", "New entry created with the id " + dbService.addEntry(foodDTO));
+        } catch (IllegalArgumentException | IllegalStateException e) {
             model.addAttribute("inputError", e.getMessage()); // add client message about failed input validation
         } finally {
-            rwLock.writeLock().unlock(); // end of synchronized code block (write)
+            unlockForWrite(lockedAt); // end of synchronized code block (write)
         }
         // next, we need to clean the DTO after the new entry has been saved
         // otherwise, the data will stay in the form
         foodDTO.resetAllAttributes();
 
         // no detail of item should be displayed
-        return renderCreatePage(null, foodDTO, model);
+        return renderCreatePage(null, pageSize, foodDTO, model);
     }
 }
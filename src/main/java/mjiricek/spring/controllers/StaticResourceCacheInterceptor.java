@@ -0,0 +1,56 @@
+package mjiricek.spring.controllers;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.util.regex.Pattern;
+
+/**
+ * Sets Cache-Control of the static resources (css, js)
+ * - the templates link them by fingerprinted URLs (content hash in the name, /css/styles-<md5>.css),
+ * such URL always serves the same bytes, so the browser may keep it for a year without asking again
+ * - a resource requested by its plain name (/css/styles.css) may change with the next deployment,
+ * the browser has to revalidate it (answered by 304 Not Modified when it didn't change)
+ */
+public class StaticResourceCacheInterceptor implements HandlerInterceptor {
+    /**
+     * URL patterns of the static resources
+     */
+    public static final String[] PATH_PATTERNS = {"/css/**", "/js/**"};
+
+    /**
+     * Cache-Control of a fingerprinted resource
+     */
+    private static final String IMMUTABLE = "max-age=31536000, public, immutable";
+
+    /**
+     * Cache-Control of a resource requested by its plain name
+     */
+    private static final String REVALIDATE = "no-cache";
+
+    /**
+     * name of a fingerprinted resource: name-<32 hex digits of md5>.extension
+     */
+    private static final Pattern FINGERPRINTED = Pattern.compile("-[0-9a-f]{32}\\.[^./]+$");
+
+    /**
+     * returns Cache-Control of the static resource at the path
+     * @param path path of the request
+     * @return value of the Cache-Control header
+     */
+    public static String cacheControlFor(String path) {
+        return FINGERPRINTED.matcher(path).find() ? IMMUTABLE : REVALIDATE;
+    }
+
+    /**
+     * sets Cache-Control before the resource handler writes the response
+     * @return true - the request always continues
+     */
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControlFor(request.getRequestURI()));
+        return true;
+    }
+}
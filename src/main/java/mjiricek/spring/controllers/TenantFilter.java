@@ -0,0 +1,117 @@
+package mjiricek.spring.controllers;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import mjiricek.spring.models.TenantContext;
+import mjiricek.spring.models.TenantDatabase;
+import mjiricek.spring.models.TenantRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Selects the tenant database of every request and holds it (TenantContext) while the request is handled
+ * - path prefix /t/{tenant}/... selects the tenant and the rest of the path is forwarded to the controllers
+ * (so the pages work unchanged: /t/acme/search is the search page of the tenant "acme")
+ * - otherwise header X-Tenant selects the tenant (for the API clients), without both the default tenant is used
+ * - the prefix of the tenant's pages is put in the request attribute "tenantPrefix" (empty for the default tenant
+ * and for the header), the templates build the absolute links with it
+ * - a request of a new tenant is rejected with 503 Service Unavailable if max-resident tenants are in use
+ * - runs after the filter of the hidden http methods (lowest precedence), so the forwarded request keeps its method
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class TenantFilter extends OncePerRequestFilter {
+    /**
+     * path prefix selecting the tenant
+     */
+    private static final String PATH_PREFIX = "/t/";
+
+    /**
+     * header selecting the tenant
+     */
+    public static final String TENANT_HEADER = "X-Tenant";
+
+    /**
+     * request attribute with the path prefix of the tenant's pages
+     */
+    public static final String PREFIX_ATTRIBUTE = "tenantPrefix";
+
+    /**
+     * value of the header Retry-After of a request rejected because all resident tenants are in use (in seconds)
+     */
+    public static final String TENANT_RETRY_AFTER_SECONDS = "1";
+
+    /**
+     * registry of the tenant databases
+     */
+    private final TenantRegistry tenantRegistry;
+
+    /**
+     * constructor (Spring uses it in dependency injection)
+     * @param tenantRegistry registry of the tenant databases
+     */
+    public TenantFilter(@Qualifier("createTenantRegistry") TenantRegistry tenantRegistry) {
+        this.tenantRegistry = tenantRegistry;
+    }
+
+    /**
+     * selects the tenant, handles the request with it and releases it
+     * @param request http request
+     * @param response http response
+     * @param filterChain rest of the filters and the controllers
+     */
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String tenantId = request.getHeader(TENANT_HEADER);
+        String forwardPath = null;
+        if (path.startsWith(PATH_PREFIX)) {
+            int end = path.indexOf('/', PATH_PREFIX.length());
+            if (end < 0) { // relative links of the pages need the trailing slash
+                response.sendRedirect(request.getRequestURI() + "/");
+                return;
+            }
+            tenantId = path.substring(PATH_PREFIX.length(), end);
+            forwardPath = path.substring(end);
+        }
+        if (tenantId == null || tenantId.isEmpty())
+            tenantId = TenantRegistry.DEFAULT_TENANT;
+
+        if (!TenantRegistry.isValidTenantId(tenantId)) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, TenantRegistry.invalidTenantIdMessage(tenantId));
+            return;
+        }
+
+        TenantDatabase database;
+        try {
+            database = tenantRegistry.acquire(tenantId);
+        } catch (IllegalStateException e) { // all resident tenants are in use
+            response.setHeader(HttpHeaders.RETRY_AFTER, TENANT_RETRY_AFTER_SECONDS);
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+            return;
+        }
+
+        TenantContext.set(database);
+        try {
+            if (forwardPath == null) {
+                request.setAttribute(PREFIX_ATTRIBUTE, "");
+                filterChain.doFilter(request, response);
+            } else {
+                request.setAttribute(PREFIX_ATTRIBUTE, PATH_PREFIX + tenantId);
+                request.getRequestDispatcher(forwardPath).forward(request, response);
+            }
+        } finally {
+            TenantContext.clear();
+            tenantRegistry.release(database);
+        }
+    }
+}
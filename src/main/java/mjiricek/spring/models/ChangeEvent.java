@@ -0,0 +1,115 @@
+package mjiricek.spring.models;
+
+import mjiricek.spring.models.entities.Food;
+
+/**
+ * Record of one mutation of the database (change data capture)
+ * - immutable, the food is a copy made at the time of the change
+ */
+public class ChangeEvent {
+    /**
+     * kinds of mutations
+     */
+    public enum ChangeType {
+        CREATE,
+        UPDATE,
+        DELETE
+    }
+
+    /**
+     * sequence number of the change - changes are numbered from 1 without gaps, in the order they were applied
+     */
+    private final long sequence;
+
+    /**
+     * kind of the mutation
+     */
+    private final ChangeType type;
+
+    /**
+     * wall clock time of the change in milliseconds (System.currentTimeMillis())
+     */
+    private final long timestamp;
+
+    /**
+     * the food after the change (for DELETE the food as it was deleted)
+     */
+    private final Food food;
+
+    /**
+     * name of the food before the change (for UPDATE only, otherwise null)
+     */
+    private final String previousFoodName;
+
+    /**
+     * Constructor
+     * @param sequence sequence number of the change
+     * @param type kind of the mutation
+     * @param timestamp time of the change in milliseconds
+     * @param food copy of the changed food
+     * @param previousFoodName name before the change (UPDATE only)
+     */
+    public ChangeEvent(long sequence, ChangeType type, long timestamp, Food food, String previousFoodName) {
+        this.sequence = sequence;
+        this.type = type;
+        this.timestamp = timestamp;
+        this.food = food;
+        this.previousFoodName = previousFoodName;
+    }
+
+    /**
+     * returns sequence number of the change
+     * @return sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * returns kind of the mutation
+     * @return kind of the mutation
+     */
+    public ChangeType getType() {
+        return type;
+    }
+
+    /**
+     * returns time of the change
+     * @return time in milliseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * returns copy of the changed food (new copy each time, the event stays immutable)
+     * @return the food after the change
+     */
+    public Food getFood() {
+        return food.copy();
+    }
+
+    /**
+     * returns name of the food before the change
+     * @return previous name for UPDATE, otherwise null
+     */
+    public String getPreviousFoodName() {
+        return previousFoodName;
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * - returns text representation of ChangeEvent instance
+     * @return text representation of ChangeEvent instance
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of ChangeEvent %s:%n" +
+                "=======================================================%n" +
+                "sequence: %d%n" +
+                "type: %s%n" +
+                "timestamp: %d%n" +
+                "previousFoodName: %s%n" +
+                "___Contained in ChangeEvent:%n%s", super.toString(), sequence, type, timestamp, previousFoodName, food);
+    }
+}
@@ -0,0 +1,256 @@
+package mjiricek.spring.models;
+
+import mjiricek.spring.models.entities.Food;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded log of the recent changes of the database (change data capture)
+ * - ring buffer of the last "capacity" events, older events are overwritten
+ * - the owner (DBSimulator) appends events under its write lock, so the sequence numbers
+ * follow the order in which the changes were applied
+ * - appending never waits for readers: the ring has its own short lock held only to store/copy references,
+ * readers that fall behind by more than the capacity simply lose the overwritten events
+ * (and are told so by readAfter returning null)
+ * - listeners are notified synchronously after every append (e.g. to invalidate caches),
+ * the change is already applied to the table when they are called
+ */
+public class ChangeLog {
+    /**
+     * ring buffer - event with sequence s is stored at index s % capacity
+     */
+    private final ChangeEvent[] ring;
+
+    /**
+     * sequence number of the last appended event (0 = no event yet)
+     */
+    private long latestSequence = 0;
+
+    /**
+     * sequence number of the first event appended since the log was created or restarted
+     * (events before it were never in this log)
+     */
+    private long firstSequence = 1;
+
+    /**
+     * lock guarding the ring and the sequence
+     * (not the database lock - readers of the log must never block the database writers)
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * signalled whenever a new event is appended
+     */
+    private final Condition appended = lock.newCondition();
+
+    /**
+     * listeners notified about every appended event (registered rarely, notified on every write)
+     */
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructor
+     * @param capacity maximal number of events kept in the log
+     */
+    public ChangeLog(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity of the change log must be positive.");
+
+        this.ring = new ChangeEvent[capacity];
+    }
+
+    /**
+     * Appends new event - it gets the next sequence number
+     * @param type kind of the mutation
+     * @param food copy of the changed food
+     * @param previousFoodName name before the change (UPDATE only)
+     * @return the appended event
+     */
+    public ChangeEvent append(ChangeEvent.ChangeType type, Food food, String previousFoodName) {
+        ChangeEvent event;
+        lock.lock();
+        try {
+            event = new ChangeEvent(latestSequence + 1, type, System.currentTimeMillis(), food, previousFoodName);
+            ring[(int) (event.getSequence() % ring.length)] = event;
+            latestSequence = event.getSequence();
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        notifyListeners(event);
+        return event;
+    }
+
+    /**
+     * Appends event replicated from another change log - the event keeps its sequence number and timestamp
+     * @param event replicated event
+     * @throws IllegalStateException if the event doesn't directly follow the last appended event
+     */
+    public void append(ChangeEvent event) throws IllegalStateException {
+        lock.lock();
+        try {
+            if (event.getSequence() != latestSequence + 1)
+                throw new IllegalStateException("Change " + event.getSequence()
+                        + " doesn't follow the latest change " + latestSequence);
+
+            ring[(int) (event.getSequence() % ring.length)] = event;
+            latestSequence = event.getSequence();
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        notifyListeners(event);
+    }
+
+    /**
+     * Forgets all events and continues numbering after the given sequence number
+     * - used when the whole database is replaced by a snapshot
+     * @param sequence sequence number of the last change included in the snapshot
+     */
+    public void restart(long sequence) {
+        lock.lock();
+        try {
+            Arrays.fill(ring, null);
+            latestSequence = sequence;
+            firstSequence = sequence + 1;
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Listener listener : listeners)
+            listener.restarted(sequence);
+    }
+
+    /**
+     * Registers listener notified about every following change
+     * @param listener notified listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * notifies the listeners about appended event (outside of the ring lock)
+     * @param event appended event
+     */
+    private void notifyListeners(ChangeEvent event) {
+        for (Listener listener : listeners)
+            listener.changed(event);
+    }
+
+    /**
+     * returns sequence number of the last appended event
+     * @return latest sequence number, 0 if there was no change yet
+     */
+    public long getLatestSequence() {
+        lock.lock();
+        try {
+            return latestSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * returns sequence number of the oldest event still kept in the log
+     * @return oldest available sequence number (latest + 1 if the log is empty)
+     */
+    public long getOldestAvailableSequence() {
+        lock.lock();
+        try {
+            return oldestAvailable();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns events following the given sequence number
+     * @param afterSequence sequence number of the last event the reader already has
+     * @param maxEvents maximal number of returned events
+     * @return events with sequence numbers afterSequence+1, afterSequence+2, ... (possibly empty),
+     * or null if some of those events were already overwritten (the reader has to resynchronize)
+     */
+    public List<ChangeEvent> readAfter(long afterSequence, int maxEvents) {
+        lock.lock();
+        try {
+            if (afterSequence + 1 < oldestAvailable())
+                return null;
+
+            long last = Math.min(latestSequence, afterSequence + maxEvents);
+            List<ChangeEvent> events = new ArrayList<>((int) Math.max(0, last - afterSequence));
+            for (long sequence = afterSequence + 1; sequence <= last; sequence++)
+                events.add(ring[(int) (sequence % ring.length)]);
+
+            return events;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until there is an event following the given sequence number
+     * @param afterSequence sequence number of the last event the reader already has
+     * @param timeoutMillis maximal waiting time
+     * @return true if there is a newer event, false if the time ran out
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    public boolean awaitAfter(long afterSequence, long timeoutMillis) throws InterruptedException {
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (latestSequence <= afterSequence) {
+                if (remainingNanos <= 0)
+                    return false;
+                remainingNanos = appended.awaitNanos(remainingNanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * oldest kept sequence number - has to be called with the lock held
+     * @return oldest available sequence number
+     */
+    private long oldestAvailable() {
+        return Math.max(firstSequence, latestSequence - ring.length + 1);
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * - returns text representation of ChangeLog instance
+     * @return text representation of ChangeLog instance
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of ChangeLog " + super.toString() + ":%n" +
+                "=======================================================%n" +
+                "capacity: " + ring.length + "%n" +
+                "latestSequence: " + getLatestSequence() + "%n");
+    }
+
+    /**
+     * Listener of the changes - called by the writing thread, so it has to be quick and must not throw
+     */
+    public interface Listener {
+        /**
+         * called after a change was applied and appended to the log
+         * @param event appended event
+         */
+        void changed(ChangeEvent event);
+
+        /**
+         * called after the whole table was replaced by a snapshot (any change may have happened)
+         * @param sequence sequence number of the last change included in the snapshot
+         */
+        void restarted(long sequence);
+    }
+}
@@ -3,10 +3,23 @@ package mjiricek.spring.models;
 import mjiricek.spring.models.entities.Food;
 import mjiricek.spring.models.entities.FoodDTO;
 import mjiricek.spring.models.entities.FoodData;
+import mjiricek.spring.models.query.FilterCondition;
+import mjiricek.spring.models.query.FilterOperator;
+import mjiricek.spring.models.query.FilterParser;
+import mjiricek.spring.models.query.FilterQuery;
+import mjiricek.spring.models.query.FoodField;
+import mjiricek.spring.models.query.QueryPlan;
+import mjiricek.spring.models.query.RankingMetric;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * This class provides controller with methods to operate the database
@@ -14,8 +27,8 @@ import java.util.ArrayList;
  * Class includes input validation
  * (ensuring that the values are meaningful, aka nonegative weight or calories,
  * parsing and parsing exceptions are in the competency of a controller class)
- * - This class should have no internal state on its own, except the reference to virtualDatabase
- * which should be immutable. So this class is supposed to be thread safe by default
+ * - This class should have no internal state on its own, except the reference to the tenant registry
+ * (the databases of the tenants are thread safe themselves) which should be immutable. So this class is supposed to be thread safe by default
  * Empty string names are allowed for testing purposses (it's quicker to not fill anything)
  *
  */
@@ -23,17 +36,106 @@ import java.util.ArrayList;
 public class DBService {
 
     /**
-     * reference to the virtual database the service will work with
+     * maximal number of entries returned by one top-K query
      */
-    private final DBSimulator dbSimulator;
+    public static final int MAX_TOP_K = 1000;
+
+    /**
+     * registry of the tenant databases - the service works with the database of the tenant
+     * of the current request (TenantContext), or with the default one
+     */
+    private final TenantRegistry tenantRegistry;
+
+    /**
+     * true if the database is a read-only replica (replication follower) - writes come only from the leader
+     */
+    private final boolean readOnly;
+
+    /**
+     * generator of synthetic foods (scale testing)
+     */
+    private final FoodGenerator foodGenerator;
 
     /**
      * Constructor
-     * Instance of DBSimulator is given by springs dependency injection
+     * Instance of the tenant registry is given by springs dependency injection
      * - @Qualifier annotation to make the dependency injection explicit
+     * @param tenantRegistry registry of the tenant databases
+     * @param replicationRole role of this process in the replication (follower is read-only)
+     * @param foodGenerator generator of synthetic foods
+     */
+    public DBService(@Qualifier("createTenantRegistry") TenantRegistry tenantRegistry,
+                     @Value("${nutrdb.replication.role:standalone}") String replicationRole,
+                     @Qualifier("createFoodGenerator") FoodGenerator foodGenerator) {
+        this.tenantRegistry = tenantRegistry;
+        this.readOnly = "follower".equals(replicationRole);
+        this.foodGenerator = foodGenerator;
+    }
+
+    /**
+     * returns database of the tenant of the current request
+     * @return tenant database (the default one outside of a request)
+     */
+    private TenantDatabase database() {
+        TenantDatabase database = TenantContext.get();
+        return database != null ? database : tenantRegistry.getDefaultTenant();
+    }
+
+    /**
+     * returns storage engine (virtual database) of the current tenant
+     * @return storage engine
+     */
+    private StorageEngine storageEngine() {
+        return database().getStorageEngine();
+    }
+
+    /**
+     * returns cache of the name search results of the current tenant
+     * @return search result cache
+     */
+    private SearchResultCache searchResultCache() {
+        return database().getSearchResultCache();
+    }
+
+    /**
+     * returns queue the writes of the current tenant are submitted to
+     * @return write-behind queue, null in the synchronous write mode
+     */
+    private WriteBehindQueue writeBehindQueue() {
+        return database().getWriteBehindQueue();
+    }
+
+    /**
+     * returns lock of the pages of the current tenant (see DBController)
+     * @return read/write lock
+     */
+    public ReentrantReadWriteLock getPageLock() {
+        return database().getPageLock();
+    }
+
+    /**
+     * returns whether the writes are applied asynchronously by the write-behind queue
+     * @return true in the asynchronous write mode
+     */
+    public boolean isWriteBehind() {
+        return writeBehindQueue() != null;
+    }
+
+    /**
+     * returns whether the database is a read-only replica
+     * @return true if writes are rejected
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * rejects writes on a read-only replica
+     * @throws IllegalStateException with message for the user if the database is read-only
      */
-    public DBService(@Qualifier("createDBSimulator") DBSimulator dbSimulator) {
-        this.dbSimulator = dbSimulator;
+    private void checkWritable() throws IllegalStateException {
+        if (readOnly)
+            throw new IllegalStateException("This server is a read-only replica, changes have to be made on the leader.");
     }
 
     /**
@@ -68,26 +170,61 @@ public class DBService {
      * @return number of entries in DB
      */
     public int getDBSize() {
-        return dbSimulator.getTableSize();
+        return storageEngine().getTableSize();
     }
 
     /**
      * Returns number of ocurrences of an entry with a given name attribute value
-     * we receive fewer elements than we asked for.
+     * - the name is matched ignoring case and diacritics ("cokolada" finds "Čokoláda"),
+     * through the precomputed search keys and their index (costs the same as the exact match)
+     * - answered from the search cache if no name with the same search key was changed since it was cached
      * @param entryName name of the entry
      * @return number of ocurrences with a given name
      */
     public int howManyEntriesOfName(String entryName) {
-        return dbSimulator.getNameCount(entryName);
+        if (entryName == null) // active prevention of nonsense
+            return 0;
+
+        FilterQuery query = similarNameQuery(entryName);
+        return searchResultCache().getCount(FoodData.toSearchKey(entryName), () -> storageEngine().getQueryCount(query));
     }
 
     /**
-     * adds new entry in DB
+     * adds new entry in DB (waits until it is applied, also in the asynchronous write mode)
      * @param foodDTO DTO with the attributes (entryName and entryContent) for the new db entry
+     * @return id of the new entry
+     */
+    public int addEntry(FoodDTO foodDTO) throws IllegalArgumentException, IllegalStateException {
+        return await(submitEntry(foodDTO));
+    }
+
+    /**
+     * validates new entry and submits it to be added in DB
+     * - in the asynchronous write mode returns right after the entry is queued
+     * @param foodDTO DTO with the attributes of the new db entry
+     * @return future of the id of the new entry
+     * @throws IllegalArgumentException with message for the user if the input isn't valid (thrown right away)
+     * @throws IllegalStateException with message for the user if the database is read-only
+     */
+    public CompletableFuture<Integer> submitEntry(FoodDTO foodDTO) throws IllegalArgumentException, IllegalStateException {
+        checkWritable();
+        return submit(WriteOperation.create(dTOToFood(foodDTO)));
+    }
+
+    /**
+     * Adds synthetic foods to the database of the current tenant (scale testing)
+     * - the rows are written directly by the storage engine in batches (not through the write-behind queue)
+     * @param rows number of generated foods
+     * @param seed seed of the generator (the same seed generates the same foods)
+     * @return number of entries in DB after the load
+     * @throws IllegalArgumentException with message for the user if the number of rows is out of range
+     * @throws IllegalStateException with message for the user if the database is read-only
      */
-    public void addEntry(FoodDTO foodDTO) throws IllegalArgumentException {
-        FoodData foodData = dTOToFood(foodDTO);
-        dbSimulator.addEntity(foodData);
+    public int seedEntries(int rows, long seed) throws IllegalArgumentException, IllegalStateException {
+        checkWritable();
+        StorageEngine storageEngine = storageEngine();
+        foodGenerator.loadInto(storageEngine, rows, seed);
+        return storageEngine.getTableSize();
     }
 
     /**
@@ -98,36 +235,87 @@ public class DBService {
      */
     public Food showEntryById(Integer id) {
         if (id != null && id >= 0) // active prevention of nonsense
-            return dbSimulator.getEntityCopyById(id);
+            return storageEngine().getEntityCopyById(id);
 
         return null;
     }
 
     /**
-     * Finds an entry by id and deletes it (if it exists)
+     * Finds an entry by id and deletes it (if it exists) - waits until it is applied
      * @param id id of the deleted entry
      * @return true if entry found, false if not
      */
-    public boolean deleteEntry(Integer id) {
-        if (id != null && id >= 0) // active prevention of nonsense
-            return dbSimulator.deleteEntityById(id);
+    public boolean deleteEntry(Integer id) throws IllegalStateException {
+        return await(submitDelete(id));
+    }
+
+    /**
+     * submits deletion of an entry (in the asynchronous write mode returns right after it is queued)
+     * @param id id of the deleted entry
+     * @return future of the result - true if entry found, false if not
+     * @throws IllegalStateException with message for the user if the database is read-only
+     */
+    public CompletableFuture<Boolean> submitDelete(Integer id) throws IllegalStateException {
+        checkWritable();
+        if (id == null || id < 0) // active prevention of nonsense
+            return CompletableFuture.completedFuture(false);
 
-        return false;
+        return submit(WriteOperation.delete(id)).thenApply(result -> result >= 0);
     }
 
     /**
-     * Finds an entry by id and changes its attributes to provided values (if found)
+     * Finds an entry by id and changes its attributes to provided values (if found) - waits until it is applied
      * @param id id of udpated entry
      * @param foodDTO new entity contents
      * @return true if entry found, false if not
      */
-    public boolean updateEntry(Integer id, FoodDTO foodDTO) throws IllegalArgumentException {
-        if (id != null && id >= 0) { // active prevention of nonsense
-            FoodData foodData = dTOToFood(foodDTO);
-            return dbSimulator.updateEntityById(id, foodData);
-        }
+    public boolean updateEntry(Integer id, FoodDTO foodDTO) throws IllegalArgumentException, IllegalStateException {
+        return await(submitUpdate(id, foodDTO));
+    }
+
+    /**
+     * validates new contents of an entry and submits its update (in the asynchronous write mode returns right after it is queued)
+     * @param id id of udpated entry
+     * @param foodDTO new entity contents
+     * @return future of the result - true if entry found, false if not
+     * @throws IllegalArgumentException with message for the user if the input isn't valid (thrown right away)
+     * @throws IllegalStateException with message for the user if the database is read-only
+     */
+    public CompletableFuture<Boolean> submitUpdate(Integer id, FoodDTO foodDTO) throws IllegalArgumentException, IllegalStateException {
+        checkWritable();
+        if (id == null || id < 0) // active prevention of nonsense
+            return CompletableFuture.completedFuture(false);
+
+        return submit(WriteOperation.update(id, dTOToFood(foodDTO))).thenApply(result -> result >= 0);
+    }
+
+    /**
+     * applies the validated write right away (synchronous mode) or queues it (asynchronous mode)
+     * @param operation validated mutation
+     * @return future of the id of the affected entity (-1 if not found)
+     */
+    private CompletableFuture<Integer> submit(WriteOperation operation) {
+        WriteBehindQueue writeBehindQueue = writeBehindQueue();
+        if (writeBehindQueue == null)
+            return CompletableFuture.completedFuture(storageEngine().applyWrites(List.of(operation))[0]);
+
+        return writeBehindQueue.submit(operation);
+    }
 
-        return false;
+    /**
+     * waits for the result of a submitted write
+     * @param result future of the result
+     * @return the result
+     * @param <T> type of the result
+     */
+    private static <T> T await(CompletableFuture<T> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause; // the original exception of the storage engine
+            throw e;
+        }
     }
 
     /**
@@ -146,7 +334,7 @@ public class DBService {
         if (copySize <= 0)
             copySize = 1;
 
-        return dbSimulator.getTableSubcopy(startIndex, copySize);
+        return storageEngine().getTableSubcopy(startIndex, copySize);
     }
 
     /**
@@ -154,6 +342,8 @@ public class DBService {
      * If the index range reaches out of arraylist indices,
      * the copying still happens for the valid part of the index range.
      * - This means that when we input start or end out of bounds,
+     * - the name is matched ignoring case and diacritics, see howManyEntriesOfName
+     * - answered from the search cache if no name with the same search key was changed since the page was cached
      * @param entryName  name to search by
      * @param startIndex index where to start the copy, inclusive
      * @param copySize   requested length of the copy
@@ -165,7 +355,216 @@ public class DBService {
         if (copySize <= 0)
             copySize = 1;
 
-        return dbSimulator.getTableSubcopy(entryName, startIndex, copySize);
+        if (entryName == null)
+            return new ArrayList<>();
+
+        FilterQuery query = similarNameQuery(entryName);
+        int start = startIndex;
+        int length = copySize;
+        return searchResultCache().getPage(FoodData.toSearchKey(entryName), start, length,
+                () -> storageEngine().getTableSubcopy(query, start, length));
+    }
+
+    /**
+     * creates filter query matching the name ignoring case and diacritics (name~="...")
+     * - the query of the name search (showEntriesByName), also for reading the following chunks of its pages
+     * @param entryName searched name
+     * @return filter query with one SIMILAR condition
+     */
+    public static FilterQuery similarNameQuery(String entryName) {
+        return new FilterQuery(List.of(new FilterCondition(FilterOperator.SIMILAR, entryName)));
+    }
+
+    /**
+     * returns statistics of the search cache
+     * @return hits, misses, evictions, invalidations, size and capacity of the cache
+     */
+    public Map<String, Object> getSearchCacheStatistics() {
+        return searchResultCache().getStatistics();
+    }
+
+    /**
+     * parses text of a filter query, for example: name~"cheese" AND protein>20 AND fat<10
+     * @param filterText text of the filter query
+     * @return parsed filter query
+     * @throws IllegalArgumentException with message for the user if the query isn't valid
+     */
+    public FilterQuery parseFilter(String filterText) throws IllegalArgumentException {
+        return FilterParser.parse(filterText);
+    }
+
+    /**
+     * Returns number of entries satisfying the filter query
+     * @param filterQuery parsed filter query
+     * @return number of matching entries
+     */
+    public int howManyEntriesOfFilter(FilterQuery filterQuery) {
+        return storageEngine().getQueryCount(filterQuery);
+    }
+
+    /**
+     * Search and copy entries satisfying the filter query. The copy is also restricted by start index and length.
+     * @param filterQuery parsed filter query
+     * @param startIndex index where to start the copy, inclusive
+     * @param copySize   requested length of the copy
+     * @return list of found entries
+     */
+    public ArrayList<Food> showEntriesByFilter(FilterQuery filterQuery, int startIndex, int copySize) {
+        if (startIndex < 0) // active prevention of nonsense
+            startIndex = 0;
+        if (copySize <= 0)
+            copySize = 1;
+
+        return storageEngine().getTableSubcopy(filterQuery, startIndex, copySize);
+    }
+
+    /**
+     * returns execution plan of the filter query (for debugging)
+     * @param filterQuery parsed filter query
+     * @return execution plan chosen by the planner
+     */
+    public QueryPlan explainFilter(FilterQuery filterQuery) {
+        return storageEngine().planQuery(filterQuery);
+    }
+
+    /**
+     * Summarizes the nutrients (count, mean, min, max, histogram) of the entries satisfying the filter query
+     * - the whole table costs no scan with the in-memory engine (its summary is maintained incrementally),
+     * a filtered summary is computed over the rows chosen by the planner (name index or scan)
+     * @param filterQuery parsed filter query, null for the whole table
+     * @return summary of the matching entries
+     */
+    public NutrientStatistics showStatistics(FilterQuery filterQuery) {
+        return storageEngine().getNutrientStatistics(filterQuery);
+    }
+
+    /**
+     * creates ranking metric from the nutrient keywords
+     * @param nutrient keyword of the ranked nutrient (e.g. "protein")
+     * @param perNutrient keyword of the nutrient the ranked one is related to (e.g. "kcal"), null or empty for none
+     * @param order "asc" for the lowest values first, anything else for the highest values first
+     * @return ranking metric
+     * @throws IllegalArgumentException with message for the user if a keyword isn't valid
+     */
+    public RankingMetric createRankingMetric(String nutrient, String perNutrient, String order) throws IllegalArgumentException {
+        FoodField denominator = (perNutrient == null || perNutrient.isBlank()) ? null : FoodField.fromKeyword(perNutrient);
+        return new RankingMetric(FoodField.fromKeyword(nutrient), denominator, !"asc".equalsIgnoreCase(order));
+    }
+
+    /**
+     * Finds and copies k best entries according to the ranking metric
+     * @param metric ranking metric
+     * @param k requested number of entries (limited to 1..MAX_TOP_K)
+     * @return copies of the best entries, best first
+     */
+    public ArrayList<Food> showTopEntries(RankingMetric metric, int k) {
+        if (k <= 0) // active prevention of nonsense
+            k = 1;
+        if (k > MAX_TOP_K)
+            k = MAX_TOP_K;
+
+        return storageEngine().getTopK(metric, k);
+    }
+
+    /**
+     * Returns the most frequent names starting with given prefix (ignoring case and diacritics) - for autocomplete
+     * @param prefix typed beginning of the name
+     * @param limit requested number of suggestions (limited to 1..StorageEngine.MAX_SUGGESTIONS)
+     * @return suggested names, the most frequent first
+     */
+    public List<String> suggestNames(String prefix, int limit) {
+        if (prefix == null || prefix.isEmpty()) // active prevention of nonsense
+            return List.of();
+        if (limit <= 0)
+            limit = 1;
+        if (limit > StorageEngine.MAX_SUGGESTIONS)
+            limit = StorageEngine.MAX_SUGGESTIONS;
+
+        return storageEngine().getNameSuggestions(prefix, limit);
+    }
+
+    /**
+     * Reads one page of entries from a snapshot of the database (multi-version concurrency control)
+     * - the database isn't locked while reading, so long reads (exports) don't block writers
+     * @param asOfSequence sequence number of the change the database is read after, null for the latest change
+     * @param filterQuery parsed filter query, null for all entries
+     * @param afterId id of the last entry of the previous page (continuation cursor), null for the first page
+     * @param startIndex index (among the matching entries behind the cursor) where to start the copy, inclusive
+     * @param copySize requested length of the copy
+     * @return page of entries with the sequence number of the snapshot and the number of all matching entries
+     * (counted only on the first page)
+     * @throws IllegalArgumentException with message for the user if the database can't be read as of that sequence
+     */
+    public SnapshotPage showEntriesAsOf(Long asOfSequence, FilterQuery filterQuery, Integer afterId, int startIndex,
+                                        int copySize) throws IllegalArgumentException {
+        if (startIndex < 0) // active prevention of nonsense
+            startIndex = 0;
+        if (copySize <= 0)
+            copySize = 1;
+
+        return storageEngine().getSnapshotPage(asOfSequence, filterQuery, afterId, startIndex, copySize);
+    }
+
+    /**
+     * Reads the next chunk of a page whose first chunk was read at the given sequence (pages rendered in chunks)
+     * - continues by id right behind the last delivered entry in the snapshot of that sequence,
+     * so a write between two chunks can't shift the rows of the page (repeat or drop some of them)
+     * - if the database can't be read as of the sequence anymore (its versions were collected, the H2 engine
+     * keeps only the latest state), the chunk is read from the latest state, still behind the cursor -
+     * no row is repeated or dropped, the rows changed in the meantime are shown in their new state
+     * @param sequence sequence number the first chunk of the page was read at
+     * @param filterQuery query of the page, null for all entries
+     * @param afterId id of the last delivered entry
+     * @param copySize requested length of the chunk
+     * @return copies of the entries following the cursor, fewer than copySize at the end of the query
+     */
+    public List<Food> showEntriesAfter(long sequence, FilterQuery filterQuery, int afterId, int copySize) {
+        try {
+            return showEntriesAsOf(sequence, filterQuery, afterId, 0, copySize).getEntries();
+        } catch (IllegalArgumentException e) {
+            return showEntriesAsOf(null, filterQuery, afterId, 0, copySize).getEntries();
+        }
+    }
+
+    /**
+     * returns the oldest sequence number the database can still be read as of
+     * @return oldest available sequence number
+     */
+    public long getOldestSnapshotSequence() {
+        return storageEngine().getOldestSnapshotSequence();
+    }
+
+    /**
+     * returns sequence number of the latest change of the database
+     * @return latest sequence number, 0 if there was no change yet
+     */
+    public long getLatestChangeSequence() {
+        return storageEngine().getChangeLog().getLatestSequence();
+    }
+
+    /**
+     * Returns changes of the database following the given sequence number (change data capture)
+     * @param afterSequence sequence number of the last change the caller already has
+     * @param maxChanges maximal number of returned changes
+     * @return following changes in the order they were applied (possibly empty),
+     * or null if the changes are no longer available and the caller has to resynchronize
+     */
+    public List<ChangeEvent> showChangesAfter(long afterSequence, int maxChanges) {
+        if (afterSequence < 0) // active prevention of nonsense
+            afterSequence = 0;
+
+        return storageEngine().getChangeLog().readAfter(afterSequence, Math.max(1, maxChanges));
+    }
+
+    /**
+     * Waits until there is a change following the given sequence number
+     * @param afterSequence sequence number of the last change the caller already has
+     * @param timeoutMillis maximal waiting time
+     * @return true if there is a newer change, false if the time ran out
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    public boolean awaitChangesAfter(long afterSequence, long timeoutMillis) throws InterruptedException {
+        return storageEngine().getChangeLog().awaitAfter(afterSequence, timeoutMillis);
     }
 
     /**
@@ -179,7 +578,7 @@ public class DBService {
         return String.format("Printout of DBService " + super.toString() +":%n" +
                 "=======================================================%n" +
                 "___Contained in DBService:%n" +
-                dbSimulator.toString());
+                storageEngine().toString());
     }
 
 }
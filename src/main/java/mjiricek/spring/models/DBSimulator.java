@@ -2,11 +2,22 @@ package mjiricek.spring.models;
 
 import mjiricek.spring.models.entities.Food;
 import mjiricek.spring.models.entities.FoodData;
-import org.springframework.stereotype.Repository;
+import mjiricek.spring.models.query.FilterCondition;
+import mjiricek.spring.models.query.FilterOperator;
+import mjiricek.spring.models.query.FilterQuery;
+import mjiricek.spring.models.query.FoodField;
+import mjiricek.spring.models.query.QueryPlan;
+import mjiricek.spring.models.query.RankingMetric;
+import mjiricek.spring.monitoring.StorageOperationEvent;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
@@ -17,9 +28,25 @@ import java.util.stream.Collectors;
  * yet has to be thread safe (the CRUD operations have to be atomic)
  * - that requires synchronization (prevention of interleaved read/write from multiple threads)
  * - I've chosen ReentrantReadWriteLock as my approach to achieve thread safety
+ * - every mutation is recorded in the change log (change data capture), in the order of application
+ * - every mutation also installs a new version of the row in the version store (MVCC), long reads
+ * use a pinned snapshot of the versions instead of holding the read lock (see openSnapshot)
+ * - entities stored in the table are never modified, an update replaces the entity by a new instance
+ * (the same instance is the newest version in the version store)
+ * - instances are created by SpringApplicationConfig.createStorageEngine() (not by component scanning),
+ * because they need the scan executor and the change log
+ * - the in-memory storage engine (nutrdb.storage.engine=memory)
+ * - the summary of the nutrients of the whole table is maintained incrementally by all writing operations,
+ * so it's read without a scan (min and max are rebuilt by the first read after a removal of an extreme value)
+ * - every locked operation emits a flight recorder event (StorageOperationEvent) with its lock wait
+ * and row counts, the events cost nothing when no JFR recording is running
  */
-@Repository
-public class DBSimulator {
+public class DBSimulator implements StorageEngine {
+    /**
+     * number of names cached in each node of the autocomplete trie (maximal number of suggestions)
+     */
+    public static final int SUGGESTION_CACHE_SIZE = MAX_SUGGESTIONS;
+
     /**
      * unique entity id counter
      * id for the next entry to be added to database - for the sake of generating unique id for each entity
@@ -40,6 +67,42 @@ public class DBSimulator {
      */
     private final ArrayList<Food> nutritionalDBTable = new ArrayList<>();
 
+    /**
+     * Index of the entities by their exact name
+     * - maps name to the list of entities (the same instances as in the table) with that name
+     * - each list is sorted by entryId (same order as the table), so paging over the list keeps the table order
+     * - maintained by all writing operations, guarded by the same lock as the table
+     */
+    private final HashMap<String, ArrayList<Food>> nameIndex = new HashMap<>();
+
+    /**
+     * Index of the entities by the search key of their name (lower-cased, without diacritics, see FoodData.getSearchKey)
+     * - same structure and maintenance as nameIndex, answers the insensitive search (name~="...")
+     * with one hash lookup, like the exact search
+     */
+    private final HashMap<String, ArrayList<Food>> searchKeyIndex = new HashMap<>();
+
+    /**
+     * Prefix tree over the names for autocomplete (keyed by the search key of the name)
+     * - maintained by all writing operations (under the write lock)
+     * - read without any lock, see NameTrie (volatile because loading a snapshot replaces the whole trie)
+     */
+    private volatile NameTrie nameTrie = new NameTrie(SUGGESTION_CACHE_SIZE);
+
+    /**
+     * Summary of the nutrients of the whole table (count, sums, extremes, histograms)
+     * - maintained by all writing operations (under the write lock)
+     * - stale extremes are rebuilt by a reader (under the read lock, so the table doesn't change meanwhile),
+     * the readers take statisticsLock so that only one of them rebuilds it
+     */
+    private final NutrientStatistics tableStatistics = new NutrientStatistics();
+
+    /**
+     * lock of the readers of tableStatistics (a ReentrantLock, not a monitor - the rebuild scans the whole table
+     * and a virtual thread waiting for a monitor would stay pinned to its carrier)
+     */
+    private final ReentrantLock statisticsLock = new ReentrantLock();
+
     /**
      * read/write lock
      * - we want to block access to data only when some thread is writing (deleting, updating, adding)
@@ -48,16 +111,45 @@ public class DBSimulator {
      */
     private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock(true);
 
+    /**
+     * executor of filtering scans over the table
+     * - scans of large tables are split into chunks evaluated in parallel
+     */
+    private final ScanExecutor scanExecutor;
+
+    /**
+     * log of the recent mutations (written under the write lock, so sequence numbers follow the order of changes)
+     */
+    private final ChangeLog changeLog;
+
+    /**
+     * versions of the rows stamped with the sequence numbers of their changes (written under the write lock)
+     */
+    private final VersionStore versionStore;
+
+    /**
+     * Constructor
+     * @param scanExecutor executor used for the filtering scans over the table
+     * @param changeLog log the mutations of this table will be recorded in
+     * @param versionStore store the versions of the rows will be kept in (for snapshot reads)
+     */
+    public DBSimulator(ScanExecutor scanExecutor, ChangeLog changeLog, VersionStore versionStore) {
+        this.scanExecutor = scanExecutor;
+        this.changeLog = changeLog;
+        this.versionStore = versionStore;
+    }
+
     /**
      * returns number of entries in the table
      * @return number of entries in DB
      */
+    @Override
     public int getTableSize() {
-        rwLock.readLock().lock(); // start of synchronized code block (read)
+        StorageOperationEvent operationEvent = lock(rwLock.readLock(), "getTableSize"); // start of synchronized code block (read)
         try {
             return nutritionalDBTable.size(); // get the data
         } finally {
-            rwLock.readLock().unlock(); // end of synchronized code block (read)
+            unlock(rwLock.readLock(), operationEvent); // end of synchronized code block (read)
         }
     }
 
@@ -67,12 +159,14 @@ public class DBSimulator {
      * @param entryName name of the entry
      * @return number of ocurrences with a given name
      */
+    @Override
     public int getNameCount(String entryName) {
-        rwLock.readLock().lock(); // start of synchronized code block (read)
+        StorageOperationEvent operationEvent = lock(rwLock.readLock(), "getNameCount"); // start of synchronized code block (read)
         try {
-            return (int) nutritionalDBTable.stream().filter(x -> x.getFoodName().equals(entryName)).count();
+            ArrayList<Food> entries = nameIndex.get(entryName); // index lookup instead of scanning the table
+            return entries == null ? 0 : entries.size();
         } finally {
-            rwLock.readLock().unlock(); // end of synchronzied code block (read)
+            unlock(rwLock.readLock(), operationEvent); // end of synchronzied code block (read)
         }
     }
 
@@ -80,14 +174,63 @@ public class DBSimulator {
      * adds new entity in DB
      * @param FoodData DTO with the attributes (entryName and entryContent) for the new db entry
      */
+    @Override
     public void addEntity(FoodData FoodData) {
-        rwLock.writeLock().lock(); // start of sychronized code block (write)
+        StorageOperationEvent operationEvent = lock(rwLock.writeLock(), "addEntity"); // start of sychronized code block (write)
         try { // add the new entry
-            nutritionalDBTable.add(new Food(nextID, FoodData));
-            nextID++; // unique id counter incrementation - warning about non-atomicity is ok since non-atomic operations are performed inside of synchronization block
+            addEntityLocked(FoodData);
+            operationEvent.rows(0, 1);
+        } finally {
+            unlock(rwLock.writeLock(), operationEvent); // end of synchronized code block (write)
+        }
+    }
+
+    /**
+     * adds new entities in DB under one lock acquisition (each one is a separate change, one flight recorder event)
+     * @param foodData attributes of the new db entries
+     */
+    @Override
+    public void addEntities(List<FoodData> foodData) {
+        StorageOperationEvent operationEvent = lock(rwLock.writeLock(), "addEntities"); // start of sychronized code block (write)
+        try {
+            for (FoodData data : foodData)
+                addEntityLocked(data);
+            operationEvent.rows(0, foodData.size());
+        } finally {
+            unlock(rwLock.writeLock(), operationEvent); // end of synchronized code block (write)
+        }
+    }
+
+    /**
+     * Applies several mutations in their order under one acquisition of the write lock (one flight recorder event
+     * with the rows of the whole batch)
+     * @param operations validated mutations
+     * @return for every operation id of the affected entity, or -1 if the updated/deleted entity wasn't found
+     */
+    @Override
+    public int[] applyWrites(List<WriteOperation> operations) {
+        int[] results = new int[operations.size()];
+        int rowsScanned = 0;
+        int rowsWritten = 0;
+        StorageOperationEvent operationEvent = lock(rwLock.writeLock(), "applyWrites"); // start of sychronized code block (write)
+        try {
+            for (int i = 0; i < results.length; i++) {
+                WriteOperation operation = operations.get(i);
+                results[i] = switch (operation.getType()) {
+                    case CREATE -> addEntityLocked(operation.getFoodData()).getFoodID();
+                    case UPDATE -> updateEntityLocked(operation.getId(), operation.getFoodData()) != null ? operation.getId() : -1;
+                    case DELETE -> deleteEntityLocked(operation.getId()) != null ? operation.getId() : -1;
+                };
+                if (operation.getType() != ChangeEvent.ChangeType.CREATE)
+                    rowsScanned++;
+                if (results[i] >= 0)
+                    rowsWritten++;
+            }
+            operationEvent.rows(rowsScanned, rowsWritten);
         } finally {
-            rwLock.writeLock().unlock(); // end of synchronized code block (write)
+            unlock(rwLock.writeLock(), operationEvent); // end of synchronized code block (write)
         }
+        return results;
     }
 
     /**
@@ -116,17 +259,19 @@ public class DBSimulator {
      * @param id entry id
      * @return copy of the entry with desired id
      */
+    @Override
     public Food getEntityCopyById(int id) {
-        rwLock.readLock().lock();  // start of synchronized code block (read)
+        StorageOperationEvent operationEvent = lock(rwLock.readLock(), "getEntityCopyById"); // start of synchronized code block (read)
         try { // try to find the entity
             Food originalEntry = findEntityById(id);
 
             if (originalEntry == null)
                 return null;
 
+            operationEvent.rows(1, 1);
             return originalEntry.copy(); // create copy and return it
         } finally {
-            rwLock.readLock().unlock(); // end of synchronized code block (read)
+            unlock(rwLock.readLock(), operationEvent); // end of synchronized code block (read)
         }
     }
 
@@ -135,12 +280,15 @@ public class DBSimulator {
      * @param id id of the deleted entry
      * @return true if entry found, false if not
      */
+    @Override
     public boolean deleteEntityById(int id) {
-        rwLock.writeLock().lock();  // start of synchronized code block (write)
+        StorageOperationEvent operationEvent = lock(rwLock.writeLock(), "deleteEntityById"); // start of synchronized code block (write)
         try { // try to delete the entity
-            return nutritionalDBTable.remove(findEntityById(id));
+            boolean deleted = deleteEntityLocked(id) != null;
+            operationEvent.rows(1, deleted ? 1 : 0);
+            return deleted;
         } finally {
-            rwLock.writeLock().unlock(); // end of synchronized code block (write)
+            unlock(rwLock.writeLock(), operationEvent); // end of synchronized code block (write)
         }
     }
 
@@ -150,17 +298,149 @@ public class DBSimulator {
      * @param FoodData new attribute values of the entry
      * @return true if entry found, false if not
      */
+    @Override
     public boolean updateEntityById(int id, FoodData FoodData) {
-        rwLock.writeLock().lock();  // start of synchronized code block (write)
+        StorageOperationEvent operationEvent = lock(rwLock.writeLock(), "updateEntityById"); // start of synchronized code block (write)
         try { // try to update the entity
-            Food modifiedEntity = findEntityById(id);
-            if (modifiedEntity == null)
-                return false;
+            boolean updated = updateEntityLocked(id, FoodData) != null;
+            operationEvent.rows(1, updated ? 1 : 0);
+            return updated;
+        } finally {
+            unlock(rwLock.writeLock(), operationEvent); // end of synchronized code block (write)
+        }
+    }
+
+    /**
+     * adds new entity and records the change - has to be called with the write lock held (emits no event)
+     * @param foodData attributes of the new db entry
+     * @return the inserted entity
+     */
+    private Food addEntityLocked(FoodData foodData) {
+        Food newEntity = insertEntity(new Food(nextID, foodData));
+        commitVersion(newEntity.getFoodID(), newEntity);
+        changeLog.append(ChangeEvent.ChangeType.CREATE, newEntity.copy(), null);
+        nextID++; // unique id counter incrementation - warning about non-atomicity is ok since non-atomic operations are performed inside of synchronization block
+        return newEntity;
+    }
 
-            modifiedEntity.setAllAttributes(FoodData);
-            return true;
+    /**
+     * deletes entity and records the change - has to be called with the write lock held (emits no event)
+     * @param id id of the deleted entry
+     * @return the deleted entity, or null if there is no entity with the id
+     */
+    private Food deleteEntityLocked(int id) {
+        Food deletedEntity = removeEntity(id);
+        if (deletedEntity == null)
+            return null;
+
+        commitVersion(id, null);
+        changeLog.append(ChangeEvent.ChangeType.DELETE, deletedEntity.copy(), null);
+        return deletedEntity;
+    }
+
+    /**
+     * replaces attributes of the entity and records the change - has to be called with the write lock held (emits no event)
+     * @param id id of an udpated entry
+     * @param foodData new attribute values of the entry
+     * @return the new entity, or null if there is no entity with the id
+     */
+    private Food updateEntityLocked(int id, FoodData foodData) {
+        Food originalEntity = findEntityById(id);
+        if (originalEntity == null)
+            return null;
+
+        Food modifiedEntity = replaceEntity(originalEntity, foodData);
+        commitVersion(id, modifiedEntity);
+        changeLog.append(ChangeEvent.ChangeType.UPDATE, modifiedEntity.copy(), originalEntity.getFoodName());
+        return modifiedEntity;
+    }
+
+    /**
+     * Applies a change replicated from the leader database (see ReplicationFollower)
+     * - the change keeps its id, sequence number and timestamp, so the change log of this table
+     * mirrors the change log of the leader
+     * @param event change read from the leader
+     * @throws IllegalStateException if the change doesn't directly follow the last applied change
+     * (the follower has to resynchronize)
+     */
+    @Override
+    public void applyChange(ChangeEvent event) throws IllegalStateException {
+        StorageOperationEvent operationEvent = lock(rwLock.writeLock(), "applyChange"); // start of synchronized code block (write)
+        try {
+            long expectedSequence = changeLog.getLatestSequence() + 1;
+            if (event.getSequence() != expectedSequence)
+                throw new IllegalStateException("Replicated change " + event.getSequence()
+                        + " doesn't follow the last applied change " + (expectedSequence - 1));
+
+            Food food = event.getFood();
+            switch (event.getType()) {
+                case CREATE -> {
+                    versionStore.install(food.getFoodID(), insertEntity(food), event.getSequence());
+                    nextID = Math.max(nextID, food.getFoodID() + 1);
+                }
+                case UPDATE -> {
+                    Food originalEntity = findEntityById(food.getFoodID());
+                    if (originalEntity != null)
+                        versionStore.install(food.getFoodID(), replaceEntity(originalEntity, food), event.getSequence());
+                }
+                case DELETE -> {
+                    if (removeEntity(food.getFoodID()) != null)
+                        versionStore.install(food.getFoodID(), null, event.getSequence());
+                }
+            }
+            changeLog.append(event);
+            versionStore.collectGarbage(event.getSequence());
+            operationEvent.rows(0, 1);
+        } finally {
+            unlock(rwLock.writeLock(), operationEvent); // end of synchronized code block (write)
+        }
+    }
+
+    /**
+     * Creates consistent copy of the whole table together with the sequence number of the last change
+     * included in it (all later changes are in the change log)
+     * @return snapshot of the table
+     */
+    @Override
+    public DBSnapshot takeSnapshot() {
+        StorageOperationEvent operationEvent = lock(rwLock.readLock(), "takeSnapshot"); // start of synchronized code block (read)
+        try { // changes are appended to the log under the write lock, so nothing can be appended meanwhile
+            ArrayList<Food> rows = new ArrayList<>(nutritionalDBTable.size());
+            for (Food food : nutritionalDBTable)
+                rows.add(food.copy()); // creating copy - breaking the references to original entries
+
+            operationEvent.rows(rows.size(), rows.size());
+            return new DBSnapshot(changeLog.getLatestSequence(), nextID, rows);
+        } finally {
+            unlock(rwLock.readLock(), operationEvent); // end of synchronized code block (read)
+        }
+    }
+
+    /**
+     * Replaces the whole content of the table by the snapshot
+     * - the change log continues from the sequence number of the snapshot,
+     * subscribers of older changes have to resynchronize
+     * @param snapshot snapshot of a table (rows sorted by id)
+     */
+    @Override
+    public void loadSnapshot(DBSnapshot snapshot) {
+        StorageOperationEvent operationEvent = lock(rwLock.writeLock(), "loadSnapshot"); // start of synchronized code block (write)
+        try {
+            nutritionalDBTable.clear();
+            nameIndex.clear();
+            searchKeyIndex.clear();
+            tableStatistics.clear();
+            nameTrie = new NameTrie(SUGGESTION_CACHE_SIZE);
+            nutritionalDBTable.ensureCapacity(snapshot.getRows().size());
+            for (Food food : snapshot.getRows())
+                insertEntity(food.copy());
+
+            nextID = snapshot.getNextID();
+            versionStore.reset(nutritionalDBTable, snapshot.getSequence());
+            changeLog.restart(snapshot.getSequence());
+            operationEvent.rows(0, snapshot.getRows().size());
         } finally {
-            rwLock.writeLock().unlock(); // end of synchronized code block (write)
+            unlock(rwLock.writeLock(), operationEvent); // end of synchronized code block (write)
         }
     }
 
@@ -174,16 +454,19 @@ public class DBSimulator {
      * @param maxLength   requested length of the copy
      * @return partial copy of the table given by the range
      */
+    @Override
     public ArrayList<Food> getTableSubcopy(int startIndex, int maxLength) {
-        rwLock.readLock().lock();  // start of synchronized code block (read)
+        StorageOperationEvent operationEvent = lock(rwLock.readLock(), "getTableSubcopy(range)"); // start of synchronized code block (read)
         try {
-            return nutritionalDBTable.stream()
+            ArrayList<Food> page = nutritionalDBTable.stream()
                     .skip(startIndex)
                     .limit(maxLength)
                     .map(Food::copy) // creating copy - breaking the references to original entries
                     .collect(Collectors.toCollection(ArrayList::new));
+            operationEvent.rows((int) Math.min(nutritionalDBTable.size(), (long) startIndex + maxLength), page.size());
+            return page;
         } finally {
-            rwLock.readLock().unlock(); // end of synchronized code block (read)
+            unlock(rwLock.readLock(), operationEvent); // end of synchronized code block (read)
         }
     }
 
@@ -198,20 +481,490 @@ public class DBSimulator {
      * @param maxLength requested length of the copy
      * @return list of found entries
      */
+    @Override
     public ArrayList<Food> getTableSubcopy(String entryName, int startIndex, int maxLength) {
-        rwLock.readLock().lock(); // start of synchronized code block (read)
+        StorageOperationEvent operationEvent = lock(rwLock.readLock(), "getTableSubcopy(name)"); // start of synchronized code block (read)
         try {
-            return nutritionalDBTable.stream()
-                    .filter(x -> x.getFoodName().equals(entryName)) // find entries with the required name
-                    .skip(startIndex)
-                    .limit(maxLength)
+            ArrayList<Food> entries = nameIndex.get(entryName); // find entries with the required name
+            if (entries == null || startIndex >= entries.size())
+                return new ArrayList<>();
+
+            ArrayList<Food> page = entries.subList(startIndex, Math.min(entries.size(), startIndex + maxLength)).stream()
                     .map(Food::copy) // creating copy - breaking the references to original entries
                     .collect(Collectors.toCollection(ArrayList::new));
+            operationEvent.rows(page.size(), page.size());
+            return page;
         } finally {
-            rwLock.readLock().unlock(); // end of synchronized code block (read)
+            unlock(rwLock.readLock(), operationEvent); // end of synchronized code block (read)
+        }
+    }
+
+    /**
+     * Chooses how the filter query will be executed
+     * - the planner picks the most selective index that can answer one of the conditions
+     * (the condition with the fewest index entries), the other conditions are evaluated over its entries
+     * - if no condition can be answered by an index, the whole table is scanned
+     * - the plan is meant for displaying (debugging), the query methods plan the query again
+     * under the same lock as they execute it
+     * @param query parsed filter query
+     * @return execution plan of the query
+     */
+    @Override
+    public QueryPlan planQuery(FilterQuery query) {
+        StorageOperationEvent operationEvent = lock(rwLock.readLock(), "planQuery"); // start of synchronized code block (read)
+        try {
+            return plan(query);
+        } finally {
+            unlock(rwLock.readLock(), operationEvent); // end of synchronized code block (read)
+        }
+    }
+
+    /**
+     * Returns number of entries satisfying the filter query
+     * @param query parsed filter query
+     * @return number of matching entries
+     */
+    @Override
+    public int getQueryCount(FilterQuery query) {
+        StorageOperationEvent operationEvent = lock(rwLock.readLock(), "getQueryCount"); // start of synchronized code block (read)
+        try {
+            QueryPlan plan = plan(query);
+            operationEvent.rows(plan.getScannedRows(), 0);
+            return scanExecutor.count(planSource(plan), plan.getResidualPredicate());
+        } finally {
+            unlock(rwLock.readLock(), operationEvent); // end of synchronized code block (read)
         }
     }
 
+    /**
+     * Search and copy entries satisfying the filter query. The copy is also restricted by start index and length.
+     * - entries are returned in the order of the table, no matter if the plan uses an index or a scan
+     * @param query parsed filter query
+     * @param startIndex index (among the matching entries) where to start the copy, inclusive
+     * @param maxLength requested length of the copy
+     * @return list of found entries
+     */
+    @Override
+    public ArrayList<Food> getTableSubcopy(FilterQuery query, int startIndex, int maxLength) {
+        StorageOperationEvent operationEvent = lock(rwLock.readLock(), "getTableSubcopy(filter)"); // start of synchronized code block (read)
+        try {
+            QueryPlan plan = plan(query);
+            ArrayList<Food> page = scanExecutor.collectPage(planSource(plan), plan.getResidualPredicate(),
+                    startIndex, maxLength, Food::copy); // creating copy - breaking the references to original entries
+            operationEvent.rows(plan.getScannedRows(), page.size());
+            return page;
+        } finally {
+            unlock(rwLock.readLock(), operationEvent); // end of synchronized code block (read)
+        }
+    }
+
+    /**
+     * Finds and copies k best entries according to the ranking metric
+     * - single pass over the table with bounded heaps (in parallel chunks for large tables), no sorting of the table
+     * - entries the metric can't score (zero denominator) are left out
+     * @param metric ranking metric (e.g. highest protein per kcal)
+     * @param k maximal number of returned entries
+     * @return copies of the best entries, best first
+     */
+    @Override
+    public ArrayList<Food> getTopK(RankingMetric metric, int k) {
+        StorageOperationEvent operationEvent = lock(rwLock.readLock(), "getTopK"); // start of synchronized code block (read)
+        try {
+            ArrayList<Food> best = scanExecutor.topK(nutritionalDBTable, metric::score, metric.isDescending(), k,
+                    Food::copy); // creating copy - breaking the references to original entries
+            operationEvent.rows(nutritionalDBTable.size(), best.size());
+            return best;
+        } finally {
+            unlock(rwLock.readLock(), operationEvent); // end of synchronized code block (read)
+        }
+    }
+
+    /**
+     * Summarizes the nutrients of the entries satisfying the filter query
+     * - the whole table: copy of the maintained summary, no scan (unless min/max have to be rebuilt after a removal)
+     * - filtered: one pass over the rows chosen by the planner (index entries or the whole table, in parallel
+     * chunks for large tables), like getQueryCount
+     * @param query parsed filter query, null for all entries
+     * @return summary of the matching entries
+     */
+    @Override
+    public NutrientStatistics getNutrientStatistics(FilterQuery query) {
+        StorageOperationEvent operationEvent = lock(rwLock.readLock(), "getNutrientStatistics"); // start of synchronized code block (read)
+        try {
+            if (query == null) {
+                statisticsLock.lock(); // readers may rebuild the extremes concurrently
+                try {
+                    if (tableStatistics.areExtremesStale()) {
+                        tableStatistics.rebuildExtremes(nutritionalDBTable);
+                        operationEvent.rows(nutritionalDBTable.size(), 0);
+                    }
+                    return tableStatistics.copy();
+                } finally {
+                    statisticsLock.unlock();
+                }
+            }
+
+            QueryPlan plan = plan(query);
+            NutrientStatistics statistics = scanExecutor.aggregate(planSource(plan), plan.getResidualPredicate(),
+                    NutrientStatistics::new, NutrientStatistics::add, NutrientStatistics::merge);
+            operationEvent.rows(plan.getScannedRows(), statistics.getCount());
+            return statistics;
+        } finally {
+            unlock(rwLock.readLock(), operationEvent); // end of synchronized code block (read)
+        }
+    }
+
+    /**
+     * Returns the most frequent names starting with given prefix (ignoring case and diacritics)
+     * - doesn't take the lock at all - the trie is safe for reading concurrently with writes,
+     * so autocomplete never waits behind writers or long scans
+     * @param prefix typed beginning of the name
+     * @param limit maximal number of suggestions (at most SUGGESTION_CACHE_SIZE)
+     * @return suggested names, the most frequent first
+     */
+    @Override
+    public List<String> getNameSuggestions(String prefix, int limit) {
+        return nameTrie.suggest(FoodData.toSearchKey(prefix), limit);
+    }
+
+    /**
+     * Opens read-only snapshot of the table at the latest change
+     * - reading the snapshot takes no lock, so long reads don't block the writers (and the other way round)
+     * - the snapshot has to be closed (try-with-resources), its versions are kept until then
+     * @return snapshot of the current table
+     */
+    public VersionStore.Snapshot openSnapshot() {
+        return versionStore.pinLatest(changeLog::getLatestSequence);
+    }
+
+    /**
+     * Opens read-only snapshot of the table as it was right after the change with given sequence number
+     * - the snapshot has to be closed (try-with-resources), its versions are kept until then
+     * @param sequence sequence number of the change
+     * @return snapshot of the table at the sequence number
+     * @throws IllegalArgumentException with message for the user if the versions of that sequence
+     * aren't kept anymore (or the sequence is in the future)
+     */
+    public VersionStore.Snapshot openSnapshot(long sequence) throws IllegalArgumentException {
+        return versionStore.pin(sequence, changeLog.getLatestSequence());
+    }
+
+    /**
+     * returns the store of the row versions (for the state of the snapshots)
+     * @return version store
+     */
+    public VersionStore getVersionStore() {
+        return versionStore;
+    }
+
+    /**
+     * Reads one page of entries from a pinned snapshot of the versions (without the table lock)
+     * - a filter of the latest state with a condition answered by a name index is read through the index
+     * (see getIndexedPage), other reads make one pass over the versions
+     * - a continuation page (afterId) starts right behind the cursor and isn't counted, so exporting the whole
+     * table page by page is linear instead of scanning everything for every page
+     * @param asOfSequence sequence number of the change the table is read after, null for the latest change
+     * @param query parsed filter query, null for all entries
+     * @param afterId id of the last entry of the previous page, null for the first page
+     * @param startIndex index (among the matching entries behind the cursor) where to start the copy, inclusive
+     * @param maxLength requested length of the copy
+     * @return page of entries with the sequence number of the snapshot and the number of all matching entries
+     * (counted only on the first page)
+     * @throws IllegalArgumentException with message for the user if the versions of that sequence aren't kept anymore
+     */
+    @Override
+    public SnapshotPage getSnapshotPage(Long asOfSequence, FilterQuery query, Integer afterId, int startIndex,
+                                        int maxLength) throws IllegalArgumentException {
+        if (query != null) {
+            SnapshotPage indexedPage = getIndexedPage(asOfSequence, query, afterId, startIndex, maxLength);
+            if (indexedPage != null)
+                return indexedPage;
+        }
+
+        Predicate<? super Food> predicate = query == null ? food -> true : query.toPredicate();
+        try (VersionStore.Snapshot snapshot = asOfSequence == null ? openSnapshot() : openSnapshot(asOfSequence)) {
+            return snapshot.getPage(predicate, afterId, startIndex, maxLength, afterId == null);
+        }
+    }
+
+    /**
+     * Reads one page of the latest entries through the index chosen by the planner
+     * - the indexes hold only the latest state, so they are read under the read lock (briefly, the work is bounded
+     * by the index entries of one name, not by the table), the entries there are the newest versions
+     * @param asOfSequence sequence number of the change the table is read after, null for the latest change
+     * @param query parsed filter query
+     * @param afterId id of the last entry of the previous page, null for the first page
+     * @param startIndex index (among the matching entries behind the cursor) where to start the copy, inclusive
+     * @param maxLength requested length of the copy
+     * @return page of entries, null if no index can answer the query or an older sequence is requested
+     */
+    private SnapshotPage getIndexedPage(Long asOfSequence, FilterQuery query, Integer afterId, int startIndex,
+                                        int maxLength) {
+        StorageOperationEvent operationEvent = lock(rwLock.readLock(), "getSnapshotPage"); // start of synchronized code block (read)
+        try {
+            long sequence = changeLog.getLatestSequence(); // no change is committed while the read lock is held
+            if (asOfSequence != null && asOfSequence != sequence)
+                return null;
+            QueryPlan plan = plan(query);
+            if (!plan.usesIndex())
+                return null;
+
+            List<Food> entries = planSource(plan); // sorted by id
+            int from = 0;
+            if (afterId != null) {
+                int index = Collections.binarySearch(entries, new Food(afterId, new FoodData()));
+                from = index >= 0 ? index + 1 : -index - 1;
+            }
+            Predicate<FoodData> residualPredicate = plan.getResidualPredicate();
+            ArrayList<Food> page = new ArrayList<>(Math.min(maxLength, entries.size() - from));
+            int matching = 0;
+            int scanned = 0;
+            for (int i = from; i < entries.size() && (afterId == null || page.size() < maxLength); i++, scanned++) {
+                Food food = entries.get(i);
+                if (!residualPredicate.test(food))
+                    continue;
+                if (matching >= startIndex && page.size() < maxLength)
+                    page.add(food.copy()); // creating copy - breaking the references to original entries
+                matching++;
+            }
+            operationEvent.rows(scanned, page.size());
+            return new SnapshotPage(sequence, afterId == null ? matching : null, page);
+        } finally {
+            unlock(rwLock.readLock(), operationEvent); // end of synchronized code block (read)
+        }
+    }
+
+    /**
+     * returns the oldest sequence number the table can still be read as of
+     * @return oldest available sequence number
+     */
+    @Override
+    public long getOldestSnapshotSequence() {
+        return versionStore.getOldestAvailableSequence();
+    }
+
+    /**
+     * returns the log of recent mutations of this table (change data capture)
+     * - the log has its own synchronization, reading it never blocks writers of the table
+     * @return change log
+     */
+    @Override
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    /**
+     * Takes a lock of the table and starts the flight recorder event of the operation
+     * - the time waited for the lock is measured only while a recording has the event enabled
+     * @param lock read or write lock of the table
+     * @param operation name of the operation
+     * @return event of the operation, to be passed to unlock()
+     */
+    private StorageOperationEvent lock(Lock lock, String operation) {
+        StorageOperationEvent operationEvent = new StorageOperationEvent(operation);
+        if (!operationEvent.isEnabled()) {
+            lock.lock();
+            return operationEvent;
+        }
+        operationEvent.begin();
+        long start = System.nanoTime();
+        lock.lock();
+        operationEvent.lockWait = System.nanoTime() - start;
+        return operationEvent;
+    }
+
+    /**
+     * Releases a lock taken by lock() and commits the flight recorder event of the operation
+     * (if a recording wants it - enabled and over the threshold)
+     * @param lock read or write lock of the table
+     * @param operationEvent event returned by lock()
+     */
+    private void unlock(Lock lock, StorageOperationEvent operationEvent) {
+        int tableSize = nutritionalDBTable.size(); // still under the lock
+        lock.unlock();
+        if (operationEvent.shouldCommit()) {
+            operationEvent.tableSize = tableSize;
+            operationEvent.commit();
+        }
+    }
+
+    /**
+     * Planner - has to be called with the lock held
+     * @param query parsed filter query
+     * @return execution plan of the query
+     */
+    private QueryPlan plan(FilterQuery query) {
+        FilterCondition indexCondition = null;
+        int scannedRows = nutritionalDBTable.size();
+        for (FilterCondition condition : query.getConditions()) {
+            List<Food> indexEntries = indexLookup(condition);
+            if (indexEntries != null && (indexCondition == null || indexEntries.size() < scannedRows)) {
+                indexCondition = condition;
+                scannedRows = indexEntries.size();
+            }
+        }
+
+        return new QueryPlan(query, indexCondition, scannedRows, nutritionalDBTable.size(),
+                scanExecutor.isParallel(scannedRows));
+    }
+
+    /**
+     * returns rows the plan has to evaluate - has to be called with the lock held
+     * @param plan execution plan
+     * @return index entries or the whole table
+     */
+    private List<Food> planSource(QueryPlan plan) {
+        return plan.usesIndex() ? indexLookup(plan.getIndexCondition()) : nutritionalDBTable;
+    }
+
+    /**
+     * Finds entries answering the condition in an index - has to be called with the lock held
+     * @param condition condition of the filter query
+     * @return entries satisfying the condition, or null if no index can answer the condition
+     */
+    private List<Food> indexLookup(FilterCondition condition) {
+        if (condition.getField() != FoodField.NAME)
+            return null;
+
+        ArrayList<Food> entries;
+        if (condition.getOperator() == FilterOperator.EQUALS)
+            entries = nameIndex.get(condition.getTextValue());
+        else if (condition.getOperator() == FilterOperator.SIMILAR)
+            entries = searchKeyIndex.get(FoodData.toSearchKey(condition.getTextValue()));
+        else
+            return null;
+        return entries == null ? Collections.emptyList() : entries;
+    }
+
+    /**
+     * inserts entity into the table (keeps the table sorted by id) and into the indexes
+     * - has to be called with the write lock held, doesn't record the change
+     * @param newEntity entity with unique id
+     * @return the inserted entity
+     */
+    private Food insertEntity(Food newEntity) {
+        int size = nutritionalDBTable.size();
+        if (size == 0 || nutritionalDBTable.get(size - 1).compareTo(newEntity) < 0) {
+            nutritionalDBTable.add(newEntity); // usual case - new id is the highest one
+        } else {
+            int index = Collections.binarySearch(nutritionalDBTable, newEntity);
+            if (index >= 0)
+                throw new IllegalStateException("Entity with id " + newEntity.getFoodID() + " already exists");
+            nutritionalDBTable.add(-index - 1, newEntity);
+        }
+        addToNameIndex(newEntity);
+        tableStatistics.add(newEntity);
+        return newEntity;
+    }
+
+    /**
+     * removes entity from the table and from the indexes
+     * - has to be called with the write lock held, doesn't record the change
+     * @param id id of the removed entity
+     * @return the removed entity, or null if there is no entity with the id
+     */
+    private Food removeEntity(int id) {
+        int index = Collections.binarySearch(nutritionalDBTable, new Food(id, new FoodData()));
+        if (index < 0)
+            return null;
+
+        Food removedEntity = nutritionalDBTable.remove(index);
+        removeFromNameIndex(removedEntity);
+        tableStatistics.remove(removedEntity);
+        return removedEntity;
+    }
+
+    /**
+     * replaces the entity by a new instance with changed attributes and keeps the indexes up to date
+     * - has to be called with the write lock held, doesn't record the change
+     * - the original instance isn't modified (it may still be read as an older version by snapshots)
+     * @param originalEntity entity stored in the table
+     * @param foodData new attribute values
+     * @return the new entity (now stored in the table)
+     */
+    private Food replaceEntity(Food originalEntity, FoodData foodData) {
+        Food modifiedEntity = new Food(originalEntity.getFoodID(), foodData);
+        nutritionalDBTable.set(Collections.binarySearch(nutritionalDBTable, originalEntity), modifiedEntity);
+        if (originalEntity.getFoodName().equals(modifiedEntity.getFoodName())) {
+            ArrayList<Food> entries = nameIndex.get(originalEntity.getFoodName());
+            entries.set(Collections.binarySearch(entries, originalEntity), modifiedEntity); // same name, same position
+            entries = searchKeyIndex.get(originalEntity.getSearchKey());
+            entries.set(Collections.binarySearch(entries, originalEntity), modifiedEntity); // same key, same position
+        } else {
+            removeFromNameIndex(originalEntity);
+            addToNameIndex(modifiedEntity);
+        }
+        tableStatistics.remove(originalEntity);
+        tableStatistics.add(modifiedEntity);
+        return modifiedEntity;
+    }
+
+    /**
+     * installs new version of the row, stamped with the sequence number the following change gets,
+     * and collects versions no snapshot needs anymore - has to be called with the write lock held,
+     * right before the change is appended to the change log
+     * (a snapshot pinned before the append can't see the new version, one pinned after it can)
+     * @param id id of the changed row
+     * @param food new content of the row, null if deleted
+     */
+    private void commitVersion(int id, Food food) {
+        long sequence = changeLog.getLatestSequence() + 1;
+        versionStore.install(id, food, sequence);
+        versionStore.collectGarbage(sequence - 1);
+    }
+
+    /**
+     * adds entity to the name indexes (keeps the index lists sorted by id) - has to be called with the write lock held
+     * - the autocomplete trie is keyed by the search key too, so typing without diacritics suggests names with them
+     * @param food entity (instance stored in the table)
+     */
+    private void addToNameIndex(Food food) {
+        nameTrie.add(food.getSearchKey(), food.getFoodName());
+        addToIndex(nameIndex, food.getFoodName(), food);
+        addToIndex(searchKeyIndex, food.getSearchKey(), food);
+    }
+
+    /**
+     * removes entity from the name indexes - has to be called with the write lock held
+     * @param food entity (instance stored in the table) with the name under which it is indexed
+     */
+    private void removeFromNameIndex(Food food) {
+        nameTrie.remove(food.getSearchKey(), food.getFoodName());
+        removeFromIndex(nameIndex, food.getFoodName(), food);
+        removeFromIndex(searchKeyIndex, food.getSearchKey(), food);
+    }
+
+    /**
+     * adds entity to the list of the key (keeps the list sorted by id)
+     * @param index name index or search key index
+     * @param key key of the entity in the index
+     * @param food entity (instance stored in the table)
+     */
+    private static void addToIndex(HashMap<String, ArrayList<Food>> index, String key, Food food) {
+        ArrayList<Food> entries = index.computeIfAbsent(key, x -> new ArrayList<>());
+        int position = Collections.binarySearch(entries, food);
+        if (position < 0)
+            entries.add(-position - 1, food); // binary search returns (-(insertion point) - 1) for missing elements
+    }
+
+    /**
+     * removes entity from the list of the key (and the key when its list gets empty)
+     * @param index name index or search key index
+     * @param key key of the entity in the index
+     * @param food entity (instance stored in the table)
+     */
+    private static void removeFromIndex(HashMap<String, ArrayList<Food>> index, String key, Food food) {
+        ArrayList<Food> entries = index.get(key);
+        if (entries == null)
+            return;
+
+        int position = Collections.binarySearch(entries, food);
+        if (position >= 0)
+            entries.remove(position);
+        if (entries.isEmpty())
+            index.remove(key);
+    }
+
     /**
      * custom toString method for general debugging purposes
      * - returns text representation of DBSimulator instance
@@ -225,6 +978,12 @@ public class DBSimulator {
         stringBuilder.append("=======================================================%n");
         stringBuilder.append("nextID: " + this.nextID + "%n");
         stringBuilder.append("rwLock: " + this.rwLock + "%n");
+        stringBuilder.append("scanExecutor: " + this.scanExecutor + "%n");
+        stringBuilder.append("indexed names: " + this.nameIndex.size()
+                + " (search keys: " + this.searchKeyIndex.size() + ")%n");
+        stringBuilder.append("tableStatistics: " + this.tableStatistics + "%n");
+        stringBuilder.append("changeLog: " + this.changeLog + "%n");
+        stringBuilder.append("versionStore: " + this.versionStore + "%n");
         stringBuilder.append("___Contained in DBSimulator:%n");
 
         for (Food food : this.nutritionalDBTable) {
@@ -0,0 +1,78 @@
+package mjiricek.spring.models;
+
+import mjiricek.spring.models.entities.Food;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Consistent copy of the whole table of DBSimulator
+ * - contains all changes up to (and including) the sequence number, none of the later ones
+ * - used to bring a replica up to date before it starts applying the change log
+ */
+public class DBSnapshot {
+    /**
+     * sequence number of the last change included in the snapshot
+     */
+    private final long sequence;
+
+    /**
+     * id the next created entity will get
+     */
+    private final int nextID;
+
+    /**
+     * copies of all entities, sorted by id
+     */
+    private final List<Food> rows;
+
+    /**
+     * Constructor
+     * @param sequence sequence number of the last change included in the snapshot
+     * @param nextID id the next created entity will get
+     * @param rows copies of all entities, sorted by id
+     */
+    public DBSnapshot(long sequence, int nextID, List<Food> rows) {
+        this.sequence = sequence;
+        this.nextID = nextID;
+        this.rows = Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * returns sequence number of the last change included in the snapshot
+     * @return sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * returns id the next created entity will get
+     * @return next id
+     */
+    public int getNextID() {
+        return nextID;
+    }
+
+    /**
+     * returns copies of all entities (not to be modified)
+     * @return rows sorted by id
+     */
+    public List<Food> getRows() {
+        return rows;
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * - returns text representation of DBSnapshot instance
+     * @return text representation of DBSnapshot instance
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of DBSnapshot " + super.toString() + ":%n" +
+                "=======================================================%n" +
+                "sequence: " + sequence + "%n" +
+                "nextID: " + nextID + "%n" +
+                "rows: " + rows.size() + "%n");
+    }
+}
@@ -0,0 +1,295 @@
+package mjiricek.spring.models;
+
+import mjiricek.spring.models.entities.FoodData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Generator of synthetic foods for scale testing (millions of rows instead of the few initial ones)
+ * - names come from a vocabulary of distinctNames names (preparation + food + variant number,
+ * e.g. "smoked salmon 12"), the frequency of a name follows the Zipf distribution over its rank:
+ * a few names repeat very often (like "bread"), most names are rare - the table has realistic duplicates
+ * for the name index, the search cache and the Bloom filter
+ * - nutrients follow the category of the food (meat, dairy, grain, ...) with random spread,
+ * energy is computed from them (4/4/9 kcal per gram) with a small deviation
+ * - rows are generated in chunks in parallel, every chunk has its own random generator derived
+ * from the seed and the chunk number - the same seed gives the same rows regardless of the number of threads
+ * - stateless after construction (the vocabulary and the distribution are immutable), so thread safe
+ */
+public class FoodGenerator {
+    /**
+     * maximal number of rows generated by one request
+     */
+    public static final int MAX_ROWS = 20_000_000;
+
+    /**
+     * number of rows generated by one parallel task (and one random generator)
+     */
+    private static final int CHUNK_ROWS = 16_384;
+
+    /**
+     * number of rows generated at once before they are loaded (bounds the memory of the generated rows)
+     */
+    private static final int BLOCK_ROWS = 64 * CHUNK_ROWS;
+
+    /**
+     * number of rows written under one lock acquisition of the storage engine
+     */
+    private static final int LOAD_BATCH_ROWS = 8_192;
+
+    /**
+     * Category of foods with typical nutrients (means and spreads in grams per 100 g)
+     * @param proteinMean typical protein
+     * @param proteinSpread spread of the protein
+     * @param carbMean typical carbohydrates
+     * @param carbSpread spread of the carbohydrates
+     * @param fatMean typical fat
+     * @param fatSpread spread of the fat
+     */
+    private record Category(double proteinMean, double proteinSpread,
+                            double carbMean, double carbSpread,
+                            double fatMean, double fatSpread) {
+    }
+
+    private static final Category MEAT = new Category(22, 5, 0.5, 0.5, 12, 8);
+    private static final Category FISH = new Category(21, 4, 0.2, 0.2, 7, 5);
+    private static final Category DAIRY = new Category(12, 9, 5, 3, 14, 10);
+    private static final Category GRAIN = new Category(9, 3, 60, 15, 3, 3);
+    private static final Category VEGETABLE = new Category(2, 1, 6, 3, 0.3, 0.2);
+    private static final Category FRUIT = new Category(0.8, 0.4, 13, 5, 0.4, 0.3);
+    private static final Category SWEET = new Category(6, 3, 58, 10, 25, 10);
+    private static final Category DRINK = new Category(0.3, 0.3, 8, 4, 0.1, 0.1);
+
+    /**
+     * Base food of the names
+     * @param name name of the food
+     * @param category category giving its nutrients
+     */
+    private record BaseFood(String name, Category category) {
+    }
+
+    private static final BaseFood[] BASE_FOODS = {
+            new BaseFood("bread", GRAIN), new BaseFood("white roll", GRAIN), new BaseFood("rice", GRAIN),
+            new BaseFood("pasta", GRAIN), new BaseFood("oat flakes", GRAIN), new BaseFood("pizza", GRAIN),
+            new BaseFood("rohlík", GRAIN), new BaseFood("knedlík", GRAIN),
+            new BaseFood("chicken breast", MEAT), new BaseFood("pork chop", MEAT), new BaseFood("beef steak", MEAT),
+            new BaseFood("ham", MEAT), new BaseFood("sausage", MEAT), new BaseFood("turkey", MEAT),
+            new BaseFood("chicken egg", MEAT), new BaseFood("párek", MEAT),
+            new BaseFood("salmon", FISH), new BaseFood("tuna", FISH), new BaseFood("sardines", FISH),
+            new BaseFood("cod", FISH), new BaseFood("trout", FISH), new BaseFood("pstruh", FISH),
+            new BaseFood("milk", DAIRY), new BaseFood("yogurt", DAIRY), new BaseFood("cheese", DAIRY),
+            new BaseFood("cottage cheese", DAIRY), new BaseFood("butter", DAIRY), new BaseFood("tvaroh", DAIRY),
+            new BaseFood("sýr", DAIRY), new BaseFood("jogurt", DAIRY),
+            new BaseFood("broccoli", VEGETABLE), new BaseFood("cucumber", VEGETABLE), new BaseFood("tomato", VEGETABLE),
+            new BaseFood("carrot", VEGETABLE), new BaseFood("potato", VEGETABLE), new BaseFood("spinach", VEGETABLE),
+            new BaseFood("paprika", VEGETABLE), new BaseFood("zelí", VEGETABLE),
+            new BaseFood("apple", FRUIT), new BaseFood("banana", FRUIT), new BaseFood("lemon", FRUIT),
+            new BaseFood("orange", FRUIT), new BaseFood("strawberry", FRUIT), new BaseFood("grapes", FRUIT),
+            new BaseFood("hruška", FRUIT), new BaseFood("švestka", FRUIT),
+            new BaseFood("chocolate", SWEET), new BaseFood("cookie", SWEET), new BaseFood("cake", SWEET),
+            new BaseFood("croissant", SWEET), new BaseFood("čokoláda", SWEET), new BaseFood("koláč", SWEET),
+            new BaseFood("cola", DRINK), new BaseFood("beer", DRINK), new BaseFood("orange juice", DRINK),
+            new BaseFood("lemonade", DRINK), new BaseFood("pivo", DRINK), new BaseFood("džus", DRINK)
+    };
+
+    private static final String[] PREPARATIONS = {
+            "", "fresh ", "baked ", "smoked ", "grilled ", "boiled ", "fried ", "dried ", "frozen ", "organic ",
+            "light ", "homemade ", "canned ", "wholegrain ", "domácí ", "pečený "
+    };
+
+    /**
+     * names of the vocabulary, index = rank - 1 (the most frequent first)
+     */
+    private final String[] names;
+
+    /**
+     * categories of the names of the vocabulary
+     */
+    private final Category[] categories;
+
+    /**
+     * cumulative Zipf distribution over the ranks (last element is 1)
+     */
+    private final double[] cumulative;
+
+    /**
+     * Constructor - builds the vocabulary and the distribution of the names
+     * @param distinctNames number of distinct names
+     * @param zipfExponent exponent of the Zipf distribution (0 = uniform, around 1 = natural language)
+     */
+    public FoodGenerator(int distinctNames, double zipfExponent) {
+        if (distinctNames < 1)
+            throw new IllegalArgumentException("Number of distinct names must be positive.");
+        if (zipfExponent < 0)
+            throw new IllegalArgumentException("Zipf exponent must not be negative.");
+
+        this.names = new String[distinctNames];
+        this.categories = new Category[distinctNames];
+        int combinations = BASE_FOODS.length * PREPARATIONS.length;
+        for (int i = 0; i < distinctNames; i++) {
+            // spread the base foods over the ranks, the plain names (no preparation, no variant) are the most frequent
+            BaseFood baseFood = BASE_FOODS[i % BASE_FOODS.length];
+            String preparation = PREPARATIONS[(i / BASE_FOODS.length) % PREPARATIONS.length];
+            int variant = i / combinations;
+            names[i] = preparation + baseFood.name() + (variant > 0 ? " " + variant : "");
+            categories[i] = baseFood.category();
+        }
+
+        this.cumulative = new double[distinctNames];
+        double sum = 0;
+        for (int rank = 1; rank <= distinctNames; rank++) {
+            sum += 1 / Math.pow(rank, zipfExponent);
+            cumulative[rank - 1] = sum;
+        }
+        for (int i = 0; i < distinctNames; i++)
+            cumulative[i] /= sum;
+        cumulative[distinctNames - 1] = 1; // no rounding error at the end
+    }
+
+    /**
+     * Generates rows in parallel
+     * @param rows number of rows
+     * @param seed seed of the random generators
+     * @return generated foods (in the same order for the same seed)
+     */
+    public List<FoodData> generate(int rows, long seed) {
+        return generate(0, checkRows(rows), seed);
+    }
+
+    /**
+     * Generates rows and adds them to the storage engine
+     * - rows are generated in blocks (in parallel) and written in batches, each under one acquisition of the lock,
+     * so the readers aren't blocked for the whole load and the generated rows don't have to fit the memory twice
+     * @param storageEngine storage engine the rows are added to
+     * @param rows number of rows
+     * @param seed seed of the random generators
+     */
+    public void loadInto(StorageEngine storageEngine, int rows, long seed) {
+        checkRows(rows);
+        for (int blockStart = 0; blockStart < rows; blockStart += BLOCK_ROWS) {
+            List<FoodData> block = generate(blockStart, Math.min(rows, blockStart + BLOCK_ROWS), seed);
+            for (int batchStart = 0; batchStart < block.size(); batchStart += LOAD_BATCH_ROWS)
+                storageEngine.addEntities(block.subList(batchStart, Math.min(block.size(), batchStart + LOAD_BATCH_ROWS)));
+        }
+    }
+
+    /**
+     * validates the requested number of rows
+     * @param rows number of rows
+     * @return the number of rows
+     * @throws IllegalArgumentException with message for the user if the number is out of range
+     */
+    private static int checkRows(int rows) throws IllegalArgumentException {
+        if (rows < 0 || rows > MAX_ROWS)
+            throw new IllegalArgumentException("Number of generated rows must be between 0 and " + MAX_ROWS + ".");
+        return rows;
+    }
+
+    /**
+     * Generates rows of a range in parallel chunks
+     * @param fromRow number of the first row (multiple of CHUNK_ROWS), inclusive
+     * @param toRow number of the last row, exclusive
+     * @param seed seed of the random generators
+     * @return generated foods
+     */
+    private List<FoodData> generate(int fromRow, int toRow, long seed) {
+        int firstChunk = fromRow / CHUNK_ROWS;
+        int chunkCount = (toRow - fromRow + CHUNK_ROWS - 1) / CHUNK_ROWS;
+        FoodData[][] chunks = new FoodData[chunkCount][];
+        IntStream.range(0, chunkCount).parallel().forEach(i -> {
+            int chunkStart = fromRow + i * CHUNK_ROWS;
+            chunks[i] = generateChunk(Math.min(CHUNK_ROWS, toRow - chunkStart), seed, firstChunk + i);
+        });
+
+        List<FoodData> rows = new ArrayList<>(toRow - fromRow);
+        for (FoodData[] chunk : chunks)
+            rows.addAll(Arrays.asList(chunk));
+        return rows;
+    }
+
+    /**
+     * Generates one chunk of rows with its own random generator
+     * @param size number of rows
+     * @param seed seed of the random generators
+     * @param chunkNumber number of the chunk (from the start of the whole generated sequence)
+     * @return generated foods
+     */
+    private FoodData[] generateChunk(int size, long seed, int chunkNumber) {
+        SplittableRandom random = new SplittableRandom(seed ^ (chunkNumber * 0x9E3779B97F4A7C15L));
+        FoodData[] chunk = new FoodData[size];
+        for (int i = 0; i < size; i++) {
+            int index = sampleRank(random.nextDouble());
+            chunk[i] = generateFood(names[index], categories[index], random);
+        }
+        return chunk;
+    }
+
+    /**
+     * finds the rank whose cumulative probability covers the uniform value (binary search)
+     * @param uniform random value in [0, 1)
+     * @return index of the name in the vocabulary
+     */
+    private int sampleRank(double uniform) {
+        int index = Arrays.binarySearch(cumulative, uniform);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Generates nutrients of a food of the category
+     * @param name name of the food
+     * @param category category of the food
+     * @param random random generator of the chunk
+     * @return generated food
+     */
+    private static FoodData generateFood(String name, Category category, SplittableRandom random) {
+        double protein = sample(category.proteinMean(), category.proteinSpread(), random);
+        double carb = sample(category.carbMean(), category.carbSpread(), random);
+        double fat = sample(category.fatMean(), category.fatSpread(), random);
+        double total = protein + carb + fat;
+        if (total > 100) { // 100 g of food can't contain more
+            protein = protein * 100 / total;
+            carb = carb * 100 / total;
+            fat = fat * 100 / total;
+        }
+        double kcal = (4 * protein + 4 * carb + 9 * fat) * (0.95 + 0.1 * random.nextDouble()); // fibre, alcohol, rounding of labels
+        return new FoodData(name, Math.round(kcal), round(protein), round(carb), round(fat));
+    }
+
+    /**
+     * draws non-negative value from the normal distribution
+     * @param mean mean of the distribution
+     * @param spread standard deviation of the distribution
+     * @param random random generator
+     * @return value rounded like on a food label
+     */
+    private static double sample(double mean, double spread, SplittableRandom random) {
+        // Box-Muller transform (SplittableRandom has no nextGaussian in Java 17)
+        double gaussian = Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+        return Math.max(0, mean + spread * gaussian);
+    }
+
+    /**
+     * rounds grams to one decimal place
+     * @param grams value
+     * @return rounded value
+     */
+    private static double round(double grams) {
+        return Math.round(grams * 10) / 10.0;
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * - returns text representation of FoodGenerator instance
+     * @return text representation of FoodGenerator instance
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of FoodGenerator " + super.toString() + ":%n" +
+                "=======================================================%n" +
+                "distinct names: " + names.length + ", most frequent: " + names[0] + "%n");
+    }
+}
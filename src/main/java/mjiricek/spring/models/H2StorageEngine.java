@@ -0,0 +1,1094 @@
+package mjiricek.spring.models;
+
+import mjiricek.spring.models.entities.Food;
+import mjiricek.spring.models.entities.FoodData;
+import mjiricek.spring.models.query.FilterCondition;
+import mjiricek.spring.models.query.FilterOperator;
+import mjiricek.spring.models.query.FilterQuery;
+import mjiricek.spring.models.query.FoodField;
+import mjiricek.spring.models.query.QueryPlan;
+import mjiricek.spring.models.query.RankingMetric;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Storage engine keeping the table in an embedded H2 database (nutrdb.storage.engine=h2)
+ * - the table lives in a file, so it survives restarts and can be bigger than the memory
+ * - all writes go through one connection guarded by a fair lock (like the write lock of DBSimulator),
+ * so the sequence numbers of the change log follow the order of the commits;
+ * the sequence number and the id counter are stored in the same transaction as the change
+ * - reads borrow one of several read connections, they don't wait for the writers
+ * (the connections use snapshot isolation, every statement sees a committed state)
+ * - every connection caches its prepared statements (parsing and planning of SQL happens once per statement shape),
+ * writes of several rows (addEntities, loadSnapshot) are sent as JDBC batches, several mutations
+ * (applyWrites) are committed as one transaction
+ * - filter queries and rankings are translated to SQL, the name has a plain and a lower-cased index
+ * - searches of names that aren't in the table (typos) are answered by a counting Bloom filter
+ * of the names without any query; the filter is rebuilt from the table when it gets overloaded
+ * - no history of versions is kept: snapshot reads are possible only as of the latest change
+ */
+public class H2StorageEngine implements StorageEngine, AutoCloseable {
+    /**
+     * maximal number of cached prepared statements per connection
+     */
+    private static final int STATEMENT_CACHE_SIZE = 64;
+
+    /**
+     * number of rows sent in one JDBC batch
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * minimal number of rows the Bloom filter of the names is sized for
+     */
+    private static final int MIN_NAME_FILTER_CAPACITY = 1024;
+
+    /**
+     * selected columns of the food table (in the order queryFoods expects)
+     */
+    private static final String COLUMNS = "id, name, kcal, protein, carb, fat";
+
+    private static final String INSERT_FOOD = "INSERT INTO food (id, name, kcal, protein, carb, fat) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_FOOD = "UPDATE food SET name = ?, kcal = ?, protein = ?, carb = ?, fat = ? WHERE id = ?";
+    private static final String DELETE_FOOD = "DELETE FROM food WHERE id = ?";
+    private static final String SELECT_BY_ID = "SELECT " + COLUMNS + " FROM food WHERE id = ?";
+    private static final String UPDATE_META = "UPDATE meta SET last_sequence = ?, next_id = ? WHERE id = 1";
+    private static final String SELECT_META = "SELECT last_sequence, next_id FROM meta WHERE id = 1";
+
+    /**
+     * connection used by all writes (guarded by writeLock, auto-commit off)
+     */
+    private final CachedConnection writeConnection;
+
+    /**
+     * lock serializing the writes (fair, like the locks of DBSimulator)
+     */
+    private final ReentrantLock writeLock = new ReentrantLock(true);
+
+    /**
+     * idle read connections
+     */
+    private final BlockingQueue<CachedConnection> readConnections;
+
+    /**
+     * all read connections (for closing)
+     */
+    private final List<CachedConnection> allReadConnections = new ArrayList<>();
+
+    /**
+     * id for the next entry (guarded by writeLock, stored in the meta table)
+     */
+    private int nextID;
+
+    /**
+     * log of the recent mutations (appended under writeLock right after the commit)
+     */
+    private final ChangeLog changeLog;
+
+    /**
+     * Bloom filter of the search keys of the names in the table - searches of nonexistent names don't reach H2
+     * (a name whose search key isn't in the table can't be there exactly nor insensitively)
+     * (modified only under writeLock, replaced by a rebuilt one when it gets overloaded)
+     */
+    private volatile NameBloomFilter nameFilter;
+
+    /**
+     * Constructor - opens (or creates) the database
+     * @param jdbcUrl JDBC URL of the H2 database, for example jdbc:h2:file:./data/nutrdb
+     * @param readConnectionCount number of connections used by reads
+     * @param changeLog log the mutations of this table will be recorded in
+     * @throws StorageException if the database can't be opened
+     */
+    public H2StorageEngine(String jdbcUrl, int readConnectionCount, ChangeLog changeLog) throws StorageException {
+        this.changeLog = changeLog;
+        this.readConnections = new ArrayBlockingQueue<>(Math.max(1, readConnectionCount));
+        try {
+            writeConnection = new CachedConnection(DriverManager.getConnection(jdbcUrl, "sa", ""));
+            createSchema(writeConnection.connection);
+            writeConnection.connection.setAutoCommit(false);
+
+            for (int i = 0; i < Math.max(1, readConnectionCount); i++) {
+                Connection connection = DriverManager.getConnection(jdbcUrl, "sa", "");
+                try (Statement statement = connection.createStatement()) {
+                    // every read (also a multi-statement transaction of getSnapshotPage) sees one committed state
+                    statement.execute("SET SESSION CHARACTERISTICS AS TRANSACTION ISOLATION LEVEL SNAPSHOT");
+                }
+                CachedConnection readConnection = new CachedConnection(connection);
+                allReadConnections.add(readConnection);
+                readConnections.add(readConnection);
+            }
+
+            // continue numbering of the changes and ids where the previous run stopped
+            try (ResultSet resultSet = writeConnection.prepare(SELECT_META).executeQuery()) {
+                resultSet.next();
+                changeLog.restart(resultSet.getLong(1));
+                nextID = resultSet.getInt(2);
+            }
+            writeConnection.connection.commit();
+            rebuildNameFilter();
+        } catch (SQLException e) {
+            throw new StorageException("Opening H2 database " + jdbcUrl + " failed", e);
+        }
+    }
+
+    /**
+     * creates the tables and indexes if they don't exist yet
+     * @param connection connection with auto-commit
+     * @throws SQLException if the schema can't be created
+     */
+    private static void createSchema(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // the same search key as FoodData.getSearchKey (H2 can't remove diacritics by itself)
+            statement.execute("CREATE ALIAS IF NOT EXISTS SEARCH_KEY DETERMINISTIC FOR '"
+                    + FoodData.class.getName() + ".toSearchKey'");
+            statement.execute("CREATE TABLE IF NOT EXISTS food (" +
+                    "id INT PRIMARY KEY, " +
+                    "name VARCHAR NOT NULL, " +
+                    "name_key VARCHAR GENERATED ALWAYS AS (LOWER(name)), " + // for the case-insensitive "contains"
+                    "search_key VARCHAR GENERATED ALWAYS AS (SEARCH_KEY(name)), " + // insensitive search, autocomplete
+                    "kcal DOUBLE PRECISION NOT NULL, " +
+                    "protein DOUBLE PRECISION NOT NULL, " +
+                    "carb DOUBLE PRECISION NOT NULL, " +
+                    "fat DOUBLE PRECISION NOT NULL)");
+            // databases created before the search key existed get the column computed for all rows
+            statement.execute("ALTER TABLE food ADD COLUMN IF NOT EXISTS "
+                    + "search_key VARCHAR GENERATED ALWAYS AS (SEARCH_KEY(name))");
+            statement.execute("CREATE INDEX IF NOT EXISTS food_name ON food (name, id)");
+            statement.execute("CREATE INDEX IF NOT EXISTS food_search_key ON food (search_key, id)");
+            statement.execute("DROP INDEX IF EXISTS food_name_key"); // the autocomplete uses food_search_key now
+            statement.execute("CREATE TABLE IF NOT EXISTS meta (" +
+                    "id INT PRIMARY KEY, last_sequence BIGINT NOT NULL, next_id INT NOT NULL)");
+            statement.execute("INSERT INTO meta SELECT 1, 0, 0 WHERE NOT EXISTS (SELECT 1 FROM meta)");
+        }
+    }
+
+    /**
+     * returns number of entries in the table
+     * @return number of entries in DB
+     */
+    @Override
+    public int getTableSize() {
+        return read(connection -> queryInt(connection.prepare("SELECT COUNT(*) FROM food")));
+    }
+
+    /**
+     * Returns number of ocurrences of an entry with a given name attribute value
+     * @param entryName name of the entry
+     * @return number of ocurrences with a given name
+     */
+    @Override
+    public int getNameCount(String entryName) {
+        if (!nameFilter.mightContain(FoodData.toSearchKey(entryName)))
+            return 0; // certainly not in the table - no query
+        return read(connection -> {
+            PreparedStatement statement = connection.prepare("SELECT COUNT(*) FROM food WHERE name = ?");
+            statement.setString(1, entryName);
+            return queryInt(statement);
+        });
+    }
+
+    /**
+     * adds new entity in DB
+     * @param foodData attributes of the new db entry
+     */
+    @Override
+    public void addEntity(FoodData foodData) {
+        applyWrites(List.of(WriteOperation.create(foodData)));
+    }
+
+    /**
+     * adds new entities in DB - all rows are inserted as one JDBC batch in one transaction
+     * @param foodData attributes of the new db entries
+     */
+    @Override
+    public void addEntities(List<FoodData> foodData) {
+        writeLock.lock(); // start of synchronized code block (write)
+        try {
+            ArrayList<Food> newEntities = new ArrayList<>(foodData.size());
+            for (FoodData data : foodData)
+                newEntities.add(new Food(nextID + newEntities.size(), data));
+
+            try {
+                insertBatch(newEntities);
+                long sequence = changeLog.getLatestSequence() + newEntities.size();
+                commit(sequence, nextID + newEntities.size());
+            } catch (SQLException e) {
+                throw rollback("Adding entities failed", e);
+            }
+
+            nextID += newEntities.size();
+            for (Food newEntity : newEntities)
+                nameFilter.add(newEntity.getSearchKey());
+            maintainNameFilter();
+            for (Food newEntity : newEntities)
+                changeLog.append(ChangeEvent.ChangeType.CREATE, newEntity, null);
+        } finally {
+            writeLock.unlock(); // end of synchronized code block (write)
+        }
+    }
+
+    /**
+     * Applies several mutations in their order in one transaction (one commit for all of them)
+     * @param operations validated mutations
+     * @return for every operation id of the affected entity, or -1 if the updated/deleted entity wasn't found
+     */
+    @Override
+    public int[] applyWrites(List<WriteOperation> operations) {
+        int[] results = new int[operations.size()];
+        writeLock.lock(); // start of synchronized code block (write)
+        try {
+            ArrayList<PendingEvent> events = new ArrayList<>(operations.size());
+            int newNextID = nextID;
+            try {
+                for (int i = 0; i < results.length; i++) {
+                    WriteOperation operation = operations.get(i);
+                    if (operation.getType() == ChangeEvent.ChangeType.CREATE) {
+                        Food newEntity = new Food(newNextID++, operation.getFoodData());
+                        insertBatch(List.of(newEntity));
+                        events.add(new PendingEvent(ChangeEvent.ChangeType.CREATE, newEntity, null));
+                        results[i] = newEntity.getFoodID();
+                        continue;
+                    }
+
+                    Food originalEntity = findForWrite(operation.getId());
+                    if (originalEntity == null) {
+                        results[i] = -1;
+                        continue;
+                    }
+                    if (operation.getType() == ChangeEvent.ChangeType.UPDATE) {
+                        Food modifiedEntity = new Food(operation.getId(), operation.getFoodData());
+                        update(modifiedEntity);
+                        events.add(new PendingEvent(ChangeEvent.ChangeType.UPDATE, modifiedEntity, originalEntity.getFoodName()));
+                    } else {
+                        PreparedStatement statement = writeConnection.prepare(DELETE_FOOD);
+                        statement.setInt(1, operation.getId());
+                        statement.executeUpdate();
+                        events.add(new PendingEvent(ChangeEvent.ChangeType.DELETE, originalEntity, null));
+                    }
+                    results[i] = operation.getId();
+                }
+                if (events.isEmpty())
+                    return results; // nothing changed, nothing to commit
+                commit(changeLog.getLatestSequence() + events.size(), newNextID);
+            } catch (SQLException e) {
+                throw rollback("Applying " + operations.size() + " writes failed", e);
+            }
+
+            nextID = newNextID;
+            for (PendingEvent event : events)
+                updateNameFilter(event.type(), event.food().getFoodName(), event.previousFoodName());
+            maintainNameFilter();
+            for (PendingEvent event : events)
+                changeLog.append(event.type(), event.food(), event.previousFoodName());
+            return results;
+        } finally {
+            writeLock.unlock(); // end of synchronized code block (write)
+        }
+    }
+
+    /**
+     * Finds and copies entry with given id.
+     * @param id entry id
+     * @return copy of the entry with desired id, null if there is none
+     */
+    @Override
+    public Food getEntityCopyById(int id) {
+        return read(connection -> {
+            PreparedStatement statement = connection.prepare(SELECT_BY_ID);
+            statement.setInt(1, id);
+            List<Food> found = queryFoods(statement);
+            return found.isEmpty() ? null : found.get(0);
+        });
+    }
+
+    /**
+     * Finds an entry by id and deletes it (if it exists)
+     * @param id id of the deleted entry
+     * @return true if entry found, false if not
+     */
+    @Override
+    public boolean deleteEntityById(int id) {
+        return applyWrites(List.of(WriteOperation.delete(id)))[0] >= 0;
+    }
+
+    /**
+     * Finds an entry by id and changes its attributes to provided values (if found)
+     * @param id id of an udpated entry
+     * @param foodData new attribute values of the entry
+     * @return true if entry found, false if not
+     */
+    @Override
+    public boolean updateEntityById(int id, FoodData foodData) {
+        return applyWrites(List.of(WriteOperation.update(id, foodData)))[0] >= 0;
+    }
+
+    /**
+     * Applies a change replicated from the leader database (see ReplicationFollower)
+     * @param event change read from the leader
+     * @throws IllegalStateException if the change doesn't directly follow the last applied change,
+     * or it can't be applied to the current content (the follower has to resynchronize)
+     */
+    @Override
+    public void applyChange(ChangeEvent event) throws IllegalStateException {
+        writeLock.lock(); // start of synchronized code block (write)
+        try {
+            long expectedSequence = changeLog.getLatestSequence() + 1;
+            if (event.getSequence() != expectedSequence)
+                throw new IllegalStateException("Replicated change " + event.getSequence()
+                        + " doesn't follow the last applied change " + (expectedSequence - 1));
+
+            Food food = event.getFood();
+            int newNextID = nextID;
+            try {
+                switch (event.getType()) {
+                    case CREATE -> {
+                        insertBatch(List.of(food));
+                        newNextID = Math.max(nextID, food.getFoodID() + 1);
+                    }
+                    case UPDATE -> update(food);
+                    case DELETE -> {
+                        PreparedStatement statement = writeConnection.prepare(DELETE_FOOD);
+                        statement.setInt(1, food.getFoodID());
+                        statement.executeUpdate();
+                    }
+                }
+                commit(event.getSequence(), newNextID);
+            } catch (SQLIntegrityConstraintViolationException e) {
+                rollback("Replicated change " + event.getSequence() + " conflicts", e);
+                throw new IllegalStateException("Replicated change " + event.getSequence()
+                        + " conflicts with the content of the table");
+            } catch (SQLException e) {
+                throw rollback("Applying replicated change " + event.getSequence() + " failed", e);
+            }
+
+            nextID = newNextID;
+            updateNameFilter(event.getType(), food.getFoodName(), event.getPreviousFoodName());
+            maintainNameFilter();
+            changeLog.append(event);
+        } finally {
+            writeLock.unlock(); // end of synchronized code block (write)
+        }
+    }
+
+    /**
+     * Creates consistent copy of the whole table (read in one snapshot transaction, writers aren't blocked)
+     * @return snapshot of the table
+     */
+    @Override
+    public DBSnapshot takeSnapshot() {
+        return readTransaction(connection -> {
+            long sequence;
+            int snapshotNextID;
+            try (ResultSet resultSet = connection.prepare(SELECT_META).executeQuery()) {
+                resultSet.next();
+                sequence = resultSet.getLong(1);
+                snapshotNextID = resultSet.getInt(2);
+            }
+            List<Food> rows = queryFoods(connection.prepare("SELECT " + COLUMNS + " FROM food ORDER BY id"));
+            return new DBSnapshot(sequence, snapshotNextID, rows);
+        });
+    }
+
+    /**
+     * Replaces the whole content of the table by the snapshot (inserted in JDBC batches, one transaction)
+     * @param snapshot snapshot of a table (rows sorted by id)
+     */
+    @Override
+    public void loadSnapshot(DBSnapshot snapshot) {
+        writeLock.lock(); // start of synchronized code block (write)
+        try {
+            try {
+                writeConnection.prepare("DELETE FROM food").executeUpdate();
+                insertBatch(snapshot.getRows());
+                commit(snapshot.getSequence(), snapshot.getNextID());
+            } catch (SQLException e) {
+                throw rollback("Loading snapshot failed", e);
+            }
+
+            nextID = snapshot.getNextID();
+            rebuildNameFilter();
+            changeLog.restart(snapshot.getSequence());
+        } finally {
+            writeLock.unlock(); // end of synchronized code block (write)
+        }
+    }
+
+    /**
+     * Copies entries within given index range (in the order of ids)
+     * @param startIndex index where to start the copy, inclusive
+     * @param maxLength requested length of the copy
+     * @return partial copy of the table given by the range
+     */
+    @Override
+    public ArrayList<Food> getTableSubcopy(int startIndex, int maxLength) {
+        return read(connection -> {
+            PreparedStatement statement = connection.prepare("SELECT " + COLUMNS + " FROM food ORDER BY id LIMIT ? OFFSET ?");
+            statement.setInt(1, maxLength);
+            statement.setInt(2, startIndex);
+            return queryFoods(statement);
+        });
+    }
+
+    /**
+     * Search and copy entries with given name, restricted by start index and length (uses the name index)
+     * @param entryName name to search by
+     * @param startIndex index where to start the copy, inclusive
+     * @param maxLength requested length of the copy
+     * @return list of found entries
+     */
+    @Override
+    public ArrayList<Food> getTableSubcopy(String entryName, int startIndex, int maxLength) {
+        if (!nameFilter.mightContain(FoodData.toSearchKey(entryName)))
+            return new ArrayList<>(); // certainly not in the table - no query
+        return read(connection -> {
+            PreparedStatement statement = connection.prepare(
+                    "SELECT " + COLUMNS + " FROM food WHERE name = ? ORDER BY id LIMIT ? OFFSET ?");
+            statement.setString(1, entryName);
+            statement.setInt(2, maxLength);
+            statement.setInt(3, startIndex);
+            return queryFoods(statement);
+        });
+    }
+
+    /**
+     * Describes how the filter query will be executed
+     * - exact and insensitive name conditions are answered by the name / search key index,
+     * everything else is evaluated by H2 over the rows
+     * @param query parsed filter query
+     * @return execution plan of the query
+     */
+    @Override
+    public QueryPlan planQuery(FilterQuery query) {
+        FilterCondition indexCondition = null;
+        for (FilterCondition condition : query.getConditions()) {
+            if (condition.getField() == FoodField.NAME && (condition.getOperator() == FilterOperator.EQUALS
+                    || condition.getOperator() == FilterOperator.SIMILAR)) {
+                indexCondition = condition;
+                break;
+            }
+        }
+        int tableSize = getTableSize();
+        int scannedRows = indexCondition == null ? tableSize : getQueryCount(new FilterQuery(List.of(indexCondition)));
+        return new QueryPlan(query, indexCondition, scannedRows, tableSize, false);
+    }
+
+    /**
+     * Returns number of entries satisfying the filter query
+     * @param query parsed filter query
+     * @return number of matching entries
+     */
+    @Override
+    public int getQueryCount(FilterQuery query) {
+        if (excludedByNameFilter(query))
+            return 0;
+        return read(connection -> {
+            ArrayList<Object> parameters = new ArrayList<>();
+            PreparedStatement statement = connection.prepare("SELECT COUNT(*) FROM food WHERE " + whereClause(query, parameters));
+            bind(statement, parameters);
+            return queryInt(statement);
+        });
+    }
+
+    /**
+     * Search and copy entries satisfying the filter query (in the order of ids), restricted by start index and length
+     * @param query parsed filter query
+     * @param startIndex index (among the matching entries) where to start the copy, inclusive
+     * @param maxLength requested length of the copy
+     * @return list of found entries
+     */
+    @Override
+    public ArrayList<Food> getTableSubcopy(FilterQuery query, int startIndex, int maxLength) {
+        if (excludedByNameFilter(query))
+            return new ArrayList<>();
+        return read(connection -> {
+            ArrayList<Object> parameters = new ArrayList<>();
+            PreparedStatement statement = connection.prepare("SELECT " + COLUMNS + " FROM food WHERE "
+                    + whereClause(query, parameters) + " ORDER BY id LIMIT ? OFFSET ?");
+            parameters.add(maxLength);
+            parameters.add(startIndex);
+            bind(statement, parameters);
+            return queryFoods(statement);
+        });
+    }
+
+    /**
+     * Finds and copies k best entries according to the ranking metric (ORDER BY the score with LIMIT)
+     * @param metric ranking metric
+     * @param k maximal number of returned entries
+     * @return copies of the best entries, best first
+     */
+    @Override
+    public ArrayList<Food> getTopK(RankingMetric metric, int k) {
+        String score = columnOf(metric.getNumerator());
+        String filter = "";
+        if (metric.getDenominator() != null) {
+            score += " / " + columnOf(metric.getDenominator());
+            filter = " WHERE " + columnOf(metric.getDenominator()) + " <> 0"; // no score for zero denominator
+        }
+        String sql = "SELECT " + COLUMNS + " FROM food" + filter
+                + " ORDER BY " + score + (metric.isDescending() ? " DESC" : " ASC") + ", id LIMIT ?";
+        return read(connection -> {
+            PreparedStatement statement = connection.prepare(sql);
+            statement.setInt(1, k);
+            return queryFoods(statement);
+        });
+    }
+
+    /**
+     * Summarizes the nutrients of the entries satisfying the filter query with SQL aggregates
+     * (COUNT/SUM/MIN/MAX and GROUP BY the bucket of each nutrient) in one snapshot transaction
+     * - nothing is maintained incrementally here, H2 evaluates the aggregates over the rows (or the name index)
+     * @param query parsed filter query, null for all entries
+     * @return summary of the matching entries
+     */
+    @Override
+    public NutrientStatistics getNutrientStatistics(FilterQuery query) {
+        NutrientStatistics statistics = new NutrientStatistics();
+        if (query != null && excludedByNameFilter(query))
+            return statistics;
+        return readTransaction(connection -> {
+            ArrayList<Object> parameters = new ArrayList<>();
+            String where = query == null ? "TRUE" : whereClause(query, parameters);
+            StringBuilder aggregates = new StringBuilder("SELECT COUNT(*)");
+            for (FoodField nutrient : NutrientStatistics.NUTRIENTS) {
+                String column = columnOf(nutrient);
+                aggregates.append(", SUM(").append(column).append("), MIN(").append(column)
+                        .append("), MAX(").append(column).append(")");
+            }
+            PreparedStatement statement = connection.prepare(aggregates + " FROM food WHERE " + where);
+            bind(statement, parameters);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                statistics.setCount(resultSet.getInt(1));
+                if (statistics.getCount() == 0)
+                    return statistics;
+                int column = 2;
+                for (FoodField nutrient : NutrientStatistics.NUTRIENTS) {
+                    statistics.setAggregates(nutrient, resultSet.getDouble(column), resultSet.getDouble(column + 1),
+                            resultSet.getDouble(column + 2));
+                    column += 3;
+                }
+            }
+
+            for (FoodField nutrient : NutrientStatistics.NUTRIENTS) {
+                // the same buckets as NutrientStatistics.bucketOf
+                PreparedStatement histogram = connection.prepare("SELECT LEAST(GREATEST(FLOOR(" + columnOf(nutrient)
+                        + " / ?), 0), ?) AS bucket, COUNT(*) FROM food WHERE " + where + " GROUP BY bucket");
+                ArrayList<Object> histogramParameters = new ArrayList<>();
+                histogramParameters.add(NutrientStatistics.bucketWidth(nutrient));
+                histogramParameters.add(NutrientStatistics.BUCKETS - 1);
+                histogramParameters.addAll(parameters);
+                bind(histogram, histogramParameters);
+                try (ResultSet resultSet = histogram.executeQuery()) {
+                    while (resultSet.next())
+                        statistics.addToBucket(nutrient, resultSet.getInt(1), resultSet.getLong(2));
+                }
+            }
+            return statistics;
+        });
+    }
+
+    /**
+     * Returns the most frequent names starting with given prefix (ignoring case and diacritics, uses the search key index)
+     * @param prefix typed beginning of the name
+     * @param limit maximal number of suggestions
+     * @return suggested names, the most frequent first (ties alphabetically)
+     */
+    @Override
+    public List<String> getNameSuggestions(String prefix, int limit) {
+        return read(connection -> {
+            PreparedStatement statement = connection.prepare("SELECT name FROM food WHERE search_key LIKE ? ESCAPE '\\' "
+                    + "GROUP BY name ORDER BY COUNT(*) DESC, name LIMIT ?");
+            statement.setString(1, escapeLike(FoodData.toSearchKey(prefix)) + "%");
+            statement.setInt(2, limit);
+            ArrayList<String> names = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next())
+                    names.add(resultSet.getString(1));
+            }
+            return names;
+        });
+    }
+
+    /**
+     * Reads one page of entries from one snapshot transaction (the count and the page are consistent)
+     * @param asOfSequence sequence number of the change the table is read after, null for the latest change
+     * - a continuation page (afterId) seeks by the primary key and isn't counted
+     * @param query parsed filter query, null for all entries
+     * @param afterId id of the last entry of the previous page, null for the first page
+     * @param startIndex index (among the matching entries behind the cursor) where to start the copy, inclusive
+     * @param maxLength requested length of the copy
+     * @return page of entries with the sequence number of the snapshot
+     * @throws IllegalArgumentException with message for the user if the sequence isn't the latest one
+     * (this engine keeps no older versions)
+     */
+    @Override
+    public SnapshotPage getSnapshotPage(Long asOfSequence, FilterQuery query, Integer afterId, int startIndex,
+                                        int maxLength) throws IllegalArgumentException {
+        SnapshotPage page = readTransaction(connection -> {
+            long sequence;
+            try (ResultSet resultSet = connection.prepare(SELECT_META).executeQuery()) {
+                resultSet.next();
+                sequence = resultSet.getLong(1);
+            }
+            if (asOfSequence != null && asOfSequence != sequence)
+                return new SnapshotPage(sequence, -1, List.of()); // checked outside of the transaction
+
+            ArrayList<Object> parameters = new ArrayList<>();
+            String where = query == null ? "TRUE" : whereClause(query, parameters);
+            Integer matchingCount = null;
+            if (afterId == null) {
+                PreparedStatement count = connection.prepare("SELECT COUNT(*) FROM food WHERE " + where);
+                bind(count, parameters);
+                matchingCount = queryInt(count);
+            } else {
+                where = "id > ? AND (" + where + ")";
+                parameters.add(0, afterId);
+            }
+
+            PreparedStatement select = connection.prepare("SELECT " + COLUMNS + " FROM food WHERE " + where
+                    + " ORDER BY id LIMIT ? OFFSET ?");
+            parameters.add(maxLength);
+            parameters.add(startIndex);
+            bind(select, parameters);
+            return new SnapshotPage(sequence, matchingCount, queryFoods(select));
+        });
+        if (page.getMatchingCount() != null && page.getMatchingCount() < 0)
+            throw new IllegalArgumentException("Sequence " + asOfSequence + " is not available, this storage engine "
+                    + "can be read only as of the latest change " + page.getSequence() + ".");
+
+        return page;
+    }
+
+    /**
+     * returns the oldest sequence number the table can still be read as of (only the latest, no history is kept)
+     * @return latest sequence number
+     */
+    @Override
+    public long getOldestSnapshotSequence() {
+        return changeLog.getLatestSequence();
+    }
+
+    /**
+     * returns the log of recent mutations of the table (change data capture)
+     * @return change log
+     */
+    @Override
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    /**
+     * closes all connections (the database file is closed with the last one)
+     */
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            writeConnection.close();
+            for (CachedConnection connection : allReadConnections)
+                connection.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * runs a read with a borrowed read connection (auto-commit, one statement = one snapshot)
+     * @param operation the read
+     * @return result of the read
+     * @param <T> type of the result
+     */
+    private <T> T read(SqlOperation<T> operation) {
+        CachedConnection connection = borrow();
+        try {
+            return operation.execute(connection);
+        } catch (SQLException e) {
+            throw new StorageException("Reading from H2 database failed", e);
+        } finally {
+            readConnections.add(connection);
+        }
+    }
+
+    /**
+     * runs several reads in one snapshot transaction with a borrowed read connection
+     * @param operation the reads
+     * @return result of the reads
+     * @param <T> type of the result
+     */
+    private <T> T readTransaction(SqlOperation<T> operation) {
+        CachedConnection connection = borrow();
+        try {
+            connection.connection.setAutoCommit(false);
+            try {
+                return operation.execute(connection);
+            } finally {
+                connection.connection.commit();
+                connection.connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new StorageException("Reading from H2 database failed", e);
+        } finally {
+            readConnections.add(connection);
+        }
+    }
+
+    /**
+     * Tells whether the query certainly has no result because its exact or insensitive name condition
+     * names a food the Bloom filter doesn't know (the conditions are a conjunction)
+     * @param query parsed filter query
+     * @return true if no entry can satisfy the query
+     */
+    private boolean excludedByNameFilter(FilterQuery query) {
+        for (FilterCondition condition : query.getConditions()) {
+            boolean nameLookup = condition.getOperator() == FilterOperator.EQUALS
+                    || condition.getOperator() == FilterOperator.SIMILAR;
+            if (condition.getField() == FoodField.NAME && nameLookup
+                    && !nameFilter.mightContain(FoodData.toSearchKey(condition.getTextValue())))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * updates the Bloom filter after a committed change - has to be called with writeLock held
+     * - names are added/removed only after the commit, a reader may see the committed row
+     * a moment before the filter knows it, but never the filter without the row for longer than the write lasts
+     * @param type kind of the mutation
+     * @param foodName name after the change (deleted name for DELETE)
+     * @param previousFoodName name before the change (UPDATE only)
+     */
+    private void updateNameFilter(ChangeEvent.ChangeType type, String foodName, String previousFoodName) {
+        switch (type) {
+            case CREATE -> nameFilter.add(FoodData.toSearchKey(foodName));
+            case UPDATE -> {
+                nameFilter.add(FoodData.toSearchKey(foodName)); // add first, so the unchanged key is never missing
+                nameFilter.remove(FoodData.toSearchKey(previousFoodName));
+            }
+            case DELETE -> nameFilter.remove(FoodData.toSearchKey(foodName));
+        }
+    }
+
+    /**
+     * compaction of the Bloom filter - rebuilds it once it's overloaded or has served many deletes
+     * - has to be called with writeLock held
+     */
+    private void maintainNameFilter() {
+        if (nameFilter.needsRebuild())
+            rebuildNameFilter();
+    }
+
+    /**
+     * builds new Bloom filter from the search keys of the names in the table (sized for twice the current number of rows)
+     * and replaces the old one - has to be called with writeLock held (or from the constructor)
+     */
+    private void rebuildNameFilter() {
+        nameFilter = read(connection -> {
+            NameBloomFilter filter = new NameBloomFilter(Math.max(MIN_NAME_FILTER_CAPACITY,
+                    2 * queryInt(connection.prepare("SELECT COUNT(*) FROM food"))));
+            try (ResultSet resultSet = connection.prepare("SELECT search_key FROM food").executeQuery()) {
+                while (resultSet.next())
+                    filter.add(resultSet.getString(1));
+            }
+            return filter;
+        });
+    }
+
+    /**
+     * takes an idle read connection (waits if all are busy)
+     * @return read connection
+     */
+    private CachedConnection borrow() {
+        try {
+            return readConnections.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while waiting for a read connection", e);
+        }
+    }
+
+    /**
+     * reads entity with the write connection - has to be called with writeLock held
+     * @param id entity id
+     * @return the entity or null
+     * @throws SQLException if the query fails
+     */
+    private Food findForWrite(int id) throws SQLException {
+        PreparedStatement statement = writeConnection.prepare(SELECT_BY_ID);
+        statement.setInt(1, id);
+        List<Food> found = queryFoods(statement);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * inserts rows in JDBC batches (not committed) - has to be called with writeLock held
+     * @param rows inserted rows
+     * @throws SQLException if the insert fails (e.g. duplicate id)
+     */
+    private void insertBatch(List<Food> rows) throws SQLException {
+        PreparedStatement statement = writeConnection.prepare(INSERT_FOOD);
+        int batched = 0;
+        for (Food food : rows) {
+            statement.setInt(1, food.getFoodID());
+            statement.setString(2, food.getFoodName());
+            statement.setDouble(3, food.getKcalContent());
+            statement.setDouble(4, food.getProteinContent());
+            statement.setDouble(5, food.getCarbContent());
+            statement.setDouble(6, food.getFatContent());
+            if (rows.size() == 1) { // single row doesn't need a batch (and reports a duplicate id directly)
+                statement.executeUpdate();
+                return;
+            }
+            statement.addBatch();
+            if (++batched % BATCH_SIZE == 0)
+                statement.executeBatch();
+        }
+        if (batched % BATCH_SIZE != 0)
+            statement.executeBatch();
+    }
+
+    /**
+     * updates row (not committed) - has to be called with writeLock held
+     * @param food new content of the row
+     * @throws SQLException if the update fails
+     */
+    private void update(Food food) throws SQLException {
+        PreparedStatement statement = writeConnection.prepare(UPDATE_FOOD);
+        statement.setString(1, food.getFoodName());
+        statement.setDouble(2, food.getKcalContent());
+        statement.setDouble(3, food.getProteinContent());
+        statement.setDouble(4, food.getCarbContent());
+        statement.setDouble(5, food.getFatContent());
+        statement.setInt(6, food.getFoodID());
+        statement.executeUpdate();
+    }
+
+    /**
+     * stores the sequence number and the id counter and commits the transaction - has to be called with writeLock held
+     * @param sequence sequence number of the last change in the transaction
+     * @param newNextID id for the next entry
+     * @throws SQLException if the commit fails
+     */
+    private void commit(long sequence, int newNextID) throws SQLException {
+        PreparedStatement statement = writeConnection.prepare(UPDATE_META);
+        statement.setLong(1, sequence);
+        statement.setInt(2, newNextID);
+        statement.executeUpdate();
+        writeConnection.connection.commit();
+    }
+
+    /**
+     * rolls back the write transaction after a failure - has to be called with writeLock held
+     * @param message description of the failed operation
+     * @param cause the failure
+     * @return exception to be thrown
+     */
+    private StorageException rollback(String message, SQLException cause) {
+        try {
+            writeConnection.connection.rollback();
+        } catch (SQLException e) {
+            cause.addSuppressed(e);
+        }
+        return new StorageException(message, cause);
+    }
+
+    /**
+     * translates the filter query to SQL condition
+     * @param query parsed filter query
+     * @param parameters list the values of the placeholders are added to
+     * @return SQL condition with placeholders (its shape depends only on fields and operators, so it's cached well)
+     */
+    private static String whereClause(FilterQuery query, List<Object> parameters) {
+        StringBuilder where = new StringBuilder();
+        for (FilterCondition condition : query.getConditions()) {
+            if (!where.isEmpty())
+                where.append(" AND ");
+            if (condition.getOperator() == FilterOperator.CONTAINS) {
+                where.append("name_key LIKE ? ESCAPE '\\'");
+                parameters.add("%" + escapeLike(condition.getTextValue().toLowerCase(Locale.ROOT)) + "%");
+                continue;
+            }
+            if (condition.getOperator() == FilterOperator.SIMILAR) {
+                where.append("search_key = ?");
+                parameters.add(FoodData.toSearchKey(condition.getTextValue()));
+                continue;
+            }
+            where.append(columnOf(condition.getField())).append(switch (condition.getOperator()) {
+                case EQUALS -> " = ?";
+                case NOT_EQUALS -> " <> ?";
+                case LESS -> " < ?";
+                case LESS_OR_EQUAL -> " <= ?";
+                case GREATER -> " > ?";
+                default -> " >= ?"; // GREATER_OR_EQUAL
+            });
+            parameters.add(condition.getField().isNumeric() ? condition.getNumericValue() : condition.getTextValue());
+        }
+        return where.isEmpty() ? "TRUE" : where.toString();
+    }
+
+    /**
+     * returns column of the field
+     * @param field field of the query language
+     * @return column name
+     */
+    private static String columnOf(FoodField field) {
+        return switch (field) {
+            case NAME -> "name";
+            case KCAL -> "kcal";
+            case PROTEIN -> "protein";
+            case CARB -> "carb";
+            case FAT -> "fat";
+        };
+    }
+
+    /**
+     * escapes wildcards of the LIKE pattern (escape character is backslash)
+     * @param text searched text
+     * @return text matching itself in LIKE
+     */
+    private static String escapeLike(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /**
+     * sets values of the placeholders
+     * @param statement prepared statement
+     * @param parameters values in the order of the placeholders
+     * @throws SQLException if a value can't be set
+     */
+    private static void bind(PreparedStatement statement, List<Object> parameters) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++)
+            statement.setObject(i + 1, parameters.get(i));
+    }
+
+    /**
+     * runs query returning one number
+     * @param statement query
+     * @return the number
+     * @throws SQLException if the query fails
+     */
+    private static int queryInt(PreparedStatement statement) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    /**
+     * runs query returning rows of the food table (COLUMNS)
+     * @param statement query
+     * @return read rows (new instances)
+     * @throws SQLException if the query fails
+     */
+    private static ArrayList<Food> queryFoods(PreparedStatement statement) throws SQLException {
+        ArrayList<Food> foods = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                foods.add(new Food(resultSet.getInt(1), new FoodData(resultSet.getString(2), resultSet.getDouble(3),
+                        resultSet.getDouble(4), resultSet.getDouble(5), resultSet.getDouble(6))));
+            }
+        }
+        return foods;
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * - returns text representation of H2StorageEngine instance
+     * @return text representation of H2StorageEngine instance
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of H2StorageEngine " + super.toString() + ":%n" +
+                "=======================================================%n" +
+                "nextID: " + nextID + "%n" +
+                "read connections: " + allReadConnections.size() + "%n" +
+                "name filter: capacity " + nameFilter.getCapacity()
+                + ", rejected lookups " + nameFilter.getRejectedLookups() + "%n" +
+                "changeLog: " + changeLog + "%n");
+    }
+
+    /**
+     * Change committed in the transaction, appended to the change log after the commit
+     * @param type kind of the mutation
+     * @param food the changed food
+     * @param previousFoodName name before the change (UPDATE only)
+     */
+    private record PendingEvent(ChangeEvent.ChangeType type, Food food, String previousFoodName) {
+    }
+
+    /**
+     * Operation with a connection which may fail with SQLException
+     * @param <T> type of the result
+     */
+    @FunctionalInterface
+    private interface SqlOperation<T> {
+        T execute(CachedConnection connection) throws SQLException;
+    }
+
+    /**
+     * JDBC connection with its cache of prepared statements (least recently used statements are closed)
+     * - used by one thread at a time (borrowed from the pool, or under the write lock)
+     */
+    private static final class CachedConnection {
+        private final Connection connection;
+
+        private final LinkedHashMap<String, PreparedStatement> statements =
+                new LinkedHashMap<>(16, 0.75f, true) { // access order - the eldest entry is the least recently used
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                        if (size() <= STATEMENT_CACHE_SIZE)
+                            return false;
+                        try {
+                            eldest.getValue().close();
+                        } catch (SQLException e) {
+                            // the statement isn't used anymore, failure of closing doesn't matter
+                        }
+                        return true;
+                    }
+                };
+
+        private CachedConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * returns cached prepared statement, prepares it on the first use
+         * @param sql SQL with placeholders
+         * @return prepared statement
+         * @throws SQLException if the SQL can't be prepared
+         */
+        private PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        /**
+         * closes the connection (with all its statements)
+         */
+        private void close() {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // closing at shutdown, nothing to do about it
+            }
+        }
+    }
+}
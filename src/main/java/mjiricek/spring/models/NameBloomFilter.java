@@ -0,0 +1,213 @@
+package mjiricek.spring.models;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counting Bloom filter over the food names - answers "this name is certainly not in the table"
+ * without asking the table (searches of typos and nonexistent names)
+ * - the owner decides what exactly is stored, H2StorageEngine stores the search keys of the names
+ * (FoodData.getSearchKey), so one filter serves both the exact and the insensitive search
+ * - every row adds its name (the filter counts rows, not distinct names), a deleted row removes it,
+ * so the filter supports deletes: a name disappears once its last row is deleted
+ * - counters have 8 bits, a counter that reached the maximum is saturated and never decremented
+ * (it can't be known how many rows it stands for) - the filter can only give false positives, never false negatives
+ * - saturated counters and a load beyond the sized capacity make false positives more frequent,
+ * the owner rebuilds (compacts) the filter from the table when needsRebuild() says so
+ * - writes (add, remove) have to be serialized by the owner, mightContain needs no lock
+ * (the counters are read and written atomically)
+ */
+public class NameBloomFilter {
+    /**
+     * number of counters per name the filter is sized for (with HASH_FUNCTIONS gives about 1% false positives)
+     */
+    private static final int COUNTERS_PER_NAME = 10;
+
+    /**
+     * number of counters every name is hashed to
+     */
+    private static final int HASH_FUNCTIONS = 7;
+
+    /**
+     * value of a saturated counter
+     */
+    private static final int MAX_COUNT = 0xFF;
+
+    /**
+     * counters, four 8-bit counters packed in one int
+     */
+    private final AtomicIntegerArray counters;
+
+    /**
+     * number of counters
+     */
+    private final int counterCount;
+
+    /**
+     * number of rows the filter is sized for
+     */
+    private final int capacity;
+
+    /**
+     * number of added and removed rows since the filter was created (accessed only by writers)
+     * - a filter built from the whole table has added - removed = number of rows
+     */
+    private int added = 0;
+    private int removed = 0;
+
+    /**
+     * number of lookups answered by the filter alone (the name certainly isn't in the table)
+     */
+    private final AtomicLong rejectedLookups = new AtomicLong();
+
+    /**
+     * Constructor - creates empty filter
+     * @param capacity number of rows the filter is sized for
+     */
+    public NameBloomFilter(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        long count = (long) this.capacity * COUNTERS_PER_NAME;
+        this.counterCount = (int) Math.min(count, Integer.MAX_VALUE - 3L);
+        this.counters = new AtomicIntegerArray((counterCount + 3) / 4);
+    }
+
+    /**
+     * Adds name of a new row - has to be serialized with other writes by the caller
+     * @param name name of the row
+     */
+    public void add(String name) {
+        int hash1 = hash1(name);
+        int hash2 = hash2(hash1);
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int index = counterIndex(hash1, hash2, i);
+            int count = getCounter(index);
+            if (count < MAX_COUNT)
+                setCounter(index, count + 1);
+        }
+        added++;
+    }
+
+    /**
+     * Removes name of a deleted row - has to be serialized with other writes by the caller
+     * @param name name of the row (has to be added before)
+     */
+    public void remove(String name) {
+        int hash1 = hash1(name);
+        int hash2 = hash2(hash1);
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int index = counterIndex(hash1, hash2, i);
+            int count = getCounter(index);
+            if (count > 0 && count < MAX_COUNT) // saturated counter stays (it may stand for more rows)
+                setCounter(index, count - 1);
+        }
+        removed++;
+    }
+
+    /**
+     * Tells whether the name may be in the table
+     * @param name searched name
+     * @return false if the name certainly isn't in the table, true if it may be
+     */
+    public boolean mightContain(String name) {
+        int hash1 = hash1(name);
+        int hash2 = hash2(hash1);
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            if (getCounter(counterIndex(hash1, hash2, i)) == 0) {
+                rejectedLookups.incrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether the filter should be rebuilt from the table
+     * - more rows than it was sized for, or as many removed rows as it was sized for
+     * (the removals may have left saturated counters behind)
+     * @return true if the filter should be rebuilt
+     */
+    public boolean needsRebuild() {
+        return added - removed > capacity || removed > capacity;
+    }
+
+    /**
+     * returns number of lookups answered by the filter alone
+     * @return number of rejected lookups
+     */
+    public long getRejectedLookups() {
+        return rejectedLookups.get();
+    }
+
+    /**
+     * returns number of rows the filter is sized for
+     * @return capacity of the filter
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * index of the i-th counter of a name (double hashing)
+     * @param hash1 first hash of the name
+     * @param hash2 second hash of the name
+     * @param i number of the hash function
+     * @return index of the counter
+     */
+    private int counterIndex(int hash1, int hash2, int i) {
+        return Math.floorMod(hash1 + i * hash2, counterCount);
+    }
+
+    /**
+     * reads a counter
+     * @param index index of the counter
+     * @return value of the counter
+     */
+    private int getCounter(int index) {
+        return (counters.get(index >>> 2) >>> ((index & 3) << 3)) & MAX_COUNT;
+    }
+
+    /**
+     * writes a counter - only writers (serialized) modify the counters
+     * @param index index of the counter
+     * @param count new value of the counter
+     */
+    private void setCounter(int index, int count) {
+        int shift = (index & 3) << 3;
+        int word = counters.get(index >>> 2);
+        counters.set(index >>> 2, (word & ~(MAX_COUNT << shift)) | (count << shift));
+    }
+
+    /**
+     * first hash of the name (String.hashCode spread over all bits)
+     * @param name the name
+     * @return first hash
+     */
+    private static int hash1(String name) {
+        int hash = name.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * second hash of the name derived from the first one (odd, so it is never zero)
+     * @param hash1 first hash
+     * @return second hash
+     */
+    private static int hash2(int hash1) {
+        int hash = (hash1 ^ (hash1 >>> 13)) * 0x85EBCA6B;
+        return (hash ^ (hash >>> 16)) | 1;
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * - returns text representation of NameBloomFilter instance
+     * @return text representation of NameBloomFilter instance
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of NameBloomFilter " + super.toString() + ":%n" +
+                "=======================================================%n" +
+                "capacity: " + capacity + ", counters: " + counterCount + "%n" +
+                "added: " + added + ", removed: " + removed + "%n" +
+                "rejected lookups: " + getRejectedLookups() + "%n");
+    }
+}
@@ -0,0 +1,325 @@
+package mjiricek.spring.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Prefix tree (trie) over the food names for autocomplete
+ * - names are stored under a search key (for example lower-cased name), prefixes are matched against the key
+ * - every node caches its top N names (the most frequent names in its subtree, ties alphabetically),
+ * so answering a prefix is only a walk down the prefix, no matter how many names the subtree contains
+ * - writes are expected to be serialized by the owner (DBSimulator calls them under its write lock),
+ * they keep the caches up to date on the path of the changed key
+ * - reads need no lock: children and caches are immutable arrays published through volatile fields
+ * (copy-on-write), so a reader sees either the old or the new version of a node, never a half-updated one
+ */
+public class NameTrie {
+    /**
+     * ranking of the suggestions - the most frequent names first, then alphabetically
+     */
+    private static final Comparator<Suggestion> RANKING = Comparator.comparingInt(Suggestion::count).reversed()
+            .thenComparing(Suggestion::name);
+
+    /**
+     * empty cache/children arrays shared by all new nodes
+     */
+    private static final Suggestion[] NO_SUGGESTIONS = new Suggestion[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    /**
+     * number of names cached in each node (maximal number of suggestions)
+     */
+    private final int cacheSize;
+
+    /**
+     * root node (empty prefix)
+     */
+    private final Node root = new Node('\0');
+
+    /**
+     * Constructor
+     * @param cacheSize number of names cached in each node
+     */
+    public NameTrie(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * returns number of names cached in each node
+     * @return maximal number of suggestions
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Registers one occurrence of the name (one more food has this name)
+     * - has to be serialized with other writes by the caller
+     * @param key search key of the name
+     * @param name the name itself (what will be suggested)
+     */
+    public void add(String key, String name) {
+        Node[] path = new Node[key.length() + 1];
+        path[0] = root;
+        for (int i = 0; i < key.length(); i++) {
+            Node child = path[i].findChild(key.charAt(i));
+            if (child == null)
+                child = path[i].addChild(key.charAt(i));
+            path[i + 1] = child;
+        }
+
+        Node terminal = path[key.length()];
+        int count = terminal.terminalNames.merge(name, 1, Integer::sum);
+
+        // count only grew - the name just has to be put (or moved up) into the caches on the path
+        Suggestion updated = new Suggestion(name, count);
+        for (int i = key.length(); i >= 0; i--)
+            path[i].top = withUpdated(path[i].top, updated);
+    }
+
+    /**
+     * Unregisters one occurrence of the name (one food with this name less)
+     * - has to be serialized with other writes by the caller
+     * @param key search key of the name
+     * @param name the name itself
+     */
+    public void remove(String key, String name) {
+        Node[] path = new Node[key.length() + 1];
+        path[0] = root;
+        for (int i = 0; i < key.length(); i++) {
+            path[i + 1] = path[i].findChild(key.charAt(i));
+            if (path[i + 1] == null) // the name isn't registered
+                return;
+        }
+
+        Node terminal = path[key.length()];
+        Integer oldCount = terminal.terminalNames.get(name);
+        if (oldCount == null)
+            return;
+        int count = oldCount - 1;
+        if (count == 0)
+            terminal.terminalNames.remove(name);
+        else
+            terminal.terminalNames.put(name, count);
+
+        // bottom-up, so that the children caches are already correct when a parent has to be recomputed
+        for (int i = key.length(); i >= 0; i--) {
+            Node node = path[i];
+            int position = indexOf(node.top, name);
+            if (position < 0) {
+                // not among the cached names - lowering its count can't change the cache
+                continue;
+            }
+            Suggestion updated = new Suggestion(name, count);
+            if (node.top.length < cacheSize || (count > 0 && position < node.top.length - 1
+                    && RANKING.compare(updated, node.top[node.top.length - 1]) < 0)) {
+                // the cache holds the whole subtree, or the name stays above the last cached name
+                node.top = count == 0 ? without(node.top, position) : withUpdated(node.top, updated);
+            } else {
+                // some name from outside of the cache may take its place - recompute from the children
+                node.top = recompute(node);
+            }
+            if (i > 0 && node.top.length == 0 && node.children.length == 0)
+                path[i - 1].removeChild(node.character); // prune empty branch
+        }
+    }
+
+    /**
+     * Returns the best names with given prefix of the search key
+     * - lock-free, cost depends only on the length of the prefix
+     * @param keyPrefix prefix of the search key
+     * @param limit maximal number of suggestions (at most the cache size)
+     * @return suggested names, the most frequent first
+     */
+    public List<String> suggest(String keyPrefix, int limit) {
+        Node node = root;
+        for (int i = 0; i < keyPrefix.length() && node != null; i++)
+            node = node.findChild(keyPrefix.charAt(i));
+        if (node == null)
+            return List.of();
+
+        Suggestion[] top = node.top; // single volatile read - consistent snapshot of the cache
+        List<String> names = new ArrayList<>(Math.min(limit, top.length));
+        for (int i = 0; i < top.length && i < limit; i++)
+            names.add(top[i].name());
+
+        return names;
+    }
+
+    /**
+     * computes cache of the node from its own names and its children caches
+     * @param node recomputed node
+     * @return new cache of the node
+     */
+    private Suggestion[] recompute(Node node) {
+        ArrayList<Suggestion> candidates = new ArrayList<>();
+        node.terminalNames.forEach((name, count) -> candidates.add(new Suggestion(name, count)));
+        for (Node child : node.children)
+            candidates.addAll(Arrays.asList(child.top));
+        candidates.sort(RANKING);
+
+        // the same name can't come from two children (it has only one key), so there are no duplicates
+        return candidates.subList(0, Math.min(cacheSize, candidates.size())).toArray(NO_SUGGESTIONS);
+    }
+
+    /**
+     * returns new cache with the suggestion inserted (or its count replaced)
+     * @param top current cache
+     * @param updated suggestion with the new count
+     * @return new cache, sorted and trimmed to the cache size
+     */
+    private Suggestion[] withUpdated(Suggestion[] top, Suggestion updated) {
+        ArrayList<Suggestion> list = new ArrayList<>(top.length + 1);
+        for (Suggestion suggestion : top) {
+            if (!suggestion.name().equals(updated.name()))
+                list.add(suggestion);
+        }
+        list.add(updated);
+        list.sort(RANKING);
+        return list.subList(0, Math.min(cacheSize, list.size())).toArray(NO_SUGGESTIONS);
+    }
+
+    /**
+     * returns new cache without the suggestion at given position
+     * @param top current cache
+     * @param position position of the removed suggestion
+     * @return new cache
+     */
+    private static Suggestion[] without(Suggestion[] top, int position) {
+        Suggestion[] result = new Suggestion[top.length - 1];
+        System.arraycopy(top, 0, result, 0, position);
+        System.arraycopy(top, position + 1, result, position, top.length - position - 1);
+        return result;
+    }
+
+    /**
+     * finds position of the name in the cache
+     * @param top cache
+     * @param name searched name
+     * @return position, or -1 if not cached
+     */
+    private static int indexOf(Suggestion[] top, String name) {
+        for (int i = 0; i < top.length; i++) {
+            if (top[i].name().equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * - returns text representation of NameTrie instance
+     * @return text representation of NameTrie instance
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of NameTrie " + super.toString() + ":%n" +
+                "=======================================================%n" +
+                "cacheSize: " + cacheSize + "%n" +
+                "root children: " + root.children.length + "%n");
+    }
+
+    /**
+     * Suggested name with the number of foods having that name
+     * @param name food name
+     * @param count number of foods with the name
+     */
+    private record Suggestion(String name, int count) {
+    }
+
+    /**
+     * Node of the trie - one character of the key
+     */
+    private static final class Node {
+        /**
+         * character of the key leading to this node
+         */
+        private final char character;
+
+        /**
+         * children sorted by their character (replaced as a whole on change)
+         */
+        private volatile Node[] children = NO_CHILDREN;
+
+        /**
+         * cached top names of the subtree, best first (replaced as a whole on change)
+         */
+        private volatile Suggestion[] top = NO_SUGGESTIONS;
+
+        /**
+         * names whose key ends in this node, with their counts (accessed only by writers)
+         */
+        private final HashMap<String, Integer> terminalNames = new HashMap<>(2);
+
+        private Node(char character) {
+            this.character = character;
+        }
+
+        /**
+         * finds child by character (binary search)
+         * @param c character of the key
+         * @return child node or null
+         */
+        private Node findChild(char c) {
+            Node[] current = children;
+            int index = binarySearch(current, c);
+            return index >= 0 ? current[index] : null;
+        }
+
+        /**
+         * adds new child (copy-on-write)
+         * @param c character of the key
+         * @return new child node
+         */
+        private Node addChild(char c) {
+            Node[] current = children;
+            int insertionPoint = -binarySearch(current, c) - 1;
+            Node child = new Node(c);
+            Node[] updated = new Node[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, insertionPoint);
+            updated[insertionPoint] = child;
+            System.arraycopy(current, insertionPoint, updated, insertionPoint + 1, current.length - insertionPoint);
+            children = updated;
+            return child;
+        }
+
+        /**
+         * removes child (copy-on-write)
+         * @param c character of the key
+         */
+        private void removeChild(char c) {
+            Node[] current = children;
+            int index = binarySearch(current, c);
+            if (index < 0)
+                return;
+            Node[] updated = new Node[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            children = updated;
+        }
+
+        /**
+         * binary search of the character among children
+         * @param nodes children sorted by character
+         * @param c searched character
+         * @return index of the child, or (-(insertion point) - 1)
+         */
+        private static int binarySearch(Node[] nodes, char c) {
+            int low = 0;
+            int high = nodes.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (nodes[middle].character < c)
+                    low = middle + 1;
+                else if (nodes[middle].character > c)
+                    high = middle - 1;
+                else
+                    return middle;
+            }
+            return -(low + 1);
+        }
+    }
+}
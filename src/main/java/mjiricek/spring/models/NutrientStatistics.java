@@ -0,0 +1,304 @@
+package mjiricek.spring.models;
+
+import mjiricek.spring.models.entities.FoodData;
+import mjiricek.spring.models.query.FoodField;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summary of the nutrients of a set of foods - count, mean, min, max and histogram of every nutrient
+ * - an accumulator: foods are added one by one (add) and partial summaries are merged (merge),
+ * so it's computed in one pass over the rows, in parallel chunks too (ScanExecutor.aggregate)
+ * - DBSimulator keeps one for the whole table, maintained incrementally by all writing operations,
+ * so the summary of the whole table costs no scan at all
+ * - count, sum and histogram follow a removed food exactly; min and max can't be restored without the other
+ * rows, so a removal of an extreme value only marks them stale and the owner rebuilds them (rebuildExtremes)
+ * before they are read
+ * - histogram has BUCKETS buckets of fixed width per nutrient (kcal 50, grams 5 - values are given per 100 g),
+ * the last bucket holds also all higher values
+ * - not thread safe, the owner guards it by its lock
+ */
+public class NutrientStatistics {
+    /**
+     * summarized nutrients (numeric fields)
+     */
+    public static final List<FoodField> NUTRIENTS = List.of(FoodField.KCAL, FoodField.PROTEIN, FoodField.CARB, FoodField.FAT);
+
+    /**
+     * number of buckets of each histogram
+     */
+    public static final int BUCKETS = 20;
+
+    /**
+     * number of summarized foods
+     */
+    private int count;
+
+    /**
+     * sums of the nutrients (index of NUTRIENTS)
+     */
+    private final double[] sums = new double[NUTRIENTS.size()];
+
+    /**
+     * minimal values of the nutrients (+infinity if there are no foods)
+     */
+    private final double[] minimums = new double[NUTRIENTS.size()];
+
+    /**
+     * maximal values of the nutrients (-infinity if there are no foods)
+     */
+    private final double[] maximums = new double[NUTRIENTS.size()];
+
+    /**
+     * numbers of foods in the buckets of the nutrients
+     */
+    private final long[][] histograms = new long[NUTRIENTS.size()][BUCKETS];
+
+    /**
+     * true if a removed food had an extreme value, so min and max may be wrong
+     */
+    private boolean extremesStale = false;
+
+    /**
+     * Constructor - empty summary
+     */
+    public NutrientStatistics() {
+        clear();
+    }
+
+    /**
+     * returns width of the histogram buckets of the nutrient
+     * @param nutrient summarized nutrient
+     * @return width of one bucket (kcal or grams)
+     */
+    public static double bucketWidth(FoodField nutrient) {
+        return nutrient == FoodField.KCAL ? 50 : 5;
+    }
+
+    /**
+     * returns bucket of the value
+     * @param nutrient summarized nutrient
+     * @param value value of the nutrient
+     * @return index of the bucket (values over the range fall into the last one)
+     */
+    public static int bucketOf(FoodField nutrient, double value) {
+        return (int) Math.max(0, Math.min(BUCKETS - 1, Math.floor(value / bucketWidth(nutrient))));
+    }
+
+    /**
+     * removes all foods from the summary
+     */
+    public void clear() {
+        count = 0;
+        Arrays.fill(sums, 0);
+        Arrays.fill(minimums, Double.POSITIVE_INFINITY);
+        Arrays.fill(maximums, Double.NEGATIVE_INFINITY);
+        for (long[] histogram : histograms)
+            Arrays.fill(histogram, 0);
+        extremesStale = false;
+    }
+
+    /**
+     * adds food to the summary
+     * @param food added food
+     */
+    public void add(FoodData food) {
+        count++;
+        for (int i = 0; i < sums.length; i++) {
+            FoodField nutrient = NUTRIENTS.get(i);
+            double value = nutrient.numericValue(food);
+            sums[i] += value;
+            minimums[i] = Math.min(minimums[i], value);
+            maximums[i] = Math.max(maximums[i], value);
+            histograms[i][bucketOf(nutrient, value)]++;
+        }
+    }
+
+    /**
+     * removes food from the summary (it has to be added before)
+     * - if the food has the minimal or maximal value of a nutrient, the extremes become stale
+     * @param food removed food
+     */
+    public void remove(FoodData food) {
+        count--;
+        for (int i = 0; i < sums.length; i++) {
+            FoodField nutrient = NUTRIENTS.get(i);
+            double value = nutrient.numericValue(food);
+            sums[i] = count == 0 ? 0 : sums[i] - value; // no rounding residue in an empty summary
+            histograms[i][bucketOf(nutrient, value)]--;
+            if (value <= minimums[i] || value >= maximums[i])
+                extremesStale = true;
+        }
+        if (count == 0)
+            clear();
+    }
+
+    /**
+     * adds all foods of the other summary to this one
+     * @param other summary of other foods (with fresh extremes)
+     * @return this summary
+     */
+    public NutrientStatistics merge(NutrientStatistics other) {
+        count += other.count;
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] += other.sums[i];
+            minimums[i] = Math.min(minimums[i], other.minimums[i]);
+            maximums[i] = Math.max(maximums[i], other.maximums[i]);
+            for (int bucket = 0; bucket < BUCKETS; bucket++)
+                histograms[i][bucket] += other.histograms[i][bucket];
+        }
+        return this;
+    }
+
+    /**
+     * tells whether min and max have to be rebuilt before they are read
+     * @return true after a removal of an extreme value
+     */
+    public boolean areExtremesStale() {
+        return extremesStale;
+    }
+
+    /**
+     * recomputes min and max (and the sums, dropping the rounding residue of the removals) from all summarized foods
+     * @param foods all foods of the summary
+     */
+    public void rebuildExtremes(Iterable<? extends FoodData> foods) {
+        Arrays.fill(sums, 0);
+        Arrays.fill(minimums, Double.POSITIVE_INFINITY);
+        Arrays.fill(maximums, Double.NEGATIVE_INFINITY);
+        for (FoodData food : foods) {
+            for (int i = 0; i < sums.length; i++) {
+                double value = NUTRIENTS.get(i).numericValue(food);
+                sums[i] += value;
+                minimums[i] = Math.min(minimums[i], value);
+                maximums[i] = Math.max(maximums[i], value);
+            }
+        }
+        extremesStale = false;
+    }
+
+    /**
+     * sets the number of foods (for summaries computed by a database, see H2StorageEngine)
+     * @param count number of summarized foods
+     */
+    void setCount(int count) {
+        this.count = count;
+    }
+
+    /**
+     * sets sum, min and max of the nutrient (for summaries computed by a database)
+     * @param nutrient summarized nutrient
+     * @param sum sum of the values
+     * @param min minimal value
+     * @param max maximal value
+     */
+    void setAggregates(FoodField nutrient, double sum, double min, double max) {
+        int i = NUTRIENTS.indexOf(nutrient);
+        sums[i] = sum;
+        minimums[i] = min;
+        maximums[i] = max;
+    }
+
+    /**
+     * adds foods to a bucket of the histogram (for summaries computed by a database)
+     * @param nutrient summarized nutrient
+     * @param bucket index of the bucket
+     * @param foods number of foods in the bucket
+     */
+    void addToBucket(FoodField nutrient, int bucket, long foods) {
+        histograms[NUTRIENTS.indexOf(nutrient)][bucket] += foods;
+    }
+
+    /**
+     * creates independent copy of the summary
+     * @return copy
+     */
+    public NutrientStatistics copy() {
+        NutrientStatistics copy = new NutrientStatistics();
+        copy.merge(this);
+        copy.extremesStale = extremesStale;
+        return copy;
+    }
+
+    /**
+     * returns number of summarized foods
+     * @return number of foods
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * returns mean value of the nutrient
+     * @param nutrient summarized nutrient
+     * @return mean, NaN if there are no foods
+     */
+    public double getMean(FoodField nutrient) {
+        return count == 0 ? Double.NaN : sums[NUTRIENTS.indexOf(nutrient)] / count;
+    }
+
+    /**
+     * returns minimal value of the nutrient
+     * @param nutrient summarized nutrient
+     * @return minimum, NaN if there are no foods
+     */
+    public double getMin(FoodField nutrient) {
+        return count == 0 ? Double.NaN : minimums[NUTRIENTS.indexOf(nutrient)];
+    }
+
+    /**
+     * returns maximal value of the nutrient
+     * @param nutrient summarized nutrient
+     * @return maximum, NaN if there are no foods
+     */
+    public double getMax(FoodField nutrient) {
+        return count == 0 ? Double.NaN : maximums[NUTRIENTS.indexOf(nutrient)];
+    }
+
+    /**
+     * returns histogram of the nutrient
+     * @param nutrient summarized nutrient
+     * @return copy of the numbers of foods in the buckets
+     */
+    public long[] getHistogram(FoodField nutrient) {
+        return histograms[NUTRIENTS.indexOf(nutrient)].clone();
+    }
+
+    /**
+     * returns the summary as a map (for the API)
+     * @return map with the count and, for every nutrient, mean, min, max, bucket width and histogram
+     * (mean, min and max are null if there are no foods)
+     */
+    public Map<String, Object> getSummary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", count);
+        for (FoodField nutrient : NUTRIENTS) {
+            Map<String, Object> nutrientSummary = new LinkedHashMap<>();
+            nutrientSummary.put("mean", count == 0 ? null : getMean(nutrient));
+            nutrientSummary.put("min", count == 0 ? null : getMin(nutrient));
+            nutrientSummary.put("max", count == 0 ? null : getMax(nutrient));
+            nutrientSummary.put("bucketWidth", bucketWidth(nutrient));
+            nutrientSummary.put("histogram", getHistogram(nutrient));
+            summary.put(nutrient.getKeyword(), nutrientSummary);
+        }
+        return summary;
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * @return String with the count and mean, min and max of the nutrients
+     */
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder("Printout of NutrientStatistics " + super.toString() + ":%n");
+        stringBuilder.append("count: " + count + (extremesStale ? " (extremes stale)" : "") + "%n");
+        for (FoodField nutrient : NUTRIENTS) {
+            stringBuilder.append(nutrient.getKeyword() + ": mean " + getMean(nutrient) + ", min " + getMin(nutrient)
+                    + ", max " + getMax(nutrient) + "%n");
+        }
+        return String.format(stringBuilder.toString());
+    }
+}
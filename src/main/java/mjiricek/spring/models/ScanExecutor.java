@@ -0,0 +1,553 @@
+package mjiricek.spring.models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * This class evaluates filtering queries (full table scans) over the table of DBSimulator.
+ * - small tables are scanned sequentially by the calling thread
+ * - once the table passes the parallel threshold, the table is split into chunks of fixed size
+ * and the chunks are scanned in parallel on a dedicated ForkJoinPool
+ * (not the common pool, so that scans can't be starved by, nor starve, other users of the common pool)
+ * - paging order is kept: results are always returned in the order of the table (ordered by id)
+ * - top-K queries are evaluated in one pass with a bounded heap (one heap per chunk, merged at the end),
+ * instead of sorting the whole table
+ * - aggregations are evaluated in one pass too (one accumulator per chunk, merged at the end)
+ * The caller is responsible for holding a read lock on the scanned list for the whole duration of the scan,
+ * worker threads of the pool only read the list while the calling thread waits for them.
+ */
+public class ScanExecutor {
+    /**
+     * dedicated pool for the parallel scans
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * minimal size of the table for which the scan is done in parallel
+     * (below that, the overhead of forking is bigger than the gain)
+     */
+    private final int parallelThreshold;
+
+    /**
+     * number of table rows evaluated by one leaf task
+     */
+    private final int chunkSize;
+
+    /**
+     * Constructor
+     * @param parallelism number of worker threads of the pool (number of cores to use)
+     * @param parallelThreshold minimal table size for parallel scans
+     * @param chunkSize number of rows in one chunk (one leaf task)
+     */
+    public ScanExecutor(int parallelism, int parallelThreshold, int chunkSize) {
+        if (parallelism < 1 || chunkSize < 1)
+            throw new IllegalArgumentException("Parallelism and chunk size must be positive.");
+
+        this.pool = new ForkJoinPool(parallelism);
+        this.parallelThreshold = parallelThreshold;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * tells whether a table of given size would be scanned in parallel
+     * @param tableSize number of rows of the scanned table
+     * @return true if the scan would be split into parallel chunks
+     */
+    public boolean isParallel(int tableSize) {
+        return tableSize >= parallelThreshold && tableSize > chunkSize;
+    }
+
+    /**
+     * Counts rows satisfying the predicate
+     * @param table scanned table (read locked by the caller)
+     * @param predicate filter condition
+     * @param <T> type of the rows
+     * @return number of rows satisfying the predicate
+     */
+    public <T> int count(List<T> table, Predicate<? super T> predicate) {
+        if (!isParallel(table.size()))
+            return countRange(table, predicate, 0, table.size());
+
+        int[] chunkCounts = countChunks(table, predicate);
+        int total = 0;
+        for (int chunkCount : chunkCounts)
+            total += chunkCount;
+
+        return total;
+    }
+
+    /**
+     * Finds rows satisfying the predicate, skips first startIndex of them
+     * and returns (mapped) at most maxLength following ones - in the order of the table.
+     * @param table scanned table (read locked by the caller)
+     * @param predicate filter condition
+     * @param startIndex how many matching rows to skip
+     * @param maxLength maximal number of returned rows
+     * @param mapper function applied on each returned row (e.g. copying)
+     * @param <T> type of the rows
+     * @param <R> type of the returned elements
+     * @return page of matching (mapped) rows
+     */
+    public <T, R> ArrayList<R> collectPage(List<T> table, Predicate<? super T> predicate,
+                                           int startIndex, int maxLength, Function<? super T, R> mapper) {
+        if (!isParallel(table.size()))
+            return collectRange(table, predicate, 0, table.size(), startIndex, maxLength, mapper);
+
+        // first phase - count the matches in each chunk (in parallel)
+        int[] chunkCounts = countChunks(table, predicate);
+
+        // find which chunks contain the requested page and how many matches to skip/take in each of them
+        int[] skips = new int[chunkCounts.length];
+        int[] takes = new int[chunkCounts.length];
+        int toSkip = startIndex;
+        int toTake = maxLength;
+        int firstChunk = -1;
+        int lastChunk = -1;
+        for (int i = 0; i < chunkCounts.length && toTake > 0; i++) {
+            if (toSkip >= chunkCounts[i]) { // whole chunk is before the page
+                toSkip -= chunkCounts[i];
+                continue;
+            }
+            skips[i] = toSkip;
+            takes[i] = Math.min(chunkCounts[i] - toSkip, toTake);
+            toTake -= takes[i];
+            toSkip = 0;
+            if (firstChunk < 0)
+                firstChunk = i;
+            lastChunk = i;
+        }
+
+        ArrayList<R> page = new ArrayList<>();
+        if (firstChunk < 0) // page is out of range
+            return page;
+
+        // second phase - collect the page from the relevant chunks (in parallel), then concatenate them in order
+        List<List<R>> chunkResults = new ArrayList<>(Collections.nCopies(chunkCounts.length, null));
+        pool.invoke(new CollectTask<>(table, predicate, mapper, firstChunk, lastChunk + 1, skips, takes, chunkResults));
+        for (int i = firstChunk; i <= lastChunk; i++)
+            page.addAll(chunkResults.get(i));
+
+        return page;
+    }
+
+    /**
+     * Finds k best rows according to the score, in one pass over the table with bounded heaps
+     * - rows with NaN score are left out
+     * - ties are broken by the position in the table (lower id first)
+     * @param table scanned table (read locked by the caller)
+     * @param scorer function computing the score of a row
+     * @param descending true if the highest scores are the best, false if the lowest
+     * @param k maximal number of returned rows
+     * @param mapper function applied on each returned row (e.g. copying)
+     * @param <T> type of the rows
+     * @param <R> type of the returned elements
+     * @return best rows (mapped), best first
+     */
+    public <T, R> ArrayList<R> topK(List<T> table, ToDoubleFunction<? super T> scorer, boolean descending,
+                                    int k, Function<? super T, R> mapper) {
+        BoundedHeap heap;
+        if (!isParallel(table.size())) {
+            heap = new BoundedHeap(k, descending);
+            heap.offerRange(table, scorer, 0, table.size());
+        } else {
+            int numberOfChunks = (table.size() + chunkSize - 1) / chunkSize;
+            heap = pool.invoke(new TopKTask<>(table, scorer, descending, k, 0, numberOfChunks));
+        }
+
+        ArrayList<R> result = new ArrayList<>(heap.size());
+        for (ScoredRow scoredRow : heap.sortedBestFirst())
+            result.add(mapper.apply(table.get(scoredRow.index())));
+
+        return result;
+    }
+
+    /**
+     * Folds rows satisfying the predicate into an accumulator, in one pass over the table
+     * - in parallel chunks for large tables: each chunk has its own accumulator, they are merged in the order of the chunks
+     * @param table scanned table (read locked by the caller)
+     * @param predicate filter condition
+     * @param factory creates an empty accumulator
+     * @param accumulator adds a matching row into an accumulator
+     * @param combiner merges the second accumulator into the first one and returns the result
+     * @param <T> type of the rows
+     * @param <A> type of the accumulator
+     * @return accumulator with all matching rows
+     */
+    public <T, A> A aggregate(List<T> table, Predicate<? super T> predicate, Supplier<A> factory,
+                              BiConsumer<A, ? super T> accumulator, BinaryOperator<A> combiner) {
+        if (!isParallel(table.size()))
+            return aggregateRange(table, predicate, factory, accumulator, 0, table.size());
+
+        int numberOfChunks = (table.size() + chunkSize - 1) / chunkSize;
+        return pool.invoke(new AggregateTask<>(table, predicate, factory, accumulator, combiner, 0, numberOfChunks));
+    }
+
+    /**
+     * counts matches in each chunk of the table in parallel
+     * @param table scanned table
+     * @param predicate filter condition
+     * @param <T> type of the rows
+     * @return array of match counts, one element per chunk
+     */
+    private <T> int[] countChunks(List<T> table, Predicate<? super T> predicate) {
+        int numberOfChunks = (table.size() + chunkSize - 1) / chunkSize;
+        int[] chunkCounts = new int[numberOfChunks];
+        pool.invoke(new CountTask<>(table, predicate, 0, numberOfChunks, chunkCounts));
+        return chunkCounts;
+    }
+
+    /**
+     * sequentially counts matches within given index range of the table
+     * @param table scanned table
+     * @param predicate filter condition
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     * @param <T> type of the rows
+     * @return number of matches
+     */
+    private static <T> int countRange(List<T> table, Predicate<? super T> predicate, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (predicate.test(table.get(i)))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * sequentially folds matches within given index range of the table into a new accumulator
+     * @param table scanned table
+     * @param predicate filter condition
+     * @param factory creates an empty accumulator
+     * @param accumulator adds a matching row into an accumulator
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     * @param <T> type of the rows
+     * @param <A> type of the accumulator
+     * @return accumulator with the matches
+     */
+    private static <T, A> A aggregateRange(List<T> table, Predicate<? super T> predicate, Supplier<A> factory,
+                                           BiConsumer<A, ? super T> accumulator, int from, int to) {
+        A result = factory.get();
+        for (int i = from; i < to; i++) {
+            T row = table.get(i);
+            if (predicate.test(row))
+                accumulator.accept(result, row);
+        }
+        return result;
+    }
+
+    /**
+     * sequentially collects matches within given index range of the table
+     * @param table scanned table
+     * @param predicate filter condition
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     * @param skip how many matches to skip
+     * @param take maximal number of collected matches
+     * @param mapper function applied on each collected row
+     * @param <T> type of the rows
+     * @param <R> type of the collected elements
+     * @return collected matches
+     */
+    private static <T, R> ArrayList<R> collectRange(List<T> table, Predicate<? super T> predicate, int from, int to,
+                                                    int skip, int take, Function<? super T, R> mapper) {
+        ArrayList<R> result = new ArrayList<>(Math.min(take, to - from));
+        for (int i = from; i < to && result.size() < take; i++) {
+            T row = table.get(i);
+            if (predicate.test(row)) {
+                if (skip > 0)
+                    skip--;
+                else
+                    result.add(mapper.apply(row));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Shuts down the pool (Spring calls this on context shutdown as an inferred destroy method)
+     */
+    public void shutdown() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * - returns text representation of ScanExecutor instance
+     * @return text representation of ScanExecutor instance
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of ScanExecutor " + super.toString() + ":%n" +
+                "=======================================================%n" +
+                "parallelThreshold: " + parallelThreshold + "%n" +
+                "chunkSize: " + chunkSize + "%n" +
+                "pool: " + pool + "%n");
+    }
+
+    /**
+     * Score of a table row, the row is identified by its index in the table
+     * @param score score of the row
+     * @param index index of the row in the table
+     */
+    private record ScoredRow(double score, int index) {
+    }
+
+    /**
+     * Heap keeping at most k best rows offered to it
+     * - the root of the heap is the worst of the kept rows, so a new row is compared only with the root
+     */
+    private static final class BoundedHeap {
+        private final int k;
+        private final boolean descending;
+        private final PriorityQueue<ScoredRow> heap;
+
+        private BoundedHeap(int k, boolean descending) {
+            this.k = k;
+            this.descending = descending;
+            // worst row first - reversed ranking order
+            this.heap = new PriorityQueue<>(Math.max(1, Math.min(k, 1024)), rankingOrder(descending).reversed());
+        }
+
+        /**
+         * ranking order - best row first, ties broken by index
+         * @param descending true if the highest scores are the best
+         * @return comparator of the ranking
+         */
+        private static Comparator<ScoredRow> rankingOrder(boolean descending) {
+            Comparator<ScoredRow> byScore = Comparator.comparingDouble(ScoredRow::score);
+            return (descending ? byScore.reversed() : byScore).thenComparingInt(ScoredRow::index);
+        }
+
+        private int size() {
+            return heap.size();
+        }
+
+        /**
+         * offers a row to the heap (it's kept only if it belongs among k best rows)
+         * @param score score of the row
+         * @param index index of the row in the table
+         */
+        private void offer(double score, int index) {
+            if (Double.isNaN(score) || k <= 0)
+                return;
+            if (heap.size() < k) {
+                heap.add(new ScoredRow(score, index));
+                return;
+            }
+            ScoredRow worst = heap.peek();
+            int comparison = descending ? Double.compare(worst.score(), score) : Double.compare(score, worst.score());
+            if (comparison < 0 || (comparison == 0 && index < worst.index())) { // better than the worst kept row
+                heap.poll();
+                heap.add(new ScoredRow(score, index));
+            }
+        }
+
+        /**
+         * offers all rows within given index range of the table
+         * @param table scanned table
+         * @param scorer function computing the score of a row
+         * @param from first index, inclusive
+         * @param to last index, exclusive
+         * @param <T> type of the rows
+         */
+        private <T> void offerRange(List<T> table, ToDoubleFunction<? super T> scorer, int from, int to) {
+            for (int i = from; i < to; i++)
+                offer(scorer.applyAsDouble(table.get(i)), i);
+        }
+
+        /**
+         * merges other heap into this one
+         * @param other heap with rows from other part of the table
+         * @return this heap
+         */
+        private BoundedHeap merge(BoundedHeap other) {
+            for (ScoredRow scoredRow : other.heap)
+                offer(scoredRow.score(), scoredRow.index());
+            return this;
+        }
+
+        /**
+         * returns kept rows in ranking order
+         * @return kept rows, best first
+         */
+        private List<ScoredRow> sortedBestFirst() {
+            List<ScoredRow> sorted = new ArrayList<>(heap);
+            sorted.sort(rankingOrder(descending));
+            return sorted;
+        }
+    }
+
+    /**
+     * Fork/join task computing top-K rows of a range of chunks
+     * - each leaf task fills its own bounded heap, the heaps are merged when joining
+     */
+    @SuppressWarnings("serial") // never serialized, fork/join tasks are Serializable only by inheritance
+    private final class TopKTask<T> extends RecursiveTask<BoundedHeap> {
+        private final List<T> table;
+        private final ToDoubleFunction<? super T> scorer;
+        private final boolean descending;
+        private final int k;
+        private final int firstChunk;
+        private final int endChunk;
+
+        private TopKTask(List<T> table, ToDoubleFunction<? super T> scorer, boolean descending, int k,
+                         int firstChunk, int endChunk) {
+            this.table = table;
+            this.scorer = scorer;
+            this.descending = descending;
+            this.k = k;
+            this.firstChunk = firstChunk;
+            this.endChunk = endChunk;
+        }
+
+        @Override
+        protected BoundedHeap compute() {
+            if (endChunk - firstChunk == 1) { // leaf task - scan one chunk
+                int from = firstChunk * chunkSize;
+                BoundedHeap heap = new BoundedHeap(k, descending);
+                heap.offerRange(table, scorer, from, Math.min(from + chunkSize, table.size()));
+                return heap;
+            }
+            int middle = (firstChunk + endChunk) >>> 1;
+            TopKTask<T> secondHalf = new TopKTask<>(table, scorer, descending, k, middle, endChunk);
+            secondHalf.fork();
+            BoundedHeap firstHeap = new TopKTask<>(table, scorer, descending, k, firstChunk, middle).compute();
+            return firstHeap.merge(secondHalf.join());
+        }
+    }
+
+    /**
+     * Fork/join task folding matches of a range of chunks
+     * - each leaf task fills its own accumulator, the accumulators are merged when joining
+     */
+    @SuppressWarnings("serial") // never serialized, fork/join tasks are Serializable only by inheritance
+    private final class AggregateTask<T, A> extends RecursiveTask<A> {
+        private final List<T> table;
+        private final Predicate<? super T> predicate;
+        private final Supplier<A> factory;
+        private final BiConsumer<A, ? super T> accumulator;
+        private final BinaryOperator<A> combiner;
+        private final int firstChunk;
+        private final int endChunk;
+
+        private AggregateTask(List<T> table, Predicate<? super T> predicate, Supplier<A> factory,
+                              BiConsumer<A, ? super T> accumulator, BinaryOperator<A> combiner,
+                              int firstChunk, int endChunk) {
+            this.table = table;
+            this.predicate = predicate;
+            this.factory = factory;
+            this.accumulator = accumulator;
+            this.combiner = combiner;
+            this.firstChunk = firstChunk;
+            this.endChunk = endChunk;
+        }
+
+        @Override
+        protected A compute() {
+            if (endChunk - firstChunk == 1) { // leaf task - scan one chunk
+                int from = firstChunk * chunkSize;
+                return aggregateRange(table, predicate, factory, accumulator, from, Math.min(from + chunkSize, table.size()));
+            }
+            int middle = (firstChunk + endChunk) >>> 1;
+            AggregateTask<T, A> secondHalf = new AggregateTask<>(table, predicate, factory, accumulator, combiner,
+                    middle, endChunk);
+            secondHalf.fork();
+            A first = new AggregateTask<>(table, predicate, factory, accumulator, combiner, firstChunk, middle).compute();
+            return combiner.apply(first, secondHalf.join());
+        }
+    }
+
+    /**
+     * Fork/join task counting matches in a range of chunks
+     * - splits the range in halves until one chunk is left
+     */
+    @SuppressWarnings("serial") // never serialized, fork/join tasks are Serializable only by inheritance
+    private final class CountTask<T> extends RecursiveAction {
+        private final List<T> table;
+        private final Predicate<? super T> predicate;
+        private final int firstChunk;
+        private final int endChunk;
+        private final int[] chunkCounts;
+
+        private CountTask(List<T> table, Predicate<? super T> predicate, int firstChunk, int endChunk, int[] chunkCounts) {
+            this.table = table;
+            this.predicate = predicate;
+            this.firstChunk = firstChunk;
+            this.endChunk = endChunk;
+            this.chunkCounts = chunkCounts;
+        }
+
+        @Override
+        protected void compute() {
+            if (endChunk - firstChunk == 1) { // leaf task - scan one chunk
+                int from = firstChunk * chunkSize;
+                chunkCounts[firstChunk] = countRange(table, predicate, from, Math.min(from + chunkSize, table.size()));
+                return;
+            }
+            int middle = (firstChunk + endChunk) >>> 1;
+            invokeAll(new CountTask<>(table, predicate, firstChunk, middle, chunkCounts),
+                    new CountTask<>(table, predicate, middle, endChunk, chunkCounts));
+        }
+    }
+
+    /**
+     * Fork/join task collecting matches from a range of chunks
+     * - each chunk has its own number of matches to skip and to take (computed from the chunk counts)
+     */
+    @SuppressWarnings("serial") // never serialized, fork/join tasks are Serializable only by inheritance
+    private final class CollectTask<T, R> extends RecursiveAction {
+        private final List<T> table;
+        private final Predicate<? super T> predicate;
+        private final Function<? super T, R> mapper;
+        private final int firstChunk;
+        private final int endChunk;
+        private final int[] skips;
+        private final int[] takes;
+        private final List<List<R>> chunkResults; // one slot per chunk, each leaf sets only its own
+
+        private CollectTask(List<T> table, Predicate<? super T> predicate, Function<? super T, R> mapper,
+                            int firstChunk, int endChunk, int[] skips, int[] takes, List<List<R>> chunkResults) {
+            this.table = table;
+            this.predicate = predicate;
+            this.mapper = mapper;
+            this.firstChunk = firstChunk;
+            this.endChunk = endChunk;
+            this.skips = skips;
+            this.takes = takes;
+            this.chunkResults = chunkResults;
+        }
+
+        @Override
+        protected void compute() {
+            if (endChunk - firstChunk == 1) { // leaf task - collect from one chunk
+                int from = firstChunk * chunkSize;
+                chunkResults.set(firstChunk, collectRange(table, predicate, from, Math.min(from + chunkSize, table.size()),
+                        skips[firstChunk], takes[firstChunk], mapper));
+                return;
+            }
+            int middle = (firstChunk + endChunk) >>> 1;
+            invokeAll(new CollectTask<>(table, predicate, mapper, firstChunk, middle, skips, takes, chunkResults),
+                    new CollectTask<>(table, predicate, mapper, middle, endChunk, skips, takes, chunkResults));
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package mjiricek.spring.models;
+
+import mjiricek.spring.models.entities.Food;
+import mjiricek.spring.models.entities.FoodData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of the name search results (number of entries with the name and pages of them)
+ * - entries are keyed by the searched name and the page (start index, length) - the name search ignores case
+ * and diacritics, so the "name" is the search key of the searched name (FoodData.toSearchKey),
+ * the least recently used entry is evicted when the cache is full
+ * - invalidation is precise and version based: every cached name has a version stamp,
+ * a change touching the name (its change log event) drops the stamp, so only the entries
+ * of that name stop matching - searches of other names keep hitting the cache
+ * - a reader takes the stamp before it runs the query, so a result computed before a concurrent
+ * write is stored with the old stamp and is never served after the write
+ * - stamps come from one counter and are never reused, so a stamp dropped and created again
+ * can't make an old entry valid again (which also makes it safe to drop stamps at any time)
+ */
+public class SearchResultCache implements ChangeLog.Listener {
+    /**
+     * page "index" under which the number of entries with the name is cached
+     */
+    private static final int COUNT_KEY = -1;
+
+    /**
+     * maximal number of cached entries
+     */
+    private final int capacity;
+
+    /**
+     * cached entries in the order of access (least recently used first), guarded by this
+     */
+    private final LinkedHashMap<Key, CachedResult> entries;
+
+    /**
+     * number of cached entries for every name (to know when its stamp isn't needed anymore), guarded by this
+     */
+    private final HashMap<String, Integer> entriesPerName = new HashMap<>();
+
+    /**
+     * current version stamp of every cached name (a missing stamp means no cached entry is valid)
+     */
+    private final ConcurrentHashMap<String, Long> versions = new ConcurrentHashMap<>();
+
+    /**
+     * source of the version stamps
+     */
+    private final AtomicLong stampCounter = new AtomicLong();
+
+    /**
+     * statistics
+     */
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param capacity maximal number of cached entries
+     */
+    public SearchResultCache(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity of the search cache must be positive.");
+
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+                if (size() <= SearchResultCache.this.capacity)
+                    return false;
+                evictions.incrementAndGet();
+                forgetEntry(eldest.getKey().name());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns number of entries with the name - from the cache, or from the loader (and caches it)
+     * @param name searched name
+     * @param loader query of the storage engine
+     * @return number of entries with the name
+     */
+    public int getCount(String name, Supplier<Integer> loader) {
+        return get(new Key(name, COUNT_KEY, 0), loader);
+    }
+
+    /**
+     * Returns page of entries with the name - from the cache, or from the loader (and caches it)
+     * @param name searched name
+     * @param startIndex index where the page starts
+     * @param maxLength requested length of the page
+     * @param loader query of the storage engine
+     * @return copies of the entries (the caller may modify them)
+     */
+    public ArrayList<Food> getPage(String name, int startIndex, int maxLength, Supplier<ArrayList<Food>> loader) {
+        List<Food> page = get(new Key(name, startIndex, maxLength), loader);
+        ArrayList<Food> copy = new ArrayList<>(page.size());
+        for (Food food : page)
+            copy.add(food.copy()); // cached instances are never handed out
+        return copy;
+    }
+
+    /**
+     * Looks the key up and loads the value if it isn't cached (or is stale)
+     * @param key name and page
+     * @param loader query of the storage engine
+     * @return cached or loaded value
+     * @param <T> type of the value
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T get(Key key, Supplier<T> loader) {
+        // the stamp has to be taken before the query runs (see the class comment)
+        long version = versions.computeIfAbsent(key.name(), name -> stampCounter.incrementAndGet());
+        synchronized (this) {
+            CachedResult cached = entries.get(key);
+            if (cached != null) {
+                if (cached.version() == version) {
+                    hits.incrementAndGet();
+                    return (T) cached.value();
+                }
+                entries.remove(key); // stale - written by a change of the name
+                forgetEntry(key.name());
+                invalidations.incrementAndGet();
+            }
+        }
+
+        misses.incrementAndGet();
+        T value = loader.get(); // query runs outside of the cache lock
+        synchronized (this) {
+            if (!entries.containsKey(key)) // counted before the put, which may evict an entry of the same name
+                entriesPerName.merge(key.name(), 1, Integer::sum);
+            entries.put(key, new CachedResult(version, value));
+        }
+        return value;
+    }
+
+    /**
+     * bookkeeping after an entry was removed - has to be called with the cache lock held
+     * @param name name of the removed entry
+     */
+    private void forgetEntry(String name) {
+        if (entriesPerName.merge(name, -1, Integer::sum) <= 0) {
+            entriesPerName.remove(name);
+            versions.remove(name); // nothing of the name is cached, the stamp isn't needed
+        }
+    }
+
+    /**
+     * invalidates the search keys of the names touched by the change (the new name and for an update also the old one)
+     * @param event appended event
+     */
+    @Override
+    public void changed(ChangeEvent event) {
+        invalidate(event.getFood().getSearchKey());
+        if (event.getPreviousFoodName() != null)
+            invalidate(FoodData.toSearchKey(event.getPreviousFoodName()));
+    }
+
+    /**
+     * invalidates everything - the whole table was replaced
+     * @param sequence sequence number of the last change included in the snapshot
+     */
+    @Override
+    public void restarted(long sequence) {
+        versions.clear();
+    }
+
+    /**
+     * makes all cached entries of the name stale (they are removed on the next lookup or evicted)
+     * @param name name touched by a change
+     */
+    private void invalidate(String name) {
+        versions.remove(name);
+    }
+
+    /**
+     * returns statistics of the cache
+     * @return hits, misses, evictions, invalidations, size and capacity
+     */
+    public Map<String, Object> getStatistics() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("hits", hitCount);
+        statistics.put("misses", missCount);
+        statistics.put("hitRatio", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        statistics.put("evictions", evictions.get());
+        statistics.put("invalidations", invalidations.get());
+        synchronized (this) {
+            statistics.put("size", entries.size());
+        }
+        statistics.put("capacity", capacity);
+        return statistics;
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * - returns text representation of SearchResultCache instance
+     * @return text representation of SearchResultCache instance
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of SearchResultCache " + super.toString() + ":%n" +
+                "=======================================================%n" +
+                "statistics: " + getStatistics() + "%n");
+    }
+
+    /**
+     * Key of a cached entry
+     * @param name searched name
+     * @param startIndex index where the page starts (COUNT_KEY for the number of entries)
+     * @param maxLength requested length of the page
+     */
+    private record Key(String name, int startIndex, int maxLength) {
+    }
+
+    /**
+     * Cached value with the version stamp of its name at the time of the query
+     * @param version version stamp
+     * @param value number of entries or page of entries
+     */
+    private record CachedResult(long version, Object value) {
+    }
+}
@@ -0,0 +1,88 @@
+package mjiricek.spring.models;
+
+import mjiricek.spring.models.entities.Food;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of entries read from a snapshot of the table (see DBService.showEntriesAsOf)
+ * - the count and the entries come from the same snapshot, so they are always consistent
+ * - the following page is read with nextAfter as the "after" cursor (an id), which continues right behind
+ * this page instead of skipping the matching entries again; continuation pages don't count the entries
+ */
+public class SnapshotPage {
+    /**
+     * sequence number of the change the snapshot shows the table after
+     */
+    private final long sequence;
+
+    /**
+     * number of all entries matching the query in the snapshot (not only on this page),
+     * null on continuation pages (read after an id), the count of the first page holds for the same snapshot
+     */
+    private final Integer matchingCount;
+
+    /**
+     * copies of the entries on the page, sorted by id
+     */
+    private final List<Food> entries;
+
+    /**
+     * Constructor
+     * @param sequence sequence number of the snapshot
+     * @param matchingCount number of all matching entries, null if not counted
+     * @param entries copies of the entries on the page
+     */
+    public SnapshotPage(long sequence, Integer matchingCount, List<Food> entries) {
+        this.sequence = sequence;
+        this.matchingCount = matchingCount;
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * returns sequence number of the change the snapshot shows the table after
+     * @return sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * returns number of all entries matching the query in the snapshot
+     * @return number of matching entries, null on continuation pages
+     */
+    public Integer getMatchingCount() {
+        return matchingCount;
+    }
+
+    /**
+     * returns copies of the entries on the page
+     * @return entries sorted by id
+     */
+    public List<Food> getEntries() {
+        return entries;
+    }
+
+    /**
+     * returns the cursor of the following page (id of the last entry on this page)
+     * @return id to pass as "after", null if the page is empty
+     */
+    public Integer getNextAfter() {
+        return entries.isEmpty() ? null : entries.get(entries.size() - 1).getFoodID();
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * - returns text representation of SnapshotPage instance
+     * @return text representation of SnapshotPage instance
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of SnapshotPage " + super.toString() + ":%n" +
+                "=======================================================%n" +
+                "sequence: " + sequence + "%n" +
+                "matchingCount: " + matchingCount + "%n" +
+                "entries: " + entries.size() + "%n");
+    }
+}
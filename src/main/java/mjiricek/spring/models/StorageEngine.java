@@ -0,0 +1,191 @@
+package mjiricek.spring.models;
+
+import mjiricek.spring.models.entities.Food;
+import mjiricek.spring.models.entities.FoodData;
+import mjiricek.spring.models.query.FilterQuery;
+import mjiricek.spring.models.query.QueryPlan;
+import mjiricek.spring.models.query.RankingMetric;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage engine of the nutritional database - the table of foods and the operations over it
+ * - DBService works only with this interface, the engine is chosen by configuration
+ * (nutrdb.storage.engine, see SpringApplicationConfig.createStorageEngine())
+ * - implementations: DBSimulator (in memory), H2StorageEngine (embedded SQL database in a file)
+ * - every operation has to be atomic (thread safe) and every mutation has to be recorded
+ * in the change log, in the order of application
+ * - entities are always returned as copies, never as the stored instances
+ */
+public interface StorageEngine {
+    /**
+     * maximal number of names returned by getNameSuggestions
+     */
+    int MAX_SUGGESTIONS = 10;
+
+    /**
+     * returns number of entries in the table
+     * @return number of entries in DB
+     */
+    int getTableSize();
+
+    /**
+     * Returns number of ocurrences of an entry with a given name attribute value
+     * @param entryName name of the entry
+     * @return number of ocurrences with a given name
+     */
+    int getNameCount(String entryName);
+
+    /**
+     * adds new entity in DB
+     * @param foodData attributes of the new db entry
+     */
+    void addEntity(FoodData foodData);
+
+    /**
+     * adds new entities in DB (each one is a separate change, but the engine may write them together)
+     * @param foodData attributes of the new db entries
+     */
+    void addEntities(List<FoodData> foodData);
+
+    /**
+     * Applies several mutations in their order under one acquisition of the write lock (one transaction)
+     * - each mutation is a separate change in the change log
+     * @param operations validated mutations
+     * @return for every operation id of the created/updated/deleted entity, or -1 if the updated/deleted entity wasn't found
+     */
+    int[] applyWrites(List<WriteOperation> operations);
+
+    /**
+     * Finds and copies entry with given id.
+     * @param id entry id
+     * @return copy of the entry with desired id, null if there is none
+     */
+    Food getEntityCopyById(int id);
+
+    /**
+     * Finds an entry by id and deletes it (if it exists)
+     * @param id id of the deleted entry
+     * @return true if entry found, false if not
+     */
+    boolean deleteEntityById(int id);
+
+    /**
+     * Finds an entry by id and changes its attributes to provided values (if found)
+     * @param id id of an udpated entry
+     * @param foodData new attribute values of the entry
+     * @return true if entry found, false if not
+     */
+    boolean updateEntityById(int id, FoodData foodData);
+
+    /**
+     * Applies a change replicated from the leader database (see ReplicationFollower)
+     * - the change keeps its id, sequence number and timestamp
+     * @param event change read from the leader
+     * @throws IllegalStateException if the change doesn't directly follow the last applied change
+     */
+    void applyChange(ChangeEvent event) throws IllegalStateException;
+
+    /**
+     * Creates consistent copy of the whole table together with the sequence number of the last change included in it
+     * @return snapshot of the table
+     */
+    DBSnapshot takeSnapshot();
+
+    /**
+     * Replaces the whole content of the table by the snapshot, the change log continues from its sequence number
+     * @param snapshot snapshot of a table (rows sorted by id)
+     */
+    void loadSnapshot(DBSnapshot snapshot);
+
+    /**
+     * Copies entries within given index range (in the order of ids)
+     * - out of range indices give fewer elements than asked for
+     * @param startIndex index where to start the copy, inclusive
+     * @param maxLength requested length of the copy
+     * @return partial copy of the table given by the range
+     */
+    ArrayList<Food> getTableSubcopy(int startIndex, int maxLength);
+
+    /**
+     * Search and copy entries with given name, restricted by start index and length
+     * @param entryName name to search by
+     * @param startIndex index where to start the copy, inclusive
+     * @param maxLength requested length of the copy
+     * @return list of found entries
+     */
+    ArrayList<Food> getTableSubcopy(String entryName, int startIndex, int maxLength);
+
+    /**
+     * Chooses how the filter query will be executed (for displaying)
+     * @param query parsed filter query
+     * @return execution plan of the query
+     */
+    QueryPlan planQuery(FilterQuery query);
+
+    /**
+     * Returns number of entries satisfying the filter query
+     * @param query parsed filter query
+     * @return number of matching entries
+     */
+    int getQueryCount(FilterQuery query);
+
+    /**
+     * Search and copy entries satisfying the filter query (in the order of ids), restricted by start index and length
+     * @param query parsed filter query
+     * @param startIndex index (among the matching entries) where to start the copy, inclusive
+     * @param maxLength requested length of the copy
+     * @return list of found entries
+     */
+    ArrayList<Food> getTableSubcopy(FilterQuery query, int startIndex, int maxLength);
+
+    /**
+     * Summarizes the nutrients (count, mean, min, max, histogram) of the entries satisfying the filter query
+     * @param query parsed filter query, null for all entries
+     * @return summary of the matching entries (independent of the table)
+     */
+    NutrientStatistics getNutrientStatistics(FilterQuery query);
+
+    /**
+     * Finds and copies k best entries according to the ranking metric
+     * - entries the metric can't score (zero denominator) are left out, ties are broken by lower id
+     * @param metric ranking metric
+     * @param k maximal number of returned entries
+     * @return copies of the best entries, best first
+     */
+    ArrayList<Food> getTopK(RankingMetric metric, int k);
+
+    /**
+     * Returns the most frequent names starting with given prefix (ignoring case and diacritics)
+     * @param prefix typed beginning of the name
+     * @param limit maximal number of suggestions (at most MAX_SUGGESTIONS)
+     * @return suggested names, the most frequent first (ties alphabetically)
+     */
+    List<String> getNameSuggestions(String prefix, int limit);
+
+    /**
+     * Reads one page of entries from a consistent snapshot of the table without blocking the writers
+     * @param asOfSequence sequence number of the change the table is read after, null for the latest change
+     * @param query parsed filter query, null for all entries
+     * @param afterId id of the last entry of the previous page (continuation cursor), null for the first page
+     * @param startIndex index (among the matching entries behind the cursor) where to start the copy, inclusive
+     * @param maxLength requested length of the copy
+     * @return page of entries with the sequence number of the snapshot (matching entries counted only on the first page)
+     * @throws IllegalArgumentException with message for the user if the table can't be read as of that sequence
+     */
+    SnapshotPage getSnapshotPage(Long asOfSequence, FilterQuery query, Integer afterId, int startIndex, int maxLength)
+            throws IllegalArgumentException;
+
+    /**
+     * returns the oldest sequence number the table can still be read as of
+     * @return oldest available sequence number
+     */
+    long getOldestSnapshotSequence();
+
+    /**
+     * returns the log of recent mutations of the table (change data capture)
+     * @return change log
+     */
+    ChangeLog getChangeLog();
+}
@@ -0,0 +1,21 @@
+package mjiricek.spring.models;
+
+/**
+ * Failure of the storage engine itself (e.g. I/O or SQL error of a disk-based engine),
+ * as opposed to invalid input of the user
+ */
+public class StorageException extends RuntimeException {
+    /**
+     * version of the serialized form
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor
+     * @param message description of the failed operation
+     * @param cause original exception
+     */
+    public StorageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,42 @@
+package mjiricek.spring.models;
+
+/**
+ * Tenant database of the current thread (the request being handled)
+ * - set by TenantFilter for every request, read by DBService
+ * - a thread without a tenant works with the default tenant
+ */
+public final class TenantContext {
+    /**
+     * database of the tenant of the current thread
+     */
+    private static final ThreadLocal<TenantDatabase> CURRENT = new ThreadLocal<>();
+
+    /**
+     * no instances - utility class
+     */
+    private TenantContext() {
+    }
+
+    /**
+     * returns database of the tenant of the current thread
+     * @return tenant database, null if none was set (the default tenant is used)
+     */
+    public static TenantDatabase get() {
+        return CURRENT.get();
+    }
+
+    /**
+     * sets the tenant of the current thread
+     * @param database tenant database
+     */
+    public static void set(TenantDatabase database) {
+        CURRENT.set(database);
+    }
+
+    /**
+     * removes the tenant of the current thread (has to be called when the request is finished)
+     */
+    public static void clear() {
+        CURRENT.remove();
+    }
+}
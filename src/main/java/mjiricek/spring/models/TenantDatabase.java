@@ -0,0 +1,148 @@
+package mjiricek.spring.models;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Database of one tenant (customer) - its own storage engine with its own locks, indexes, change log and caches
+ * - tenants share nothing but the scan pool, so heavy writes of one tenant never block reads of another
+ * - created and evicted by TenantRegistry, used by DBService for the tenant of the current request (TenantContext)
+ */
+public class TenantDatabase {
+    /**
+     * id of the tenant
+     */
+    private final String tenantId;
+
+    /**
+     * storage engine holding the tenant's table
+     */
+    private final StorageEngine storageEngine;
+
+    /**
+     * cache of the tenant's name search results
+     */
+    private final SearchResultCache searchResultCache;
+
+    /**
+     * write-behind queue of the tenant (null - writes are applied synchronously)
+     */
+    private final WriteBehindQueue writeBehindQueue;
+
+    /**
+     * lock of the pages (DBController) - pages read several values in sequence and need them consistent
+     * - one per tenant, so a page of one tenant never waits for a write of another
+     */
+    private final ReentrantReadWriteLock pageLock = new ReentrantReadWriteLock(true);
+
+    /**
+     * number of requests (and change stream subscriptions) currently using the database
+     * - only a database nobody uses may be evicted (changed only inside TenantRegistry's map operations)
+     */
+    private final AtomicInteger activeUsers = new AtomicInteger();
+
+    /**
+     * time of the last release by a request (System.currentTimeMillis())
+     */
+    private volatile long lastAccessMillis = System.currentTimeMillis();
+
+    /**
+     * Constructor
+     * @param tenantId id of the tenant
+     * @param storageEngine storage engine holding the tenant's table
+     * @param searchResultCache cache of the tenant's name search results (listening to the engine's change log)
+     * @param writeBehindQueue write-behind queue of the tenant, null for synchronous writes
+     */
+    public TenantDatabase(String tenantId, StorageEngine storageEngine,
+                          SearchResultCache searchResultCache, WriteBehindQueue writeBehindQueue) {
+        this.tenantId = tenantId;
+        this.storageEngine = storageEngine;
+        this.searchResultCache = searchResultCache;
+        this.writeBehindQueue = writeBehindQueue;
+    }
+
+    /**
+     * returns id of the tenant
+     * @return tenant id
+     */
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    /**
+     * returns storage engine of the tenant
+     * @return storage engine
+     */
+    public StorageEngine getStorageEngine() {
+        return storageEngine;
+    }
+
+    /**
+     * returns cache of the tenant's name search results
+     * @return search result cache
+     */
+    public SearchResultCache getSearchResultCache() {
+        return searchResultCache;
+    }
+
+    /**
+     * returns write-behind queue of the tenant
+     * @return write-behind queue, null if the writes are synchronous
+     */
+    public WriteBehindQueue getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+
+    /**
+     * returns lock of the tenant's pages
+     * @return read/write lock
+     */
+    public ReentrantReadWriteLock getPageLock() {
+        return pageLock;
+    }
+
+    /**
+     * returns number of requests currently using the database
+     * @return number of active users
+     */
+    int getActiveUsers() {
+        return activeUsers.get();
+    }
+
+    /**
+     * registers a user of the database
+     */
+    void retain() {
+        activeUsers.incrementAndGet();
+    }
+
+    /**
+     * unregisters a user of the database and records the time of the access
+     */
+    void release() {
+        lastAccessMillis = System.currentTimeMillis();
+        activeUsers.decrementAndGet();
+    }
+
+    /**
+     * returns time of the last access
+     * @return time in milliseconds
+     */
+    long getLastAccessMillis() {
+        return lastAccessMillis;
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * - returns text representation of TenantDatabase instance
+     * @return text representation of TenantDatabase instance
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of TenantDatabase " + super.toString() + ":%n" +
+                "=======================================================%n" +
+                "tenantId: " + tenantId + ", active users: " + activeUsers.get() + "%n" +
+                "storageEngine: " + storageEngine.getClass().getSimpleName()
+                + ", write-behind: " + (writeBehindQueue != null) + "%n");
+    }
+}
@@ -0,0 +1,528 @@
+package mjiricek.spring.models;
+
+import mjiricek.spring.replication.ReplicationProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Registry of the tenant databases - every tenant (selected by the request, see TenantFilter)
+ * has its own DBSimulator with its own locks, indexes, change log and search cache
+ * - the default tenant is the database of the application (the configured storage engine, its replication
+ * and write-behind queue), it always exists and is never evicted
+ * - other tenants are created lazily by their first request and always use the in-memory engine
+ * with synchronous writes; a tenant evicted before is loaded from its file
+ * - a tenant nobody uses for idle-timeout is written to its file in the directory and dropped from the memory
+ * - at most max-resident tenants are in the memory: a request of a new tenant evicts the least recently used
+ * unused tenant right away, if all of them are in use the request is rejected (IllegalStateException, 503)
+ * - a tenant is written to its file only if it changed since it was loaded (a tenant nobody wrote to leaves no file)
+ * - files have the format of the replication snapshot (ReplicationProtocol), one file per tenant
+ * - the map holds a TenantHolder per tenant; the operations of the concurrent map only change the state
+ * of the holder (users, evicting), the loading and writing of the files run outside of them (the map locks
+ * its bins while it runs them, so a slow disk would stall other tenants and pin virtual threads):
+ * a tenant is loaded by the request that put its holder in the map, the others wait for its future;
+ * an evicted tenant is first marked as evicting (its new users wait), then written, then removed
+ * - so a tenant is never evicted while a request uses it and never loaded twice
+ */
+public class TenantRegistry implements AutoCloseable {
+    /**
+     * logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(TenantRegistry.class);
+
+    /**
+     * id of the default tenant
+     */
+    public static final String DEFAULT_TENANT = "default";
+
+    /**
+     * allowed tenant ids (they are used as file names)
+     */
+    private static final Pattern TENANT_ID = Pattern.compile("[a-z0-9][a-z0-9_-]{0,31}");
+
+    /**
+     * suffix of the tenant files
+     */
+    private static final String FILE_SUFFIX = ".snapshot";
+
+    /**
+     * how often the idle tenants are looked for
+     */
+    private static final long EVICTION_PERIOD_MILLIS = 10_000;
+
+    /**
+     * database of the default tenant
+     */
+    private final TenantDatabase defaultTenant;
+
+    /**
+     * holders of the other tenants that are in the memory (or being loaded or evicted)
+     */
+    private final ConcurrentHashMap<String, TenantHolder> tenants = new ConcurrentHashMap<>();
+
+    /**
+     * free places for the tenants in the memory (scratch tenants don't take any)
+     */
+    private final Semaphore residentPlaces;
+
+    /**
+     * ids of the scratch tenants (never evicted nor written to their files)
+     */
+    private final Set<String> scratchTenants = ConcurrentHashMap.newKeySet();
+
+    /**
+     * executor of the filtering scans (shared by all tenants)
+     */
+    private final ScanExecutor scanExecutor;
+
+    /**
+     * directory of the tenant files
+     */
+    private final Path directory;
+
+    /**
+     * time after which an unused tenant is evicted
+     */
+    private final long idleTimeoutMillis;
+
+    /**
+     * maximal number of tenants in the memory (besides the default one)
+     */
+    private final int maxResident;
+
+    /**
+     * sizes of the structures of a new tenant
+     */
+    private final int changeLogCapacity;
+    private final long versionHistory;
+    private final int searchCacheCapacity;
+
+    /**
+     * periodic eviction of the idle tenants
+     */
+    private final ScheduledExecutorService evictor;
+
+    /**
+     * Constructor
+     * @param defaultTenant database of the default tenant
+     * @param scanExecutor executor of the filtering scans of the tenants
+     * @param directory directory of the tenant files
+     * @param idleTimeoutMillis time after which an unused tenant is evicted
+     * @param maxResident maximal number of tenants in the memory (besides the default one)
+     * @param changeLogCapacity capacity of the change log of a tenant
+     * @param versionHistory number of the latest changes whose versions are kept by a tenant
+     * @param searchCacheCapacity capacity of the search cache of a tenant
+     */
+    public TenantRegistry(TenantDatabase defaultTenant, ScanExecutor scanExecutor, Path directory,
+                          long idleTimeoutMillis, int maxResident,
+                          int changeLogCapacity, long versionHistory, int searchCacheCapacity) {
+        if (maxResident < 1)
+            throw new IllegalArgumentException("Maximal number of resident tenants must be positive.");
+
+        this.defaultTenant = defaultTenant;
+        this.scanExecutor = scanExecutor;
+        this.directory = directory;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxResident = maxResident;
+        this.residentPlaces = new Semaphore(maxResident);
+        this.changeLogCapacity = changeLogCapacity;
+        this.versionHistory = versionHistory;
+        this.searchCacheCapacity = searchCacheCapacity;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tenant-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.evictor.scheduleWithFixedDelay(this::evictIdleTenants,
+                EVICTION_PERIOD_MILLIS, EVICTION_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * returns database of the default tenant
+     * @return default tenant
+     */
+    public TenantDatabase getDefaultTenant() {
+        return defaultTenant;
+    }
+
+    /**
+     * Tells whether the id can name a tenant
+     * @param tenantId checked id
+     * @return true if the id is valid
+     */
+    public static boolean isValidTenantId(String tenantId) {
+        return tenantId != null && TENANT_ID.matcher(tenantId).matches();
+    }
+
+    /**
+     * returns message for the user about an invalid tenant id (see isValidTenantId)
+     * @param tenantId rejected id
+     * @return message with the rules of the ids
+     */
+    public static String invalidTenantIdMessage(String tenantId) {
+        return "Invalid tenant id '" + tenantId + "' (use a-z, 0-9, _ and -, at most 32 characters)";
+    }
+
+    /**
+     * Returns database of the tenant and registers its user (loads or creates it if it isn't in the memory)
+     * - every acquire has to be followed by release
+     * - waits while the tenant is being loaded or evicted by another thread (outside of the map)
+     * @param tenantId id of the tenant
+     * @return database of the tenant
+     * @throws IllegalArgumentException if the id isn't valid
+     * @throws IllegalStateException if the tenant isn't in the memory and max-resident tenants in use are
+     * @throws UncheckedIOException if the file of the tenant can't be read
+     */
+    public TenantDatabase acquire(String tenantId) throws IllegalArgumentException, IllegalStateException {
+        if (DEFAULT_TENANT.equals(tenantId)) {
+            defaultTenant.retain();
+            return defaultTenant;
+        }
+        if (!isValidTenantId(tenantId))
+            throw new IllegalArgumentException(invalidTenantIdMessage(tenantId));
+
+        while (true) {
+            TenantHolder holder = tenants.get(tenantId);
+            if (holder == null) {
+                TenantDatabase database = loadNew(tenantId);
+                if (database != null)
+                    return database;
+                continue; // another request put its holder in the map first
+            }
+            if (!holder.database.isDone()) {
+                await(holder.database); // loaded by another request
+                continue;
+            }
+
+            TenantDatabase[] acquired = new TenantDatabase[1];
+            CompletableFuture<?>[] eviction = new CompletableFuture<?>[1];
+            tenants.computeIfPresent(tenantId, (id, current) -> {
+                if (current != holder)
+                    return current;
+                if (current.eviction != null) {
+                    eviction[0] = current.eviction;
+                } else {
+                    acquired[0] = current.database.join(); // done and not failed (failed holders leave the map first)
+                    acquired[0].retain(); // inside the map operation, so the evictor can't mark it in between
+                }
+                return current;
+            });
+            if (acquired[0] != null)
+                return acquired[0];
+            if (eviction[0] != null)
+                await(eviction[0]); // written to its file by the evictor, then loaded again
+        }
+    }
+
+    /**
+     * Puts holder of the tenant in the map and loads the tenant (outside of the map)
+     * - takes a place in the memory first, evicting the least recently used unused tenant if there is none
+     * @param tenantId id of the tenant, which isn't in the map
+     * @return database of the tenant, already retained for the caller, or null if another request
+     * put its holder in the map meanwhile
+     * @throws IllegalStateException if there is no place in the memory
+     * @throws UncheckedIOException if the file of the tenant can't be read
+     */
+    private TenantDatabase loadNew(String tenantId) throws IllegalStateException {
+        if (!residentPlaces.tryAcquire() && !(evictLeastRecentlyUsed() && residentPlaces.tryAcquire()))
+            throw new IllegalStateException("Too many tenants in use (" + maxResident + "), retry later");
+
+        TenantHolder holder = new TenantHolder();
+        if (tenants.putIfAbsent(tenantId, holder) != null) {
+            residentPlaces.release();
+            return null;
+        }
+        try {
+            TenantDatabase database = load(tenantId);
+            holder.persistedSequence = database.getStorageEngine().getChangeLog().getLatestSequence();
+            database.retain(); // before completing - a loaded tenant can be evicted as soon as it's complete
+            holder.database.complete(database);
+            return database;
+        } catch (RuntimeException e) {
+            tenants.remove(tenantId, holder); // the next request tries again
+            residentPlaces.release();
+            holder.database.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * waits for a load or an eviction done by another thread
+     * @param future completion of the load or the eviction
+     * @throws RuntimeException the failure of the load (e.g. UncheckedIOException)
+     */
+    private static void await(CompletableFuture<?> future) {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Registers another user of an already acquired database (e.g. a change stream outliving its request)
+     * @param database acquired database
+     */
+    public void retain(TenantDatabase database) {
+        database.retain(); // the caller holds it, so it can't be evicted now
+    }
+
+    /**
+     * Unregisters a user of the database
+     * @param database acquired database
+     */
+    public void release(TenantDatabase database) {
+        database.release();
+    }
+
+    /**
+     * returns number of tenants in the memory (besides the default one)
+     * @return number of resident tenants
+     */
+    public int getResidentTenantCount() {
+        return tenants.size();
+    }
+
+    /**
+     * Creates in-memory tenant with a copy of the given table, which is never written to a file
+     * (e.g. scratch copy of the default tenant for the warm-up) - it has to be discarded after use
+     * @param tenantId id of the tenant
+     * @param content initial table of the tenant
+     * @return database of the tenant
+     * @throws IllegalArgumentException if the id isn't valid
+     * @throws IllegalStateException if the tenant is already in the memory
+     */
+    public TenantDatabase createScratch(String tenantId, DBSnapshot content)
+            throws IllegalArgumentException, IllegalStateException {
+        if (!isValidTenantId(tenantId))
+            throw new IllegalArgumentException("Invalid tenant id '" + tenantId + "'");
+
+        TenantDatabase database = create(tenantId);
+        database.getStorageEngine().loadSnapshot(content);
+        TenantHolder holder = new TenantHolder();
+        holder.database.complete(database);
+        scratchTenants.add(tenantId); // before it's visible, so the evictor never writes it
+        if (tenants.putIfAbsent(tenantId, holder) != null) {
+            scratchTenants.remove(tenantId);
+            throw new IllegalStateException("Tenant '" + tenantId + "' already exists");
+        }
+        return database;
+    }
+
+    /**
+     * Drops the scratch tenant from the memory (it's never written to a file)
+     * @param tenantId id of the scratch tenant
+     */
+    public void discard(String tenantId) {
+        if (scratchTenants.contains(tenantId)) {
+            tenants.remove(tenantId);
+            scratchTenants.remove(tenantId);
+        }
+    }
+
+    /**
+     * Creates empty in-memory database of a tenant
+     * @param tenantId id of the tenant
+     * @return new database
+     */
+    private TenantDatabase create(String tenantId) {
+        DBSimulator storageEngine = new DBSimulator(scanExecutor,
+                new ChangeLog(changeLogCapacity), new VersionStore(versionHistory));
+        SearchResultCache searchResultCache = new SearchResultCache(searchCacheCapacity);
+        storageEngine.getChangeLog().addListener(searchResultCache);
+        return new TenantDatabase(tenantId, storageEngine, searchResultCache, null);
+    }
+
+    /**
+     * Creates database of the tenant, with the content of its file if it was evicted before
+     * @param tenantId id of the tenant
+     * @return new database
+     */
+    private TenantDatabase load(String tenantId) {
+        TenantDatabase database = create(tenantId);
+        StorageEngine storageEngine = database.getStorageEngine();
+
+        Path file = tenantFile(tenantId);
+        if (Files.exists(file)) {
+            try {
+                storageEngine.loadSnapshot(ReplicationProtocol.readSnapshotFile(file));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Tenant '" + tenantId + "' can't be loaded", e);
+            }
+            LOGGER.info("Tenant '{}' loaded from {} ({} rows)", tenantId, file, storageEngine.getTableSize());
+        }
+        return database;
+    }
+
+    /**
+     * Writes the table of the tenant to its file (the file is replaced atomically)
+     * @param database database of the tenant
+     * @throws IOException if writing fails
+     */
+    private void persist(TenantDatabase database) throws IOException {
+        Files.createDirectories(directory);
+        ReplicationProtocol.writeSnapshotFile(tenantFile(database.getTenantId()),
+                database.getStorageEngine().takeSnapshot());
+    }
+
+    /**
+     * returns path of the tenant's file
+     * @param tenantId id of the tenant (valid, so it is a safe file name)
+     * @return path of the file
+     */
+    private Path tenantFile(String tenantId) {
+        return directory.resolve(tenantId + FILE_SUFFIX);
+    }
+
+    /**
+     * Evicts the unused tenants idle for longer than the timeout (run periodically by the evictor)
+     */
+    private void evictIdleTenants() {
+        long idleSince = System.currentTimeMillis() - idleTimeoutMillis;
+        for (String tenantId : List.copyOf(tenants.keySet()))
+            evict(tenantId, idleSince);
+    }
+
+    /**
+     * Evicts the least recently used tenant nobody uses (to make place for a new tenant)
+     * - the access times are copied before sorting, they change with every release of a tenant
+     * and a sort over changing keys may fail ("Comparison method violates its general contract")
+     * @return true if a tenant was evicted
+     */
+    private boolean evictLeastRecentlyUsed() {
+        List<Map.Entry<String, Long>> candidates = new ArrayList<>();
+        for (Map.Entry<String, TenantHolder> entry : tenants.entrySet()) {
+            CompletableFuture<TenantDatabase> database = entry.getValue().database;
+            if (database.isDone() && !database.isCompletedExceptionally() && !scratchTenants.contains(entry.getKey()))
+                candidates.add(Map.entry(entry.getKey(), database.join().getLastAccessMillis()));
+        }
+        candidates.sort(Map.Entry.comparingByValue());
+        for (Map.Entry<String, Long> candidate : candidates) {
+            if (evict(candidate.getKey(), Long.MAX_VALUE))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the tenant to its file (if it changed since it was loaded) and drops it from the memory,
+     * if nobody uses it and it wasn't used after the given time
+     * - the tenant is marked as evicting inside the map operation, written outside of it and then removed,
+     * requests of the tenant coming meanwhile wait for the eviction and load it again
+     * @param tenantId id of the tenant
+     * @param idleSince the tenant is kept if it was used after this time
+     * @return true if the tenant was evicted
+     */
+    private boolean evict(String tenantId, long idleSince) {
+        CompletableFuture<Void> eviction = new CompletableFuture<>();
+        TenantHolder[] marked = new TenantHolder[1];
+        tenants.computeIfPresent(tenantId, (id, holder) -> {
+            if (holder.eviction != null || !holder.database.isDone() || scratchTenants.contains(id))
+                return holder; // being evicted or loaded, or discarded by its owner only
+            TenantDatabase database = holder.database.join();
+            if (database.getActiveUsers() > 0 || database.getLastAccessMillis() > idleSince)
+                return holder; // acquired meanwhile
+            holder.eviction = eviction;
+            marked[0] = holder;
+            return holder;
+        });
+        TenantHolder holder = marked[0];
+        if (holder == null)
+            return false;
+
+        boolean evicted = false;
+        try {
+            TenantDatabase database = holder.database.join();
+            if (database.getStorageEngine().getChangeLog().getLatestSequence() != holder.persistedSequence)
+                persist(database); // nobody can write to it now, its new users wait for the eviction
+            evicted = tenants.remove(tenantId, holder);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Tenant '{}' can't be written, it stays in the memory", tenantId, e);
+            tenants.computeIfPresent(tenantId, (id, current) -> {
+                if (current == holder)
+                    current.eviction = null;
+                return current;
+            });
+        } finally {
+            eviction.complete(null); // wakes up the waiting requests, they look at the map again
+        }
+        if (evicted) {
+            residentPlaces.release();
+            LOGGER.info("Tenant '{}' evicted", tenantId);
+        }
+        return evicted;
+    }
+
+    /**
+     * stops the evictor and writes all changed tenants in the memory to their files
+     */
+    @Override
+    public void close() {
+        evictor.shutdownNow();
+        for (Map.Entry<String, TenantHolder> entry : tenants.entrySet()) {
+            TenantHolder holder = entry.getValue();
+            TenantDatabase database = holder.database.getNow(null);
+            if (database == null || scratchTenants.contains(entry.getKey())
+                    || database.getStorageEngine().getChangeLog().getLatestSequence() == holder.persistedSequence)
+                continue; // not loaded, or nothing to write
+            try {
+                persist(database);
+            } catch (IOException e) {
+                LOGGER.warn("Tenant '{}' can't be written", entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * - returns text representation of TenantRegistry instance
+     * @return text representation of TenantRegistry instance
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of TenantRegistry " + super.toString() + ":%n" +
+                "=======================================================%n" +
+                "directory: " + directory + ", idle timeout: " + idleTimeoutMillis + " ms%n" +
+                "resident tenants: " + tenants.size() + " (max " + maxResident + ")%n");
+    }
+
+    /**
+     * Entry of a tenant in the map
+     * - the fields are changed only inside the map operations on the tenant's key (or before the holder is in the map)
+     */
+    private static final class TenantHolder {
+        /**
+         * database of the tenant, completed by the request that loads it
+         */
+        private final CompletableFuture<TenantDatabase> database = new CompletableFuture<>();
+
+        /**
+         * sequence number of the last change in the tenant's file (or of the empty tenant),
+         * the tenant is written at eviction only if its change log went further
+         */
+        private volatile long persistedSequence;
+
+        /**
+         * completion of the running eviction, null if the tenant isn't being evicted
+         */
+        private CompletableFuture<Void> eviction;
+    }
+}
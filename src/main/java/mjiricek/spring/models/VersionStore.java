@@ -0,0 +1,354 @@
+package mjiricek.spring.models;
+
+import mjiricek.spring.models.entities.Food;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Multi-version store of the table rows (multi-version concurrency control)
+ * - every write installs a new version of the row stamped with the sequence number of its change
+ * (deletion installs a "tombstone" version), the older versions stay linked behind it
+ * - a reader pins a sequence number and sees every row as it was right after that change,
+ * without taking the table lock - long reads (exports, reports) don't block writers and writers don't block them
+ * - old versions are garbage-collected once no pinned snapshot needs them and they are older
+ * than the kept history (the history allows "as of sequence N" reads without a pin taken in advance)
+ * - writes (install, collectGarbage, reset) have to be serialized by the owner (DBSimulator calls them
+ * under its write lock), reads need no lock: the newest version of a row and the links are published
+ * through volatile fields / the concurrent map, and versions themselves never change
+ */
+public class VersionStore {
+    /**
+     * maximal number of garbage entries processed by one call of collectGarbage
+     * (keeps the work added to one write small, the rest is done by the following writes)
+     */
+    private static final int GC_BATCH = 64;
+
+    /**
+     * newest version of every row by id (sorted, so snapshots are read in the order of the table)
+     */
+    private final ConcurrentSkipListMap<Integer, RowVersion> rows = new ConcurrentSkipListMap<>();
+
+    /**
+     * rows with versions which may become garbage, in the order of the sequence that made them obsolete
+     * (accessed only by writers)
+     */
+    private final ArrayDeque<Garbage> garbage = new ArrayDeque<>();
+
+    /**
+     * pinned sequence numbers with the number of snapshots pinning them (guarded by pinLock)
+     */
+    private final TreeMap<Long, Integer> pins = new TreeMap<>();
+
+    /**
+     * lock of the pins and the horizon
+     * - a ReentrantLock, not a monitor: pinLatest reads the latest sequence of the change log (which takes
+     * its own lock) while holding it, and a virtual thread blocked inside a synchronized block would pin
+     * its carrier thread
+     */
+    private final ReentrantLock pinLock = new ReentrantLock();
+
+    /**
+     * number of changes (sequence numbers) whose versions are kept even if no snapshot is pinned
+     */
+    private final long history;
+
+    /**
+     * versions needed by snapshots older than this sequence may already be collected (guarded by pinLock)
+     */
+    private long horizon = 0;
+
+    /**
+     * Constructor
+     * @param history number of changes whose versions are kept for "as of" reads
+     */
+    public VersionStore(long history) {
+        this.history = Math.max(0, history);
+    }
+
+    /**
+     * Installs new version of the row - has to be serialized with other writes by the caller
+     * @param id id of the row
+     * @param food new content of the row (not modified afterwards), null if the row was deleted
+     * @param sequence sequence number of the change (higher than of any installed version)
+     */
+    public void install(int id, Food food, long sequence) {
+        RowVersion previous = rows.get(id);
+        rows.put(id, new RowVersion(food, sequence, previous));
+        if (previous != null || food == null)
+            garbage.addLast(new Garbage(id, sequence));
+    }
+
+    /**
+     * Forgets all versions and starts with the given rows - has to be serialized with other writes by the caller
+     * - used when the whole table is replaced by a snapshot, older snapshots can't be opened anymore
+     * (snapshots open at that moment see an empty table)
+     * @param food rows of the new table (not modified afterwards)
+     * @param sequence sequence number the rows are valid at
+     */
+    public void reset(List<Food> food, long sequence) {
+        rows.clear();
+        garbage.clear();
+        for (Food row : food)
+            rows.put(row.getFoodID(), new RowVersion(row, sequence, null));
+        pinLock.lock();
+        try {
+            horizon = Math.max(horizon, sequence);
+        } finally {
+            pinLock.unlock();
+        }
+    }
+
+    /**
+     * Pins the sequence number, so that its versions aren't collected until the snapshot is closed
+     * @param sequence pinned sequence number
+     * @param latestSequence sequence number of the last committed change
+     * @return snapshot of the table at the sequence number
+     * @throws IllegalArgumentException with message for the user if the sequence is out of the kept history
+     */
+    public Snapshot pin(long sequence, long latestSequence) throws IllegalArgumentException {
+        pinLock.lock();
+        try {
+            if (sequence > latestSequence)
+                throw new IllegalArgumentException("Sequence " + sequence + " is newer than the latest change " + latestSequence + ".");
+            if (sequence < horizon)
+                throw new IllegalArgumentException("Sequence " + sequence + " is no longer available, the oldest kept sequence is " + horizon + ".");
+            pins.merge(sequence, 1, Integer::sum);
+        } finally {
+            pinLock.unlock();
+        }
+        return new Snapshot(sequence);
+    }
+
+    /**
+     * Pins the latest committed sequence number
+     * - the latest sequence is read together with the pin, so the garbage collection can't overtake it
+     * @param latestSequence supplier of the sequence number of the last committed change
+     * @return snapshot of the current table
+     */
+    public Snapshot pinLatest(LongSupplier latestSequence) {
+        pinLock.lock();
+        try {
+            long sequence = Math.max(latestSequence.getAsLong(), horizon);
+            pins.merge(sequence, 1, Integer::sum);
+            return new Snapshot(sequence);
+        } finally {
+            pinLock.unlock();
+        }
+    }
+
+    /**
+     * Collects versions no snapshot can see anymore - has to be serialized with other writes by the caller
+     * - processes at most GC_BATCH rows, it's meant to be called after every write
+     * @param latestSequence sequence number of the last committed change
+     */
+    public void collectGarbage(long latestSequence) {
+        long oldestNeeded;
+        pinLock.lock();
+        try {
+            oldestNeeded = latestSequence - history;
+            if (!pins.isEmpty())
+                oldestNeeded = Math.min(oldestNeeded, pins.firstKey());
+            horizon = Math.max(horizon, oldestNeeded); // snapshots older than this may not be opened anymore
+            oldestNeeded = horizon;
+        } finally {
+            pinLock.unlock();
+        }
+
+        for (int i = 0; i < GC_BATCH && !garbage.isEmpty() && garbage.peekFirst().sequence() <= oldestNeeded; i++) {
+            Garbage entry = garbage.pollFirst();
+            RowVersion head = rows.get(entry.id());
+            // the newest version visible at oldestNeeded is the last one anybody may need
+            RowVersion needed = head;
+            while (needed != null && needed.sequence > oldestNeeded)
+                needed = needed.previous;
+            if (needed == null)
+                continue;
+            needed.previous = null; // readers only walk to versions older than their pin, nobody reaches behind this one
+            if (needed == head && head.food == null)
+                rows.remove(entry.id(), head); // deleted before every possible snapshot
+        }
+    }
+
+    /**
+     * returns number of currently open snapshots
+     * @return number of pins
+     */
+    public int getPinnedCount() {
+        pinLock.lock();
+        try {
+            return pins.values().stream().mapToInt(Integer::intValue).sum();
+        } finally {
+            pinLock.unlock();
+        }
+    }
+
+    /**
+     * returns the oldest sequence number a snapshot can still be opened at
+     * @return oldest available sequence number
+     */
+    public long getOldestAvailableSequence() {
+        pinLock.lock();
+        try {
+            return horizon;
+        } finally {
+            pinLock.unlock();
+        }
+    }
+
+    /**
+     * releases the pin of a closed snapshot
+     * @param sequence pinned sequence number
+     */
+    private void unpin(long sequence) {
+        pinLock.lock();
+        try {
+            pins.computeIfPresent(sequence, (key, count) -> count == 1 ? null : count - 1);
+        } finally {
+            pinLock.unlock();
+        }
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * - returns text representation of VersionStore instance
+     * @return text representation of VersionStore instance
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of VersionStore " + super.toString() + ":%n" +
+                "=======================================================%n" +
+                "history: " + history + "%n" +
+                "oldest available sequence: " + getOldestAvailableSequence() + "%n" +
+                "open snapshots: " + getPinnedCount() + "%n" +
+                "pending garbage: " + garbage.size() + "%n");
+    }
+
+    /**
+     * Read-only view of the table at a pinned sequence number
+     * - has to be closed (try-with-resources), otherwise its versions are never collected
+     * - can be used by one thread at a time
+     */
+    public class Snapshot implements AutoCloseable {
+        /**
+         * pinned sequence number
+         */
+        private final long sequence;
+
+        private boolean closed = false;
+
+        private Snapshot(long sequence) {
+            this.sequence = sequence;
+        }
+
+        /**
+         * returns the sequence number the snapshot shows the table at
+         * @return pinned sequence number
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Finds copy of the row with given id
+         * @param id row id
+         * @return copy of the row at the pinned sequence, null if it didn't exist then
+         */
+        public Food getById(int id) {
+            Food food = visible(rows.get(id));
+            return food == null ? null : food.copy();
+        }
+
+        /**
+         * Reads one page of rows satisfying the predicate, in the order of the table, in one pass
+         * - a continuation page starts right behind the cursor id (a lookup in the sorted map, no skipping
+         * of the previous pages), so reading the whole table page by page stays linear
+         * - the matching rows are counted only if asked (first page), otherwise the pass stops with a full page
+         * @param predicate row filter
+         * @param afterId id of the last row of the previous page, null to start at the beginning
+         * @param startIndex index (among the matching rows behind the cursor) where to start the copy, inclusive
+         * @param maxLength requested length of the copy
+         * @param countAll true to count all matching rows behind the cursor (the pass goes to the end of the table)
+         * @return page with copies of the rows at the pinned sequence (count null if not counted)
+         */
+        public SnapshotPage getPage(Predicate<? super Food> predicate, Integer afterId, int startIndex, int maxLength,
+                                    boolean countAll) {
+            ArrayList<Food> result = new ArrayList<>(Math.min(maxLength, 1024));
+            int matching = 0;
+            Iterator<RowVersion> iterator = (afterId == null ? rows : rows.tailMap(afterId, false)).values().iterator();
+            while (iterator.hasNext() && (countAll || result.size() < maxLength)) {
+                Food food = visible(iterator.next());
+                if (food == null || !predicate.test(food))
+                    continue;
+                if (matching >= startIndex && result.size() < maxLength)
+                    result.add(food.copy()); // creating copy - breaking the references to stored versions
+                matching++;
+            }
+            return new SnapshotPage(sequence, countAll ? matching : null, result);
+        }
+
+        /**
+         * releases the pinned sequence number
+         */
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                unpin(sequence);
+            }
+        }
+
+        /**
+         * finds the version of the row visible at the pinned sequence
+         * @param head newest version of the row (can be null)
+         * @return content of the row, null if the row didn't exist at the pinned sequence
+         */
+        private Food visible(RowVersion head) {
+            RowVersion version = head;
+            while (version != null && version.sequence > sequence)
+                version = version.previous;
+            return version == null ? null : version.food;
+        }
+    }
+
+    /**
+     * One version of a row
+     */
+    private static final class RowVersion {
+        /**
+         * content of the row, null for a deleted row (tombstone)
+         */
+        private final Food food;
+
+        /**
+         * sequence number of the change which created this version
+         */
+        private final long sequence;
+
+        /**
+         * older version of the row (cut off by the garbage collection)
+         */
+        private volatile RowVersion previous;
+
+        private RowVersion(Food food, long sequence, RowVersion previous) {
+            this.food = food;
+            this.sequence = sequence;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * Row whose versions older than the sequence number became obsolete
+     * @param id row id
+     * @param sequence sequence number of the change
+     */
+    private record Garbage(int id, long sequence) {
+    }
+}
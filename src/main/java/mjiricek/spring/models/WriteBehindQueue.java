@@ -0,0 +1,195 @@
+package mjiricek.spring.models;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Write-behind queue of the database mutations (nutrdb.write-mode=async)
+ * - request threads only put validated mutations into a lock-free queue (many producers)
+ * and get a future of the result, they never wait for the write lock of the storage engine
+ * - one applier thread (single consumer) takes everything that has accumulated in the queue
+ * (at most maxBatchSize operations) and applies it with one call of StorageEngine.applyWrites,
+ * so a burst of writes costs one lock acquisition (one transaction) instead of one per write
+ * - the futures are completed after the batch is applied, waiting on the future gives read-your-writes
+ * - order of the operations is kept (order of the submissions)
+ */
+public class WriteBehindQueue implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+    /**
+     * storage engine the operations are applied to
+     */
+    private final StorageEngine storageEngine;
+
+    /**
+     * maximal number of operations applied in one batch
+     */
+    private final int maxBatchSize;
+
+    /**
+     * submitted operations waiting for the applier
+     */
+    private final ConcurrentLinkedQueue<PendingWrite> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * the single applier thread
+     */
+    private final Thread applier;
+
+    /**
+     * true while the applier is (about to be) parked - producers unpark it only then
+     */
+    private volatile boolean applierWaiting = false;
+
+    private volatile boolean running = true;
+
+    /**
+     * statistics
+     */
+    private final AtomicLong submittedWrites = new AtomicLong();
+    private volatile long appliedWrites = 0;
+    private volatile long appliedBatches = 0;
+    private volatile int largestBatch = 0;
+
+    /**
+     * Constructor - starts the applier thread
+     * @param storageEngine storage engine the operations are applied to
+     * @param maxBatchSize maximal number of operations applied in one batch
+     */
+    public WriteBehindQueue(StorageEngine storageEngine, int maxBatchSize) {
+        this.storageEngine = storageEngine;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.applier = new Thread(this::applyLoop, "write-behind-applier");
+        this.applier.setDaemon(true); // close() lets it finish the submitted writes
+        this.applier.start();
+    }
+
+    /**
+     * Submits the operation (doesn't wait for it to be applied)
+     * @param operation validated mutation
+     * @return future of the result - id of the affected entity, or -1 if the updated/deleted entity wasn't found
+     * @throws IllegalStateException if the queue is already closed
+     */
+    public CompletableFuture<Integer> submit(WriteOperation operation) throws IllegalStateException {
+        if (!running)
+            throw new IllegalStateException("The database is shutting down, the change wasn't accepted.");
+
+        PendingWrite pendingWrite = new PendingWrite(operation, new CompletableFuture<>());
+        submittedWrites.incrementAndGet();
+        queue.offer(pendingWrite);
+        if (!running && queue.remove(pendingWrite)) { // closed meanwhile - the applier may be gone already
+            submittedWrites.decrementAndGet();
+            throw new IllegalStateException("The database is shutting down, the change wasn't accepted.");
+        }
+        if (applierWaiting) // checked after the offer - the applier checks the queue after setting the flag
+            LockSupport.unpark(applier);
+        return pendingWrite.result();
+    }
+
+    /**
+     * body of the applier thread - applies batches until closed and the queue is empty
+     */
+    private void applyLoop() {
+        ArrayList<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            PendingWrite pendingWrite;
+            while (batch.size() < maxBatchSize && (pendingWrite = queue.poll()) != null)
+                batch.add(pendingWrite);
+
+            if (batch.isEmpty()) {
+                applierWaiting = true;
+                if (queue.isEmpty() && running)
+                    LockSupport.park(this);
+                applierWaiting = false;
+                continue;
+            }
+
+            applyBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * applies one batch and completes its futures
+     * @param batch operations in the order of submission
+     */
+    private void applyBatch(List<PendingWrite> batch) {
+        ArrayList<WriteOperation> operations = new ArrayList<>(batch.size());
+        for (PendingWrite pendingWrite : batch)
+            operations.add(pendingWrite.operation());
+
+        try {
+            int[] results = storageEngine.applyWrites(operations);
+            for (int i = 0; i < results.length; i++)
+                batch.get(i).result().complete(results[i]);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Applying batch of {} writes failed", batch.size(), e);
+            for (PendingWrite pendingWrite : batch)
+                pendingWrite.result().completeExceptionally(e);
+        } finally { // statistics are written only by the applier thread
+            appliedWrites += batch.size();
+            appliedBatches++;
+            largestBatch = Math.max(largestBatch, batch.size());
+        }
+    }
+
+    /**
+     * returns number of operations submitted but not applied (or failed) yet
+     * @return length of the queue
+     */
+    public long getPendingWrites() {
+        return submittedWrites.get() - appliedWrites;
+    }
+
+    /**
+     * returns average number of operations applied together
+     * @return average batch size, 0 if nothing was applied yet
+     */
+    public double getAverageBatchSize() {
+        long batches = appliedBatches;
+        return batches == 0 ? 0 : (double) appliedWrites / batches;
+    }
+
+    /**
+     * stops accepting operations, applies the already submitted ones and stops the applier
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(applier);
+        try {
+            applier.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * - returns text representation of WriteBehindQueue instance
+     * @return text representation of WriteBehindQueue instance
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of WriteBehindQueue " + super.toString() + ":%n" +
+                "=======================================================%n" +
+                "maxBatchSize: " + maxBatchSize + "%n" +
+                "submitted: " + submittedWrites.get() + ", applied: " + appliedWrites
+                + " in " + appliedBatches + " batches (largest " + largestBatch + ")%n");
+    }
+
+    /**
+     * Operation waiting in the queue with the future of its result
+     * @param operation validated mutation
+     * @param result future completed by the applier
+     */
+    private record PendingWrite(WriteOperation operation, CompletableFuture<Integer> result) {
+    }
+}
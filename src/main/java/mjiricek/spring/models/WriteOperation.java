@@ -0,0 +1,98 @@
+package mjiricek.spring.models;
+
+import mjiricek.spring.models.entities.FoodData;
+
+/**
+ * One validated mutation of the table waiting to be applied (see StorageEngine.applyWrites and WriteBehindQueue)
+ * - immutable, created by the static factory methods
+ */
+public class WriteOperation {
+    /**
+     * kind of the mutation
+     */
+    private final ChangeEvent.ChangeType type;
+
+    /**
+     * id of the updated or deleted entity (ignored for CREATE)
+     */
+    private final int id;
+
+    /**
+     * new attribute values (null for DELETE)
+     */
+    private final FoodData foodData;
+
+    /**
+     * Constructor
+     * @param type kind of the mutation
+     * @param id id of the updated or deleted entity
+     * @param foodData new attribute values
+     */
+    private WriteOperation(ChangeEvent.ChangeType type, int id, FoodData foodData) {
+        this.type = type;
+        this.id = id;
+        this.foodData = foodData;
+    }
+
+    /**
+     * creates operation adding new entity
+     * @param foodData attributes of the new entity
+     * @return the operation
+     */
+    public static WriteOperation create(FoodData foodData) {
+        return new WriteOperation(ChangeEvent.ChangeType.CREATE, -1, foodData);
+    }
+
+    /**
+     * creates operation changing attributes of an entity
+     * @param id id of the updated entity
+     * @param foodData new attribute values
+     * @return the operation
+     */
+    public static WriteOperation update(int id, FoodData foodData) {
+        return new WriteOperation(ChangeEvent.ChangeType.UPDATE, id, foodData);
+    }
+
+    /**
+     * creates operation deleting an entity
+     * @param id id of the deleted entity
+     * @return the operation
+     */
+    public static WriteOperation delete(int id) {
+        return new WriteOperation(ChangeEvent.ChangeType.DELETE, id, null);
+    }
+
+    /**
+     * returns kind of the mutation
+     * @return kind of the mutation
+     */
+    public ChangeEvent.ChangeType getType() {
+        return type;
+    }
+
+    /**
+     * returns id of the updated or deleted entity
+     * @return entity id (-1 for CREATE)
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * returns new attribute values
+     * @return attribute values (null for DELETE)
+     */
+    public FoodData getFoodData() {
+        return foodData;
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * - returns text representation of WriteOperation instance
+     * @return text representation of WriteOperation instance
+     */
+    @Override
+    public String toString() {
+        return "WriteOperation " + type + " id " + id;
+    }
+}
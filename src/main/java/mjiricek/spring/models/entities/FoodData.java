@@ -1,5 +1,11 @@
 package mjiricek.spring.models.entities;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
 /**
  * Defines the "part" of the data in DBEntity (DBEntity extends EntityDTO) which is fully accessible to the client
  * - that this the "table row" without id
@@ -7,12 +13,22 @@ package mjiricek.spring.models.entities;
  * (user may see the id# in some cases, but can't change it, nor choose id when creating new entity)
  */
 public class FoodData {
+    /**
+     * combining marks (diacritics) left behind by the canonical decomposition of a name
+     */
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
 
     /**
      * name of the food
      */
     private String foodName;
 
+    /**
+     * search key of the name (lower-cased, without diacritics) - computed whenever the name is set,
+     * so the case- and accent-insensitive search compares keys instead of normalizing every row
+     */
+    private String searchKey;
+
     /**
      * kiloCalories per 100 grams of the food
      */
@@ -56,14 +72,12 @@ public class FoodData {
 
     /**
      * copy constructor
+     * - takes over the search key of the copied name instead of normalizing the name again
+     * (every copy of a row - pages, cache hits, change events, snapshots - would pay for it)
      * @param foodData foodData being copied
      */
     public FoodData(FoodData foodData) {
-        this(foodData.getFoodName(),
-                foodData.getKcalContent(),
-                foodData.getProteinContent(),
-                foodData.getCarbContent(),
-                foodData.getFatContent());
+        setAllAttributes(foodData);
     }
 
     /**
@@ -88,6 +102,36 @@ public class FoodData {
      */
     public void setFoodName(String foodName) {
         this.foodName = foodName;
+        this.searchKey = toSearchKey(foodName);
+    }
+
+    /**
+     * return search key of the name (lower-cased, without diacritics)
+     * - internal key of the index, not serialized into the JSON of the API (derived from the name anyway)
+     * @return search key of the name
+     */
+    @JsonIgnore
+    public String getSearchKey() {
+        return searchKey;
+    }
+
+    /**
+     * Computes search key of a name - names differing only in case and diacritics have the same key
+     * (for example "Čokoláda", "cokolada" and "ČOKOLÁDA")
+     * @param name food name (or searched text)
+     * @return lower-cased name without diacritics, null for null
+     */
+    public static String toSearchKey(String name) {
+        if (name == null)
+            return null;
+
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) >= 0x80) { // only non-ASCII names need the (slower) decomposition
+                String decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+                return COMBINING_MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+            }
+        }
+        return name.toLowerCase(Locale.ROOT);
     }
 
     /**
@@ -159,7 +203,8 @@ public class FoodData {
      * @param foodData FoodData containing the new parameters
      */
     public void setAllAttributes(FoodData foodData) {
-        setFoodName(foodData.getFoodName());
+        this.foodName = foodData.foodName;
+        this.searchKey = foodData.searchKey; // the same name - no need to normalize it again
         setKcalContent(foodData.getKcalContent());
         setProteinContent(foodData.getProteinContent());
         setCarbContent(foodData.getCarbContent());
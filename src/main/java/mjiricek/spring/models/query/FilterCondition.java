@@ -0,0 +1,148 @@
+package mjiricek.spring.models.query;
+
+import mjiricek.spring.models.entities.FoodData;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.function.Predicate;
+
+/**
+ * One condition of a filter query, for example protein>20 or name~"cheese"
+ * - immutable
+ */
+public class FilterCondition {
+    /**
+     * compared field
+     */
+    private final FoodField field;
+
+    /**
+     * comparison operator
+     */
+    private final FilterOperator operator;
+
+    /**
+     * compared value for the name field (null for numeric fields)
+     */
+    private final String textValue;
+
+    /**
+     * compared value for numeric fields
+     */
+    private final double numericValue;
+
+    /**
+     * Constructor of a condition on the name
+     * @param operator comparison operator
+     * @param textValue compared name
+     */
+    public FilterCondition(FilterOperator operator, String textValue) {
+        this(FoodField.NAME, operator, textValue, 0);
+    }
+
+    /**
+     * Constructor of a condition on a numeric field
+     * @param field compared nutrient
+     * @param operator comparison operator
+     * @param numericValue compared value
+     */
+    public FilterCondition(FoodField field, FilterOperator operator, double numericValue) {
+        this(field, operator, null, numericValue);
+    }
+
+    /**
+     * full constructor - validates the combination of field, operator and value
+     * @param field compared field
+     * @param operator comparison operator
+     * @param textValue compared name
+     * @param numericValue compared number
+     */
+    private FilterCondition(FoodField field, FilterOperator operator, String textValue, double numericValue) {
+        if (!operator.isApplicableTo(field))
+            throw new IllegalArgumentException("Operator " + operator.getSymbol()
+                    + " can't be used with the field " + field.getKeyword() + ".");
+        if (field.isNumeric() == (textValue != null))
+            throw new IllegalArgumentException("Field " + field.getKeyword() + " requires "
+                    + (field.isNumeric() ? "a number." : "a text value."));
+
+        this.field = field;
+        this.operator = operator;
+        this.textValue = textValue;
+        this.numericValue = numericValue;
+    }
+
+    /**
+     * returns compared field
+     * @return compared field
+     */
+    public FoodField getField() {
+        return field;
+    }
+
+    /**
+     * returns comparison operator
+     * @return comparison operator
+     */
+    public FilterOperator getOperator() {
+        return operator;
+    }
+
+    /**
+     * returns compared name (null for numeric conditions)
+     * @return compared name
+     */
+    public String getTextValue() {
+        return textValue;
+    }
+
+    /**
+     * returns compared number
+     * @return compared number
+     */
+    public double getNumericValue() {
+        return numericValue;
+    }
+
+    /**
+     * Compiles the condition into predicate evaluated on the table rows
+     * @return predicate equivalent to the condition
+     */
+    public Predicate<FoodData> toPredicate() {
+        if (!field.isNumeric()) {
+            return switch (operator) {
+                case EQUALS -> x -> x.getFoodName().equals(textValue);
+                case NOT_EQUALS -> x -> !x.getFoodName().equals(textValue);
+                case SIMILAR -> { // precomputed search keys are compared, the rows aren't normalized
+                    String key = FoodData.toSearchKey(textValue);
+                    yield x -> x.getSearchKey().equals(key);
+                }
+                default -> { // CONTAINS - the searched text is lower-cased just once, not for every row
+                    String needle = textValue.toLowerCase(Locale.ROOT);
+                    yield x -> x.getFoodName().toLowerCase(Locale.ROOT).contains(needle);
+                }
+            };
+        }
+
+        double value = numericValue;
+        return switch (operator) {
+            case EQUALS -> x -> field.numericValue(x) == value;
+            case NOT_EQUALS -> x -> field.numericValue(x) != value;
+            case LESS -> x -> field.numericValue(x) < value;
+            case LESS_OR_EQUAL -> x -> field.numericValue(x) <= value;
+            case GREATER -> x -> field.numericValue(x) > value;
+            default -> x -> field.numericValue(x) >= value; // GREATER_OR_EQUAL
+        };
+    }
+
+    /**
+     * returns text representation of the condition in the query language
+     * @return condition as it would be written in the query
+     */
+    @Override
+    public String toString() {
+        String value = field.isNumeric()
+                ? BigDecimal.valueOf(numericValue).stripTrailingZeros().toPlainString()
+                : "\"" + textValue.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        return field.getKeyword() + operator.getSymbol() + value;
+    }
+}
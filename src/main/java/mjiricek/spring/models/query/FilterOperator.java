@@ -0,0 +1,66 @@
+package mjiricek.spring.models.query;
+
+/**
+ * Comparison operators of the filter query language
+ * - EQUALS and NOT_EQUALS work on all fields
+ * - CONTAINS (case-insensitive substring) and SIMILAR (equality ignoring case and diacritics)
+ * work only on the name
+ * - inequalities work only on numeric fields
+ */
+public enum FilterOperator {
+    EQUALS("="),
+    NOT_EQUALS("!="),
+    CONTAINS("~"),
+    SIMILAR("~="),
+    LESS("<"),
+    LESS_OR_EQUAL("<="),
+    GREATER(">"),
+    GREATER_OR_EQUAL(">=");
+
+    /**
+     * symbol of the operator in the query text
+     */
+    private final String symbol;
+
+    /**
+     * Constructor
+     * @param symbol symbol of the operator in the query text
+     */
+    FilterOperator(String symbol) {
+        this.symbol = symbol;
+    }
+
+    /**
+     * returns symbol of the operator
+     * @return symbol used in the query text
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * tells whether the operator can be used with given field
+     * @param field field on the left side of the condition
+     * @return true if the combination is meaningful
+     */
+    public boolean isApplicableTo(FoodField field) {
+        return switch (this) {
+            case EQUALS, NOT_EQUALS -> true;
+            case CONTAINS, SIMILAR -> !field.isNumeric();
+            default -> field.isNumeric();
+        };
+    }
+
+    /**
+     * Finds operator by its symbol
+     * @param symbol symbol from the query text
+     * @return found operator or null if there is none
+     */
+    public static FilterOperator fromSymbol(String symbol) {
+        for (FilterOperator operator : values()) {
+            if (operator.symbol.equals(symbol))
+                return operator;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,132 @@
+package mjiricek.spring.models.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parser of the filter query language
+ * Grammar:
+ *   query     = condition { "AND" condition }
+ *   condition = field operator value
+ *   field     = name | kcal | protein | carb | fat   (case-insensitive)
+ *   operator  = "=" | "!=" | "~" | "~=" | "<" | "<=" | ">" | ">="
+ *   value     = "quoted text" | number | word
+ * Example: name~"cheese" AND protein>20 AND fat<10
+ * - "~" means case-insensitive "contains" and can be used only with name
+ * - "~=" means equality ignoring case and diacritics (name~="cokolada" finds "Čokoláda"), only with name
+ * - quoted text may contain escaped quotes (\") and backslashes (\\)
+ * - all methods are static, the parser has no state of its own
+ */
+public final class FilterParser {
+    /**
+     * characters the operators are made of
+     */
+    private static final String OPERATOR_CHARACTERS = "=!~<>";
+
+    /**
+     * no instances - utility class
+     */
+    private FilterParser() {
+    }
+
+    /**
+     * Parses the text of a filter query
+     * @param text query text
+     * @return parsed query
+     * @throws IllegalArgumentException with a message for the user, if the text isn't a valid query
+     */
+    public static FilterQuery parse(String text) throws IllegalArgumentException {
+        if (text == null || text.isBlank())
+            throw new IllegalArgumentException("Filter query is empty.");
+
+        List<String> tokens = tokenize(text);
+        List<FilterCondition> conditions = new ArrayList<>();
+        int position = 0;
+        while (true) {
+            if (position + 3 > tokens.size())
+                throw new IllegalArgumentException("Incomplete condition at the end of the filter query.");
+
+            conditions.add(parseCondition(tokens.get(position), tokens.get(position + 1), tokens.get(position + 2)));
+            position += 3;
+
+            if (position == tokens.size())
+                break;
+            if (!tokens.get(position).equalsIgnoreCase("AND"))
+                throw new IllegalArgumentException("Expected AND but found '" + tokens.get(position) + "'.");
+            position++;
+        }
+
+        return new FilterQuery(conditions);
+    }
+
+    /**
+     * Creates condition from its three tokens
+     * @param fieldToken field keyword
+     * @param operatorToken operator symbol
+     * @param valueToken value (quoted text still has the leading quote as a marker)
+     * @return parsed condition
+     */
+    private static FilterCondition parseCondition(String fieldToken, String operatorToken, String valueToken) {
+        FoodField field = FoodField.fromKeyword(fieldToken);
+        FilterOperator operator = FilterOperator.fromSymbol(operatorToken);
+        if (operator == null)
+            throw new IllegalArgumentException("Unknown operator '" + operatorToken + "' after " + fieldToken + ".");
+
+        boolean quoted = valueToken.startsWith("\"");
+        String value = quoted ? valueToken.substring(1) : valueToken;
+
+        if (!field.isNumeric())
+            return new FilterCondition(operator, value);
+
+        try {
+            if (quoted)
+                throw new NumberFormatException();
+            return new FilterCondition(field, operator, Double.parseDouble(value));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Value of " + field.getKeyword() + " must be a number, found '" + value + "'.");
+        }
+    }
+
+    /**
+     * Splits the query text into tokens - words, operators and quoted strings
+     * - quoted strings are returned unescaped with a leading quote to tell them apart from words
+     * @param text query text
+     * @return list of tokens
+     */
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') { // quoted string
+                StringBuilder value = new StringBuilder("\"");
+                i++;
+                while (true) {
+                    if (i >= text.length())
+                        throw new IllegalArgumentException("Missing closing quote in the filter query.");
+                    char next = text.charAt(i++);
+                    if (next == '"')
+                        break;
+                    if (next == '\\' && i < text.length())
+                        next = text.charAt(i++);
+                    value.append(next);
+                }
+                tokens.add(value.toString());
+            } else if (OPERATOR_CHARACTERS.indexOf(c) >= 0) { // operator of one or two characters
+                int start = i;
+                while (i < text.length() && OPERATOR_CHARACTERS.indexOf(text.charAt(i)) >= 0)
+                    i++;
+                tokens.add(text.substring(start, i));
+            } else { // word or number
+                int start = i;
+                while (i < text.length() && !Character.isWhitespace(text.charAt(i))
+                        && OPERATOR_CHARACTERS.indexOf(text.charAt(i)) < 0 && text.charAt(i) != '"')
+                    i++;
+                tokens.add(text.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,82 @@
+package mjiricek.spring.models.query;
+
+import mjiricek.spring.models.entities.FoodData;
+
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Parsed filter query - conjunction (AND) of conditions
+ * - immutable, created by FilterParser
+ */
+public class FilterQuery {
+    /**
+     * conditions that all have to be satisfied
+     */
+    private final List<FilterCondition> conditions;
+
+    /**
+     * Constructor
+     * @param conditions conditions that all have to be satisfied (at least one)
+     */
+    public FilterQuery(List<FilterCondition> conditions) {
+        if (conditions.isEmpty())
+            throw new IllegalArgumentException("Filter query has to contain at least one condition.");
+
+        this.conditions = List.copyOf(conditions);
+    }
+
+    /**
+     * returns all conditions of the query
+     * @return unmodifiable list of conditions
+     */
+    public List<FilterCondition> getConditions() {
+        return conditions;
+    }
+
+    /**
+     * Compiles the query into one predicate
+     * @return predicate satisfied by rows matching all conditions
+     */
+    public Predicate<FoodData> toPredicate() {
+        return toPredicate(null);
+    }
+
+    /**
+     * Compiles all conditions except the excluded one into one predicate
+     * - the excluded condition is the one already satisfied by an index lookup
+     * @param excluded condition left out of the predicate (can be null)
+     * @return predicate satisfied by rows matching the remaining conditions
+     */
+    public Predicate<FoodData> toPredicate(FilterCondition excluded) {
+        Predicate<FoodData> predicate = x -> true;
+        for (FilterCondition condition : conditions) {
+            if (condition != excluded)
+                predicate = predicate.and(condition.toPredicate());
+        }
+        return predicate;
+    }
+
+    /**
+     * returns text of the conditions except the excluded one
+     * @param excluded condition left out of the text (can be null)
+     * @return conditions joined by AND, or "none"
+     */
+    public String describe(FilterCondition excluded) {
+        String text = conditions.stream()
+                .filter(x -> x != excluded)
+                .map(FilterCondition::toString)
+                .collect(Collectors.joining(" AND "));
+        return text.isEmpty() ? "none" : text;
+    }
+
+    /**
+     * returns normalized text representation of the query
+     * @return query as it would be written in the query language
+     */
+    @Override
+    public String toString() {
+        return describe(null);
+    }
+}
@@ -0,0 +1,79 @@
+package mjiricek.spring.models.query;
+
+import mjiricek.spring.models.entities.FoodData;
+
+import java.util.Locale;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Attributes (table columns) of FoodData that can be used in filter queries
+ * - each field has a keyword used in the query text and an accessor of its value
+ */
+public enum FoodField {
+    NAME("name", null),
+    KCAL("kcal", FoodData::getKcalContent),
+    PROTEIN("protein", FoodData::getProteinContent),
+    CARB("carb", FoodData::getCarbContent),
+    FAT("fat", FoodData::getFatContent);
+
+    /**
+     * keyword of the field in the query text
+     */
+    private final String keyword;
+
+    /**
+     * accessor of the numeric value (null for the text field)
+     */
+    private final ToDoubleFunction<FoodData> numericGetter;
+
+    /**
+     * Constructor
+     * @param keyword keyword of the field in the query text
+     * @param numericGetter accessor of the numeric value, null for the name
+     */
+    FoodField(String keyword, ToDoubleFunction<FoodData> numericGetter) {
+        this.keyword = keyword;
+        this.numericGetter = numericGetter;
+    }
+
+    /**
+     * returns keyword of the field
+     * @return keyword used in the query text
+     */
+    public String getKeyword() {
+        return keyword;
+    }
+
+    /**
+     * tells whether the field has numeric value
+     * @return true for nutrients, false for name
+     */
+    public boolean isNumeric() {
+        return numericGetter != null;
+    }
+
+    /**
+     * returns numeric value of the field
+     * @param foodData food being evaluated
+     * @return value of the field in given food
+     */
+    public double numericValue(FoodData foodData) {
+        return numericGetter.applyAsDouble(foodData);
+    }
+
+    /**
+     * Finds field by its keyword (case-insensitive)
+     * @param keyword keyword from the query text
+     * @return found field
+     * @throws IllegalArgumentException if there is no such field
+     */
+    public static FoodField fromKeyword(String keyword) throws IllegalArgumentException {
+        String lowerCase = keyword.toLowerCase(Locale.ROOT);
+        for (FoodField field : values()) {
+            // plural form is accepted as well ("carbs")
+            if (field.keyword.equals(lowerCase) || (field.keyword + "s").equals(lowerCase))
+                return field;
+        }
+        throw new IllegalArgumentException("Unknown field '" + keyword + "' (use name, kcal, protein, carb or fat).");
+    }
+}
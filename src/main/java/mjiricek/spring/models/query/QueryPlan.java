@@ -0,0 +1,117 @@
+package mjiricek.spring.models.query;
+
+import mjiricek.spring.models.entities.FoodData;
+
+import java.util.function.Predicate;
+
+/**
+ * Execution plan of a filter query chosen by the planner of DBSimulator
+ * - either an index lookup of one (the most selective) indexed condition,
+ * followed by a residual filter of the remaining conditions over the index entries
+ * - or a full table scan evaluating all conditions
+ * - immutable, it describes the state of the table at the time of planning
+ */
+public class QueryPlan {
+    /**
+     * planned query
+     */
+    private final FilterQuery query;
+
+    /**
+     * condition answered by the index (null means full scan)
+     */
+    private final FilterCondition indexCondition;
+
+    /**
+     * number of rows the execution has to evaluate (index entries or whole table)
+     */
+    private final int scannedRows;
+
+    /**
+     * number of rows in the table at the time of planning
+     */
+    private final int tableSize;
+
+    /**
+     * whether the evaluation of the residual filter runs in parallel chunks
+     */
+    private final boolean parallel;
+
+    /**
+     * Constructor
+     * @param query planned query
+     * @param indexCondition condition answered by the index, null for full scan
+     * @param scannedRows number of rows the execution has to evaluate
+     * @param tableSize number of rows in the table
+     * @param parallel whether the residual filter is evaluated in parallel
+     */
+    public QueryPlan(FilterQuery query, FilterCondition indexCondition, int scannedRows, int tableSize, boolean parallel) {
+        this.query = query;
+        this.indexCondition = indexCondition;
+        this.scannedRows = scannedRows;
+        this.tableSize = tableSize;
+        this.parallel = parallel;
+    }
+
+    /**
+     * returns planned query
+     * @return planned query
+     */
+    public FilterQuery getQuery() {
+        return query;
+    }
+
+    /**
+     * returns condition answered by the index
+     * @return indexed condition, null for full scan
+     */
+    public FilterCondition getIndexCondition() {
+        return indexCondition;
+    }
+
+    /**
+     * tells whether the plan uses an index
+     * @return true for index lookup, false for full scan
+     */
+    public boolean usesIndex() {
+        return indexCondition != null;
+    }
+
+    /**
+     * returns number of rows the execution has to evaluate
+     * @return number of index entries or table size
+     */
+    public int getScannedRows() {
+        return scannedRows;
+    }
+
+    /**
+     * returns predicate of the conditions not answered by the index
+     * @return residual predicate
+     */
+    public Predicate<FoodData> getResidualPredicate() {
+        return query.toPredicate(indexCondition);
+    }
+
+    /**
+     * Human readable description of the plan (for debugging)
+     * @return multi-line description of the plan
+     */
+    public String explain() {
+        String access = usesIndex()
+                ? "INDEX LOOKUP " + indexCondition + " (" + scannedRows + " of " + tableSize + " rows)"
+                : "FULL SCAN (" + tableSize + " rows)";
+        // String.format("%n") is portable, "\n" is not - user's text is passed as argument, not as format
+        return String.format("FILTER %s%n  access: %s%n  residual filter: %s%n  evaluation: %s",
+                query, access, query.describe(indexCondition), parallel ? "parallel chunks" : "sequential");
+    }
+
+    /**
+     * returns text representation of the plan
+     * @return the same as explain()
+     */
+    @Override
+    public String toString() {
+        return explain();
+    }
+}
@@ -0,0 +1,106 @@
+package mjiricek.spring.models.query;
+
+import mjiricek.spring.models.entities.FoodData;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Metric used for ranking foods (top-K queries)
+ * - value of one nutrient, optionally divided by another one, for example "protein per kcal"
+ * - foods with zero denominator have no score and are left out of the ranking
+ * - immutable
+ */
+public class RankingMetric {
+    /**
+     * ranked nutrient
+     */
+    private final FoodField numerator;
+
+    /**
+     * nutrient the ranked one is related to (null for plain nutrient value)
+     */
+    private final FoodField denominator;
+
+    /**
+     * true for the highest values first, false for the lowest values first
+     */
+    private final boolean descending;
+
+    /**
+     * Constructor
+     * @param numerator ranked nutrient
+     * @param denominator nutrient the ranked one is related to (can be null)
+     * @param descending true for the highest values first
+     */
+    public RankingMetric(FoodField numerator, FoodField denominator, boolean descending) {
+        if (!numerator.isNumeric() || (denominator != null && !denominator.isNumeric()))
+            throw new IllegalArgumentException("Foods can be ranked only by nutrients.");
+        if (numerator == denominator)
+            throw new IllegalArgumentException("Nutrient can't be ranked per itself.");
+
+        this.numerator = numerator;
+        this.denominator = denominator;
+        this.descending = descending;
+    }
+
+    /**
+     * returns ranked nutrient
+     * @return ranked nutrient
+     */
+    public FoodField getNumerator() {
+        return numerator;
+    }
+
+    /**
+     * returns nutrient the ranked one is related to
+     * @return denominator, null for plain nutrient value
+     */
+    public FoodField getDenominator() {
+        return denominator;
+    }
+
+    /**
+     * tells the order of the ranking
+     * @return true for the highest values first
+     */
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * Computes the score of the food
+     * @param foodData evaluated food
+     * @return score, or NaN if the food can't be scored (zero denominator)
+     */
+    public double score(FoodData foodData) {
+        double value = numerator.numericValue(foodData);
+        if (denominator == null)
+            return value;
+
+        double per = denominator.numericValue(foodData);
+        return per == 0 ? Double.NaN : value / per;
+    }
+
+    /**
+     * Score rounded for displaying
+     * @param foodData evaluated food
+     * @return score rounded to 4 decimal places
+     */
+    public String formatScore(FoodData foodData) {
+        double score = score(foodData);
+        return Double.isNaN(score)
+                ? "-"
+                : BigDecimal.valueOf(score).setScale(4, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * returns text representation of the metric
+     * @return for example "highest protein per kcal"
+     */
+    @Override
+    public String toString() {
+        return (descending ? "highest " : "lowest ") + numerator.getKeyword()
+                + (denominator == null ? "" : " per " + denominator.getKeyword());
+    }
+}
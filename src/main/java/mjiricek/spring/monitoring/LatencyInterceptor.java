@@ -0,0 +1,81 @@
+package mjiricek.spring.monitoring;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Measures the requests of the controllers for LatencyMonitor
+ * - starts the timings before the handler, marks the start of rendering after it
+ * and records all phases when the response is rendered
+ * - the endpoint is named by the handler method (renderIndexPage, createEntry, ...)
+ * - asynchronous requests (the change stream) aren't measured, they last as long as the client listens
+ */
+public class LatencyInterceptor implements AsyncHandlerInterceptor {
+    /**
+     * request attribute with the start of rendering (System.nanoTime())
+     */
+    private static final String RENDER_START_ATTRIBUTE = LatencyInterceptor.class.getName() + ".renderStart";
+
+    /**
+     * monitor the requests are recorded in
+     */
+    private final LatencyMonitor latencyMonitor;
+
+    /**
+     * Constructor
+     * @param latencyMonitor monitor the requests are recorded in
+     */
+    public LatencyInterceptor(LatencyMonitor latencyMonitor) {
+        this.latencyMonitor = latencyMonitor;
+    }
+
+    /**
+     * starts the timings of the request
+     * @return true - the request always continues
+     */
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (handler instanceof HandlerMethod)
+            RequestTimings.start();
+        return true;
+    }
+
+    /**
+     * marks the start of rendering (called only when the handler succeeded)
+     */
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                           ModelAndView modelAndView) {
+        request.setAttribute(RENDER_START_ATTRIBUTE, System.nanoTime());
+    }
+
+    /**
+     * records the phases of the finished request
+     */
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        RequestTimings timings = RequestTimings.finish();
+        if (timings == null || !(handler instanceof HandlerMethod handlerMethod))
+            return;
+
+        long now = System.nanoTime();
+        Object renderStart = request.getAttribute(RENDER_START_ATTRIBUTE);
+        if (renderStart != null) // a failed handler isn't rendered
+            timings.add(LatencyPhase.RENDER, now - (Long) renderStart);
+        timings.add(LatencyPhase.TOTAL, now - timings.getStartNanos());
+        latencyMonitor.record(handlerMethod.getMethod().getName(), timings);
+    }
+
+    /**
+     * drops the timings of an asynchronous request (its handler returned, the response continues on another thread)
+     */
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                               Object handler) {
+        RequestTimings.finish();
+    }
+}
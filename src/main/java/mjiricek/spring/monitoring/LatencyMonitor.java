@@ -0,0 +1,113 @@
+package mjiricek.spring.monitoring;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency histograms of the requests - one HdrHistogram per endpoint (handler method) and phase
+ * - recording is lock free and doesn't allocate (Recorder), so it can stay on for every request
+ * - reading is reset-on-read: every read returns the histograms of the window since the previous read
+ * and starts a new window (the recorders swap their histograms, no recorded value is lost or counted twice)
+ * - values are recorded in nanoseconds with 3 significant digits, reported in microseconds
+ */
+public class LatencyMonitor {
+    /**
+     * reported percentiles
+     */
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    /**
+     * precision of the histograms (number of significant decimal digits)
+     */
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    /**
+     * recorders of the endpoints, created by the first request of the endpoint
+     */
+    private final ConcurrentHashMap<String, EnumMap<LatencyPhase, Recorder>> recorders = new ConcurrentHashMap<>();
+
+    /**
+     * start of the current window (System.currentTimeMillis()), guarded by this
+     */
+    private long windowStartMillis = System.currentTimeMillis();
+
+    /**
+     * Records the phases of a finished request
+     * @param endpoint name of the endpoint (handler method)
+     * @param timings timings of the request
+     */
+    public void record(String endpoint, RequestTimings timings) {
+        EnumMap<LatencyPhase, Recorder> endpointRecorders = recorders.computeIfAbsent(endpoint, name -> {
+            EnumMap<LatencyPhase, Recorder> created = new EnumMap<>(LatencyPhase.class);
+            for (LatencyPhase phase : LatencyPhase.values())
+                created.put(phase, new Recorder(SIGNIFICANT_DIGITS));
+            return created;
+        });
+        for (LatencyPhase phase : LatencyPhase.values()) {
+            long nanos = timings.getPhaseNanos(phase);
+            if (nanos >= 0) // phases the request didn't go through aren't recorded as zeros
+                endpointRecorders.get(phase).recordValue(nanos);
+        }
+    }
+
+    /**
+     * Returns the percentiles of the current window and starts a new window
+     * @return window bounds and for every endpoint and phase: count, mean, percentiles and max in microseconds
+     */
+    public synchronized Map<String, Object> readAndReset() {
+        long windowEndMillis = System.currentTimeMillis();
+        Map<String, Object> endpoints = new TreeMap<>();
+        for (Map.Entry<String, EnumMap<LatencyPhase, Recorder>> endpoint : recorders.entrySet()) {
+            Map<String, Object> phases = new LinkedHashMap<>();
+            for (Map.Entry<LatencyPhase, Recorder> phase : endpoint.getValue().entrySet()) {
+                Histogram histogram = phase.getValue().getIntervalHistogram();
+                if (histogram.getTotalCount() > 0)
+                    phases.put(phase.getKey().name(), describe(histogram));
+            }
+            if (!phases.isEmpty())
+                endpoints.put(endpoint.getKey(), phases);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("windowStartMillis", windowStartMillis);
+        result.put("windowEndMillis", windowEndMillis);
+        result.put("unit", "us");
+        result.put("endpoints", endpoints);
+        windowStartMillis = windowEndMillis;
+        return result;
+    }
+
+    /**
+     * summary of one histogram
+     * @param histogram histogram of the window (nanoseconds)
+     * @return count, mean, percentiles and max in microseconds
+     */
+    private static Map<String, Object> describe(Histogram histogram) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", histogram.getTotalCount());
+        summary.put("mean", histogram.getMean() / 1000);
+        for (double percentile : PERCENTILES)
+            summary.put("p" + (percentile == (long) percentile ? String.valueOf((long) percentile) : String.valueOf(percentile)),
+                    histogram.getValueAtPercentile(percentile) / 1000.0);
+        summary.put("max", histogram.getMaxValue() / 1000.0);
+        return summary;
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * - returns text representation of LatencyMonitor instance
+     * @return text representation of LatencyMonitor instance
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of LatencyMonitor " + super.toString() + ":%n" +
+                "=======================================================%n" +
+                "endpoints: " + recorders.keySet() + "%n");
+    }
+}
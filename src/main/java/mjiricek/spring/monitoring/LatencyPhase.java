@@ -0,0 +1,25 @@
+package mjiricek.spring.monitoring;
+
+/**
+ * Phases of a request whose latency is recorded (per endpoint) by LatencyMonitor
+ */
+public enum LatencyPhase {
+    /**
+     * waiting for the page lock of the controller
+     */
+    LOCK_WAIT,
+    /**
+     * work of the database (service and storage engine) - the time the page holds its lock,
+     * or the time of the database calls of a page without the lock
+     */
+    ENGINE,
+    /**
+     * rendering of the Thymeleaf template
+     * (a JSON response is written before the rendering phase starts, it shows up in TOTAL only)
+     */
+    RENDER,
+    /**
+     * the whole request, from the handler call to the rendered response
+     */
+    TOTAL
+}
@@ -0,0 +1,92 @@
+package mjiricek.spring.monitoring;
+
+import java.util.Arrays;
+
+/**
+ * Durations of the phases of the request handled by the current thread
+ * - started and finished by LatencyInterceptor, the controllers add the phases they measure (lock wait, engine)
+ * - a phase may occur several times in one request (e.g. a write followed by rendering of the page
+ * waits for the write lock and then for the read lock), its durations are summed up
+ * - outside of a request (no timings started) the added durations are ignored
+ */
+public final class RequestTimings {
+    /**
+     * timings of the request of the current thread
+     */
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+    /**
+     * start of the request (System.nanoTime())
+     */
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * summed durations of the phases in nanoseconds, -1 for the phases that didn't occur
+     */
+    private final long[] phaseNanos = new long[LatencyPhase.values().length];
+
+    /**
+     * constructor - only start() creates timings
+     */
+    private RequestTimings() {
+        Arrays.fill(phaseNanos, -1);
+    }
+
+    /**
+     * starts timings of the request of the current thread
+     */
+    static void start() {
+        CURRENT.set(new RequestTimings());
+    }
+
+    /**
+     * finishes timings of the request of the current thread
+     * @return timings of the request, null if none were started
+     */
+    static RequestTimings finish() {
+        RequestTimings timings = CURRENT.get();
+        CURRENT.remove();
+        return timings;
+    }
+
+    /**
+     * Adds duration of a phase that started at the given time and ends now
+     * @param phase measured phase
+     * @param startNanos start of the phase (System.nanoTime())
+     * @return end of the phase (now), to be used as the start of the next phase
+     */
+    public static long record(LatencyPhase phase, long startNanos) {
+        long now = System.nanoTime();
+        RequestTimings timings = CURRENT.get();
+        if (timings != null)
+            timings.add(phase, now - startNanos);
+        return now;
+    }
+
+    /**
+     * adds duration to a phase
+     * @param phase measured phase
+     * @param nanos duration in nanoseconds
+     */
+    void add(LatencyPhase phase, long nanos) {
+        int index = phase.ordinal();
+        phaseNanos[index] = Math.max(phaseNanos[index], 0) + nanos;
+    }
+
+    /**
+     * returns start of the request
+     * @return System.nanoTime() at the start
+     */
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    /**
+     * returns summed duration of a phase
+     * @param phase the phase
+     * @return duration in nanoseconds, -1 if the phase didn't occur
+     */
+    long getPhaseNanos(LatencyPhase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+}
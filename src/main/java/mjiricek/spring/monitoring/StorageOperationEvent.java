@@ -0,0 +1,87 @@
+package mjiricek.spring.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder event of one operation of the in-memory storage engine (DBSimulator)
+ * - duration of the event is the whole operation including the wait for the table lock,
+ * the wait alone is in lockWait, so slow requests can be told apart as slow scans or lock contention
+ * - settings of the event (enabled, threshold, stack trace) are in the profile src/main/resources/jfr/nutrdb.jfc
+ * - when no recording is running, the event is disabled and the engine skips all measuring
+ * (the unused instance is removed by the JIT)
+ */
+@Name("mjiricek.nutrdb.StorageOperation")
+@Label("Storage Operation")
+@Category({"NutrDB", "Storage"})
+@Description("Operation of the in-memory storage engine (DBSimulator)")
+public class StorageOperationEvent extends Event {
+    /**
+     * estimated size of one copied row (shallow size of Food - the strings are shared, not copied)
+     */
+    public static final int ROW_COPY_BYTES = 56;
+
+    /**
+     * name of the operation (method of the storage engine)
+     */
+    @Label("Operation")
+    public String operation;
+
+    /**
+     * number of rows of the table when the operation finished
+     */
+    @Label("Table Size")
+    public int tableSize;
+
+    /**
+     * number of rows the operation went through (index entries, scanned part of the table)
+     */
+    @Label("Rows Scanned")
+    public int rowsScanned;
+
+    /**
+     * number of rows returned (or written) by the operation
+     */
+    @Label("Rows Returned")
+    public int rowsReturned;
+
+    /**
+     * time spent waiting for the table lock
+     */
+    @Label("Lock Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    public long lockWait;
+
+    /**
+     * estimated number of bytes copied (rows handed out of the table or into the change log)
+     */
+    @Label("Bytes Copied")
+    @DataAmount(DataAmount.BYTES)
+    public long bytesCopied;
+
+    /**
+     * Constructor
+     * @param operation name of the operation
+     */
+    public StorageOperationEvent(String operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * sets the row counts of the operation (and the bytes of the returned copies)
+     * @param rowsScanned number of rows the operation went through
+     * @param rowsReturned number of returned (copied) rows
+     * @return this event
+     */
+    public StorageOperationEvent rows(int rowsScanned, int rowsReturned) {
+        this.rowsScanned = rowsScanned;
+        this.rowsReturned = rowsReturned;
+        this.bytesCopied = (long) rowsReturned * ROW_COPY_BYTES;
+        return this;
+    }
+}
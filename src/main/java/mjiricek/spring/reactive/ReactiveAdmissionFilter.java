@@ -0,0 +1,85 @@
+package mjiricek.spring.reactive;
+
+import mjiricek.spring.admission.AdmissionControl;
+import mjiricek.spring.admission.ConcurrencyLimit;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reactive counterpart of AdmissionInterceptor - admits the requests through AdmissionControl
+ * - a request waits for its place without holding a thread (the admission is a CompletableFuture)
+ * at most the queue timeout, then it's rejected with 503 Service Unavailable and Retry-After
+ * - the place is freed when the response is written, or when the client closes the connection
+ * - exists only if nutrdb.admission.enabled=true
+ * - runs before the selection of the tenant (a rejected request doesn't load its tenant),
+ * static resources, the admission statistics and the readiness aren't limited
+ */
+@Component
+@Profile("reactive")
+@ConditionalOnProperty(name = "nutrdb.admission.enabled", havingValue = "true", matchIfMissing = true)
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class ReactiveAdmissionFilter implements WebFilter {
+    /**
+     * admission control of the requests
+     */
+    private final AdmissionControl admissionControl;
+
+    /**
+     * constructor (Spring uses it in dependency injection)
+     * @param admissionControl admission control of the requests
+     */
+    public ReactiveAdmissionFilter(@Qualifier("createAdmissionControl") AdmissionControl admissionControl) {
+        this.admissionControl = admissionControl;
+    }
+
+    /**
+     * waits for the admission of the request, handles it and frees its place
+     * @param exchange http request and response
+     * @param chain rest of the filters and the controllers
+     * @return completion of the request, error 503 if the request wasn't admitted
+     */
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        String path = exchange.getRequest().getPath().pathWithinApplication().value();
+        if (path.startsWith("/css/") || path.startsWith("/js/") || path.equals("/api/admission") || path.equals("/api/ready"))
+            return chain.filter(exchange);
+
+        ConcurrencyLimit.Ticket ticket = admissionControl.limitFor(exchange.getRequest().getMethod().name()).acquire();
+        if (ticket == null)
+            return reject(exchange);
+
+        return Mono.fromFuture(ticket.getAdmission(), true)
+                .timeout(Duration.ofMillis(admissionControl.getQueueTimeoutMillis()))
+                .onErrorResume(TimeoutException.class, e -> {
+                    ticket.release();
+                    return reject(exchange);
+                })
+                .then(Mono.defer(() -> chain.filter(exchange)))
+                .doFinally(signal -> ticket.release());
+    }
+
+    /**
+     * sets Retry-After of the rejected request
+     * @param exchange http request and response
+     * @return error answering the request with 503
+     */
+    private Mono<Void> reject(ServerWebExchange exchange) {
+        exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER,
+                String.valueOf(admissionControl.getRetryAfterSeconds()));
+        return Mono.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Server overloaded, retry later"));
+    }
+}
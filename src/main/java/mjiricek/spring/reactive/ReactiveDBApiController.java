@@ -0,0 +1,252 @@
+package mjiricek.spring.reactive;
+
+import mjiricek.spring.admission.AdmissionControl;
+import mjiricek.spring.models.DBService;
+import mjiricek.spring.models.SnapshotPage;
+import mjiricek.spring.models.TenantDatabase;
+import mjiricek.spring.models.query.FilterQuery;
+import mjiricek.spring.replication.ReplicationStatusProvider;
+import mjiricek.spring.warmup.WarmUp;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reactive counterpart of DBApiController - the JSON API (URLs starting with "/api") served by Spring WebFlux
+ * - every database call runs on the storage scheduler (ReactiveDBService), the handlers return Mono
+ * - the change stream (/api/changes) and the latency histograms (/api/latency) are served only by the servlet
+ * variant: the stream is pumped by threads blocked on the change log and the histograms are recorded
+ * by the interceptor of Spring MVC
+ */
+@RestController
+@RequestMapping("/api")
+@Profile("reactive")
+public class ReactiveDBApiController {
+    /**
+     * for how long the browser may reuse autocomplete response for the same prefix
+     */
+    private static final long AUTOCOMPLETE_MAX_AGE_SECONDS = 5;
+
+    /**
+     * maximal number of entries returned by one request of the export
+     */
+    private static final int MAX_EXPORT_LIMIT = 10000;
+
+    /**
+     * non-blocking access to the database
+     */
+    private final ReactiveDBService reactiveDBService;
+
+    /**
+     * leader or follower of the replication (none if the database isn't replicated)
+     */
+    private final ObjectProvider<ReplicationStatusProvider> replicationStatusProvider;
+
+    /**
+     * admission control of the requests
+     */
+    private final AdmissionControl admissionControl;
+
+    /**
+     * readiness of the application (switched by Spring Boot after the warm-up)
+     */
+    private final ApplicationAvailability applicationAvailability;
+
+    /**
+     * warm-up of the JIT compiler (its report)
+     */
+    private final WarmUp warmUp;
+
+    /**
+     * constructor (Spring uses it in dependency injection)
+     * @param reactiveDBService non-blocking access to the database
+     * @param replicationStatusProvider leader or follower of the replication, if there is one
+     * @param admissionControl admission control of the requests
+     * @param applicationAvailability readiness of the application
+     * @param warmUp warm-up of the JIT compiler
+     */
+    public ReactiveDBApiController(@Autowired ReactiveDBService reactiveDBService,
+                                   @Autowired ObjectProvider<ReplicationStatusProvider> replicationStatusProvider,
+                                   @Qualifier("createAdmissionControl") AdmissionControl admissionControl,
+                                   @Autowired ApplicationAvailability applicationAvailability,
+                                   @Qualifier("createWarmUp") WarmUp warmUp) {
+        this.reactiveDBService = reactiveDBService;
+        this.replicationStatusProvider = replicationStatusProvider;
+        this.admissionControl = admissionControl;
+        this.applicationAvailability = applicationAvailability;
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * returns the tenant database of the request (set by ReactiveTenantFilter)
+     * @param exchange http request and response
+     * @return tenant database
+     */
+    private static TenantDatabase tenant(ServerWebExchange exchange) {
+        return exchange.getRequiredAttribute(ReactiveTenantFilter.TENANT_ATTRIBUTE);
+    }
+
+    /**
+     * returns the blocking service - to be called only inside the database calls of ReactiveDBService
+     * @return database service
+     */
+    private DBService dbService() {
+        return reactiveDBService.getDBService();
+    }
+
+    /**
+     * Handler of the GET request on the URL "/api/replication" (see DBApiController.replicationStatus)
+     * @param exchange http request and response
+     * @return Mono of JSON object with the replication state
+     */
+    @GetMapping("/replication")
+    public Mono<Map<String, Object>> replicationStatus(ServerWebExchange exchange) {
+        ReplicationStatusProvider provider = replicationStatusProvider.getIfAvailable();
+        return reactiveDBService.call(tenant(exchange), () -> provider == null
+                ? Map.of("role", "standalone", "latestSequence", dbService().getLatestChangeSequence())
+                : provider.getReplicationStatus());
+    }
+
+    /**
+     * Handler of the GET request on the URL "/api/search-cache" (see DBApiController.searchCacheStatistics)
+     * @param exchange http request and response
+     * @return Mono of JSON object with the statistics
+     */
+    @GetMapping("/search-cache")
+    public Mono<Map<String, Object>> searchCacheStatistics(ServerWebExchange exchange) {
+        return reactiveDBService.call(tenant(exchange), () -> dbService().getSearchCacheStatistics());
+    }
+
+    /**
+     * Handler of the GET request on the URL "/api/admission" (see DBApiController.admissionStatistics)
+     * - answered on the event loop, the statistics don't touch the database
+     * @return JSON object with the statistics
+     */
+    @GetMapping("/admission")
+    public Map<String, Object> admissionStatistics() {
+        return admissionControl.getStatistics();
+    }
+
+    /**
+     * Handler of the GET request on the URL "/api/ready" (see DBApiController.readiness)
+     * @return JSON object with the readiness state and the report of the warm-up
+     */
+    @GetMapping("/ready")
+    public ResponseEntity<Map<String, Object>> readiness() {
+        ReadinessState state = applicationAvailability.getReadinessState();
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("readiness", state);
+        body.put("warmUp", warmUp.getReport());
+        HttpStatus status = state == ReadinessState.ACCEPTING_TRAFFIC ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE;
+        return ResponseEntity.status(status).body(body);
+    }
+
+    /**
+     * Handler of the GET request on the URL "/api/autocomplete" (see DBApiController.autocomplete)
+     * @param prefix typed beginning of the name
+     * @param limit maximal number of suggestions
+     * @param exchange http request and response
+     * @return Mono of JSON array of suggested names
+     */
+    @GetMapping("/autocomplete")
+    public Mono<ResponseEntity<List<String>>> autocomplete(@RequestParam(value = "prefix", defaultValue = "") String prefix,
+                                                           @RequestParam(value = "limit", defaultValue = "10") int limit,
+                                                           ServerWebExchange exchange) {
+        return reactiveDBService.call(tenant(exchange), () -> dbService().suggestNames(prefix, limit))
+                .map(names -> ResponseEntity.ok()
+                        .cacheControl(CacheControl.maxAge(AUTOCOMPLETE_MAX_AGE_SECONDS, TimeUnit.SECONDS).cachePrivate())
+                        .body(names));
+    }
+
+    /**
+     * Handler of the GET request on the URL "/api/foods" - export of the entries from a snapshot of the database
+     * (see DBApiController.exportFoods)
+     * @param asOf sequence number of the change the database is read after
+     * @param filter filter query (the same language as on the search page), empty for all entries
+     * @param after id of the last entry of the previous page, none for the first page
+     * @param offset index (among the matching entries behind "after") of the first returned entry
+     * @param limit maximal number of returned entries
+     * @param exchange http request and response
+     * @return Mono of JSON object with the sequence, number of all matching entries and the entries
+     */
+    @GetMapping("/foods")
+    public Mono<SnapshotPage> exportFoods(@RequestParam(value = "asOf", required = false) Long asOf,
+                                          @RequestParam(value = "filter", defaultValue = "") String filter,
+                                          @RequestParam(value = "after", required = false) Integer after,
+                                          @RequestParam(value = "offset", defaultValue = "0") int offset,
+                                          @RequestParam(value = "limit", defaultValue = "1000") int limit,
+                                          ServerWebExchange exchange) {
+        return reactiveDBService.call(tenant(exchange), () -> {
+                    FilterQuery filterQuery = filter.isBlank() ? null : dbService().parseFilter(filter);
+                    return dbService().showEntriesAsOf(asOf, filterQuery, after, offset, Math.min(limit, MAX_EXPORT_LIMIT));
+                })
+                .onErrorMap(IllegalArgumentException.class,
+                        e -> new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage()));
+    }
+
+    /**
+     * Handler of the GET request on the URL "/api/statistics" - summary of the nutrients
+     * (see DBApiController.statistics)
+     * @param filter filter query (the same language as on the search page), empty for all entries
+     * @param exchange http request and response
+     * @return Mono of JSON object with the count and the summaries of the nutrients
+     */
+    @GetMapping("/statistics")
+    public Mono<Map<String, Object>> statistics(@RequestParam(value = "filter", defaultValue = "") String filter,
+                                                ServerWebExchange exchange) {
+        return reactiveDBService.call(tenant(exchange), () -> {
+                    FilterQuery filterQuery = filter.isBlank() ? null : dbService().parseFilter(filter);
+                    return dbService().showStatistics(filterQuery).getSummary();
+                })
+                .onErrorMap(IllegalArgumentException.class,
+                        e -> new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage()));
+    }
+
+    /**
+     * Handler of the POST request on the URL "/api/seed" - adds synthetic foods for scale testing
+     * (see DBApiController.seedFoods)
+     * @param rows number of generated foods
+     * @param seed seed of the generator
+     * @param exchange http request and response
+     * @return Mono of JSON object with the number of added rows, the new size of the table and the duration
+     */
+    @PostMapping("/seed")
+    public Mono<Map<String, Object>> seedFoods(@RequestParam(value = "rows", defaultValue = "100000") int rows,
+                                               @RequestParam(value = "seed", required = false) Long seed,
+                                               ServerWebExchange exchange) {
+        long start = System.nanoTime();
+        long usedSeed = seed != null ? seed : System.nanoTime();
+        return reactiveDBService.call(tenant(exchange), () -> dbService().seedEntries(rows, usedSeed))
+                .map(tableSize -> {
+                    Map<String, Object> result = new LinkedHashMap<>();
+                    result.put("rows", rows);
+                    result.put("seed", usedSeed);
+                    result.put("tableSize", tableSize);
+                    result.put("millis", (System.nanoTime() - start) / 1_000_000);
+                    return result;
+                })
+                .onErrorMap(IllegalArgumentException.class,
+                        e -> new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage()))
+                .onErrorMap(IllegalStateException.class,
+                        e -> new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage()));
+    }
+}
@@ -0,0 +1,648 @@
+package mjiricek.spring.reactive;
+
+import mjiricek.spring.controllers.TenantFilter;
+import mjiricek.spring.models.DBService;
+import mjiricek.spring.models.TenantDatabase;
+import mjiricek.spring.models.entities.Food;
+import mjiricek.spring.models.entities.FoodDTO;
+import mjiricek.spring.models.query.FilterQuery;
+import mjiricek.spring.models.query.RankingMetric;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.ServerWebExchange;
+import org.thymeleaf.spring6.context.webflux.ReactiveDataDriverContextVariable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+
+/**
+ * Reactive counterpart of DBController - the same pages (the same templates, URLs and parameters)
+ * served by Spring WebFlux
+ * - the handlers return Mono of the template name, the database work runs on the storage scheduler
+ * (ReactiveDBService) and the event loop thread is free while it waits for the page lock or the query
+ * - the entries of the table card are a data-driven variable of Thymeleaf: the rows are rendered and flushed
+ * as they are emitted, in buffers of ENTRIES_BUFFER_SIZE rows, instead of rendering the whole page in memory
+ * - a page longer than chunkSize (url parameter "size") is read in chunks: the first one with the page count,
+ * each following one (under the read lock again) when the rendering asks for more rows
+ * - custom toString() method not implemented, because at no point are we working with Controller instance
+ */
+@Controller
+@Profile("reactive")
+public class ReactiveDBController {
+    /**
+     * number of rows of the table card rendered (and flushed) at once
+     */
+    private static final int ENTRIES_BUFFER_SIZE = 100;
+
+    /**
+     * non-blocking access to the database
+     */
+    private final ReactiveDBService reactiveDBService;
+
+    /**
+     * default number of entries displayed in one page in browse card (one page in paging)
+     */
+    private final int pageLength; // can't be less than 1
+
+    /**
+     * maximal number of entries of one page the client may ask for (url parameter "size")
+     */
+    private final int maxPageLength;
+
+    /**
+     * number of entries read from the database at once
+     */
+    private final int chunkSize;
+
+    /**
+     * reads up to maxLength entries of the page's query from the given index
+     */
+    @FunctionalInterface
+    private interface ChunkReader {
+        /**
+         * reads one chunk - has to be called under the read lock
+         * @param startIndex index (among the entries of the query) of the first entry
+         * @param maxLength maximal number of read entries
+         * @return copies of the entries, fewer than maxLength at the end of the query
+         */
+        ArrayList<Food> read(int startIndex, int maxLength);
+    }
+
+    /**
+     * Content of the page read from the database under one read lock
+     * @param entries first chunk of the entries of the table card, null if nothing is shown
+     * @param pageIndex index of the shown page
+     * @param numberOfPages total number of pages
+     * @param selectedFood copy of the selected entry, null if none is selected or found
+     * @param queryPlan plan of the filter query, null if no query was given
+     * @param sequence sequence number of the database state the first chunk was read at
+     * @param length number of entries of the page
+     * @param query query of the page as a filter query (reads the following chunks), null for all entries
+     */
+    private record PageContent(ArrayList<Food> entries, int pageIndex, int numberOfPages,
+                               Food selectedFood, String queryPlan,
+                               long sequence, int length, FilterQuery query) {
+    }
+
+    /**
+     * constructor (Spring uses it in dependency injection)
+     * @param pageLength initialization value for controllers pageLength
+     * @param maxPageLength maximal number of entries of one page
+     * @param chunkSize number of entries read from the database at once
+     * @param reactiveDBService non-blocking access to the database
+     */
+    public ReactiveDBController(@Qualifier("getPageLength") int pageLength,
+                                @Value("${nutrdb.page.max-length:5000}") int maxPageLength,
+                                @Value("${nutrdb.page.chunk-size:500}") int chunkSize,
+                                @Autowired ReactiveDBService reactiveDBService) {
+        this.pageLength = pageLength;
+        this.maxPageLength = Math.max(pageLength, maxPageLength);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.reactiveDBService = reactiveDBService;
+    }
+
+    /**
+     * path prefix of the tenant's pages for the links of the templates (set by ReactiveTenantFilter)
+     * @param exchange http request and response
+     * @return prefix of the tenant's pages, empty for the default tenant
+     */
+    @ModelAttribute(TenantFilter.PREFIX_ATTRIBUTE)
+    public String tenantPrefix(ServerWebExchange exchange) {
+        return exchange.getAttributeOrDefault(TenantFilter.PREFIX_ATTRIBUTE, "");
+    }
+
+    /**
+     * returns the tenant database of the request (set by ReactiveTenantFilter)
+     * @param exchange http request and response
+     * @return tenant database
+     */
+    private static TenantDatabase tenant(ServerWebExchange exchange) {
+        return exchange.getRequiredAttribute(ReactiveTenantFilter.TENANT_ATTRIBUTE);
+    }
+
+    /**
+     * Helper method to address index out of bounds in paging
+     * @param index paging index
+     * @param upperBound upper bound exclusive
+     * @return new paging index value
+     */
+    private int adjustIndexOutOfBounds(int index, int upperBound) {
+        if (index < 0) {
+            index = 0;
+        } else if (index >= upperBound) {
+            index = upperBound - 1;
+        }
+
+        return index;
+    }
+
+    /**
+     * Helper method to compute how many views will be in browsing card
+     * (for pagination)
+     * @param numberOfEntitiesToBrowse number of entities that can be browsed through
+     * @param length number of entries of one page
+     * @return number of views
+     */
+    private int computeNumberOfPages(int numberOfEntitiesToBrowse, int length) {
+        return numberOfEntitiesToBrowse == 0
+                ? 1
+                : (int) Math.ceil((double) numberOfEntitiesToBrowse / length);
+    }
+
+    /**
+     * Validation of the page length requested by the client (url parameter "size", see DBController)
+     * @param pageSize requested number of entries of one page, null for the default
+     * @param model contains variables displayed by the templates
+     * @return number of entries of one page
+     */
+    private int validatePageLength(String pageSize, Model model) {
+        if (pageSize == null || pageSize.isBlank())
+            return pageLength;
+
+        int length;
+        try {
+            length = Integer.parseInt(pageSize.trim());
+            if (length < 1)
+                throw new IllegalArgumentException();
+        } catch (IllegalArgumentException e) {
+            model.addAttribute("uRLParameterError", "Illegal URL argument value");
+            return pageLength;
+        }
+        length = Math.min(length, maxPageLength);
+        model.addAttribute("pageSize", length);
+        return length;
+    }
+
+    /**
+     * Reads the first chunk of a page of entries and the selected entry - has to be called under the read lock
+     * @param dbService database service
+     * @param numberOfEntries number of entries that can be browsed through
+     * @param pageIndex requested page index (adjusted to the bounds)
+     * @param length number of entries of one page
+     * @param reader query of the page (reads the first chunk)
+     * @param query the same query as a filter query (reads the following chunks), null for all entries
+     * @param selectedID id of the selected entry, may be null
+     * @param queryPlan plan of the filter query, may be null
+     * @return content of the page
+     */
+    private PageContent readPage(DBService dbService, int numberOfEntries, int pageIndex, int length,
+                                 ChunkReader reader, FilterQuery query, Integer selectedID, String queryPlan) {
+        int numberOfPages = computeNumberOfPages(numberOfEntries, length);
+        int adjustedIndex = adjustIndexOutOfBounds(pageIndex, numberOfPages);
+        int startIndex = adjustedIndex * length;
+        return new PageContent(reader.read(startIndex, Math.min(length, chunkSize)), adjustedIndex, numberOfPages,
+                dbService.showEntryById(selectedID), queryPlan,
+                dbService.getLatestChangeSequence(), length, query); // no write under the read lock
+    }
+
+    /**
+     * Streams the entries of the page - the first chunk is already read, the following ones are read
+     * when the rendering requests them, by id behind the last delivered entry in the state of the database
+     * the first chunk was read at (see ChunkedPage), so a write between two chunks can't shift the rows
+     * @param content content of the page read from the database
+     * @param tenant database of the request's tenant
+     * @return entries of the page
+     */
+    private Flux<Food> streamEntries(PageContent content, TenantDatabase tenant) {
+        Flux<Food> firstChunk = Flux.fromIterable(content.entries());
+        if (content.entries().size() < Math.min(content.length(), chunkSize)) // the query has no more entries
+            return firstChunk;
+
+        int delivered = content.entries().size();
+        int lastId = content.entries().get(delivered - 1).getFoodID();
+        return firstChunk.concatWith(Flux.defer(() -> readChunks(content, tenant, lastId,
+                content.length() - delivered)));
+    }
+
+    /**
+     * reads the following chunks of the page one after another (snapshot reads, without the read lock)
+     * @param content content of the page (query and sequence number of the first chunk)
+     * @param tenant database of the request's tenant
+     * @param afterId id of the last delivered entry
+     * @param remaining number of entries of the page not read yet
+     * @return entries of the remaining chunks
+     */
+    private Flux<Food> readChunks(PageContent content, TenantDatabase tenant, int afterId, int remaining) {
+        if (remaining <= 0)
+            return Flux.empty();
+
+        int length = Math.min(chunkSize, remaining);
+        return reactiveDBService.call(tenant, () -> reactiveDBService.getDBService()
+                        .showEntriesAfter(content.sequence(), content.query(), afterId, length))
+                .flatMapMany(chunk -> Flux.fromIterable(chunk).concatWith(chunk.size() < length
+                        ? Flux.empty() // the query has no more entries
+                        : Flux.defer(() -> readChunks(content, tenant, chunk.get(chunk.size() - 1).getFoodID(),
+                                remaining - length))));
+    }
+
+    /**
+     * Set template attributes (in Model) and DTO, that is fill in the data for the browse card (table view)
+     * ! mutates Model and foodDTO arguments
+     * @param content content of the page read from the database
+     * @param model contains variables (attributes) that are displayed by the templates
+     * @param foodDTO food/entity data - both as intput/output
+     * @param selectedID id of entity/food currently selected by the client
+     * @param tenant database of the request's tenant (the following chunks are read from it)
+     */
+    private void setTemplateAttributes(PageContent content, Model model, FoodDTO foodDTO, Integer selectedID,
+                                       TenantDatabase tenant) {
+        // set Browsing Card attributes - the rows are streamed to the template (data-driven mode)
+        if (content.entries() != null)
+            model.addAttribute("entries",
+                    new ReactiveDataDriverContextVariable(streamEntries(content, tenant), ENTRIES_BUFFER_SIZE));
+        model.addAttribute("viewIndex", content.pageIndex());
+        model.addAttribute("numberOfViews", content.numberOfPages());
+        if (content.queryPlan() != null)
+            model.addAttribute("queryPlan", content.queryPlan()); // plan for debugging
+
+        // set Detail/edit Card attributes
+        if (selectedID != null) {
+            if (content.selectedFood() != null) { // attempt to display only if food found
+                model.addAttribute("displayDetail", true);
+                model.addAttribute("selectedID", selectedID);
+                foodDTO.setAllAttributes(content.selectedFood());
+            } else { // otherwise show status of "not found"
+                model.addAttribute("operationStatus", "Entity with id "
+                        + selectedID + " wasn't found");
+            }
+        }
+    }
+
+    /**
+     * Validation make sure that URL parameters contain numbers
+     * mutates model in the case that validation fails - to result in display of error in view
+     * @param pageIndex index of current page between parsing and validation
+     * @param selectedID food/entity id selected by the client before parsing and validation
+     * @param model contains variables displayed by the templates
+     * @return array of validated Integer parameters (page index, selected id)
+     */
+    private Integer[] validateURLParameters(String pageIndex, String selectedID, Model model) {
+        Integer[] validatedURLParameters = new Integer[2];
+        try {
+            try {
+                validatedURLParameters[0] = Math.max(0, Integer.parseInt(pageIndex));
+            } catch (IllegalArgumentException e) {
+                validatedURLParameters[0] = 0;
+                throw new IllegalArgumentException();
+            }
+
+            try {
+                if (selectedID != null && !selectedID.equals("null") && !selectedID.equals(""))
+                    validatedURLParameters[1] = Integer.parseInt(selectedID);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException e) {
+            // in any case, we let client know about the error by setting this model attribute
+            model.addAttribute("uRLParameterError", "Illegal URL argument value");
+        }
+
+        return validatedURLParameters;
+    }
+
+    /**
+     * Handler of the GET request on the URL "/" (see DBController.renderIndexPage)
+     * @param pageIndex value of url parameter indicating which page in browsing card is displayed (paging)
+     * @param selectedID food/entity id selected by the user
+     * @param pageSize number of entries of one page requested by the user
+     * @param foodDTO DTO used for transfring entity/food data between client-application (input/output)
+     * @param model Model parameter for data to be presented to the client in the template
+     * @param exchange http request and response
+     * @return Mono of the name of the html template being presented to the client
+     */
+    @GetMapping("/")
+    public Mono<String> renderIndexPage(@RequestParam(value = "view", defaultValue = "0") String pageIndex,
+                                        @RequestParam(value = "id", required = false) String selectedID,
+                                        @RequestParam(value = "size", required = false) String pageSize,
+                                        @ModelAttribute("foodDTO") FoodDTO foodDTO,
+                                        Model model,
+                                        ServerWebExchange exchange) {
+        Integer[] validatedURLParameters = validateURLParameters(pageIndex, selectedID, model);
+        int length = validatePageLength(pageSize, model);
+
+        return reactiveDBService.read(tenant(exchange), () -> {
+            DBService dbService = reactiveDBService.getDBService();
+            return readPage(dbService, dbService.getDBSize(), validatedURLParameters[0], length,
+                    dbService::showEntriesByIndexRange, null, validatedURLParameters[1], null);
+        }).map(content -> {
+            setTemplateAttributes(content, model, foodDTO, validatedURLParameters[1], tenant(exchange));
+            return "views/index";
+        });
+    }
+
+    /**
+     * Handler of the GET request on the URL "/search" (see DBController.renderSearchPage)
+     * @param pageIndex value of url parameter indicating which page in browsing card is displayed (paging)
+     * @param selectedID food/entity id selected by the user
+     * @param searchedName food/entity name searched by the user
+     * @param filter filter query written by the user
+     * @param pageSize number of entries of one page requested by the user
+     * @param foodDTO DTO used for transfring entity/food data between client-application (input/output)
+     * @param model Model parameter for data to be presented to the client in the template
+     * @param exchange http request and response
+     * @return Mono of the name of the html template being presented to the client
+     */
+    @GetMapping("/search")
+    public Mono<String> renderSearchPage(@RequestParam(value = "view", defaultValue = "0") String pageIndex,
+                                         @RequestParam(value = "id", required = false) String selectedID,
+                                         @RequestParam(value = "searchedName", required = false) String searchedName,
+                                         @RequestParam(value = "filter", required = false) String filter,
+                                         @RequestParam(value = "size", required = false) String pageSize,
+                                         @ModelAttribute("foodDTO") FoodDTO foodDTO,
+                                         Model model,
+                                         ServerWebExchange exchange) {
+        Integer[] validatedURLParameters = validateURLParameters(pageIndex, selectedID, model);
+        int length = validatePageLength(pageSize, model);
+
+        // parse the filter query (if given) before the database is accessed
+        boolean filterGiven = filter != null && !filter.isBlank();
+        FilterQuery filterQuery = null;
+        if (filterGiven) {
+            model.addAttribute("filter", filter); // extra template attribute
+            try {
+                filterQuery = reactiveDBService.getDBService().parseFilter(filter);
+            } catch (IllegalArgumentException e) {
+                model.addAttribute("inputError", e.getMessage()); // add client message about invalid query
+            }
+        }
+        if (filterQuery == null && searchedName != null && !filterGiven)
+            model.addAttribute("searchedName", searchedName); // extra template attribute
+
+        FilterQuery validFilterQuery = filterQuery;
+        return reactiveDBService.read(tenant(exchange), () -> {
+            DBService dbService = reactiveDBService.getDBService();
+            if (validFilterQuery != null) // valid filter query was given
+                return readPage(dbService, dbService.howManyEntriesOfFilter(validFilterQuery), validatedURLParameters[0], length,
+                        (startIndex, maxLength) -> dbService.showEntriesByFilter(validFilterQuery, startIndex, maxLength),
+                        validFilterQuery, validatedURLParameters[1], dbService.explainFilter(validFilterQuery).explain());
+            if (searchedName == null || filterGiven) // no name to search was given (or the query was invalid)
+                return new PageContent(null, 0, 1, dbService.showEntryById(validatedURLParameters[1]), null,
+                        0, 0, null);
+            return readPage(dbService, dbService.howManyEntriesOfName(searchedName), validatedURLParameters[0], length,
+                    (startIndex, maxLength) -> dbService.showEntriesByName(searchedName, startIndex, maxLength),
+                    DBService.similarNameQuery(searchedName), validatedURLParameters[1], null);
+        }).map(content -> {
+            setTemplateAttributes(content, model, foodDTO, validatedURLParameters[1], tenant(exchange));
+            return "views/search";
+        });
+    }
+
+    /**
+     * Handler of the GET request on the URL "/top" (see DBController.renderTopPage)
+     * @param nutrient keyword of the ranked nutrient
+     * @param perNutrient keyword of the nutrient the ranked one is related to (may be empty)
+     * @param order "desc" for the highest values first, "asc" for the lowest
+     * @param k number of foods in the ranking
+     * @param model Model parameter for data to be presented to the client in the template
+     * @param exchange http request and response
+     * @return Mono of the name of the html template being presented to the client
+     */
+    @GetMapping("/top")
+    public Mono<String> renderTopPage(@RequestParam(value = "nutrient", defaultValue = "protein") String nutrient,
+                                      @RequestParam(value = "per", defaultValue = "") String perNutrient,
+                                      @RequestParam(value = "order", defaultValue = "desc") String order,
+                                      @RequestParam(value = "k", defaultValue = "20") String k,
+                                      Model model,
+                                      ServerWebExchange exchange) {
+        // keep the form filled with the request values
+        model.addAttribute("nutrient", nutrient);
+        model.addAttribute("per", perNutrient);
+        model.addAttribute("order", order);
+        model.addAttribute("k", k);
+
+        int validatedK;
+        RankingMetric metric;
+        try {
+            try {
+                validatedK = Integer.parseInt(k);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Number of foods must be a whole number.");
+            }
+            metric = reactiveDBService.getDBService().createRankingMetric(nutrient, perNutrient, order);
+        } catch (IllegalArgumentException e) {
+            model.addAttribute("inputError", e.getMessage()); // add client message about invalid input
+            return Mono.just("views/top");
+        }
+
+        model.addAttribute("metric", metric);
+        return reactiveDBService.call(tenant(exchange), () -> reactiveDBService.getDBService().showTopEntries(metric, validatedK))
+                .map(entries -> {
+                    // a plain list - the ranking is bounded by k and the template needs its size
+                    model.addAttribute("entries", entries);
+                    return "views/top";
+                })
+                .onErrorResume(IllegalArgumentException.class, e -> {
+                    model.addAttribute("inputError", e.getMessage()); // add client message about invalid input
+                    return Mono.just("views/top");
+                });
+    }
+
+    /**
+     * Handler of the GET request on the URL "/create" (see DBController.renderCreatePage)
+     * @param selectedID food/entity id selected by the user
+     * @param pageSize number of entries of one page requested by the user
+     * @param foodDTO DTO used for transfring entity/food data between client-application (input/output)
+     * @param model Model parameter for data to be presented to the client in the template
+     * @param exchange http request and response
+     * @return Mono of the name of the html template being presented to the client
+     */
+    @GetMapping("/create")
+    public Mono<String> renderCreatePage(@RequestParam(value = "id", required = false) String selectedID,
+                                         @RequestParam(value = "size", required = false) String pageSize,
+                                         @ModelAttribute("foodDTO") FoodDTO foodDTO,
+                                         Model model,
+                                         ServerWebExchange exchange) {
+        Integer[] validatedURLParameters = validateURLParameters("0", selectedID, model);
+        int length = validatePageLength(pageSize, model);
+
+        return reactiveDBService.read(tenant(exchange), () -> {
+            DBService dbService = reactiveDBService.getDBService();
+            int numberOfEntries = dbService.getDBSize();
+            // in create page, jump to the last entries in view
+            return readPage(dbService, numberOfEntries, computeNumberOfPages(numberOfEntries, length) - 1, length,
+                    dbService::showEntriesByIndexRange, null, validatedURLParameters[1], null);
+        }).map(content -> {
+            model.addAttribute("displayDetail", true); // always display detail card for creating a new entry
+            setTemplateAttributes(content, model, foodDTO, validatedURLParameters[1], tenant(exchange));
+            return "views/create";
+        });
+    }
+
+    /**
+     * Attempts to delete entry from the database
+     * - performs mutation of model
+     * @param selectedID food/entity id selected by the user
+     * @param model Model parameter for data to be presented to the client in the template
+     * @param exchange http request and response
+     * @return completion of the deletion
+     */
+    private Mono<Void> delete(String selectedID, Model model, ServerWebExchange exchange) {
+        Integer[] validatedURLParameters = validateURLParameters("0", selectedID, model);
+
+        return reactiveDBService.write(tenant(exchange),
+                        () -> reactiveDBService.getDBService().submitDelete(validatedURLParameters[1]))
+                .doOnNext(found -> model.addAttribute("operationStatus", found
+                        ? "Entity with id " + selectedID + " deleted"
+                        : "Attempt to delete entity with non-existent id " + selectedID))
+                .onErrorResume(IllegalStateException.class, e -> {
+                    model.addAttribute("inputError", e.getMessage()); // add client message about read-only replica
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * Handler of the DELETE request on the index page "/"
+     * @param pageIndex value of url parameter indicating which page in browsing card is displayed (paging)
+     * @param selectedID food/entity id selected by the user
+     * @param pageSize number of entries of one page requested by the user
+     * @param foodDTO DTO used for transfring entity/food data between client-application (input/output)
+     * @param model Model parameter for data to be presented to the client in the template
+     * @param exchange http request and response
+     * @return Mono of the name of html template
+     */
+    @DeleteMapping("/")
+    public Mono<String> deleteAtIndexPage(@RequestParam(value = "view", defaultValue = "0") String pageIndex,
+                                          @RequestParam(value = "id", required = false) String selectedID,
+                                          @RequestParam(value = "size", required = false) String pageSize,
+                                          @ModelAttribute("foodDTO") FoodDTO foodDTO,
+                                          Model model,
+                                          ServerWebExchange exchange) {
+        // selectedID changes to null because it has been deleted (if it even existed before)
+        return delete(selectedID, model, exchange)
+                .then(Mono.defer(() -> renderIndexPage(pageIndex, null, pageSize, foodDTO, model, exchange)));
+    }
+
+    /**
+     * Handler of the DELETE request on the search page "/search"
+     * @param pageIndex value of url parameter indicating which page in browsing card is displayed (paging)
+     * @param selectedID food/entity id selected by the user
+     * @param searchedName food/entity name searched by the user
+     * @param filter filter query written by the user
+     * @param pageSize number of entries of one page requested by the user
+     * @param foodDTO DTO used for transfring entity/food data between client-application (input/output)
+     * @param model Model parameter for data to be presented to the client in the template
+     * @param exchange http request and response
+     * @return Mono of the name of html template
+     */
+    @DeleteMapping("/search")
+    public Mono<String> deleteAtSearchPage(@RequestParam(value = "view", defaultValue = "0") String pageIndex,
+                                           @RequestParam(value = "id", required = false) String selectedID,
+                                           @RequestParam(value = "searchedName", required = false) String searchedName,
+                                           @RequestParam(value = "filter", required = false) String filter,
+                                           @RequestParam(value = "size", required = false) String pageSize,
+                                           @ModelAttribute("foodDTO") FoodDTO foodDTO,
+                                           Model model,
+                                           ServerWebExchange exchange) {
+        return delete(selectedID, model, exchange)
+                .then(Mono.defer(() -> renderSearchPage(pageIndex, null, searchedName, filter, pageSize, foodDTO, model, exchange)));
+    }
+
+    /**
+     * Attempts to update database entity
+     * - mutates model
+     * @param selectedID food/entity id selected by the user
+     * @param foodDTO DTO used for transfring entity/food data between client-application (input/output)
+     * @param model Model parameter for data to be presented to the client in the template
+     * @param exchange http request and response
+     * @return completion of the update
+     */
+    private Mono<Void> update(String selectedID, FoodDTO foodDTO, Model model, ServerWebExchange exchange) {
+        Integer[] validatedURLParameters = validateURLParameters("0", selectedID, model);
+
+        return reactiveDBService.write(tenant(exchange),
+                        () -> reactiveDBService.getDBService().submitUpdate(validatedURLParameters[1], foodDTO))
+                .doOnNext(found -> model.addAttribute("operationStatus", found
+                        ? "Entity with id " + selectedID + " updated"
+                        : "Attempt to update entity with non-existent id " + selectedID))
+                .onErrorResume(e -> e instanceof IllegalArgumentException || e instanceof IllegalStateException, e -> {
+                    model.addAttribute("inputError", e.getMessage()); // add client message about failed input validation
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * Handler of the PUT request (update) on the index page "/"
+     * @param pageIndex value of url parameter indicating which page in browsing card is displayed (paging)
+     * @param selectedID food/entity id selected by the user
+     * @param pageSize number of entries of one page requested by the user
+     * @param foodDTO DTO used for transfring entity/food data between client-application (input/output)
+     * @param model Model parameter for data to be presented to the client in the template
+     * @param exchange http request and response
+     * @return Mono of the name of html template
+     */
+    @PutMapping("/")
+    public Mono<String> updateAtIndexPage(@RequestParam(value = "view", defaultValue = "0") String pageIndex,
+                                          @RequestParam(value = "id", required = false) String selectedID,
+                                          @RequestParam(value = "size", required = false) String pageSize,
+                                          @ModelAttribute("foodDTO") FoodDTO foodDTO,
+                                          Model model,
+                                          ServerWebExchange exchange) {
+        return update(selectedID, foodDTO, model, exchange)
+                .then(Mono.defer(() -> renderIndexPage(pageIndex, selectedID, pageSize, foodDTO, model, exchange)));
+    }
+
+    /**
+     * Handler of the PUT request (update) on the search page "/search"
+     * @param pageIndex value of url parameter indicating which page in browsing card is displayed (paging)
+     * @param selectedID food/entity id selected by the user
+     * @param searchedName food/entity name searched by the user
+     * @param filter filter query written by the user
+     * @param pageSize number of entries of one page requested by the user
+     * @param foodDTO DTO used for transfring entity/food data between client-application (input/output)
+     * @param model Model parameter for data to be presented to the client in the template
+     * @param exchange http request and response
+     * @return Mono of the name of html template
+     */
+    @PutMapping("/search")
+    public Mono<String> updateAtSearchPage(@RequestParam(value = "view", defaultValue = "0") String pageIndex,
+                                           @RequestParam(value = "id", required = false) String selectedID,
+                                           @RequestParam(value = "searchedName", required = false) String searchedName,
+                                           @RequestParam(value = "filter", required = false) String filter,
+                                           @RequestParam(value = "size", required = false) String pageSize,
+                                           @ModelAttribute("foodDTO") FoodDTO foodDTO,
+                                           Model model,
+                                           ServerWebExchange exchange) {
+        return update(selectedID, foodDTO, model, exchange)
+                .then(Mono.defer(() -> renderSearchPage(pageIndex, selectedID, searchedName, filter, pageSize, foodDTO, model, exchange)));
+    }
+
+    /**
+     * Handler of the POST reuquest - creates new entity in the "database"
+     * @param pageSize number of entries of one page requested by the user
+     * @param foodDTO DTO used for transfring entity/food data between client-application (input/output)
+     * @param model Model parameter for data to be presented to the client in the template
+     * @param exchange http request and response
+     * @return Mono of the name of html template
+     */
+    @PostMapping("/create")
+    public Mono<String> createEntry(@RequestParam(value = "size", required = false) String pageSize,
+                                    @ModelAttribute("foodDTO") FoodDTO foodDTO,
+                                    Model model,
+                                    ServerWebExchange exchange) {
+        return reactiveDBService.write(tenant(exchange), () -> reactiveDBService.getDBService().submitEntry(foodDTO))
+                .doOnNext(id -> model.addAttribute("operationStatus", "New entry created with the id " + id))
+                .onErrorResume(e -> e instanceof IllegalArgumentException || e instanceof IllegalStateException, e -> {
+                    model.addAttribute("inputError", e.getMessage()); // add client message about failed input validation
+                    return Mono.empty();
+                })
+                .then(Mono.defer(() -> {
+                    // clean the DTO after the new entry has been saved, otherwise the data will stay in the form
+                    foodDTO.resetAllAttributes();
+                    // no detail of item should be displayed
+                    return renderCreatePage(null, pageSize, foodDTO, model, exchange);
+                }));
+    }
+}
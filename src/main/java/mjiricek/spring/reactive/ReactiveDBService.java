@@ -0,0 +1,129 @@
+package mjiricek.spring.reactive;
+
+import mjiricek.spring.models.DBService;
+import mjiricek.spring.models.TenantContext;
+import mjiricek.spring.models.TenantDatabase;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking access to DBService for the reactive controllers
+ * - the storage engines are blocking (locks, JDBC), so every database call is run on the storage scheduler
+ * and the caller gets a Mono - the event loop thread never waits for a lock or a query
+ * - the call runs with the tenant of the request in TenantContext (set and cleared on the scheduler's thread)
+ * - the page lock of the tenant (see DBController) is taken and released inside one task, on the same thread
+ * - writes in the asynchronous write mode don't occupy a thread of the scheduler while they wait in the
+ * write-behind queue, the Mono completes when the applier thread completes their future
+ */
+@Service
+@Profile("reactive")
+public class ReactiveDBService {
+    /**
+     * blocking database service
+     */
+    private final DBService dbService;
+
+    /**
+     * scheduler the database calls run on
+     */
+    private final Scheduler storageScheduler;
+
+    /**
+     * constructor (Spring uses it in dependency injection)
+     * @param dbService blocking database service
+     * @param storageScheduler scheduler the database calls run on
+     */
+    public ReactiveDBService(@Autowired DBService dbService,
+                             @Qualifier("createStorageScheduler") Scheduler storageScheduler) {
+        this.dbService = dbService;
+        this.storageScheduler = storageScheduler;
+    }
+
+    /**
+     * returns the blocking service - its methods may be called only inside the suppliers passed to this class
+     * @return database service
+     */
+    public DBService getDBService() {
+        return dbService;
+    }
+
+    /**
+     * Runs a database call without the page lock (single operations of the API)
+     * @param tenant database of the request's tenant
+     * @param call database call
+     * @return Mono of the result (empty if the call returned null)
+     * @param <T> type of the result
+     */
+    public <T> Mono<T> call(TenantDatabase tenant, Supplier<T> call) {
+        return Mono.fromSupplier(() -> inTenant(tenant, call))
+                .subscribeOn(storageScheduler);
+    }
+
+    /**
+     * Runs a sequence of reads of a page under the read lock of the tenant's pages
+     * @param tenant database of the request's tenant
+     * @param reads reads of the page
+     * @return Mono of the result
+     * @param <T> type of the result
+     */
+    public <T> Mono<T> read(TenantDatabase tenant, Supplier<T> reads) {
+        return call(tenant, () -> {
+            Lock lock = dbService.getPageLock().readLock();
+            lock.lock(); // start of synchronized code block (read)
+            try {
+                return reads.get();
+            } finally {
+                lock.unlock(); // end of synchronized code block (read)
+            }
+        });
+    }
+
+    /**
+     * Submits a write (DBService.submitEntry, submitUpdate, submitDelete) under the write lock of the tenant's pages
+     * - not in the asynchronous write mode: the writes are applied by the applier thread
+     * (outside of this lock anyway), the lock would be held only while the write is queued
+     * @param tenant database of the request's tenant
+     * @param write submission of the write
+     * @return Mono of the result of the applied write
+     * (IllegalArgumentException / IllegalStateException with message for the user as its error)
+     * @param <T> type of the result
+     */
+    public <T> Mono<T> write(TenantDatabase tenant, Supplier<CompletableFuture<T>> write) {
+        return call(tenant, () -> {
+            boolean locked = !dbService.isWriteBehind();
+            Lock lock = dbService.getPageLock().writeLock();
+            if (locked)
+                lock.lock(); // start of synchronized code block (write)
+            try {
+                return write.get();
+            } finally {
+                if (locked)
+                    lock.unlock(); // end of synchronized code block (write)
+            }
+        }).flatMap(Mono::fromFuture);
+    }
+
+    /**
+     * runs the call with the tenant in TenantContext
+     * @param tenant database of the request's tenant
+     * @param call database call
+     * @return result of the call
+     * @param <T> type of the result
+     */
+    private static <T> T inTenant(TenantDatabase tenant, Supplier<T> call) {
+        TenantContext.set(tenant);
+        try {
+            return call.get();
+        } finally {
+            TenantContext.clear();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package mjiricek.spring.reactive;
+
+import mjiricek.spring.controllers.StaticResourceCacheInterceptor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.resource.ResourceUrlProvider;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive counterpart of StaticResourceCacheInterceptor and of the link rewriting Spring MVC does for the templates
+ * - the links of the static resources built by Thymeleaf (@{/css/styles.css}) are replaced by their
+ * fingerprinted URLs (/css/styles-<md5>.css) of the resource chain
+ * - the static resources get the same Cache-Control as in the servlet variant
+ */
+@Component
+@Profile("reactive")
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class ReactiveStaticResourceFilter implements WebFilter {
+    /**
+     * resolver of the fingerprinted URLs (resource chain of Spring WebFlux)
+     */
+    private final ResourceUrlProvider resourceUrlProvider;
+
+    /**
+     * constructor (Spring uses it in dependency injection)
+     * @param resourceUrlProvider resolver of the fingerprinted URLs
+     */
+    public ReactiveStaticResourceFilter(ResourceUrlProvider resourceUrlProvider) {
+        this.resourceUrlProvider = resourceUrlProvider;
+    }
+
+    /**
+     * registers the link rewriting of the request and sets Cache-Control of a static resource
+     * @param exchange http request and response
+     * @param chain rest of the filters and the handlers
+     * @return completion of the request
+     */
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        String path = exchange.getRequest().getPath().pathWithinApplication().value();
+        if (isStaticResource(path))
+            exchange.getResponse().getHeaders().set(HttpHeaders.CACHE_CONTROL,
+                    StaticResourceCacheInterceptor.cacheControlFor(path));
+        else
+            exchange.addUrlTransformer(url -> fingerprinted(url, exchange));
+        return chain.filter(exchange);
+    }
+
+    /**
+     * returns fingerprinted URL of a static resource link
+     * - the transformer has to answer right away: once the resource chain has cached the resolved resource,
+     * the Mono is complete on subscription; before that (the first pages after the start) the plain URL is used,
+     * which works too, the browser only revalidates it
+     * @param url link built by the template
+     * @param exchange http request and response
+     * @return fingerprinted URL, or the link itself if it isn't a static resource
+     */
+    private String fingerprinted(String url, ServerWebExchange exchange) {
+        if (!isStaticResource(url))
+            return url;
+
+        String resolved = resourceUrlProvider.getForUriString(url, exchange).toFuture().getNow(null);
+        return resolved != null ? resolved : url;
+    }
+
+    /**
+     * decides whether the path belongs to a static resource (see StaticResourceCacheInterceptor.PATH_PATTERNS)
+     * @param path path of the request or of the link
+     * @return true for css and js files
+     */
+    private static boolean isStaticResource(String path) {
+        return path.startsWith("/css/") || path.startsWith("/js/");
+    }
+}
@@ -0,0 +1,100 @@
+package mjiricek.spring.reactive;
+
+import mjiricek.spring.controllers.TenantFilter;
+import mjiricek.spring.models.TenantDatabase;
+import mjiricek.spring.models.TenantRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+
+/**
+ * Reactive counterpart of TenantFilter - selects the tenant database of every request
+ * - path prefix /t/{tenant}/... selects the tenant and the rest of the path is passed to the controllers,
+ * otherwise header X-Tenant selects it, without both the default tenant is used
+ * - the tenant is held until the response is written and is passed to the controllers
+ * in the exchange attribute TENANT_ATTRIBUTE (there is no request thread to keep it in TenantContext,
+ * ReactiveDBService sets TenantContext on the thread doing the database work)
+ * - the prefix of the tenant's pages is put in the exchange attribute "tenantPrefix"
+ * - runs after the filter of the hidden http methods (lowest precedence)
+ */
+@Component
+@Profile("reactive")
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class ReactiveTenantFilter implements WebFilter {
+    /**
+     * path prefix selecting the tenant
+     */
+    private static final String PATH_PREFIX = "/t/";
+
+    /**
+     * exchange attribute with the TenantDatabase of the request
+     */
+    public static final String TENANT_ATTRIBUTE = ReactiveTenantFilter.class.getName() + ".tenant";
+
+    /**
+     * registry of the tenant databases
+     */
+    private final TenantRegistry tenantRegistry;
+
+    /**
+     * constructor (Spring uses it in dependency injection)
+     * @param tenantRegistry registry of the tenant databases
+     */
+    public ReactiveTenantFilter(@Qualifier("createTenantRegistry") TenantRegistry tenantRegistry) {
+        this.tenantRegistry = tenantRegistry;
+    }
+
+    /**
+     * selects the tenant, handles the request with it and releases it after the response
+     * @param exchange http request and response
+     * @param chain rest of the filters and the controllers
+     * @return completion of the request
+     */
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        String path = exchange.getRequest().getPath().pathWithinApplication().value();
+        String tenantId = exchange.getRequest().getHeaders().getFirst(TenantFilter.TENANT_HEADER);
+        String prefix = "";
+        if (path.startsWith(PATH_PREFIX)) {
+            int end = path.indexOf('/', PATH_PREFIX.length());
+            if (end < 0) { // relative links of the pages need the trailing slash
+                exchange.getResponse().setStatusCode(HttpStatus.FOUND);
+                exchange.getResponse().getHeaders().setLocation(URI.create(exchange.getRequest().getPath().value() + "/"));
+                return exchange.getResponse().setComplete();
+            }
+            tenantId = path.substring(PATH_PREFIX.length(), end);
+            prefix = PATH_PREFIX + tenantId;
+            String forwardPath = path.substring(end);
+            exchange = exchange.mutate().request(request -> request.path(forwardPath)).build();
+        }
+        if (tenantId == null || tenantId.isEmpty())
+            tenantId = TenantRegistry.DEFAULT_TENANT;
+
+        if (!TenantRegistry.isValidTenantId(tenantId))
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, TenantRegistry.invalidTenantIdMessage(tenantId)));
+
+        TenantDatabase database;
+        try {
+            database = tenantRegistry.acquire(tenantId);
+        } catch (IllegalStateException e) { // all resident tenants are in use
+            exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER, TenantFilter.TENANT_RETRY_AFTER_SECONDS);
+            return Mono.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage()));
+        }
+
+        exchange.getAttributes().put(TENANT_ATTRIBUTE, database);
+        exchange.getAttributes().put(TenantFilter.PREFIX_ATTRIBUTE, prefix);
+        return chain.filter(exchange)
+                .doFinally(signal -> tenantRegistry.release(database));
+    }
+}
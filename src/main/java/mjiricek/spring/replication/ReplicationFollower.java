@@ -0,0 +1,230 @@
+package mjiricek.spring.replication;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import mjiricek.spring.models.ChangeEvent;
+import mjiricek.spring.models.DBSnapshot;
+import mjiricek.spring.models.StorageEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Follower of the replication (active with nutrdb.replication.role=follower)
+ * - keeps a read-only copy of the leader's database: connects to the leader, sends the sequence number
+ * of the last applied change and applies the streamed changes (or a snapshot) in the leader's order
+ * - the changes are applied through the same write lock as local writes, so readers of the follower
+ * always see a state the leader had at some moment (never a half-applied change)
+ * - remembers the epoch of the leader its state comes from; a restarted leader (new epoch) sends a snapshot
+ * instead of continuing with changes of its new history
+ * - reconnects with growing backoff when the leader isn't reachable
+ */
+@Component
+@ConditionalOnProperty(name = "nutrdb.replication.role", havingValue = "follower")
+public class ReplicationFollower implements ReplicationStatusProvider {
+    /**
+     * the connection is considered dead if nothing (not even a heartbeat) came for this long
+     */
+    private static final int READ_TIMEOUT_MILLIS = (int) (3 * ReplicationLeader.HEARTBEAT_MILLIS);
+
+    /**
+     * bounds of the reconnect backoff
+     */
+    private static final long MIN_BACKOFF_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicationFollower.class);
+
+    /**
+     * local copy of the database
+     */
+    private final StorageEngine storageEngine;
+
+    /**
+     * address of the leader
+     */
+    private final String leaderHost;
+    private final int leaderPort;
+
+    /**
+     * replication state (written by the replication thread, read by the status)
+     */
+    private volatile boolean connected;
+    private volatile long leaderEpoch = ReplicationProtocol.NO_EPOCH;
+    private volatile long leaderSequence;
+    private volatile long lastApplyDelayMillis;
+    private volatile long lastMessageMillis;
+    private volatile int snapshotsLoaded;
+    private volatile int reconnects;
+
+    /**
+     * thread running the replication
+     */
+    private final Thread replicationThread;
+
+    /**
+     * currently open connection (closed on stop to wake the replication thread)
+     */
+    private volatile Socket socket;
+    private volatile boolean running = true;
+
+    /**
+     * constructor (Spring uses it in dependency injection)
+     * @param storageEngine local copy of the database
+     * @param leader address of the leader in form host:port
+     */
+    public ReplicationFollower(@Qualifier("createStorageEngine") StorageEngine storageEngine,
+                               @Value("${nutrdb.replication.leader:localhost:7070}") String leader) {
+        int colon = leader.lastIndexOf(':');
+        if (colon <= 0)
+            throw new IllegalArgumentException("nutrdb.replication.leader has to be in form host:port, got: " + leader);
+        this.storageEngine = storageEngine;
+        this.leaderHost = leader.substring(0, colon);
+        this.leaderPort = Integer.parseInt(leader.substring(colon + 1));
+        this.replicationThread = new Thread(this::replicate, "replication-follower");
+        this.replicationThread.setDaemon(true);
+    }
+
+    /**
+     * starts following the leader
+     */
+    @PostConstruct
+    public void start() {
+        replicationThread.start();
+    }
+
+    /**
+     * keeps the connection to the leader (reconnecting with backoff) until stopped
+     */
+    private void replicate() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (running) {
+            try {
+                followLeader();
+                backoff = MIN_BACKOFF_MILLIS; // the connection worked, next failure starts from scratch
+            } catch (IOException | IllegalStateException e) {
+                // IllegalStateException: a change didn't follow the local log - reconnecting resynchronizes us
+                if (running)
+                    LOGGER.info("Replication from {}:{} interrupted: {}", leaderHost, leaderPort, e.getMessage());
+            } finally {
+                connected = false;
+            }
+            if (!running)
+                return;
+            reconnects++;
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    /**
+     * one connection to the leader - applies received records until the connection fails
+     * @throws IOException if the connection fails or the leader sends something unexpected
+     */
+    private void followLeader() throws IOException {
+        try (Socket s = new Socket()) {
+            socket = s;
+            s.connect(new InetSocketAddress(leaderHost, leaderPort), READ_TIMEOUT_MILLIS);
+            s.setSoTimeout(READ_TIMEOUT_MILLIS);
+            s.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024));
+
+            out.writeInt(ReplicationProtocol.MAGIC);
+            out.writeLong(leaderEpoch);
+            out.writeLong(storageEngine.getChangeLog().getLatestSequence());
+            out.flush();
+            long connectedEpoch = in.readLong(); // leader sends a snapshot first if it differs from ours
+            connected = true;
+            LOGGER.info("Following leader {}:{} from sequence {}", leaderHost, leaderPort,
+                    storageEngine.getChangeLog().getLatestSequence());
+
+            while (running) {
+                byte type = in.readByte();
+                lastMessageMillis = System.currentTimeMillis();
+                switch (type) {
+                    case ReplicationProtocol.SNAPSHOT -> {
+                        DBSnapshot snapshot = ReplicationProtocol.readSnapshot(in);
+                        storageEngine.loadSnapshot(snapshot);
+                        leaderEpoch = connectedEpoch; // the state comes from this leader's history now
+                        snapshotsLoaded++;
+                        LOGGER.info("Loaded snapshot at sequence {} ({} rows)", snapshot.getSequence(), snapshot.getRows().size());
+                    }
+                    case ReplicationProtocol.CHANGE -> {
+                        if (leaderEpoch != connectedEpoch)
+                            throw new IOException("Change of leader epoch " + connectedEpoch + " before its snapshot");
+                        ChangeEvent event = ReplicationProtocol.readChange(in);
+                        storageEngine.applyChange(event);
+                        lastApplyDelayMillis = System.currentTimeMillis() - event.getTimestamp();
+                    }
+                    case ReplicationProtocol.HEARTBEAT -> {
+                        leaderSequence = in.readLong();
+                        in.readLong(); // leader's clock, not needed yet
+                    }
+                    default -> throw new IOException("Unknown replication record type " + type);
+                }
+            }
+        } finally {
+            socket = null;
+        }
+    }
+
+    /**
+     * returns current state of the replication
+     * @return role, leader address and lag metrics
+     */
+    @Override
+    public Map<String, Object> getReplicationStatus() {
+        long appliedSequence = storageEngine.getChangeLog().getLatestSequence();
+        long knownLeaderSequence = Math.max(leaderSequence, appliedSequence);
+        long lastMessage = lastMessageMillis;
+
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("role", "follower");
+        status.put("leader", leaderHost + ":" + leaderPort);
+        status.put("connected", connected);
+        status.put("leaderEpoch", leaderEpoch);
+        status.put("appliedSequence", appliedSequence);
+        status.put("leaderSequence", knownLeaderSequence);
+        status.put("lagChanges", knownLeaderSequence - appliedSequence);
+        status.put("lastApplyDelayMillis", lastApplyDelayMillis);
+        status.put("millisSinceLastMessage", lastMessage == 0 ? null : System.currentTimeMillis() - lastMessage);
+        status.put("snapshotsLoaded", snapshotsLoaded);
+        status.put("reconnects", reconnects);
+        return status;
+    }
+
+    /**
+     * stops following the leader
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        replicationThread.interrupt();
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                LOGGER.warn("Closing replication connection failed", e);
+            }
+        }
+    }
+}
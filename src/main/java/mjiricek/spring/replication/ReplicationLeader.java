@@ -0,0 +1,236 @@
+package mjiricek.spring.replication;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import mjiricek.spring.models.ChangeEvent;
+import mjiricek.spring.models.ChangeLog;
+import mjiricek.spring.models.DBSnapshot;
+import mjiricek.spring.models.StorageEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Leader of the replication (active with nutrdb.replication.role=leader)
+ * - listens on a local TCP port, every connected follower gets its own sender thread
+ * - the sender streams the change log of the database from the follower's position (write-ahead log shipping);
+ * if the position is no longer in the change log, ahead of it, or from another epoch (the history of a leader
+ * before its restart - the in-memory change log starts again, so the same sequence numbers mean other changes),
+ * it sends a snapshot of the whole table first
+ * - a slow follower only delays its own sender, the writers of the database never wait for followers
+ */
+@Component
+@ConditionalOnProperty(name = "nutrdb.replication.role", havingValue = "leader")
+public class ReplicationLeader implements ReplicationStatusProvider {
+    /**
+     * how long an idle sender waits for new changes before sending a heartbeat
+     */
+    static final long HEARTBEAT_MILLIS = 1000;
+
+    /**
+     * maximal number of changes sent in one batch (between flushes)
+     */
+    private static final int BATCH_SIZE = 512;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicationLeader.class);
+
+    /**
+     * replicated database
+     */
+    private final StorageEngine storageEngine;
+
+    /**
+     * listening port and address
+     */
+    private final int port;
+    private final String bindAddress;
+
+    /**
+     * epoch of this leader - chosen at its start, the followers of a previous run get a snapshot
+     */
+    private final long epoch = ReplicationProtocol.newEpoch();
+
+    /**
+     * currently connected followers
+     */
+    private final Set<FollowerConnection> followers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * listening socket (created on start)
+     */
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * constructor (Spring uses it in dependency injection)
+     * @param storageEngine replicated database
+     * @param port TCP port the followers connect to
+     * @param bindAddress address to listen on (loopback by default - followers on the same machine)
+     */
+    public ReplicationLeader(@Qualifier("createStorageEngine") StorageEngine storageEngine,
+                             @Value("${nutrdb.replication.port:7070}") int port,
+                             @Value("${nutrdb.replication.bind-address:127.0.0.1}") String bindAddress) {
+        this.storageEngine = storageEngine;
+        this.port = port;
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * starts listening for followers
+     * @throws IOException if the port can't be opened
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getByName(bindAddress));
+        Thread acceptor = new Thread(this::acceptFollowers, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOGGER.info("Replication leader listening on {}:{}", bindAddress, port);
+    }
+
+    /**
+     * accepts followers until the socket is closed
+     */
+    private void acceptFollowers() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread sender = new Thread(() -> serveFollower(socket), "replication-sender-" + socket.getRemoteSocketAddress());
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed())
+                    LOGGER.warn("Accepting replication follower failed", e);
+            }
+        }
+    }
+
+    /**
+     * Sends the change log (and snapshots when needed) to one follower until it disconnects
+     * @param socket connection to the follower
+     */
+    private void serveFollower(Socket socket) {
+        FollowerConnection follower = new FollowerConnection(String.valueOf(socket.getRemoteSocketAddress()));
+        followers.add(follower);
+        ChangeLog changeLog = storageEngine.getChangeLog();
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024))) {
+            socket.setTcpNoDelay(true);
+            if (in.readInt() != ReplicationProtocol.MAGIC)
+                throw new IOException("Not a replication follower");
+            long followerEpoch = in.readLong();
+            long cursor = in.readLong();
+            out.writeLong(epoch);
+            out.flush();
+            // another history (or one the leader doesn't have) can't be continued by changes
+            boolean resync = followerEpoch != epoch || cursor > changeLog.getLatestSequence();
+            LOGGER.info("Follower {} connected at sequence {}{}", follower.address, cursor,
+                    resync ? " of another history, resynchronizing" : "");
+
+            while (!socket.isClosed()) {
+                List<ChangeEvent> events = resync ? null : changeLog.readAfter(cursor, BATCH_SIZE);
+                if (events == null) { // follower's position isn't in the log (anymore) - catch up from a snapshot
+                    DBSnapshot snapshot = storageEngine.takeSnapshot();
+                    out.writeByte(ReplicationProtocol.SNAPSHOT);
+                    ReplicationProtocol.writeSnapshot(out, snapshot);
+                    cursor = snapshot.getSequence();
+                    resync = false;
+                    follower.snapshotsSent++;
+                    LOGGER.info("Snapshot at sequence {} sent to follower {}", cursor, follower.address);
+                    continue;
+                }
+
+                for (ChangeEvent event : events) {
+                    out.writeByte(ReplicationProtocol.CHANGE);
+                    ReplicationProtocol.writeChange(out, event);
+                    cursor = event.getSequence();
+                }
+                follower.sentSequence = cursor;
+
+                if (events.isEmpty() && changeLog.awaitAfter(cursor, HEARTBEAT_MILLIS))
+                    continue; // new changes arrived, send them right away
+
+                // heartbeat after every batch (and every second when idle) - lets the follower compute its lag
+                out.writeByte(ReplicationProtocol.HEARTBEAT);
+                out.writeLong(changeLog.getLatestSequence());
+                out.writeLong(System.currentTimeMillis());
+                out.flush();
+            }
+        } catch (IOException e) {
+            LOGGER.info("Follower {} disconnected: {}", follower.address, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.remove(follower);
+        }
+    }
+
+    /**
+     * returns current state of the replication
+     * @return role, port and positions of the connected followers
+     */
+    @Override
+    public Map<String, Object> getReplicationStatus() {
+        long latestSequence = storageEngine.getChangeLog().getLatestSequence();
+        List<Map<String, Object>> followerStates = new ArrayList<>();
+        for (FollowerConnection follower : followers) {
+            Map<String, Object> state = new LinkedHashMap<>();
+            state.put("address", follower.address);
+            state.put("sentSequence", follower.sentSequence);
+            state.put("lagChanges", latestSequence - follower.sentSequence);
+            state.put("snapshotsSent", follower.snapshotsSent);
+            followerStates.add(state);
+        }
+
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("role", "leader");
+        status.put("address", bindAddress + ":" + port);
+        status.put("epoch", epoch);
+        status.put("latestSequence", latestSequence);
+        status.put("followers", followerStates);
+        return status;
+    }
+
+    /**
+     * stops listening (connected followers are disconnected when the application exits)
+     */
+    @PreDestroy
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            LOGGER.warn("Closing replication socket failed", e);
+        }
+    }
+
+    /**
+     * State of one connected follower (written by its sender thread, read by the status)
+     */
+    private static final class FollowerConnection {
+        private final String address;
+        private volatile long sentSequence;
+        private volatile int snapshotsSent;
+
+        private FollowerConnection(String address) {
+            this.address = address;
+        }
+    }
+}
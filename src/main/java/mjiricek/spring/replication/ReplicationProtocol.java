@@ -0,0 +1,187 @@
+package mjiricek.spring.replication;
+
+import mjiricek.spring.models.ChangeEvent;
+import mjiricek.spring.models.DBSnapshot;
+import mjiricek.spring.models.entities.Food;
+import mjiricek.spring.models.entities.FoodData;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Binary protocol of the replication stream between leader and follower
+ * - follower opens the connection and sends MAGIC, the epoch of the leader its state comes from
+ * (NO_EPOCH if it has none yet) and the sequence number of its last applied change
+ * - leader answers with its own epoch (random number chosen at its start - sequence numbers of another epoch
+ * belong to another history, e.g. of the leader before its restart, and can't be continued)
+ * and then with a stream of records, each starting with one byte of its type:
+ *   SNAPSHOT  - whole table (when the follower's epoch differs, its position is ahead of the leader's log
+ *               or no longer in it); the follower takes the leader's epoch once the snapshot is loaded
+ *   CHANGE    - one change of the change log, in the order of sequence numbers
+ *   HEARTBEAT - latest sequence number and clock of the leader (for measuring the lag)
+ * - snapshot files (evicted tenants, seed snapshot) contain MAGIC and a snapshot record
+ * - all methods are static, the protocol has no state of its own
+ */
+public final class ReplicationProtocol {
+    /**
+     * first int sent by the follower (protects against connecting to something else than a leader)
+     */
+    public static final int MAGIC = 0x4E555452; // "NUTR"
+
+    /**
+     * epoch sent by a follower that hasn't loaded anything from a leader yet
+     */
+    public static final long NO_EPOCH = 0;
+
+    /**
+     * types of the records sent by the leader
+     */
+    public static final byte SNAPSHOT = 1;
+    public static final byte CHANGE = 2;
+    public static final byte HEARTBEAT = 3;
+
+    /**
+     * no instances - utility class
+     */
+    private ReplicationProtocol() {
+    }
+
+    /**
+     * chooses a new epoch of a leader
+     * @return random epoch, never NO_EPOCH
+     */
+    public static long newEpoch() {
+        long epoch;
+        do {
+            epoch = ThreadLocalRandom.current().nextLong();
+        } while (epoch == NO_EPOCH);
+        return epoch;
+    }
+
+    /**
+     * writes snapshot record (without the type byte)
+     * @param out output stream
+     * @param snapshot snapshot of the table
+     * @throws IOException if writing fails
+     */
+    public static void writeSnapshot(DataOutputStream out, DBSnapshot snapshot) throws IOException {
+        out.writeLong(snapshot.getSequence());
+        out.writeInt(snapshot.getNextID());
+        out.writeInt(snapshot.getRows().size());
+        for (Food food : snapshot.getRows())
+            writeFood(out, food);
+    }
+
+    /**
+     * reads snapshot record (after the type byte)
+     * @param in input stream
+     * @return read snapshot
+     * @throws IOException if reading fails
+     */
+    public static DBSnapshot readSnapshot(DataInputStream in) throws IOException {
+        long sequence = in.readLong();
+        int nextID = in.readInt();
+        int size = in.readInt();
+        List<Food> rows = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            rows.add(readFood(in));
+
+        return new DBSnapshot(sequence, nextID, rows);
+    }
+
+    /**
+     * writes snapshot file (MAGIC and the snapshot record), the file is replaced atomically
+     * @param file path of the file
+     * @param snapshot snapshot of the table
+     * @throws IOException if writing fails
+     */
+    public static void writeSnapshotFile(Path file, DBSnapshot snapshot) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            writeSnapshot(out, snapshot);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * reads snapshot file written by writeSnapshotFile
+     * @param file path of the file
+     * @return read snapshot
+     * @throws IOException if reading fails or the file isn't a snapshot file
+     */
+    public static DBSnapshot readSnapshotFile(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a snapshot file: " + file);
+            return readSnapshot(in);
+        }
+    }
+
+    /**
+     * writes change record (without the type byte)
+     * @param out output stream
+     * @param event change
+     * @throws IOException if writing fails
+     */
+    public static void writeChange(DataOutputStream out, ChangeEvent event) throws IOException {
+        out.writeLong(event.getSequence());
+        out.writeByte(event.getType().ordinal());
+        out.writeLong(event.getTimestamp());
+        writeFood(out, event.getFood());
+        out.writeBoolean(event.getPreviousFoodName() != null);
+        if (event.getPreviousFoodName() != null)
+            out.writeUTF(event.getPreviousFoodName());
+    }
+
+    /**
+     * reads change record (after the type byte)
+     * @param in input stream
+     * @return read change
+     * @throws IOException if reading fails
+     */
+    public static ChangeEvent readChange(DataInputStream in) throws IOException {
+        long sequence = in.readLong();
+        ChangeEvent.ChangeType type = ChangeEvent.ChangeType.values()[in.readByte()];
+        long timestamp = in.readLong();
+        Food food = readFood(in);
+        String previousFoodName = in.readBoolean() ? in.readUTF() : null;
+
+        return new ChangeEvent(sequence, type, timestamp, food, previousFoodName);
+    }
+
+    /**
+     * writes one food (id and all attributes)
+     * @param out output stream
+     * @param food written food
+     * @throws IOException if writing fails
+     */
+    private static void writeFood(DataOutputStream out, Food food) throws IOException {
+        out.writeInt(food.getFoodID());
+        out.writeUTF(food.getFoodName());
+        out.writeDouble(food.getKcalContent());
+        out.writeDouble(food.getProteinContent());
+        out.writeDouble(food.getCarbContent());
+        out.writeDouble(food.getFatContent());
+    }
+
+    /**
+     * reads one food
+     * @param in input stream
+     * @return read food
+     * @throws IOException if reading fails
+     */
+    private static Food readFood(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        return new Food(id, new FoodData(in.readUTF(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble()));
+    }
+}
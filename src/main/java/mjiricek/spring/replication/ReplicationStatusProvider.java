@@ -0,0 +1,14 @@
+package mjiricek.spring.replication;
+
+import java.util.Map;
+
+/**
+ * Common interface of the leader and the follower - provides state of the replication for monitoring
+ */
+public interface ReplicationStatusProvider {
+    /**
+     * returns current state of the replication (role, positions, lag)
+     * @return state as name-value pairs (serialized to JSON by the API)
+     */
+    Map<String, Object> getReplicationStatus();
+}
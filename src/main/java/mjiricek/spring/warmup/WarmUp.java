@@ -0,0 +1,238 @@
+package mjiricek.spring.warmup;
+
+import mjiricek.spring.admission.AdmissionControl;
+import mjiricek.spring.models.DBSnapshot;
+import mjiricek.spring.models.TenantRegistry;
+import mjiricek.spring.models.entities.Food;
+import mjiricek.spring.models.query.FoodField;
+import mjiricek.spring.monitoring.LatencyMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.env.Environment;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Warm-up of the JIT compiler before the application reports readiness
+ * - right after the start the code runs interpreted (then compiled without the full optimizations),
+ * so the first thousands of requests are several times slower than the later ones
+ * - the warm-up sends read-only requests of the pages and the API to the application itself (over http,
+ * so the whole path is exercised: controllers, storage engine scans, search cache, template rendering)
+ * - the requests go to a scratch tenant with a copy of the default table (TenantRegistry.createScratch),
+ * so the real data, their search cache and change log aren't touched; the copy is dropped afterwards
+ * (the scratch tenant is an in-memory DBSimulator, whatever engine the default tenant uses)
+ * - Spring Boot runs the application runners before it switches the readiness to ACCEPTING_TRAFFIC
+ * (GET /api/ready), so a load balancer sends the traffic only to a warmed-up instance
+ * - stops after the given number of iterations (each is one request of every kind) or after
+ * the maximal duration, whichever comes first; the latency histograms and the admission limits
+ * are reset afterwards (the warm-up traffic isn't representative)
+ */
+public class WarmUp implements ApplicationRunner {
+    /**
+     * logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WarmUp.class);
+
+    /**
+     * number of names of the table the searches choose from
+     */
+    private static final int SAMPLE_NAMES = 1000;
+
+    /**
+     * ranked nutrients of the top-k page and fields of the filters
+     */
+    private static final FoodField[] NUTRIENTS = {FoodField.KCAL, FoodField.PROTEIN, FoodField.CARB, FoodField.FAT};
+
+    /**
+     * registry the scratch tenant is created in
+     */
+    private final TenantRegistry tenantRegistry;
+
+    /**
+     * histograms of the request latencies (reset after the warm-up)
+     */
+    private final LatencyMonitor latencyMonitor;
+
+    /**
+     * admission control of the requests (reset after the warm-up)
+     */
+    private final AdmissionControl admissionControl;
+
+    /**
+     * environment of the application (port of the web server)
+     */
+    private final Environment environment;
+
+    /**
+     * number of iterations, 0 = no warm-up
+     */
+    private final int iterations;
+
+    /**
+     * maximal duration in milliseconds
+     */
+    private final long maxDurationMillis;
+
+    /**
+     * result of the warm-up (empty until it's finished)
+     */
+    private volatile Map<String, Object> report = Collections.emptyMap();
+
+    /**
+     * Constructor
+     * @param tenantRegistry registry the scratch tenant is created in
+     * @param latencyMonitor histograms of the request latencies
+     * @param admissionControl admission control of the requests
+     * @param environment environment of the application
+     * @param iterations number of iterations, 0 = no warm-up
+     * @param maxDurationMillis maximal duration in milliseconds
+     */
+    public WarmUp(TenantRegistry tenantRegistry, LatencyMonitor latencyMonitor, AdmissionControl admissionControl,
+                  Environment environment, int iterations, long maxDurationMillis) {
+        this.tenantRegistry = tenantRegistry;
+        this.latencyMonitor = latencyMonitor;
+        this.admissionControl = admissionControl;
+        this.environment = environment;
+        this.iterations = iterations;
+        this.maxDurationMillis = maxDurationMillis;
+    }
+
+    /**
+     * runs the warm-up (called by Spring Boot after the start of the web server, before readiness)
+     * - a failure of the warm-up is logged, it doesn't stop the application
+     * @param args arguments of the application
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        if (iterations <= 0)
+            return;
+
+        long start = System.nanoTime();
+        String tenantId = "warmup-" + Long.toHexString(ThreadLocalRandom.current().nextLong() >>> 1);
+        Map<String, Object> result = new LinkedHashMap<>();
+        try {
+            DBSnapshot copy = tenantRegistry.getDefaultTenant().getStorageEngine().takeSnapshot();
+            tenantRegistry.createScratch(tenantId, copy);
+            result.put("rows", copy.getRows().size());
+            result.putAll(exercise(tenantId, sampleNames(copy.getRows()), start));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Warm-up failed, the application continues without it", e);
+            result.put("error", e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.put("error", "interrupted");
+        } finally {
+            tenantRegistry.discard(tenantId);
+        }
+        latencyMonitor.readAndReset();
+        admissionControl.reset();
+
+        long durationMillis = (System.nanoTime() - start) / 1_000_000;
+        result.put("durationMillis", durationMillis);
+        report = Collections.unmodifiableMap(result);
+        LOGGER.info("Warm-up finished in {} ms: {}", durationMillis, report);
+    }
+
+    /**
+     * sends the requests of the iterations to the scratch tenant
+     * @param tenantId id of the scratch tenant
+     * @param names names of the table the searches choose from
+     * @param start start of the warm-up (System.nanoTime())
+     * @return numbers of the iterations, requests and failed requests
+     * @throws IOException if the application can't be reached
+     * @throws InterruptedException if interrupted while waiting for a response
+     */
+    private Map<String, Object> exercise(String tenantId, List<String> names, long start)
+            throws IOException, InterruptedException {
+        String base = "http://localhost:" + environment.getProperty("local.server.port", "8080");
+        String pages = base + "/t/" + tenantId;
+        HttpClient client = HttpClient.newHttpClient();
+        Random random = new Random(42);
+        long deadline = start + maxDurationMillis * 1_000_000;
+
+        int iteration = 0;
+        int requests = 0;
+        int failed = 0;
+        for (; iteration < iterations && System.nanoTime() < deadline; iteration++) {
+            String name = names.isEmpty() ? "apple" : names.get(random.nextInt(names.size()));
+            String nutrient = NUTRIENTS[random.nextInt(NUTRIENTS.length)].getKeyword();
+            String filter = nutrient + ">" + random.nextInt(300);
+            String[] urls = {
+                    pages + "/?view=" + random.nextInt(100),
+                    pages + "/search?searchedName=" + encode(name),
+                    pages + "/search?filter=" + encode(filter) + "&view=" + random.nextInt(3),
+                    pages + "/top?nutrient=" + nutrient + "&k=" + (10 + random.nextInt(40)),
+                    base + "/api/autocomplete?prefix=" + encode(name.substring(0, Math.min(name.length(), 1 + random.nextInt(3)))),
+                    base + "/api/foods?limit=50&filter=" + encode(filter)};
+            for (String url : urls) {
+                HttpRequest request = HttpRequest.newBuilder(URI.create(url)).header("X-Tenant", tenantId).build();
+                if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() != 200)
+                    failed++;
+                requests++;
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("iterations", iteration);
+        result.put("requests", requests);
+        result.put("failedRequests", failed);
+        return result;
+    }
+
+    /**
+     * picks names of the table evenly from the whole table
+     * @param rows rows of the table
+     * @return at most SAMPLE_NAMES names
+     */
+    private static List<String> sampleNames(List<Food> rows) {
+        int step = Math.max(1, rows.size() / SAMPLE_NAMES);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i += step)
+            names.add(rows.get(i).getFoodName());
+        return names;
+    }
+
+    /**
+     * encodes value of an url parameter
+     * @param value value
+     * @return encoded value
+     */
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * returns result of the warm-up
+     * @return map with the numbers of rows, iterations, requests, failed requests and the duration
+     * (empty while the warm-up runs or if it's disabled)
+     */
+    public Map<String, Object> getReport() {
+        return report;
+    }
+
+    /**
+     * custom toString method for general debugging purposes
+     * @return String with the settings and the result
+     */
+    @Override
+    public String toString() {
+        return String.format("Printout of WarmUp " + super.toString() + ":%n" +
+                "iterations: " + iterations + ", max duration: " + maxDurationMillis + " ms%n" +
+                "report: " + report + "%n");
+    }
+}
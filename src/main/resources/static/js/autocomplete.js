@@ -0,0 +1,30 @@
+// autocomplete of the food names in the search bar
+// - the only script of the application, the pages work without it (it just fills suggestions of the <datalist>)
+// - input with attribute data-autocomplete="<datalist id>" asks /api/autocomplete on every keystroke
+// - pages of a tenant (/t/<tenant>/...) ask the autocomplete of their tenant
+var tenantPrefix = (location.pathname.match(/^\/t\/[^/]+/) || [""])[0];
+document.querySelectorAll("input[data-autocomplete]").forEach(function (input) {
+  var datalist = document.getElementById(input.dataset.autocomplete);
+  var lastRequest = 0; // responses of older requests are ignored (they may arrive out of order)
+
+  input.addEventListener("input", function () {
+    var prefix = input.value;
+    var request = ++lastRequest;
+    if (prefix === "") {
+      datalist.replaceChildren();
+      return;
+    }
+    fetch(tenantPrefix + "/api/autocomplete?limit=10&prefix=" + encodeURIComponent(prefix))
+      .then(function (response) { return response.ok ? response.json() : []; })
+      .then(function (names) {
+        if (request !== lastRequest)
+          return;
+        datalist.replaceChildren.apply(datalist, names.map(function (name) {
+          var option = document.createElement("option");
+          option.value = name;
+          return option;
+        }));
+      })
+      .catch(function () { /* suggestions are optional */ });
+  });
+});